@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+/**
+ * An array-to-array stage of a {@link CodecChain} that transforms the
+ * elements of a {@link DataBlock} before they are serialized, e.g. a delta
+ * filter. The number of elements and their size in bytes do not change, the
+ * encoded elements may be of another type, e.g. the raw bits of floating
+ * point values.
+ */
+public interface ArrayCodec {
+
+	/**
+	 * @param dataBlock
+	 *            the data block, is not modified
+	 * @param <T>
+	 *            the block data type
+	 * @return a data block with the encoded elements
+	 */
+	public <T> DataBlock<?> encode(final DataBlock<T> dataBlock);
+
+	/**
+	 * Creates the data block that the encoded elements of a data block are
+	 * read into, the data block itself if the codec decodes in place.
+	 *
+	 * @param dataBlock
+	 *            the data block
+	 * @return the data block for the encoded elements
+	 */
+	public DataBlock<?> createEncodedBlock(final DataBlock<?> dataBlock);
+
+	/**
+	 * Decodes the elements of an encoded block into a data block.
+	 *
+	 * @param encoded
+	 *            the encoded block created by
+	 *            {@link #createEncodedBlock(DataBlock)}, may be modified
+	 * @param dataBlock
+	 *            the data block
+	 * @param <T>
+	 *            the block data type
+	 */
+	public <T> void decode(final DataBlock<?> encoded, final DataBlock<T> dataBlock);
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.util.Arrays;
+
+/**
+ * A block of a dataset identified by normalized dataset path and grid
+ * position.
+ */
+final class BlockKey {
+
+	final String normalPath;
+
+	final long[] gridPosition;
+
+	private final int hash;
+
+	BlockKey(final String normalPath, final long[] gridPosition) {
+
+		this.normalPath = normalPath;
+		this.gridPosition = gridPosition.clone();
+		hash = 31 * normalPath.hashCode() + Arrays.hashCode(gridPosition);
+	}
+
+	/**
+	 * @param normalGroupPath normalized group path
+	 * @return true if this block belongs to the group or one of its
+	 *         descendants
+	 */
+	boolean isIn(final String normalGroupPath) {
+
+		return normalGroupPath.isEmpty() ||
+				normalPath.equals(normalGroupPath) ||
+				normalPath.startsWith(normalGroupPath.endsWith("/") ? normalGroupPath : normalGroupPath + "/");
+	}
+
+	@Override
+	public int hashCode() {
+
+		return hash;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+
+		if (!(other instanceof BlockKey))
+			return false;
+		final BlockKey key = (BlockKey)other;
+		return hash == key.hash && normalPath.equals(key.normalPath) && Arrays.equals(gridPosition, key.gridPosition);
+	}
+}
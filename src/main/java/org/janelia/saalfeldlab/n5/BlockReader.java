@@ -27,6 +27,7 @@ package org.janelia.saalfeldlab.n5;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for block readers that can read a {@link DataBlock} from an
@@ -51,4 +52,26 @@ public interface BlockReader {
 	 *             the exception
 	 */
 	public <T, B extends DataBlock<T>> void read(final B dataBlock, final InputStream in) throws IOException;
+
+	/**
+	 * Reads a {@link DataBlock} from the remaining bytes of a
+	 * {@link ByteBuffer}. The default implementation reads through an
+	 * {@link InputStream}, implementations that can decode directly from the
+	 * buffer should override this.
+	 *
+	 * @param dataBlock
+	 *            the data block
+	 * @param buffer
+	 *            the byte buffer
+	 * @param <T>
+	 *            the block data type
+	 * @param <B>
+	 *            the block type
+	 * @throws IOException
+	 *             the exception
+	 */
+	public default <T, B extends DataBlock<T>> void read(final B dataBlock, final ByteBuffer buffer) throws IOException {
+
+		read(dataBlock, new ByteBufferInputStream(buffer));
+	}
 }
\ No newline at end of file
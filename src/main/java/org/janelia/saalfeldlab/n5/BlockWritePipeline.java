@@ -0,0 +1,554 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.cache.BlockExistenceIndex;
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
+
+/**
+ * Writes {@link DataBlock DataBlocks} through a two-stage pipeline.
+ * Serialization and compression of blocks runs on a pool of encoder
+ * threads, the encoded bytes are then handed over to a pool of writer
+ * threads that store them through the {@link KeyValueAccess} of the
+ * {@link GsonKeyValueN5Writer}. This way, a slow codec does not stall I/O
+ * and slow I/O does not stall compression.
+ *
+ * Both stages are joined by bounded queues. When a queue is full,
+ * {@link #writeBlock(String, DatasetAttributes, DataBlock)} (for the encoder
+ * stage) or the encoder threads (for the writer stage) block until there is
+ * room, such that memory consumption stays bounded when producers are
+ * faster than the pipeline.
+ *
+ * Blocks of sharded datasets are collected per shard. While a shard is
+ * being written, blocks that arrive for the same shard are queued and
+ * written together in one more rewrite of the shard.
+ *
+ * Blocks are encoded concurrently, but writes of the same grid position are
+ * stored in the order in which they were passed to
+ * {@link #writeBlock(String, DatasetAttributes, DataBlock)}. A block whose
+ * encoding finishes after a later block of the same position was stored is
+ * not stored, its future completes normally.
+ *
+ * Failures are reported per block through the returned futures and
+ * collectively by {@link #flush()} and {@link #close()}.
+ */
+public class BlockWritePipeline implements Closeable {
+
+	protected final GsonKeyValueN5Writer n5;
+
+	protected final ThreadPoolExecutor encoders;
+
+	protected final ThreadPoolExecutor writers;
+
+	protected final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+
+	/* pending updates by shard path, guarded by itself */
+	protected final HashMap<String, ShardUpdate> shardUpdates = new HashMap<>();
+
+	/* versions of blocks with pending writes by block path, guarded by itself */
+	protected final HashMap<String, BlockVersions> versions = new HashMap<>();
+
+	/**
+	 * Creates a {@link BlockWritePipeline}.
+	 *
+	 * @param n5
+	 *            the writer
+	 * @param numEncoderThreads
+	 *            number of threads that serialize and compress blocks
+	 * @param numWriterThreads
+	 *            number of threads that write encoded blocks
+	 * @param queueCapacity
+	 *            maximum number of blocks waiting in each stage
+	 */
+	public BlockWritePipeline(
+			final GsonKeyValueN5Writer n5,
+			final int numEncoderThreads,
+			final int numWriterThreads,
+			final int queueCapacity) {
+
+		this.n5 = n5;
+		encoders = createStage("n5-block-encoder", numEncoderThreads, queueCapacity);
+		writers = createStage("n5-block-writer", numWriterThreads, queueCapacity);
+	}
+
+	/**
+	 * Creates a {@link BlockWritePipeline} with one encoder thread per
+	 * available processor, as many writer threads, and queues that hold two
+	 * blocks per thread.
+	 *
+	 * @param n5
+	 *            the writer
+	 */
+	public BlockWritePipeline(final GsonKeyValueN5Writer n5) {
+
+		this(
+				n5,
+				Runtime.getRuntime().availableProcessors(),
+				Runtime.getRuntime().availableProcessors(),
+				2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	protected static ThreadPoolExecutor createStage(final String name, final int numThreads, final int queueCapacity) {
+
+		final AtomicInteger i = new AtomicInteger();
+
+		/* wait for room in the queue instead of rejecting the task */
+		final RejectedExecutionHandler blockingHandler = (task, executor) -> {
+			if (executor.isShutdown())
+				throw new RejectedExecutionException("Pipeline is closed.");
+			try {
+				executor.getQueue().put(task);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
+			}
+		};
+
+		return new ThreadPoolExecutor(
+				numThreads,
+				numThreads,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity),
+				r -> {
+					final Thread thread = new Thread(r, name + "-" + i.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				},
+				blockingHandler);
+	}
+
+	/**
+	 * Queues a {@link DataBlock} for writing. Blocks if the encoder queue is
+	 * full.
+	 *
+	 * @param <T>
+	 *            the data block data type
+	 * @param path
+	 *            dataset path
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @param dataBlock
+	 *            the data block, must not be modified until the returned
+	 *            future has completed
+	 * @return a future that completes when the block has been written, or
+	 *         exceptionally with an {@link N5IOException} if writing this
+	 *         block failed
+	 * @throws N5Exception
+	 *             if the pipeline is closed or the calling thread was
+	 *             interrupted while waiting
+	 */
+	public <T> CompletableFuture<Void> writeBlock(
+			final String path,
+			final DatasetAttributes datasetAttributes,
+			final DataBlock<T> dataBlock) throws N5Exception {
+
+		final String normalPath = N5URI.normalizeGroupPath(path);
+		final String blockPath = n5.absoluteDataBlockPath(normalPath, dataBlock.getGridPosition());
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		final BlockVersions blockVersions;
+		final long version;
+		synchronized (versions) {
+			blockVersions = versions.computeIfAbsent(blockPath, k -> new BlockVersions());
+			version = ++blockVersions.submitted;
+			++blockVersions.pending;
+		}
+		pending.add(future);
+		future.whenComplete((v, e) -> {
+			release(blockPath, blockVersions);
+			if (e == null)
+				pending.remove(future);
+		});
+
+		try {
+			encoders.execute(() -> encode(normalPath, datasetAttributes, dataBlock, blockVersions, version, future));
+		} catch (final RejectedExecutionException e) {
+			pending.remove(future);
+			release(blockPath, blockVersions);
+			throw new N5Exception("Failed to queue block " + Arrays.toString(dataBlock.getGridPosition()), e);
+		}
+		return future;
+	}
+
+	/**
+	 * Versions of the writes of one block. A write is stored only if no
+	 * later write of the block was stored before, such that the last block
+	 * passed to the pipeline wins.
+	 */
+	protected static class BlockVersions {
+
+		/* the version of the last submitted write */
+		protected long submitted = 0;
+
+		/* the version of the last stored write, guarded by this */
+		protected long stored = 0;
+
+		/* the number of writes that have not completed */
+		protected int pending = 0;
+
+		/**
+		 * Marks a version as stored unless a later version was stored.
+		 * Must be called while holding the lock of this.
+		 *
+		 * @return whether the version is to be stored
+		 */
+		protected boolean store(final long version) {
+
+			if (version < stored)
+				return false;
+			stored = version;
+			return true;
+		}
+	}
+
+	private void release(final String blockPath, final BlockVersions blockVersions) {
+
+		synchronized (versions) {
+			if (--blockVersions.pending == 0)
+				versions.remove(blockPath, blockVersions);
+		}
+	}
+
+	protected <T> void encode(
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final DataBlock<T> dataBlock,
+			final BlockVersions blockVersions,
+			final long version,
+			final CompletableFuture<Void> future) {
+
+		try {
+			final boolean filled = FillValues.isFilled(datasetAttributes, dataBlock);
+			if (filled && !datasetAttributes.isSharded()) {
+				/* nothing to encode, the writer removes the stored block */
+				writers.execute(() -> elide(normalPath, datasetAttributes, dataBlock, blockVersions, version, future));
+				return;
+			}
+
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			if (!filled)
+				DefaultBlockWriter.writeBlock(bytes, datasetAttributes, dataBlock);
+			if (datasetAttributes.isSharded())
+				queueShardUpdate(normalPath, datasetAttributes, dataBlock.getGridPosition(), filled ? null : bytes.toByteArray(), blockVersions, version, future);
+			else
+				writers.execute(() -> write(normalPath, dataBlock.getGridPosition(), bytes, blockVersions, version, future));
+		} catch (final Throwable e) {
+			future.completeExceptionally(failure(normalPath, dataBlock.getGridPosition(), e));
+		}
+	}
+
+	protected void write(
+			final String normalPath,
+			final long[] gridPosition,
+			final ByteArrayOutputStream bytes,
+			final BlockVersions blockVersions,
+			final long version,
+			final CompletableFuture<Void> future) {
+
+		final String blockPath = n5.absoluteDataBlockPath(normalPath, gridPosition);
+		try {
+			/* writes of the same block are exclusive */
+			synchronized (blockVersions) {
+				if (blockVersions.store(version)) {
+					try (final LockedChannel lock = n5.getKeyValueAccess().lockForWriting(blockPath);
+							final OutputStream out = lock.newOutputStream()) {
+						bytes.writeTo(out);
+					}
+					add(normalPath, gridPosition);
+				}
+			}
+			future.complete(null);
+		} catch (final Throwable e) {
+			drop(normalPath, gridPosition);
+			future.completeExceptionally(failure(normalPath, gridPosition, e));
+		}
+	}
+
+	protected <T> void elide(
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final DataBlock<T> dataBlock,
+			final BlockVersions blockVersions,
+			final long version,
+			final CompletableFuture<Void> future) {
+
+		try {
+			synchronized (blockVersions) {
+				if (blockVersions.store(version))
+					n5.writeBlock(normalPath, datasetAttributes, dataBlock);
+			}
+			future.complete(null);
+		} catch (final Throwable e) {
+			future.completeExceptionally(failure(normalPath, dataBlock.getGridPosition(), e));
+		}
+	}
+
+	/**
+	 * Adds an encoded block to the pending update of its shard. If no
+	 * writer task is scheduled for the shard, one is scheduled.
+	 */
+	protected void queueShardUpdate(
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final long[] gridPosition,
+			final byte[] bytes,
+			final BlockVersions blockVersions,
+			final long version,
+			final CompletableFuture<Void> future) {
+
+		final int[] blocksPerShard = datasetAttributes.getBlocksPerShard();
+		final String shardPath = n5.absoluteDataBlockPath(normalPath, Shards.shardPosition(gridPosition, blocksPerShard));
+		final boolean schedule;
+		synchronized (shardUpdates) {
+			/* updates of a shard are accepted and written in order while holding the lock */
+			synchronized (blockVersions) {
+				if (!blockVersions.store(version)) {
+					/* a later write of the block was accepted already */
+					future.complete(null);
+					return;
+				}
+			}
+			ShardUpdate update = shardUpdates.get(shardPath);
+			schedule = update == null;
+			if (schedule) {
+				update = new ShardUpdate(normalPath, Shards.numBlocks(blocksPerShard));
+				shardUpdates.put(shardPath, update);
+			}
+			update.add(Shards.blockIndex(gridPosition, blocksPerShard), gridPosition, bytes, future);
+		}
+
+		if (schedule) {
+			try {
+				writers.execute(() -> writeShard(shardPath));
+			} catch (final Throwable e) {
+				final ShardUpdate update;
+				synchronized (shardUpdates) {
+					update = shardUpdates.remove(shardPath);
+				}
+				update.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending updates of a shard, one rewrite of the shard per
+	 * batch of blocks that arrived while the previous batch was written.
+	 */
+	protected void writeShard(final String shardPath) {
+
+		while (true) {
+			final ShardUpdate update;
+			synchronized (shardUpdates) {
+				update = shardUpdates.get(shardPath);
+				if (update.futures.isEmpty()) {
+					shardUpdates.remove(shardPath);
+					return;
+				}
+				shardUpdates.put(shardPath, new ShardUpdate(update.normalPath, update.numBlocks));
+			}
+
+			try {
+				KeyValueBlocks.updateShard(n5.getKeyValueAccess(), shardPath, update.numBlocks, update.blocks);
+			} catch (final Throwable e) {
+				update.fail(e);
+				continue;
+			}
+			update.complete();
+		}
+	}
+
+	/**
+	 * Encoded blocks waiting to be written into one shard, null bytes
+	 * remove a block.
+	 */
+	protected class ShardUpdate {
+
+		protected final String normalPath;
+
+		protected final int numBlocks;
+
+		protected final HashMap<Integer, byte[]> blocks = new HashMap<>();
+
+		protected final ArrayList<long[]> gridPositions = new ArrayList<>();
+
+		protected final ArrayList<Boolean> removed = new ArrayList<>();
+
+		protected final ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
+
+		protected ShardUpdate(final String normalPath, final int numBlocks) {
+
+			this.normalPath = normalPath;
+			this.numBlocks = numBlocks;
+		}
+
+		protected void add(
+				final int index,
+				final long[] gridPosition,
+				final byte[] bytes,
+				final CompletableFuture<Void> future) {
+
+			blocks.put(index, bytes);
+			gridPositions.add(gridPosition);
+			removed.add(bytes == null);
+			futures.add(future);
+		}
+
+		/**
+		 * Updates the block cache and index after the shard was written and
+		 * completes the futures.
+		 */
+		protected void complete() {
+
+			for (int i = 0; i < gridPositions.size(); ++i) {
+				if (removed.get(i))
+					remove(normalPath, gridPositions.get(i));
+				else
+					BlockWritePipeline.this.add(normalPath, gridPositions.get(i));
+			}
+			for (final CompletableFuture<Void> future : futures)
+				future.complete(null);
+		}
+
+		/**
+		 * Invalidates the cached blocks and the block index of the dataset
+		 * and completes the futures exceptionally.
+		 */
+		protected void fail(final Throwable e) {
+
+			for (int i = 0; i < futures.size(); ++i) {
+				drop(normalPath, gridPositions.get(i));
+				futures.get(i).completeExceptionally(failure(normalPath, gridPositions.get(i), e));
+			}
+		}
+	}
+
+	protected void invalidate(final String normalPath, final long[] gridPosition) {
+
+		final DataBlockCache blockCache = n5.getBlockCache();
+		if (blockCache != null)
+			blockCache.invalidate(normalPath, gridPosition);
+	}
+
+	protected void add(final String normalPath, final long[] gridPosition) {
+
+		invalidate(normalPath, gridPosition);
+		final BlockExistenceIndex blockIndex = n5.getBlockIndex();
+		if (blockIndex != null)
+			blockIndex.add(normalPath, gridPosition);
+	}
+
+	protected void remove(final String normalPath, final long[] gridPosition) {
+
+		invalidate(normalPath, gridPosition);
+		final BlockExistenceIndex blockIndex = n5.getBlockIndex();
+		if (blockIndex != null)
+			blockIndex.remove(normalPath, gridPosition);
+	}
+
+	/**
+	 * Invalidates a cached block and the block index of its dataset after
+	 * writing the block failed, such that the next read goes to storage.
+	 */
+	protected void drop(final String normalPath, final long[] gridPosition) {
+
+		invalidate(normalPath, gridPosition);
+		final BlockExistenceIndex blockIndex = n5.getBlockIndex();
+		if (blockIndex != null)
+			blockIndex.invalidate(normalPath);
+	}
+
+	protected static N5IOException failure(final String normalPath, final long[] gridPosition, final Throwable e) {
+
+		final N5IOException failure = new N5IOException(
+				"Failed to write block " + Arrays.toString(gridPosition) + " into dataset " + normalPath);
+		failure.initCause(e);
+		return failure;
+	}
+
+	/**
+	 * Waits until all queued blocks have been written.
+	 *
+	 * @throws N5IOException
+	 *             if any block queued since the last flush failed to write,
+	 *             the individual failures are attached as suppressed
+	 *             exceptions
+	 */
+	public void flush() throws N5IOException {
+
+		final ArrayList<Throwable> failures = new ArrayList<>();
+		for (final CompletableFuture<Void> future : new ArrayList<>(pending)) {
+			try {
+				future.join();
+			} catch (final CompletionException e) {
+				failures.add(e.getCause());
+			}
+			pending.remove(future);
+		}
+
+		if (!failures.isEmpty()) {
+			final N5IOException e = new N5IOException("Failed to write " + failures.size() + " blocks.");
+			for (final Throwable failure : failures)
+				e.addSuppressed(failure);
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until all queued blocks have been written and shuts down the
+	 * pipeline.
+	 *
+	 * @throws N5IOException
+	 *             if any block failed to write
+	 */
+	@Override
+	public void close() throws N5IOException {
+
+		try {
+			flush();
+		} finally {
+			encoders.shutdown();
+			writers.shutdown();
+		}
+	}
+}
@@ -43,7 +43,7 @@ public class ByteArrayDataBlock extends AbstractDataBlock<byte[]> {
 	@Override
 	public void readData(final ByteBuffer buffer) {
 
-		if (buffer.array() != getData())
+		if (!buffer.hasArray() || buffer.array() != getData())
 			buffer.get(getData());
 	}
 
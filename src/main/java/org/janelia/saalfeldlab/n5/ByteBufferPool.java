@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of {@link ByteBuffer ByteBuffers} for the serialized data of
+ * {@link DataBlock DataBlocks}, such that reading and writing blocks does
+ * not allocate a new buffer of the size of the block every time.
+ *
+ * Buffers are acquired with a capacity and must be released exactly once,
+ * when they are no longer used, e.g. after compression or decompression
+ * finished. The block readers and writers use the {@link #getDefault()
+ * default pool}, which can be replaced by a custom pool.
+ */
+public interface ByteBufferPool {
+
+	/**
+	 * Acquires a buffer with position 0, limit {@code capacity}, and big
+	 * endian byte order. Its content is undefined. The capacity of the
+	 * buffer can be larger than requested.
+	 *
+	 * @param capacity
+	 *            the number of bytes needed
+	 * @return the buffer
+	 */
+	public ByteBuffer acquire(final int capacity);
+
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used afterwards.
+	 * Pools may drop buffers they did not create.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 */
+	public void release(final ByteBuffer buffer);
+
+	/**
+	 * @return the pool used to read and write blocks
+	 */
+	public static ByteBufferPool getDefault() {
+
+		return ByteBufferPools.defaultPool;
+	}
+
+	/**
+	 * Replaces the pool used to read and write blocks, e.g. by a pool of
+	 * direct buffers or an instrumented pool.
+	 *
+	 * @param pool
+	 *            the pool
+	 */
+	public static void setDefault(final ByteBufferPool pool) {
+
+		if (pool == null)
+			throw new NullPointerException("pool");
+		ByteBufferPools.defaultPool = pool;
+	}
+}
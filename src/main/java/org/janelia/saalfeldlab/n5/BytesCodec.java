@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A bytes-to-bytes stage of a {@link CodecChain}, e.g. a shuffle, a
+ * checksum, or a compressor.
+ *
+ * Stages may return their input buffer or a view of it if they do not
+ * change the bytes, and must not modify the input buffer otherwise.
+ *
+ * Unlike the stream based {@link DefaultBlockReader} and
+ * {@link DefaultBlockWriter}, codecs work on {@link ByteBuffer ByteBuffers}
+ * that can be heap, direct, or memory mapped buffers, and can decode
+ * straight into the buffer of a {@link DataBlock}.
+ */
+public interface BytesCodec {
+
+	/**
+	 * @param bytes
+	 *            the bytes between position and limit are encoded
+	 * @param elementSize
+	 *            the size of the block's elements in bytes
+	 * @return the encoded bytes between position and limit
+	 * @throws IOException
+	 *             the exception
+	 */
+	public ByteBuffer encode(final ByteBuffer bytes, final int elementSize) throws IOException;
+
+	/**
+	 * @param bytes
+	 *            the bytes between position and limit are decoded
+	 * @param elementSize
+	 *            the size of the block's elements in bytes
+	 * @return the decoded bytes between position and limit
+	 * @throws IOException
+	 *             the exception
+	 */
+	public ByteBuffer decode(final ByteBuffer bytes, final int elementSize) throws IOException;
+
+	/**
+	 * Decodes into a buffer of known size, e.g. the buffer of a
+	 * {@link DataBlock}. Implementations that can decode into a given buffer
+	 * should override this to avoid the copy of the default implementation.
+	 *
+	 * @param src
+	 *            the bytes between position and limit are decoded, the
+	 *            buffer is not modified
+	 * @param dst
+	 *            receives the decoded bytes starting at its position, the
+	 *            position is advanced past the decoded bytes
+	 * @param elementSize
+	 *            the size of the block's elements in bytes
+	 * @throws IOException
+	 *             if the bytes cannot be decoded or do not fit into dst
+	 */
+	public default void decode(final ByteBuffer src, final ByteBuffer dst, final int elementSize) throws IOException {
+
+		final ByteBuffer decoded = decode(src, elementSize);
+		if (decoded.remaining() > dst.remaining())
+			throw new IOException("Decoded data exceeds the buffer by " + (decoded.remaining() - dst.remaining()) + " bytes.");
+		dst.put(decoded);
+	}
+}
@@ -185,13 +185,13 @@ public interface CachedGsonKeyValueN5Reader extends GsonKeyValueN5Reader, N5Json
 	@Override
 	default boolean isDatasetFromContainer(final String normalPathName) throws N5IOException {
 
-		return normalGetDatasetAttributes(normalPathName) != null;
+		return isDataset(GsonKeyValueN5Reader.super.getAttributes(normalPathName));
 	}
 
 	@Override
 	default boolean isDatasetFromAttributes(final String normalCacheKey, final JsonElement attributes) {
 
-		return isGroupFromAttributes(normalCacheKey, attributes) && createDatasetAttributes(attributes) != null;
+		return isGroupFromAttributes(normalCacheKey, attributes) && isDataset(attributes);
 	}
 
 	/**
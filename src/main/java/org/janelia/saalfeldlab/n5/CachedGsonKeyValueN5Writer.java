@@ -149,6 +149,11 @@ public interface CachedGsonKeyValueN5Writer extends CachedGsonKeyValueN5Reader,
 				getKeyValueAccess().delete(groupPath);
 		} catch (final IOException | UncheckedIOException e) {
 			throw new N5IOException("Failed to remove " + path, e);
+		} finally {
+			if (getBlockCache() != null)
+				getBlockCache().invalidateAll(normalPath);
+			if (getBlockIndex() != null)
+				getBlockIndex().invalidateAll(normalPath);
 		}
 
 		if (cacheMeta()) {
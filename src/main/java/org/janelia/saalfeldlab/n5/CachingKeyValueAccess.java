@@ -0,0 +1,566 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.charset.StandardCharsets;
+
+import org.janelia.saalfeldlab.n5.cache.LruCache;
+
+/**
+ * A {@link KeyValueAccess} decorator that caches the raw bytes of values
+ * read through another {@link KeyValueAccess}. For data blocks, these are
+ * the compressed bytes, so that a hit skips the backend and only pays for
+ * decompression. Compressed blocks are typically several times smaller than
+ * decoded blocks, such that this cache holds a larger working set than a
+ * {@link org.janelia.saalfeldlab.n5.cache.DataBlockCache} of the same size.
+ *
+ * Values are kept in heap or direct (off-heap) {@link ByteBuffer ByteBuffers}
+ * in an {@link LruCache} that evicts the least recently used values when the
+ * total size exceeds the capacity. Cached values are served by
+ * {@link LockedChannel#newByteBuffer()} without copying.
+ *
+ * On a miss, the value is read straight from the backend and the bytes
+ * that were read are cached when the channel is closed. Values that are
+ * too large for the cache or that are not read sequentially, such as shards
+ * from which a single block is read, are passed through without being
+ * cached or read any further than requested, such that range reads of
+ * the backend remain effective.
+ *
+ * Writes and deletes through this {@link CachingKeyValueAccess} invalidate
+ * the affected values, changes by other writers are not tracked. Channels
+ * for reading hold no lock on the backend, they serve a snapshot of the
+ * value that was read under a read lock.
+ */
+public class CachingKeyValueAccess implements KeyValueAccess {
+
+	/**
+	 * A {@link LockedChannel} on a cached value.
+	 */
+	protected static class CachedChannel implements LockedChannel {
+
+		private final ByteBuffer bytes;
+
+		protected CachedChannel(final ByteBuffer bytes) {
+
+			this.bytes = bytes;
+		}
+
+		@Override
+		public Reader newReader() throws IOException {
+
+			return new InputStreamReader(newInputStream(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public InputStream newInputStream() throws IOException {
+
+			return new ByteBufferInputStream(newByteBuffer());
+		}
+
+		@Override
+		public Writer newWriter() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public OutputStream newOutputStream() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public ByteBuffer newByteBuffer() {
+
+			return bytes.asReadOnlyBuffer();
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	/**
+	 * A {@link LockedChannel} for writing that invalidates the cached value
+	 * when it is opened and when it or its writer or output stream is
+	 * closed.
+	 */
+	protected class InvalidatingChannel implements LockedChannel {
+
+		private final String normalPath;
+
+		private final LockedChannel channel;
+
+		protected InvalidatingChannel(final String normalPath, final LockedChannel channel) {
+
+			this.normalPath = normalPath;
+			this.channel = channel;
+			cache.invalidate(normalPath);
+		}
+
+		@Override
+		public Reader newReader() throws IOException {
+
+			return channel.newReader();
+		}
+
+		@Override
+		public InputStream newInputStream() throws IOException {
+
+			return channel.newInputStream();
+		}
+
+		@Override
+		public Writer newWriter() throws IOException {
+
+			return new FilterWriter(channel.newWriter()) {
+
+				@Override
+				public void close() throws IOException {
+
+					try {
+						super.close();
+					} finally {
+						cache.invalidate(normalPath);
+					}
+				}
+			};
+		}
+
+		@Override
+		public OutputStream newOutputStream() throws IOException {
+
+			return new FilterOutputStream(channel.newOutputStream()) {
+
+				@Override
+				public void write(final byte[] b, final int off, final int len) throws IOException {
+
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+
+					try {
+						super.close();
+					} finally {
+						cache.invalidate(normalPath);
+					}
+				}
+			};
+		}
+
+		@Override
+		public ByteBuffer newByteBuffer() throws IOException {
+
+			return channel.newByteBuffer();
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			try {
+				channel.close();
+			} finally {
+				cache.invalidate(normalPath);
+			}
+		}
+	}
+
+	/**
+	 * A {@link LockedChannel} that reads straight from the backend on a
+	 * cache miss. The bytes that are read are recorded and cached when the
+	 * channel is closed, unless the value is too large for the cache or
+	 * was not read sequentially, e.g. because only one block of a shard was
+	 * read. Such values are not read any further than requested.
+	 */
+	protected class ReadThroughChannel implements LockedChannel {
+
+		private final String normalPath;
+
+		private final LockedChannel channel;
+
+		private final long stamp;
+
+		private InputStream in = null;
+
+		/* null if the value is not cacheable */
+		private ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+		private boolean closed = false;
+
+		protected ReadThroughChannel(final String normalPath, final LockedChannel channel, final long stamp) {
+
+			this.normalPath = normalPath;
+			this.channel = channel;
+			this.stamp = stamp;
+		}
+
+		@Override
+		public Reader newReader() throws IOException {
+
+			return new InputStreamReader(newInputStream(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public InputStream newInputStream() throws IOException {
+
+			if (in != null)
+				recorded = null;
+			in = channel.newInputStream();
+			final InputStream backend = in;
+			return new InputStream() {
+
+				@Override
+				public int read() throws IOException {
+
+					final int b = backend.read();
+					if (b != -1)
+						record(new byte[]{(byte)b}, 0, 1);
+					return b;
+				}
+
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException {
+
+					final int n = backend.read(b, off, len);
+					if (n > 0)
+						record(b, off, n);
+					return n;
+				}
+
+				@Override
+				public long skip(final long n) throws IOException {
+
+					recorded = null;
+					return backend.skip(n);
+				}
+
+				@Override
+				public int available() throws IOException {
+
+					return backend.available();
+				}
+
+				@Override
+				public void close() throws IOException {
+
+					ReadThroughChannel.this.close();
+				}
+			};
+		}
+
+		private void record(final byte[] b, final int off, final int len) {
+
+			if (recorded != null) {
+				if (recorded.size() + (long)len > cache.getMaxValueWeight())
+					recorded = null;
+				else
+					recorded.write(b, off, len);
+			}
+		}
+
+		@Override
+		public Writer newWriter() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public OutputStream newOutputStream() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		/**
+		 * Returns the backend's buffer and caches a copy of it if it fits
+		 * into the cache.
+		 */
+		@Override
+		public ByteBuffer newByteBuffer() throws IOException {
+
+			final ByteBuffer buffer = channel.newByteBuffer();
+			if (buffer == null || buffer.remaining() > cache.getMaxValueWeight())
+				return buffer;
+
+			final ByteBuffer bytes = allocate(buffer.remaining());
+			bytes.put(buffer.duplicate());
+			bytes.flip();
+			cache.put(normalPath, bytes, stamp);
+			recorded = null;
+			return bytes.asReadOnlyBuffer();
+		}
+
+		/**
+		 * Reads the rest of a sequentially read value that fits into the
+		 * cache, caches it, and closes the backend channel.
+		 */
+		@Override
+		public void close() throws IOException {
+
+			if (closed)
+				return;
+			closed = true;
+			try {
+				if (recorded != null) {
+					final InputStream rest = in == null ? channel.newInputStream() : in;
+					final byte[] b = new byte[8192];
+					for (int n = rest.read(b); n != -1 && recorded != null; n = rest.read(b))
+						record(b, 0, n);
+					if (recorded != null) {
+						final ByteBuffer bytes = allocate(recorded.size());
+						bytes.put(recorded.toByteArray());
+						bytes.flip();
+						cache.put(normalPath, bytes, stamp);
+					}
+				}
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	protected final KeyValueAccess keyValueAccess;
+
+	protected final boolean direct;
+
+	private final LruCache<String, ByteBuffer> cache;
+
+	/**
+	 * Creates a {@link CachingKeyValueAccess} that keeps values on the heap.
+	 *
+	 * @param keyValueAccess the backend
+	 * @param maxBytes the capacity in bytes
+	 */
+	public CachingKeyValueAccess(final KeyValueAccess keyValueAccess, final long maxBytes) {
+
+		this(keyValueAccess, maxBytes, false);
+	}
+
+	/**
+	 * Creates a {@link CachingKeyValueAccess}.
+	 *
+	 * @param keyValueAccess the backend
+	 * @param maxBytes the capacity in bytes
+	 * @param direct keep values in direct (off-heap) buffers
+	 */
+	public CachingKeyValueAccess(final KeyValueAccess keyValueAccess, final long maxBytes, final boolean direct) {
+
+		this.keyValueAccess = keyValueAccess;
+		this.direct = direct;
+		cache = new LruCache<>(maxBytes, 16, ByteBuffer::capacity);
+	}
+
+	/**
+	 * @return the backend
+	 */
+	public KeyValueAccess getKeyValueAccess() {
+
+		return keyValueAccess;
+	}
+
+	private ByteBuffer allocate(final int capacity) {
+
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	@Override
+	public LockedChannel lockForReading(final String normalPath) throws IOException {
+
+		final long stamp = cache.stamp(normalPath);
+		final ByteBuffer bytes = cache.getIfPresent(normalPath);
+		if (bytes != null)
+			return new CachedChannel(bytes);
+
+		return new ReadThroughChannel(normalPath, keyValueAccess.lockForReading(normalPath), stamp);
+	}
+
+	@Override
+	public LockedChannel tryLockForReading(final String normalPath) throws IOException {
+
+		final long stamp = cache.stamp(normalPath);
+		final ByteBuffer bytes = cache.getIfPresent(normalPath);
+		if (bytes != null)
+			return new CachedChannel(bytes);
+
+		final LockedChannel channel = keyValueAccess.tryLockForReading(normalPath);
+		return channel == null ? null : new ReadThroughChannel(normalPath, channel, stamp);
+	}
+
+	@Override
+	public LockedChannel lockForWriting(final String normalPath) throws IOException {
+
+		return new InvalidatingChannel(normalPath, keyValueAccess.lockForWriting(normalPath));
+	}
+
+	@Override
+	public void delete(final String normalPath) throws IOException {
+
+		try {
+			keyValueAccess.delete(normalPath);
+		} finally {
+			final String prefix = normalPath.endsWith("/") ? normalPath : normalPath + "/";
+			cache.invalidateIf(key -> key.equals(normalPath) || key.startsWith(prefix));
+		}
+	}
+
+	/**
+	 * Removes all cached values.
+	 */
+	public void clear() {
+
+		cache.clear();
+	}
+
+	/**
+	 * @return the number of cached values
+	 */
+	public int size() {
+
+		return cache.size();
+	}
+
+	/**
+	 * @return the total size of cached values in bytes
+	 */
+	public long getBytes() {
+
+		return cache.getWeight();
+	}
+
+	public long getHitCount() {
+
+		return cache.getHitCount();
+	}
+
+	public long getMissCount() {
+
+		return cache.getMissCount();
+	}
+
+	public long getEvictionCount() {
+
+		return cache.getEvictionCount();
+	}
+
+	/**
+	 * @return the ratio of hits to requests, or 0 if there were no requests
+	 */
+	public double getHitRatio() {
+
+		return cache.getHitRatio();
+	}
+
+	@Override
+	public String[] components(final String path) {
+
+		return keyValueAccess.components(path);
+	}
+
+	@Override
+	public String compose(final String... components) {
+
+		return keyValueAccess.compose(components);
+	}
+
+	@Override
+	public String compose(final URI uri, final String... components) {
+
+		return keyValueAccess.compose(uri, components);
+	}
+
+	@Override
+	public String parent(final String path) {
+
+		return keyValueAccess.parent(path);
+	}
+
+	@Override
+	public String relativize(final String path, final String base) {
+
+		return keyValueAccess.relativize(path, base);
+	}
+
+	@Override
+	public String normalize(final String path) {
+
+		return keyValueAccess.normalize(path);
+	}
+
+	@Override
+	public URI uri(final String normalPath) throws URISyntaxException {
+
+		return keyValueAccess.uri(normalPath);
+	}
+
+	@Override
+	public boolean exists(final String normalPath) {
+
+		return keyValueAccess.exists(normalPath);
+	}
+
+	@Override
+	public boolean isDirectory(final String normalPath) {
+
+		return keyValueAccess.isDirectory(normalPath);
+	}
+
+	@Override
+	public boolean isFile(final String normalPath) {
+
+		return keyValueAccess.isFile(normalPath);
+	}
+
+	@Override
+	public String[] listDirectories(final String normalPath) throws IOException {
+
+		return keyValueAccess.listDirectories(normalPath);
+	}
+
+	@Override
+	public String[] list(final String normalPath) throws IOException {
+
+		return keyValueAccess.list(normalPath);
+	}
+
+	@Override
+	public void createDirectories(final String normalPath) throws IOException {
+
+		keyValueAccess.createDirectories(normalPath);
+	}
+}
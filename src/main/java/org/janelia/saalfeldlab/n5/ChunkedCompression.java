@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.janelia.saalfeldlab.n5.Compression.CompressionType;
+
+/**
+ * Splits the serialized bytes of a block into chunks that are compressed
+ * independently and in parallel with another {@link Compression}, and
+ * decompressed in parallel in the same way. For very large blocks, this
+ * makes reading and writing a single block scale with the number of cores
+ * at the cost of a slightly lower compression ratio.
+ *
+ * The encoded block starts with a header of the number of chunks followed
+ * by the decoded and encoded length of each chunk as big endian ints, from
+ * which the offsets of the chunks follow. The encoded chunks follow the
+ * header. Chunks are compressed and decompressed as tasks of the common
+ * {@link java.util.concurrent.ForkJoinPool}.
+ */
+@CompressionType("chunked")
+public class ChunkedCompression implements BlockReader, BlockWriter, BytesCodec, Compression {
+
+	private static final long serialVersionUID = 3170528146237612405L;
+
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+	private static final RawCompression RAW = new RawCompression();
+
+	@CompressionParameter
+	private final Compression compression;
+
+	@CompressionParameter
+	private final int chunkSize;
+
+	/**
+	 * @param compression
+	 *            the compression of the chunks, a bytes-to-bytes codec
+	 * @param chunkSize
+	 *            the decoded size of the chunks in bytes, rounded down to a
+	 *            multiple of the element size
+	 * @throws IllegalArgumentException
+	 *             if the compression is not a bytes-to-bytes codec or the
+	 *             chunk size is not positive
+	 */
+	public ChunkedCompression(final Compression compression, final int chunkSize) {
+
+		if (!CodecChain.isBytesCodec(compression))
+			throw new IllegalArgumentException("Codec " + compression.getType() + " is not a bytes codec.");
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+
+		this.compression = compression;
+		this.chunkSize = chunkSize;
+	}
+
+	public ChunkedCompression(final Compression compression) {
+
+		this(compression, DEFAULT_CHUNK_SIZE);
+	}
+
+	public ChunkedCompression() {
+
+		this(new GzipCompression());
+	}
+
+	public Compression getCompression() {
+
+		return compression;
+	}
+
+	public int getChunkSize() {
+
+		return chunkSize;
+	}
+
+	@FunctionalInterface
+	private static interface ChunkCodec {
+
+		public void run() throws IOException;
+	}
+
+	/**
+	 * Encodes or decodes one chunk.
+	 */
+	@SuppressWarnings("serial")
+	private static class ChunkTask extends RecursiveAction {
+
+		private final ChunkCodec codec;
+
+		private IOException exception;
+
+		private ChunkTask(final ChunkCodec codec) {
+
+			this.codec = codec;
+		}
+
+		@Override
+		protected void compute() {
+
+			try {
+				codec.run();
+			} catch (final IOException e) {
+				exception = e;
+			}
+		}
+
+		/**
+		 * Runs tasks in parallel.
+		 */
+		private static void runAll(final ArrayList<ChunkTask> tasks) throws IOException {
+
+			ForkJoinTask.invokeAll(tasks);
+			for (final ChunkTask task : tasks)
+				if (task.exception != null)
+					throw task.exception;
+		}
+	}
+
+	private static ByteBuffer slice(final ByteBuffer bytes, final int offset, final int length) {
+
+		final ByteBuffer slice = bytes.duplicate();
+		slice.limit(offset + length).position(offset);
+		return slice.slice();
+	}
+
+	@Override
+	public ByteBuffer encode(final ByteBuffer bytes, final int elementSize) throws IOException {
+
+		if (chunkSize < 1)
+			throw new IOException("Invalid chunk size " + chunkSize);
+		final int size = Math.max(elementSize, chunkSize - chunkSize % elementSize);
+
+		final ArrayList<ChunkTask> tasks = new ArrayList<>();
+		final ArrayList<ByteBuffer> encoded = new ArrayList<>();
+		for (int offset = bytes.position(); offset < bytes.limit(); offset += size) {
+			final ByteBuffer chunk = slice(bytes, offset, Math.min(size, bytes.limit() - offset));
+			final int i = encoded.size();
+			encoded.add(null);
+			tasks.add(new ChunkTask(() -> encoded.set(i, CodecChain.encode(compression, chunk, elementSize))));
+		}
+		ChunkTask.runAll(tasks);
+
+		long length = 4 + 8L * encoded.size();
+		for (final ByteBuffer chunk : encoded)
+			length += chunk.remaining();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Encoded block too large for a buffer");
+
+		final ByteBuffer out = ByteBuffer.allocate((int)length);
+		out.putInt(encoded.size());
+		for (int i = 0, offset = bytes.position(); i < encoded.size(); ++i, offset += size) {
+			out.putInt(Math.min(size, bytes.limit() - offset));
+			out.putInt(encoded.get(i).remaining());
+		}
+		for (final ByteBuffer chunk : encoded)
+			out.put(chunk);
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * @return the decoded and encoded lengths of the chunks
+	 */
+	private static int[][] readHeader(final ByteBuffer bytes) throws IOException {
+
+		final ByteBuffer header = bytes.duplicate();
+		if (header.remaining() < 4)
+			throw new EOFException("Unexpected end of chunked data");
+		final int numChunks = header.getInt();
+		if (numChunks < 0 || numChunks > (header.remaining()) / 8)
+			throw new IOException("Chunked data is corrupted");
+
+		final int[][] lengths = new int[2][numChunks];
+		long encodedLength = 0;
+		for (int i = 0; i < numChunks; ++i) {
+			lengths[0][i] = header.getInt();
+			lengths[1][i] = header.getInt();
+			if (lengths[0][i] < 0 || lengths[1][i] < 0)
+				throw new IOException("Chunked data is corrupted");
+			encodedLength += lengths[1][i];
+		}
+		if (encodedLength > header.remaining())
+			throw new EOFException("Unexpected end of chunked data");
+		return lengths;
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer bytes, final int elementSize) throws IOException {
+
+		long length = 0;
+		for (final int chunkLength : readHeader(bytes)[0])
+			length += chunkLength;
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Decoded block too large for a buffer");
+
+		final ByteBuffer decoded = ByteBuffer.allocate((int)length);
+		decode(bytes, decoded, elementSize);
+		decoded.flip();
+		return decoded;
+	}
+
+	private void decodeChunk(final ByteBuffer chunk, final ByteBuffer target, final int elementSize) throws IOException {
+
+		if (compression instanceof BytesCodec)
+			((BytesCodec)compression).decode(chunk, target, elementSize);
+		else {
+			final ByteBuffer decoded = CodecChain.decode(compression, chunk, elementSize);
+			if (decoded.remaining() > target.remaining())
+				throw new IOException("Decoded data exceeds the buffer.");
+			target.put(decoded);
+		}
+		if (target.hasRemaining())
+			throw new EOFException("Unexpected end of chunk data");
+	}
+
+	@Override
+	public void decode(final ByteBuffer src, final ByteBuffer dst, final int elementSize) throws IOException {
+
+		final int[][] lengths = readHeader(src);
+		final int numChunks = lengths[0].length;
+
+		final ArrayList<ChunkTask> tasks = new ArrayList<>();
+		int in = src.position() + 4 + 8 * numChunks;
+		int out = dst.position();
+		for (int i = 0; i < numChunks; ++i) {
+			final int decodedLength = lengths[0][i];
+			if (decodedLength > dst.limit() - out)
+				throw new IOException("Decoded data exceeds the buffer.");
+			final ByteBuffer chunk = slice(src, in, lengths[1][i]);
+			final ByteBuffer target = slice(dst, out, decodedLength);
+			tasks.add(new ChunkTask(() -> decodeChunk(chunk, target, elementSize)));
+			in += lengths[1][i];
+			out += decodedLength;
+		}
+		ChunkTask.runAll(tasks);
+		dst.position(out);
+	}
+
+	@Override
+	public <T> void write(final DataBlock<T> dataBlock, final OutputStream out) throws IOException {
+
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.toByteBuffer(pool);
+		try {
+			CodecChain.write(this, buffer, CodecChain.elementSize(dataBlock), out);
+		} finally {
+			dataBlock.releaseByteBuffer(buffer, pool);
+		}
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final InputStream in) throws IOException {
+
+		CodecChain.readData(dataBlock, this, CodecChain.read(RAW, in, 1));
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final ByteBuffer buffer) throws IOException {
+
+		CodecChain.readData(dataBlock, this, buffer);
+	}
+
+	@Override
+	public ChunkedCompression getReader() {
+
+		return this;
+	}
+
+	@Override
+	public ChunkedCompression getWriter() {
+
+		return this;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+
+		if (other == null || other.getClass() != ChunkedCompression.class)
+			return false;
+		else {
+			final ChunkedCompression chunked = (ChunkedCompression)other;
+			return chunkSize == chunked.chunkSize && compression.equals(chunked.compression);
+		}
+	}
+}
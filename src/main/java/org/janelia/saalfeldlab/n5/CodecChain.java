@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.janelia.saalfeldlab.n5.Compression.CompressionType;
+
+/**
+ * A {@link Compression} that applies an ordered list of codecs, e.g. a
+ * delta filter, a shuffle, and a compressor.
+ *
+ * The chain starts with any number of {@link ArrayCodec ArrayCodecs} that
+ * transform the elements of a block, followed by bytes-to-bytes codecs that
+ * transform its serialized bytes. Bytes-to-bytes codecs are
+ * {@link BytesCodec BytesCodecs} or any {@link Compression} with a
+ * {@link DefaultBlockReader} and {@link DefaultBlockWriter}, such that all
+ * existing compressions can end a chain. Decoding applies the codecs in
+ * reverse order.
+ *
+ * Codecs hand over {@link ByteBuffer ByteBuffers}, codecs that do not change
+ * the bytes return them without copying. A chain with a single
+ * bytes-to-bytes codec reads and writes exactly like that codec alone, so
+ * existing datasets can add filters without changing their compression.
+ */
+@CompressionType("chain")
+public class CodecChain implements BlockReader, BlockWriter, Compression {
+
+	private static final long serialVersionUID = 2218453713470580390L;
+
+	private static final RawCompression RAW = new RawCompression();
+
+	@CompressionParameter
+	private final Compression[] codecs;
+
+	/**
+	 * @param codecs
+	 *            array-to-array codecs followed by bytes-to-bytes codecs
+	 * @throws IllegalArgumentException
+	 *             if a codec is not an array-to-array or bytes-to-bytes codec
+	 *             or an array-to-array codec follows a bytes-to-bytes codec
+	 */
+	public CodecChain(final Compression... codecs) {
+
+		this.codecs = codecs.clone();
+		try {
+			numArrayCodecs();
+		} catch (final IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	public CodecChain() {
+
+		this(new Compression[0]);
+	}
+
+	public Compression[] getCodecs() {
+
+		return codecs.clone();
+	}
+
+	/**
+	 * @return the number of leading array-to-array codecs
+	 */
+	private int numArrayCodecs() throws IOException {
+
+		int n = 0;
+		while (n < codecs.length && codecs[n] instanceof ArrayCodec)
+			++n;
+		for (int i = n; i < codecs.length; ++i)
+			if (codecs[i] instanceof ArrayCodec)
+				throw new IOException("Array codec " + codecs[i].getType() + " follows a bytes codec.");
+			else if (!isBytesCodec(codecs[i]))
+				throw new IOException("Codec " + codecs[i].getType() + " is neither an array nor a bytes codec.");
+		return n;
+	}
+
+	private Compression[] bytesCodecs(final int numArrayCodecs) {
+
+		if (numArrayCodecs == codecs.length)
+			return new Compression[]{RAW};
+		else
+			return Arrays.copyOfRange(codecs, numArrayCodecs, codecs.length);
+	}
+
+	@Override
+	public <T> void write(final DataBlock<T> dataBlock, final OutputStream out) throws IOException {
+
+		final int numArrayCodecs = numArrayCodecs();
+		DataBlock<?> encoded = dataBlock;
+		for (int i = 0; i < numArrayCodecs; ++i)
+			encoded = ((ArrayCodec)codecs[i]).encode(encoded);
+
+		final Compression[] bytesCodecs = bytesCodecs(numArrayCodecs);
+		if (bytesCodecs.length == 1) {
+			bytesCodecs[0].getWriter().write(encoded, out);
+			return;
+		}
+
+		final int elementSize = elementSize(encoded);
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer serialized = encoded.toByteBuffer(pool);
+		try {
+			ByteBuffer bytes = serialized;
+			for (int i = 0; i < bytesCodecs.length - 1; ++i)
+				bytes = encode(bytesCodecs[i], bytes, elementSize);
+			write(bytesCodecs[bytesCodecs.length - 1], bytes, elementSize, out);
+		} finally {
+			encoded.releaseByteBuffer(serialized, pool);
+		}
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final InputStream in) throws IOException {
+
+		final int numArrayCodecs = numArrayCodecs();
+		final DataBlock<?>[] blocks = createEncodedBlocks(dataBlock, numArrayCodecs);
+		final DataBlock<?> encoded = blocks[numArrayCodecs];
+		final Compression[] bytesCodecs = bytesCodecs(numArrayCodecs);
+		if (bytesCodecs.length == 1)
+			bytesCodecs[0].getReader().read(encoded, in);
+		else {
+			final int elementSize = elementSize(encoded);
+			readData(encoded, bytesCodecs, read(bytesCodecs[bytesCodecs.length - 1], in, elementSize), elementSize);
+		}
+		decodeArray(blocks, numArrayCodecs);
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final ByteBuffer buffer) throws IOException {
+
+		final int numArrayCodecs = numArrayCodecs();
+		final DataBlock<?>[] blocks = createEncodedBlocks(dataBlock, numArrayCodecs);
+		final DataBlock<?> encoded = blocks[numArrayCodecs];
+		final Compression[] bytesCodecs = bytesCodecs(numArrayCodecs);
+		if (bytesCodecs.length == 1)
+			bytesCodecs[0].getReader().read(encoded, buffer);
+		else {
+			final int elementSize = elementSize(encoded);
+			readData(encoded, bytesCodecs, decode(bytesCodecs[bytesCodecs.length - 1], buffer.slice(), elementSize), elementSize);
+		}
+		decodeArray(blocks, numArrayCodecs);
+	}
+
+	/**
+	 * Decodes the bytes with all but the last bytes-to-bytes codec, which
+	 * already decoded them, and reads them into the data block.
+	 */
+	private static <T> void readData(
+			final DataBlock<T> dataBlock,
+			final Compression[] bytesCodecs,
+			ByteBuffer bytes,
+			final int elementSize) throws IOException {
+
+		for (int i = bytesCodecs.length - 2; i > 0; --i)
+			bytes = decode(bytesCodecs[i], bytes, elementSize);
+		if (bytesCodecs[0] instanceof BytesCodec)
+			readData(dataBlock, (BytesCodec)bytesCodecs[0], bytes);
+		else {
+			bytes = decode(bytesCodecs[0], bytes, elementSize);
+			try {
+				dataBlock.readData(bytes);
+			} catch (final BufferUnderflowException e) {
+				throw (EOFException)new EOFException("Unexpected end of block data").initCause(e);
+			}
+		}
+	}
+
+	/**
+	 * Decodes bytes with a {@link BytesCodec} directly into the buffer of a
+	 * data block and reads them into the data block. Blocks that wrap their
+	 * data, e.g. {@link ByteArrayDataBlock}, are decoded without any copy.
+	 *
+	 * @param dataBlock
+	 *            the data block
+	 * @param codec
+	 *            the codec
+	 * @param bytes
+	 *            the encoded bytes between position and limit
+	 * @param <T>
+	 *            the block data type
+	 * @throws IOException
+	 *             if the bytes cannot be decoded or do not decode to the
+	 *             size of the data block
+	 */
+	static <T> void readData(final DataBlock<T> dataBlock, final BytesCodec codec, final ByteBuffer bytes) throws IOException {
+
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.acquireByteBuffer(pool);
+		try {
+			codec.decode(bytes, buffer, elementSize(dataBlock));
+			if (buffer.hasRemaining())
+				throw new EOFException("Unexpected end of block data");
+			buffer.rewind();
+			dataBlock.readData(buffer);
+		} finally {
+			dataBlock.releaseByteBuffer(buffer, pool);
+		}
+	}
+
+	/**
+	 * @return the data block followed by the blocks that the array codecs
+	 *         read their encoded elements into, the last one receives the
+	 *         decoded bytes
+	 */
+	private DataBlock<?>[] createEncodedBlocks(final DataBlock<?> dataBlock, final int numArrayCodecs) {
+
+		final DataBlock<?>[] blocks = new DataBlock<?>[numArrayCodecs + 1];
+		blocks[0] = dataBlock;
+		for (int i = 0; i < numArrayCodecs; ++i)
+			blocks[i + 1] = ((ArrayCodec)codecs[i]).createEncodedBlock(blocks[i]);
+		return blocks;
+	}
+
+	private void decodeArray(final DataBlock<?>[] blocks, final int numArrayCodecs) {
+
+		for (int i = numArrayCodecs - 1; i >= 0; --i)
+			((ArrayCodec)codecs[i]).decode(blocks[i + 1], blocks[i]);
+	}
+
+	@Override
+	public CodecChain getReader() {
+
+		return this;
+	}
+
+	@Override
+	public CodecChain getWriter() {
+
+		return this;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+
+		if (other == null || other.getClass() != CodecChain.class)
+			return false;
+		else
+			return Arrays.equals(codecs, ((CodecChain)other).codecs);
+	}
+
+	/**
+	 * A {@link ByteArrayOutputStream} whose bytes can be wrapped without
+	 * copying.
+	 */
+	private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+		private ExposedByteArrayOutputStream(final int size) {
+
+			super(size);
+		}
+
+		private ByteBuffer toByteBuffer() {
+
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	static boolean isBytesCodec(final Compression codec) {
+
+		return codec instanceof BytesCodec
+				|| (codec.getReader() instanceof DefaultBlockReader && codec.getWriter() instanceof DefaultBlockWriter);
+	}
+
+	static int elementSize(final DataBlock<?> dataBlock) {
+
+		final Object data = dataBlock.getData();
+		if (data instanceof short[])
+			return Short.BYTES;
+		else if (data instanceof int[])
+			return Integer.BYTES;
+		else if (data instanceof long[])
+			return Long.BYTES;
+		else if (data instanceof float[])
+			return Float.BYTES;
+		else if (data instanceof double[])
+			return Double.BYTES;
+		else
+			return 1;
+	}
+
+	/**
+	 * @return the bytes between position and limit in an array of exactly
+	 *         that length, the backing array if possible
+	 */
+	static byte[] toArray(final ByteBuffer bytes) {
+
+		if (bytes.hasArray() && bytes.arrayOffset() + bytes.position() == 0 && bytes.remaining() == bytes.array().length)
+			return bytes.array();
+
+		final byte[] array = new byte[bytes.remaining()];
+		bytes.duplicate().get(array);
+		return array;
+	}
+
+	/**
+	 * Writes the bytes between position and limit to an output stream
+	 * without changing the buffer.
+	 */
+	static void writeTo(final ByteBuffer bytes, final OutputStream out) throws IOException {
+
+		if (bytes.hasArray())
+			out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		else {
+			final ByteBuffer src = bytes.duplicate();
+			final byte[] chunk = new byte[Math.min(src.remaining(), 8192)];
+			while (src.hasRemaining()) {
+				final int n = Math.min(chunk.length, src.remaining());
+				src.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Fills the bytes between position and limit from an input stream
+	 * without changing the position of the buffer.
+	 *
+	 * @throws EOFException
+	 *             if the stream ends before the buffer is filled
+	 */
+	static void readFully(final InputStream in, final ByteBuffer bytes) throws IOException {
+
+		if (bytes.hasArray())
+			new DataInputStream(in).readFully(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		else {
+			final ByteBuffer dst = bytes.duplicate();
+			final byte[] chunk = new byte[Math.min(dst.remaining(), 8192)];
+			while (dst.hasRemaining()) {
+				final int n = in.read(chunk, 0, Math.min(chunk.length, dst.remaining()));
+				if (n == -1)
+					throw new EOFException();
+				dst.put(chunk, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Encodes bytes with a bytes-to-bytes codec.
+	 */
+	static ByteBuffer encode(final Compression codec, final ByteBuffer bytes, final int elementSize) throws IOException {
+
+		if (codec instanceof BytesCodec)
+			return ((BytesCodec)codec).encode(bytes, elementSize);
+
+		final ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream(bytes.remaining() / 2 + 64);
+		write(codec, bytes, elementSize, out);
+		return out.toByteBuffer();
+	}
+
+	/**
+	 * Encodes bytes with a bytes-to-bytes codec into an output stream and
+	 * closes it.
+	 */
+	static void write(final Compression codec, final ByteBuffer bytes, final int elementSize, final OutputStream out) throws IOException {
+
+		if (codec instanceof BytesCodec) {
+			try (final OutputStream o = out) {
+				writeTo(((BytesCodec)codec).encode(bytes, elementSize), o);
+				o.flush();
+			}
+		} else {
+			try (final OutputStream encoder = ((DefaultBlockWriter)codec.getWriter()).getOutputStream(out)) {
+				writeTo(bytes, encoder);
+				encoder.flush();
+			}
+		}
+	}
+
+	/**
+	 * Decodes bytes with a bytes-to-bytes codec.
+	 */
+	static ByteBuffer decode(final Compression codec, final ByteBuffer bytes, final int elementSize) throws IOException {
+
+		if (codec instanceof BytesCodec)
+			return ((BytesCodec)codec).decode(bytes, elementSize);
+		else
+			return read(codec, new ByteBufferInputStream(bytes), elementSize);
+	}
+
+	/**
+	 * Decodes all bytes of an input stream with a bytes-to-bytes codec and
+	 * closes it.
+	 */
+	static ByteBuffer read(final Compression codec, final InputStream in, final int elementSize) throws IOException {
+
+		final InputStream decoder = codec instanceof BytesCodec
+				? in
+				: ((DefaultBlockReader)codec.getReader()).getInputStream(in);
+		final ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream(8192);
+		try (final InputStream i = decoder) {
+			final byte[] buffer = new byte[8192];
+			for (int n = i.read(buffer); n != -1; n = i.read(buffer))
+				bytes.write(buffer, 0, n);
+		}
+		if (codec instanceof BytesCodec)
+			return ((BytesCodec)codec).decode(bytes.toByteBuffer(), elementSize);
+		else
+			return bytes.toByteBuffer();
+	}
+}
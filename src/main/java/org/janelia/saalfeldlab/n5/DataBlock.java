@@ -80,6 +80,50 @@ public interface DataBlock<T> {
 	 */
 	public ByteBuffer toByteBuffer();
 
+	/**
+	 * Like {@link #toByteBuffer()} but takes the buffer from a
+	 * {@link ByteBufferPool} if it does not map directly to the data object
+	 * of this data block. The buffer must be released with
+	 * {@link #releaseByteBuffer(ByteBuffer, ByteBufferPool)}.
+	 *
+	 * @param pool
+	 *            the pool
+	 * @return {@link ByteBuffer} containing data
+	 */
+	public default ByteBuffer toByteBuffer(final ByteBufferPool pool) {
+
+		return toByteBuffer();
+	}
+
+	/**
+	 * Returns a {@link ByteBuffer} of the serialized size of this data block
+	 * to {@link #readData(ByteBuffer) read} its data from, taken from a
+	 * {@link ByteBufferPool} if it does not map directly to the data object
+	 * of this data block. Its content is undefined. The buffer must be
+	 * released with {@link #releaseByteBuffer(ByteBuffer, ByteBufferPool)}.
+	 *
+	 * @param pool
+	 *            the pool
+	 * @return {@link ByteBuffer} of the serialized size
+	 */
+	public default ByteBuffer acquireByteBuffer(final ByteBufferPool pool) {
+
+		return toByteBuffer();
+	}
+
+	/**
+	 * Releases a buffer returned by {@link #toByteBuffer(ByteBufferPool)} or
+	 * {@link #acquireByteBuffer(ByteBufferPool)}. Implementations that take
+	 * buffers from the pool return them to the pool, the default
+	 * implementation does not take buffers from the pool and does nothing.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param pool
+	 *            the pool
+	 */
+	public default void releaseByteBuffer(final ByteBuffer buffer, final ByteBufferPool pool) {}
+
 	/**
 	 * Reads the data object of this data block from a {@link ByteBuffer}.
 	 *
@@ -39,6 +39,24 @@ import java.util.HashMap;
  * <li>{@link Compression} : compression</li>
  * </ol>
  *
+ * Optional dataset attributes:
+ *
+ * <ol>
+ * <li>int[] : shardSize</li>
+ * <li>Number : fillValue</li>
+ * </ol>
+ *
+ * If a shard size is set, blocks are not stored in individual files but
+ * grouped into shards, each shard holds a grid of blocks and an index of
+ * their offsets and lengths. The shard size is given in pixels and must be
+ * a multiple of the block size in every dimension.
+ *
+ * If a fill value is set, blocks whose elements all equal the fill value
+ * are not stored, writing such a block deletes it instead. Missing blocks
+ * can be read as blocks filled with the fill value with
+ * {@link N5Reader#readBlockOrFill(String, DatasetAttributes, long...)}.
+ * Fill values of floating point types are compared by their bits.
+ *
  * @author Stephan Saalfeld
  *
  */
@@ -50,6 +68,8 @@ public class DatasetAttributes implements Serializable {
 	public static final String BLOCK_SIZE_KEY = "blockSize";
 	public static final String DATA_TYPE_KEY = "dataType";
 	public static final String COMPRESSION_KEY = "compression";
+	public static final String SHARD_SIZE_KEY = "shardSize";
+	public static final String FILL_VALUE_KEY = "fillValue";
 
 	/* version 0 */
 	protected static final String compressionTypeKey = "compressionType";
@@ -58,6 +78,8 @@ public class DatasetAttributes implements Serializable {
 	private final int[] blockSize;
 	private final DataType dataType;
 	private final Compression compression;
+	private final int[] shardSize;
+	private final Number fillValue;
 
 	public DatasetAttributes(
 			final long[] dimensions,
@@ -65,10 +87,69 @@ public class DatasetAttributes implements Serializable {
 			final DataType dataType,
 			final Compression compression) {
 
+		this(dimensions, blockSize, dataType, compression, null);
+	}
+
+	/**
+	 * @param dimensions the dataset dimensions
+	 * @param blockSize the block size
+	 * @param dataType the data type
+	 * @param compression the compression
+	 * @param shardSize the shard size in pixels or null if blocks are not
+	 *            sharded
+	 * @throws IllegalArgumentException if the shard size is not a multiple of
+	 *             the block size
+	 */
+	public DatasetAttributes(
+			final long[] dimensions,
+			final int[] blockSize,
+			final DataType dataType,
+			final Compression compression,
+			final int[] shardSize) {
+
+		this(dimensions, blockSize, dataType, compression, shardSize, null);
+	}
+
+	/**
+	 * @param dimensions the dataset dimensions
+	 * @param blockSize the block size
+	 * @param dataType the data type
+	 * @param compression the compression
+	 * @param shardSize the shard size in pixels or null if blocks are not
+	 *            sharded
+	 * @param fillValue the fill value or null if all blocks are stored
+	 * @throws IllegalArgumentException if the shard size is not a multiple of
+	 *             the block size
+	 */
+	public DatasetAttributes(
+			final long[] dimensions,
+			final int[] blockSize,
+			final DataType dataType,
+			final Compression compression,
+			final int[] shardSize,
+			final Number fillValue) {
+
+		if (shardSize != null) {
+			if (shardSize.length != blockSize.length)
+				throw new IllegalArgumentException("Shard size " + Arrays.toString(shardSize) + " does not match block size " + Arrays.toString(blockSize));
+			for (int d = 0; d < shardSize.length; ++d)
+				if (shardSize[d] <= 0 || shardSize[d] % blockSize[d] != 0)
+					throw new IllegalArgumentException("Shard size " + Arrays.toString(shardSize) + " is not a multiple of block size " + Arrays.toString(blockSize));
+		}
+
 		this.dimensions = dimensions;
 		this.blockSize = blockSize;
 		this.dataType = dataType;
 		this.compression = compression;
+		this.shardSize = shardSize;
+
+		/* parsed numbers are converted to the type that holds all values */
+		if (fillValue == null)
+			this.fillValue = null;
+		else if (dataType == DataType.FLOAT32 || dataType == DataType.FLOAT64)
+			this.fillValue = fillValue.doubleValue();
+		else
+			this.fillValue = fillValue.longValue();
 	}
 
 	public long[] getDimensions() {
@@ -96,6 +177,42 @@ public class DatasetAttributes implements Serializable {
 		return dataType;
 	}
 
+	/**
+	 * @return the shard size in pixels or null if blocks are not sharded
+	 */
+	public int[] getShardSize() {
+
+		return shardSize;
+	}
+
+	/**
+	 * @return the fill value, a Double for floating point types and a Long
+	 *         otherwise, or null if all blocks are stored
+	 */
+	public Number getFillValue() {
+
+		return fillValue;
+	}
+
+	public boolean isSharded() {
+
+		return shardSize != null;
+	}
+
+	/**
+	 * @return the number of blocks per shard in each dimension or null if
+	 *         blocks are not sharded
+	 */
+	public int[] getBlocksPerShard() {
+
+		if (shardSize == null)
+			return null;
+
+		final int[] blocksPerShard = new int[shardSize.length];
+		Arrays.setAll(blocksPerShard, d -> shardSize[d] / blockSize[d]);
+		return blocksPerShard;
+	}
+
 	public HashMap<String, Object> asMap() {
 
 		final HashMap<String, Object> map = new HashMap<>();
@@ -103,6 +220,10 @@ public class DatasetAttributes implements Serializable {
 		map.put(BLOCK_SIZE_KEY, blockSize);
 		map.put(DATA_TYPE_KEY, dataType);
 		map.put(COMPRESSION_KEY, compression);
+		if (shardSize != null)
+			map.put(SHARD_SIZE_KEY, shardSize);
+		if (fillValue != null)
+			map.put(FILL_VALUE_KEY, fillValue);
 		return map;
 	}
 
@@ -111,7 +232,9 @@ public class DatasetAttributes implements Serializable {
 			final DataType dataType,
 			int[] blockSize,
 			Compression compression,
-			final String compressionVersion0Name) {
+			final String compressionVersion0Name,
+			final int[] shardSize,
+			final Number fillValue) {
 
 		if (blockSize == null)
 			blockSize = Arrays.stream(dimensions).mapToInt(a -> (int)a).toArray();
@@ -137,6 +260,6 @@ public class DatasetAttributes implements Serializable {
 			}
 		}
 
-		return new DatasetAttributes(dimensions, blockSize, dataType, compression);
+		return new DatasetAttributes(dimensions, blockSize, dataType, compression, shardSize, fillValue);
 	}
 }
@@ -26,8 +26,10 @@
 package org.janelia.saalfeldlab.n5;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 /**
@@ -45,12 +47,16 @@ public interface DefaultBlockReader extends BlockReader {
 			final B dataBlock,
 			final InputStream in) throws IOException {
 
-		final ByteBuffer buffer = dataBlock.toByteBuffer();
-		try (final InputStream inflater = getInputStream(in)) {
-			final DataInputStream dis = new DataInputStream(inflater);
-			dis.readFully(buffer.array());
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.acquireByteBuffer(pool);
+		try {
+			try (final InputStream inflater = getInputStream(in)) {
+				CodecChain.readFully(inflater, buffer);
+			}
+			dataBlock.readData(buffer);
+		} finally {
+			dataBlock.releaseByteBuffer(buffer, pool);
 		}
-		dataBlock.readData(buffer);
 	}
 
 	/**
@@ -95,4 +101,54 @@ public interface DefaultBlockReader extends BlockReader {
 		reader.read(dataBlock, in);
 		return dataBlock;
 	}
+
+	/**
+	 * Reads a {@link DataBlock} from the remaining bytes of a
+	 * {@link ByteBuffer}, e.g. a memory mapped file. The header is parsed
+	 * from the buffer directly and the payload is handed to the
+	 * {@link BlockReader} of the dataset's {@link Compression} without
+	 * copying it into an intermediate array first.
+	 *
+	 * @param buffer
+	 *            the byte buffer
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @param gridPosition
+	 *            the grid position
+	 * @return the block
+	 * @throws IOException
+	 *             the exception
+	 */
+	public static DataBlock<?> readBlock(
+			final ByteBuffer buffer,
+			final DatasetAttributes datasetAttributes,
+			final long[] gridPosition) throws IOException {
+
+		try {
+			final short mode = buffer.getShort();
+			final int numElements;
+			final DataBlock<?> dataBlock;
+			if (mode != 2) {
+				final int nDim = buffer.getShort();
+				final int[] blockSize = new int[nDim];
+				for (int d = 0; d < nDim; ++d)
+					blockSize[d] = buffer.getInt();
+				if (mode == 0) {
+					numElements = DataBlock.getNumElements(blockSize);
+				} else {
+					numElements = buffer.getInt();
+				}
+				dataBlock = datasetAttributes.getDataType().createDataBlock(blockSize, gridPosition, numElements);
+			} else {
+				numElements = buffer.getInt();
+				dataBlock = datasetAttributes.getDataType().createDataBlock(null, gridPosition, numElements);
+			}
+
+			final BlockReader reader = datasetAttributes.getCompression().getReader();
+			reader.read(dataBlock, buffer);
+			return dataBlock;
+		} catch (final BufferUnderflowException e) {
+			throw (EOFException)new EOFException("Unexpected end of block data").initCause(e);
+		}
+	}
 }
\ No newline at end of file
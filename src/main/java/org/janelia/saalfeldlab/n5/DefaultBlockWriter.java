@@ -45,10 +45,13 @@ public interface DefaultBlockWriter extends BlockWriter {
 			final DataBlock<T> dataBlock,
 			final OutputStream out) throws IOException {
 
-		final ByteBuffer buffer = dataBlock.toByteBuffer();
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.toByteBuffer(pool);
 		try (final OutputStream deflater = getOutputStream(out)) {
-			deflater.write(buffer.array());
+			CodecChain.writeTo(buffer, deflater);
 			deflater.flush();
+		} finally {
+			dataBlock.releaseByteBuffer(buffer, pool);
 		}
 	}
 
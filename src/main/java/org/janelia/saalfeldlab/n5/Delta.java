@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+/**
+ * Delta encoding of primitive arrays.
+ *
+ * Each element is replaced by its difference to the element {@code stride}
+ * positions before it, within runs of {@code period} elements such that the
+ * first {@code stride} elements of each run are stored as they are. A
+ * stride of 1 and a period of the array length is the delta of the
+ * flattened array, the stride and period of an axis of a block give the
+ * delta along that axis. Integers are subtracted with overflow, which is
+ * exact for signed and unsigned values. Floating point values are XORed
+ * with their predecessor's raw bits, which is exact for all values
+ * including NaNs and turns the common sign and exponent bits of similar
+ * values into zeros.
+ *
+ * The loops are branch-free over contiguous ranges so that the JIT can
+ * vectorize them. Encoding writes into a separate array, decoding works in
+ * place. Floating point values are encoded into and decoded from an integer
+ * array of their raw bits.
+ */
+final class Delta {
+
+	private Delta() {}
+
+	static void encode(final byte[] src, final byte[] dst, final int stride, final int period) {
+
+		for (int offset = 0; offset < src.length; offset += period) {
+			final int end = Math.min(offset + period, src.length);
+			final int first = Math.min(offset + stride, end);
+			for (int i = offset; i < first; ++i)
+				dst[i] = src[i];
+			for (int i = first; i < end; ++i)
+				dst[i] = (byte)(src[i] - src[i - stride]);
+		}
+	}
+
+	static void decode(final byte[] data, final int stride, final int period) {
+
+		for (int offset = 0; offset < data.length; offset += period) {
+			final int end = Math.min(offset + period, data.length);
+			for (int i = offset + stride; i < end; ++i)
+				data[i] += data[i - stride];
+		}
+	}
+
+	static void encode(final short[] src, final short[] dst, final int stride, final int period) {
+
+		for (int offset = 0; offset < src.length; offset += period) {
+			final int end = Math.min(offset + period, src.length);
+			final int first = Math.min(offset + stride, end);
+			for (int i = offset; i < first; ++i)
+				dst[i] = src[i];
+			for (int i = first; i < end; ++i)
+				dst[i] = (short)(src[i] - src[i - stride]);
+		}
+	}
+
+	static void decode(final short[] data, final int stride, final int period) {
+
+		for (int offset = 0; offset < data.length; offset += period) {
+			final int end = Math.min(offset + period, data.length);
+			for (int i = offset + stride; i < end; ++i)
+				data[i] += data[i - stride];
+		}
+	}
+
+	static void encode(final int[] src, final int[] dst, final int stride, final int period) {
+
+		for (int offset = 0; offset < src.length; offset += period) {
+			final int end = Math.min(offset + period, src.length);
+			final int first = Math.min(offset + stride, end);
+			for (int i = offset; i < first; ++i)
+				dst[i] = src[i];
+			for (int i = first; i < end; ++i)
+				dst[i] = src[i] - src[i - stride];
+		}
+	}
+
+	static void decode(final int[] data, final int stride, final int period) {
+
+		for (int offset = 0; offset < data.length; offset += period) {
+			final int end = Math.min(offset + period, data.length);
+			for (int i = offset + stride; i < end; ++i)
+				data[i] += data[i - stride];
+		}
+	}
+
+	static void encode(final long[] src, final long[] dst, final int stride, final int period) {
+
+		for (int offset = 0; offset < src.length; offset += period) {
+			final int end = Math.min(offset + period, src.length);
+			final int first = Math.min(offset + stride, end);
+			for (int i = offset; i < first; ++i)
+				dst[i] = src[i];
+			for (int i = first; i < end; ++i)
+				dst[i] = src[i] - src[i - stride];
+		}
+	}
+
+	static void decode(final long[] data, final int stride, final int period) {
+
+		for (int offset = 0; offset < data.length; offset += period) {
+			final int end = Math.min(offset + period, data.length);
+			for (int i = offset + stride; i < end; ++i)
+				data[i] += data[i - stride];
+		}
+	}
+
+	/**
+	 * Floating point values are converted to their raw bits once and XORed
+	 * as integers. The encoded bits are never converted back to floating
+	 * point values, which would not preserve all NaN payloads.
+	 */
+	static void encode(final float[] src, final int[] dst, final int stride, final int period) {
+
+		final int[] bits = new int[src.length];
+		for (int i = 0; i < src.length; ++i)
+			bits[i] = Float.floatToRawIntBits(src[i]);
+		encodeXor(bits, dst, stride, period);
+	}
+
+	static void decode(final int[] src, final float[] dst, final int stride, final int period) {
+
+		decodeXor(src, stride, period);
+		for (int i = 0; i < dst.length; ++i)
+			dst[i] = Float.intBitsToFloat(src[i]);
+	}
+
+	static void encode(final double[] src, final long[] dst, final int stride, final int period) {
+
+		final long[] bits = new long[src.length];
+		for (int i = 0; i < src.length; ++i)
+			bits[i] = Double.doubleToRawLongBits(src[i]);
+		encodeXor(bits, dst, stride, period);
+	}
+
+	static void decode(final long[] src, final double[] dst, final int stride, final int period) {
+
+		decodeXor(src, stride, period);
+		for (int i = 0; i < dst.length; ++i)
+			dst[i] = Double.longBitsToDouble(src[i]);
+	}
+
+	private static void encodeXor(final int[] src, final int[] dst, final int stride, final int period) {
+
+		for (int offset = 0; offset < src.length; offset += period) {
+			final int end = Math.min(offset + period, src.length);
+			final int first = Math.min(offset + stride, end);
+			for (int i = offset; i < first; ++i)
+				dst[i] = src[i];
+			for (int i = first; i < end; ++i)
+				dst[i] = src[i] ^ src[i - stride];
+		}
+	}
+
+	private static void decodeXor(final int[] data, final int stride, final int period) {
+
+		for (int offset = 0; offset < data.length; offset += period) {
+			final int end = Math.min(offset + period, data.length);
+			for (int i = offset + stride; i < end; ++i)
+				data[i] ^= data[i - stride];
+		}
+	}
+
+	private static void encodeXor(final long[] src, final long[] dst, final int stride, final int period) {
+
+		for (int offset = 0; offset < src.length; offset += period) {
+			final int end = Math.min(offset + period, src.length);
+			final int first = Math.min(offset + stride, end);
+			for (int i = offset; i < first; ++i)
+				dst[i] = src[i];
+			for (int i = first; i < end; ++i)
+				dst[i] = src[i] ^ src[i - stride];
+		}
+	}
+
+	private static void decodeXor(final long[] data, final int stride, final int period) {
+
+		for (int offset = 0; offset < data.length; offset += period) {
+			final int end = Math.min(offset + period, data.length);
+			for (int i = offset + stride; i < end; ++i)
+				data[i] ^= data[i - stride];
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.janelia.saalfeldlab.n5.Compression.CompressionType;
+
+/**
+ * Replaces the elements of a block by their differences to the previous
+ * element, an arithmetic difference for integer types and the XOR of the
+ * raw bits for {@link DataType#FLOAT32} and {@link DataType#FLOAT64}.
+ * Correlated neighbouring values, e.g. in label volumes or smooth intensity
+ * images, become small numbers or mostly zero bits that compressors encode
+ * much better than the values themselves.
+ *
+ * The previous element is the previous element in the flattened block or,
+ * if an axis is given, the previous element along that axis. Differences
+ * along a higher axis help where values are correlated across rows or
+ * slices.
+ *
+ * The filter is an {@link ArrayCodec} meant to run first in a
+ * {@link CodecChain}, e.g.
+ * {@code new CodecChain(new DeltaFilter(), new GzipCompression())}. On its
+ * own, it writes the differences uncompressed.
+ */
+@CompressionType("delta")
+public class DeltaFilter implements BlockReader, BlockWriter, ArrayCodec, Compression {
+
+	private static final long serialVersionUID = -4376049531278104305L;
+
+	private static final RawCompression RAW = new RawCompression();
+
+	@CompressionParameter
+	private final int axis;
+
+	/**
+	 * @param axis
+	 *            the axis along which differences are taken, or -1 for the
+	 *            flattened block
+	 */
+	public DeltaFilter(final int axis) {
+
+		if (axis < -1)
+			throw new IllegalArgumentException("Invalid delta axis " + axis);
+		this.axis = axis;
+	}
+
+	/**
+	 * Differences of the flattened block.
+	 */
+	public DeltaFilter() {
+
+		this(-1);
+	}
+
+	public int getAxis() {
+
+		return axis;
+	}
+
+	/**
+	 * @return the distance of neighbours along the axis in the flattened
+	 *         block
+	 */
+	private int stride(final DataBlock<?> dataBlock) {
+
+		if (axis < 0)
+			return 1;
+
+		final int[] size = dataBlock.getSize();
+		if (size == null || axis >= size.length)
+			throw new N5Exception("Delta axis " + axis + " is out of bounds for a block of dimension " + (size == null ? 0 : size.length));
+
+		int stride = 1;
+		for (int d = 0; d < axis; ++d)
+			stride *= size[d];
+		return stride;
+	}
+
+	/**
+	 * @return the number of elements after which differences restart
+	 */
+	private int period(final DataBlock<?> dataBlock, final int stride) {
+
+		if (axis < 0)
+			return Integer.MAX_VALUE;
+		else
+			return stride * dataBlock.getSize()[axis];
+	}
+
+	@Override
+	public <T> DataBlock<?> encode(final DataBlock<T> dataBlock) {
+
+		final int[] size = dataBlock.getSize();
+		final long[] gridPosition = dataBlock.getGridPosition();
+		final int stride = stride(dataBlock);
+		final int period = period(dataBlock, stride);
+		final Object data = dataBlock.getData();
+		if (data instanceof byte[]) {
+			final byte[] encoded = new byte[((byte[])data).length];
+			Delta.encode((byte[])data, encoded, stride, period);
+			return new ByteArrayDataBlock(size, gridPosition, encoded);
+		} else if (data instanceof short[]) {
+			final short[] encoded = new short[((short[])data).length];
+			Delta.encode((short[])data, encoded, stride, period);
+			return new ShortArrayDataBlock(size, gridPosition, encoded);
+		} else if (data instanceof int[]) {
+			final int[] encoded = new int[((int[])data).length];
+			Delta.encode((int[])data, encoded, stride, period);
+			return new IntArrayDataBlock(size, gridPosition, encoded);
+		} else if (data instanceof long[]) {
+			final long[] encoded = new long[((long[])data).length];
+			Delta.encode((long[])data, encoded, stride, period);
+			return new LongArrayDataBlock(size, gridPosition, encoded);
+		} else if (data instanceof float[]) {
+			/* the XORed bits are stored as integers */
+			final int[] encoded = new int[((float[])data).length];
+			Delta.encode((float[])data, encoded, stride, period);
+			return new IntArrayDataBlock(size, gridPosition, encoded);
+		} else if (data instanceof double[]) {
+			final long[] encoded = new long[((double[])data).length];
+			Delta.encode((double[])data, encoded, stride, period);
+			return new LongArrayDataBlock(size, gridPosition, encoded);
+		} else
+			throw new N5Exception("Delta encoding is not supported for " + data.getClass().getSimpleName() + " blocks");
+	}
+
+	/**
+	 * Integer blocks are decoded in place, floating point blocks are read
+	 * as the integer bits that {@link #encode(DataBlock)} stores.
+	 */
+	@Override
+	public DataBlock<?> createEncodedBlock(final DataBlock<?> dataBlock) {
+
+		final Object data = dataBlock.getData();
+		if (data instanceof float[])
+			return new IntArrayDataBlock(dataBlock.getSize(), dataBlock.getGridPosition(), new int[((float[])data).length]);
+		else if (data instanceof double[])
+			return new LongArrayDataBlock(dataBlock.getSize(), dataBlock.getGridPosition(), new long[((double[])data).length]);
+		else
+			return dataBlock;
+	}
+
+	@Override
+	public <T> void decode(final DataBlock<?> encoded, final DataBlock<T> dataBlock) {
+
+		final int stride = stride(dataBlock);
+		final int period = period(dataBlock, stride);
+		final Object data = dataBlock.getData();
+		if (data instanceof byte[])
+			Delta.decode((byte[])data, stride, period);
+		else if (data instanceof short[])
+			Delta.decode((short[])data, stride, period);
+		else if (data instanceof int[])
+			Delta.decode((int[])data, stride, period);
+		else if (data instanceof long[])
+			Delta.decode((long[])data, stride, period);
+		else if (data instanceof float[])
+			Delta.decode((int[])encoded.getData(), (float[])data, stride, period);
+		else if (data instanceof double[])
+			Delta.decode((long[])encoded.getData(), (double[])data, stride, period);
+		else
+			throw new N5Exception("Delta encoding is not supported for " + data.getClass().getSimpleName() + " blocks");
+	}
+
+	@Override
+	public <T> void write(final DataBlock<T> dataBlock, final OutputStream out) throws IOException {
+
+		RAW.write(encode(dataBlock), out);
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final InputStream in) throws IOException {
+
+		final DataBlock<?> encoded = createEncodedBlock(dataBlock);
+		RAW.read(encoded, in);
+		decode(encoded, dataBlock);
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final ByteBuffer buffer) throws IOException {
+
+		final DataBlock<?> encoded = createEncodedBlock(dataBlock);
+		RAW.read(encoded, buffer);
+		decode(encoded, dataBlock);
+	}
+
+	@Override
+	public DeltaFilter getReader() {
+
+		return this;
+	}
+
+	@Override
+	public DeltaFilter getWriter() {
+
+		return this;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+
+		if (other == null || other.getClass() != DeltaFilter.class)
+			return false;
+		else
+			return axis == ((DeltaFilter)other).axis;
+	}
+}
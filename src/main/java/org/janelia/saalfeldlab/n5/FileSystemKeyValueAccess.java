@@ -28,14 +28,15 @@ package org.janelia.saalfeldlab.n5;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.OverlappingFileLockException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileAlreadyExistsException;
@@ -45,11 +46,15 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 /**
@@ -61,16 +66,72 @@ import java.util.stream.Stream;
  */
 public class FileSystemKeyValueAccess implements KeyValueAccess {
 
+	/**
+	 * JVM-wide table of in-process locks, file locks are held by the entire
+	 * JVM and must therefore be coordinated across all instances.
+	 */
+	protected static final PathLockTable lockTable = new PathLockTable();
+
+	/**
+	 * When to force written data to the storage device.
+	 */
+	public enum FsyncPolicy {
+
+		/**
+		 * Never force, data is written to storage by the operating system
+		 * eventually. A crash may lose recent writes.
+		 */
+		NONE,
+
+		/**
+		 * Force the content of every written file before the lock is
+		 * released.
+		 */
+		FILE,
+
+		/**
+		 * Force the content of every written file and, for atomic writes,
+		 * the directory containing it after the file was moved into place,
+		 * such that the rename itself survives a crash.
+		 */
+		FILE_AND_DIRECTORY
+	}
+
 	/**
 	 * A {@link FileChannel} wrapper that attempts to acquire a lock and waits
-	 * for existing locks to be lifted before returning if the
-	 * {@link FileSystem} supports that. If the {@link FileSystem} does not
-	 * support locking, it returns immediately.
+	 * for existing locks to be lifted before returning. Threads of this JVM
+	 * are coordinated through an in-process lock table and share a single
+	 * channel per file, other processes are coordinated through a file lock
+	 * if the {@link FileSystem} supports that. If the {@link FileSystem}
+	 * does not support locking, only threads of this JVM are coordinated.
+	 *
+	 * Closing any of the readers, writers or streams created by this
+	 * channel releases the lock.
+	 *
+	 * With atomic writes, writers and output streams write to a sibling
+	 * temporary file that is moved over the target when the lock is
+	 * released. If the target does not exist yet, it is not created before
+	 * that and only threads of this JVM are coordinated.
 	 */
 	protected class LockedFileChannel implements LockedChannel {
 
+		/* null if writing atomically to a file that does not exist yet */
 		protected final FileChannel channel;
 
+		protected final Path path;
+
+		protected final String key;
+
+		protected final boolean readOnly;
+
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		private boolean written = false;
+
+		private Path tempPath = null;
+
+		private FileChannel tempChannel = null;
+
 		protected LockedFileChannel(final String path, final boolean readOnly) throws IOException {
 
 			this(fileSystem.getPath(path), readOnly);
@@ -78,75 +139,265 @@ public class FileSystemKeyValueAccess implements KeyValueAccess {
 
 		protected LockedFileChannel(final Path path, final boolean readOnly) throws IOException {
 
-			final OpenOption[] options;
-			if (readOnly) {
-				options = new OpenOption[]{StandardOpenOption.READ};
-				channel = FileChannel.open(path, options);
-			} else {
-				options = new OpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE,
-						StandardOpenOption.CREATE};
-				FileChannel tryChannel = null;
+			this.readOnly = readOnly;
+			this.path = path;
+			key = path.toAbsolutePath().normalize().toString();
+			channel = lockTable.acquire(key, readOnly, () -> open(path, readOnly));
+		}
+
+		/**
+		 * Wraps a channel without acquiring any lock. The channel is owned by
+		 * this {@link LockedFileChannel} and closed with it.
+		 *
+		 * @param channel the channel
+		 */
+		protected LockedFileChannel(final FileChannel channel) {
+
+			this.channel = channel;
+			path = null;
+			key = null;
+			readOnly = true;
+		}
+
+		protected FileChannel open(final Path path, final boolean readOnly) throws IOException {
+
+			if (readOnly)
+				return FileChannel.open(path, StandardOpenOption.READ);
+
+			if (atomicWrites) {
 				try {
-					tryChannel = FileChannel.open(path, options);
+					return FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
 				} catch (final NoSuchFileException e) {
-					createDirectories(path.getParent());
-					tryChannel = FileChannel.open(path, options);
-				} finally {
-					channel = tryChannel;
+					return null;
 				}
 			}
 
-			for (boolean waiting = true; waiting;) {
-				waiting = false;
-				try {
-					channel.lock(0L, Long.MAX_VALUE, readOnly);
-				} catch (final OverlappingFileLockException e) {
-					waiting = true;
-					try {
-						Thread.sleep(100);
-					} catch (final InterruptedException f) {
-						waiting = false;
-						Thread.currentThread().interrupt();
-					}
-				} catch (final IOException e) {}
+			final OpenOption[] options = new OpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE};
+			try {
+				return FileChannel.open(path, options);
+			} catch (final NoSuchFileException e) {
+				createDirectories(path.getParent());
+				return FileChannel.open(path, options);
 			}
 		}
 
 		@Override
 		public Reader newReader() throws IOException {
 
-			return Channels.newReader(channel, StandardCharsets.UTF_8.name());
+			return new InputStreamReader(newInputStream(), StandardCharsets.UTF_8);
 		}
 
 		@Override
 		public Writer newWriter() throws IOException {
 
-			channel.truncate(0);
-			return Channels.newWriter(channel, StandardCharsets.UTF_8.name());
+			return new OutputStreamWriter(newOutputStream(), StandardCharsets.UTF_8);
 		}
 
+		/**
+		 * Creates an {@link InputStream} that reads from the beginning of the
+		 * file with positional reads, such that concurrent readers sharing
+		 * the channel do not interfere.
+		 */
 		@Override
 		public InputStream newInputStream() throws IOException {
 
-			return Channels.newInputStream(channel);
+			return new InputStream() {
+
+				private long position = 0;
+
+				@Override
+				public int read() throws IOException {
+
+					final byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException {
+
+					if (len == 0)
+						return 0;
+					if (channel == null)
+						return -1;
+
+					final int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+					if (n > 0)
+						position += n;
+					return n;
+				}
+
+				@Override
+				public long skip(final long n) throws IOException {
+
+					if (channel == null)
+						return 0;
+
+					final long k = Math.max(0, Math.min(n, channel.size() - position));
+					position += k;
+					return k;
+				}
+
+				@Override
+				public void close() throws IOException {
+
+					LockedFileChannel.this.close();
+				}
+			};
 		}
 
 		@Override
 		public OutputStream newOutputStream() throws IOException {
 
-			channel.truncate(0);
-			return Channels.newOutputStream(channel);
+			final FileChannel out;
+			if (atomicWrites) {
+				discardTempFile();
+				final Path parent = path.toAbsolutePath().getParent();
+				if (channel == null)
+					createDirectories(parent);
+				tempPath = parent.resolve(tempFileName(path.getFileName().toString()));
+				tempChannel = FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+				out = tempChannel;
+			} else {
+				channel.truncate(0);
+				written = true;
+				out = channel;
+			}
+			return new OutputStream() {
+
+				@Override
+				public void write(final int b) throws IOException {
+
+					write(new byte[]{(byte)b}, 0, 1);
+				}
+
+				@Override
+				public void write(final byte[] b, final int off, final int len) throws IOException {
+
+					final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+					while (buffer.hasRemaining())
+						out.write(buffer);
+				}
+
+				@Override
+				public void close() throws IOException {
+
+					LockedFileChannel.this.close();
+				}
+			};
+		}
+
+		/**
+		 * Maps the file into memory if this {@link FileSystemKeyValueAccess}
+		 * was opened in memory mapped mode, returns null otherwise.
+		 */
+		@Override
+		public ByteBuffer newByteBuffer() throws IOException {
+
+			if (memoryMapped && channel != null)
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			else
+				return null;
 		}
 
 		@Override
 		public void close() throws IOException {
 
-			channel.close();
+			if (!closed.getAndSet(true)) {
+				try {
+					if (tempPath != null)
+						commitTempFile();
+					else if (written && fsyncPolicy != FsyncPolicy.NONE)
+						channel.force(true);
+				} finally {
+					if (key == null)
+						channel.close();
+					else
+						lockTable.release(key, readOnly);
+				}
+			}
+		}
+
+		/**
+		 * Forces the temporary file according to the {@link FsyncPolicy}
+		 * and atomically moves it over the target.
+		 */
+		protected void commitTempFile() throws IOException {
+
+			final Path source = tempPath;
+			tempPath = null;
+			try {
+				try {
+					if (fsyncPolicy != FsyncPolicy.NONE)
+						tempChannel.force(true);
+				} finally {
+					tempChannel.close();
+				}
+				Files.move(source, path, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final IOException | RuntimeException e) {
+				try {
+					Files.deleteIfExists(source);
+				} catch (final IOException f) {
+					e.addSuppressed(f);
+				}
+				throw e;
+			}
+			if (fsyncPolicy == FsyncPolicy.FILE_AND_DIRECTORY)
+				forceDirectory(path.toAbsolutePath().getParent());
+		}
+
+		protected void discardTempFile() throws IOException {
+
+			if (tempPath != null) {
+				final Path source = tempPath;
+				tempPath = null;
+				try {
+					tempChannel.close();
+				} finally {
+					Files.deleteIfExists(source);
+				}
+			}
 		}
 	}
 
+	/**
+	 * Forces a directory entry to the storage device. Not all platforms
+	 * support opening directories (e.g. Windows), this is then a no-op.
+	 *
+	 * @param dir the directory
+	 */
+	protected static void forceDirectory(final Path dir) {
+
+		try (final FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (final IOException e) {}
+	}
+
+	/**
+	 * Matches the names of temporary files created by atomic writes.
+	 */
+	protected static final Pattern TEMP_FILE_PATTERN = Pattern.compile(
+			"\\..+\\.[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}\\.tmp");
+
+	protected static String tempFileName(final String name) {
+
+		return "." + name + "." + UUID.randomUUID() + ".tmp";
+	}
+
+	protected static boolean isTempFile(final Path path) {
+
+		final Path name = path.getFileName();
+		return name != null && TEMP_FILE_PATTERN.matcher(name.toString()).matches();
+	}
+
 	protected final FileSystem fileSystem;
 
+	protected final boolean memoryMapped;
+
+	protected final boolean atomicWrites;
+
+	protected final FsyncPolicy fsyncPolicy;
+
 	/**
 	 * Opens a {@link FileSystemKeyValueAccess} with a {@link FileSystem}.
 	 *
@@ -154,7 +405,62 @@ public class FileSystemKeyValueAccess implements KeyValueAccess {
 	 */
 	public FileSystemKeyValueAccess(final FileSystem fileSystem) {
 
+		this(fileSystem, false);
+	}
+
+	/**
+	 * Opens a {@link FileSystemKeyValueAccess} with a {@link FileSystem}.
+	 *
+	 * In memory mapped mode, {@link LockedChannel#newByteBuffer()} maps
+	 * files into memory such that data blocks can be parsed and decoded
+	 * straight from the page cache without intermediate copies. This is
+	 * most interesting for read-heavy applications with large blocks. The
+	 * mapping stays valid after the channel is closed and is only released
+	 * when the buffer is garbage collected, on some platforms (e.g. Windows),
+	 * mapped files cannot be deleted or truncated until then.
+	 *
+	 * @param fileSystem the file system
+	 * @param memoryMapped map files into memory for reading
+	 */
+	public FileSystemKeyValueAccess(final FileSystem fileSystem, final boolean memoryMapped) {
+
+		this(fileSystem, memoryMapped, false, FsyncPolicy.NONE);
+	}
+
+	/**
+	 * Opens a {@link FileSystemKeyValueAccess} with a {@link FileSystem}.
+	 *
+	 * With atomic writes, files are never truncated and rewritten in place.
+	 * Data is written to a sibling temporary file which is then moved over
+	 * the target with {@link StandardCopyOption#ATOMIC_MOVE}, such that
+	 * readers and a crash mid-write only ever observe the previous or the
+	 * new version of a file, never a partial one. This makes it safe to read
+	 * without locks, e.g. with {@link ReadOnlyFileSystemKeyValueAccess},
+	 * while the container is being written. The {@link FileSystem} must
+	 * support atomic moves that replace existing files, which is not the
+	 * case on Windows while the target is open.
+	 *
+	 * Temporary files are named {@code .<name>.<uuid>.tmp} and are not
+	 * listed by {@link #list(String)}. A process that crashes mid-write
+	 * leaves its temporary files behind, they are not cleaned up
+	 * automatically because another process may still be writing them.
+	 *
+	 * @param fileSystem the file system
+	 * @param memoryMapped map files into memory for reading
+	 * @param atomicWrites write to a temporary file and atomically move it
+	 *            over the target
+	 * @param fsyncPolicy when to force written data to the storage device
+	 */
+	public FileSystemKeyValueAccess(
+			final FileSystem fileSystem,
+			final boolean memoryMapped,
+			final boolean atomicWrites,
+			final FsyncPolicy fsyncPolicy) {
+
 		this.fileSystem = fileSystem;
+		this.memoryMapped = memoryMapped;
+		this.atomicWrites = atomicWrites;
+		this.fsyncPolicy = fsyncPolicy;
 	}
 
 	@Override
@@ -174,6 +480,20 @@ public class FileSystemKeyValueAccess implements KeyValueAccess {
 		return new LockedFileChannel(path, true);
 	}
 
+	/**
+	 * Opens and locks the file in one attempt, a missing file is not an
+	 * error but returns null.
+	 */
+	@Override
+	public LockedFileChannel tryLockForReading(final String normalPath) throws IOException {
+
+		try {
+			return lockForReading(normalPath);
+		} catch (final NoSuchFileException e) {
+			return null;
+		}
+	}
+
 	public LockedFileChannel lockForWriting(final Path path) throws IOException {
 
 		return new LockedFileChannel(path, false);
@@ -218,6 +538,7 @@ public class FileSystemKeyValueAccess implements KeyValueAccess {
 		final Path path = fileSystem.getPath(normalPath);
 		try (final Stream<Path> pathStream = Files.list(path)) {
 			return pathStream
+					.filter(a -> !isTempFile(a))
 					.map(a -> path.relativize(a).toString())
 					.toArray(n -> new String[n]);
 		}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.util.Arrays;
+
+/**
+ * Detects and creates {@link DataBlock DataBlocks} whose elements all equal
+ * the fill value of their dataset.
+ *
+ * The scans compare chunks of elements without branching and check the
+ * result once per chunk, such that the JIT can vectorize them and uniform
+ * blocks are scanned at memory speed.
+ */
+final class FillValues {
+
+	private static final int CHUNK_SIZE = 256;
+
+	private FillValues() {}
+
+	/**
+	 * @return true if the dataset has a fill value and all elements of the
+	 *         block equal it
+	 */
+	static boolean isFilled(final DatasetAttributes datasetAttributes, final DataBlock<?> dataBlock) {
+
+		final Number fillValue = datasetAttributes.getFillValue();
+		if (fillValue == null)
+			return false;
+
+		final Object data = dataBlock.getData();
+		if (data instanceof byte[])
+			return isFilled((byte[])data, fillValue.byteValue());
+		else if (data instanceof short[])
+			return isFilled((short[])data, fillValue.shortValue());
+		else if (data instanceof int[])
+			return isFilled((int[])data, fillValue.intValue());
+		else if (data instanceof long[])
+			return isFilled((long[])data, fillValue.longValue());
+		else if (data instanceof float[])
+			return isFilled((float[])data, Float.floatToRawIntBits(fillValue.floatValue()));
+		else if (data instanceof double[])
+			return isFilled((double[])data, Double.doubleToRawLongBits(fillValue.doubleValue()));
+		else
+			return false;
+	}
+
+	private static boolean isFilled(final byte[] data, final byte fillValue) {
+
+		for (int i = 0; i < data.length; i += CHUNK_SIZE) {
+			int diff = 0;
+			for (int j = i, n = Math.min(data.length, i + CHUNK_SIZE); j < n; ++j)
+				diff |= data[j] ^ fillValue;
+			if (diff != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isFilled(final short[] data, final short fillValue) {
+
+		for (int i = 0; i < data.length; i += CHUNK_SIZE) {
+			int diff = 0;
+			for (int j = i, n = Math.min(data.length, i + CHUNK_SIZE); j < n; ++j)
+				diff |= data[j] ^ fillValue;
+			if (diff != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isFilled(final int[] data, final int fillValue) {
+
+		for (int i = 0; i < data.length; i += CHUNK_SIZE) {
+			int diff = 0;
+			for (int j = i, n = Math.min(data.length, i + CHUNK_SIZE); j < n; ++j)
+				diff |= data[j] ^ fillValue;
+			if (diff != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isFilled(final long[] data, final long fillValue) {
+
+		for (int i = 0; i < data.length; i += CHUNK_SIZE) {
+			long diff = 0;
+			for (int j = i, n = Math.min(data.length, i + CHUNK_SIZE); j < n; ++j)
+				diff |= data[j] ^ fillValue;
+			if (diff != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isFilled(final float[] data, final int fillBits) {
+
+		for (int i = 0; i < data.length; i += CHUNK_SIZE) {
+			int diff = 0;
+			for (int j = i, n = Math.min(data.length, i + CHUNK_SIZE); j < n; ++j)
+				diff |= Float.floatToRawIntBits(data[j]) ^ fillBits;
+			if (diff != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isFilled(final double[] data, final long fillBits) {
+
+		for (int i = 0; i < data.length; i += CHUNK_SIZE) {
+			long diff = 0;
+			for (int j = i, n = Math.min(data.length, i + CHUNK_SIZE); j < n; ++j)
+				diff |= Double.doubleToRawLongBits(data[j]) ^ fillBits;
+			if (diff != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a block filled with the fill value of a dataset. Blocks at the
+	 * border of the dataset are cropped to the dataset like written blocks.
+	 *
+	 * @return the block or null if the dataset has no fill value
+	 */
+	static DataBlock<?> createFilledBlock(final DatasetAttributes datasetAttributes, final long[] gridPosition) {
+
+		final Number fillValue = datasetAttributes.getFillValue();
+		if (fillValue == null)
+			return null;
+
+		final long[] dimensions = datasetAttributes.getDimensions();
+		final int[] blockSize = datasetAttributes.getBlockSize();
+		final int[] size = new int[blockSize.length];
+		for (int d = 0; d < size.length; ++d)
+			size[d] = (int)Math.max(0, Math.min(blockSize[d], dimensions[d] - gridPosition[d] * blockSize[d]));
+
+		final DataBlock<?> block = datasetAttributes.getDataType().createDataBlock(size, gridPosition.clone());
+		final Object data = block.getData();
+		if (data instanceof byte[])
+			Arrays.fill((byte[])data, fillValue.byteValue());
+		else if (data instanceof short[])
+			Arrays.fill((short[])data, fillValue.shortValue());
+		else if (data instanceof int[])
+			Arrays.fill((int[])data, fillValue.intValue());
+		else if (data instanceof long[])
+			Arrays.fill((long[])data, fillValue.longValue());
+		else if (data instanceof float[])
+			Arrays.fill((float[])data, fillValue.floatValue());
+		else if (data instanceof double[])
+			Arrays.fill((double[])data, fillValue.doubleValue());
+		return block;
+	}
+}
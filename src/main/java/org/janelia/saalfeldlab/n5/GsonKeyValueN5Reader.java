@@ -27,9 +27,15 @@ package org.janelia.saalfeldlab.n5;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.cache.BlockExistenceIndex;
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
@@ -43,6 +49,30 @@ public interface GsonKeyValueN5Reader extends GsonN5Reader {
 
 	KeyValueAccess getKeyValueAccess();
 
+	/**
+	 * Returns the cache of decoded {@link DataBlock DataBlocks}, null if
+	 * blocks are not cached. This default implementation does not cache
+	 * blocks.
+	 *
+	 * @return the block cache or null
+	 */
+	default DataBlockCache getBlockCache() {
+
+		return null;
+	}
+
+	/**
+	 * Returns the index of existing {@link DataBlock DataBlocks}, null if
+	 * blocks are not indexed. This default implementation does not index
+	 * blocks.
+	 *
+	 * @return the block index or null
+	 */
+	default BlockExistenceIndex getBlockIndex() {
+
+		return null;
+	}
+
 	default boolean groupExists(final String normalPath) {
 
 		return getKeyValueAccess().isDirectory(absoluteGroupPath(normalPath));
@@ -59,7 +89,7 @@ public interface GsonKeyValueN5Reader extends GsonN5Reader {
 	default boolean datasetExists(final String pathName) throws N5Exception {
 
 		// for n5, every dataset must be a group
-		return getDatasetAttributes(pathName) != null;
+		return isDataset(getAttributes(N5URI.normalizeGroupPath(pathName)));
 	}
 
 	/**
@@ -76,10 +106,10 @@ public interface GsonKeyValueN5Reader extends GsonN5Reader {
 		final String groupPath = N5URI.normalizeGroupPath(pathName);
 		final String attributesPath = absoluteAttributesPath(groupPath);
 
-		if (!getKeyValueAccess().isFile(attributesPath))
-			return null;
+		try (final LockedChannel lockedChannel = getKeyValueAccess().tryLockForReading(attributesPath)) {
+			if (lockedChannel == null)
+				return null;
 
-		try (final LockedChannel lockedChannel = getKeyValueAccess().lockForReading(attributesPath)) {
 			return GsonUtils.readAttributes(lockedChannel.newReader(), getGson());
 		} catch (final IOException | UncheckedIOException e) {
 			throw new N5IOException("Failed to read attributes from dataset " + pathName, e);
@@ -93,17 +123,69 @@ public interface GsonKeyValueN5Reader extends GsonN5Reader {
 			final DatasetAttributes datasetAttributes,
 			final long... gridPosition) throws N5Exception {
 
-		final String path = absoluteDataBlockPath(N5URI.normalizeGroupPath(pathName), gridPosition);
-		if (!getKeyValueAccess().isFile(path))
-			return null;
+		return KeyValueBlocks.readBlock(this, N5URI.normalizeGroupPath(pathName), datasetAttributes, gridPosition);
+	}
 
-		try (final LockedChannel lockedChannel = getKeyValueAccess().lockForReading(path)) {
-			return DefaultBlockReader.readBlock(lockedChannel.newInputStream(), datasetAttributes, gridPosition);
-		} catch (final IOException | UncheckedIOException e) {
-			throw new N5IOException(
-					"Failed to read block " + Arrays.toString(gridPosition) + " from dataset " + path,
-					e);
+	@Override
+	default List<DataBlock<?>> readBlocks(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final List<long[]> gridPositions) throws N5Exception {
+
+		final String normalPath = N5URI.normalizeGroupPath(pathName);
+		final ArrayList<DataBlock<?>> blocks = new ArrayList<>(gridPositions.size());
+		for (final long[] gridPosition : gridPositions)
+			blocks.add(KeyValueBlocks.readBlock(this, normalPath, datasetAttributes, gridPosition));
+
+		return blocks;
+	}
+
+	@Override
+	default List<DataBlock<?>> readBlocks(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final List<long[]> gridPositions,
+			final ExecutorService executor) throws N5Exception, InterruptedException, ExecutionException {
+
+		final String normalPath = N5URI.normalizeGroupPath(pathName);
+		final ArrayList<Future<DataBlock<?>>> futures = new ArrayList<>(gridPositions.size());
+		for (final long[] gridPosition : gridPositions)
+			futures.add(executor.submit(() -> KeyValueBlocks.readBlock(this, normalPath, datasetAttributes, gridPosition)));
+
+		return KeyValueBlocks.collect(futures);
+	}
+
+	/**
+	 * Lists the grid positions of all {@link DataBlock DataBlocks} that exist
+	 * in a dataset. If blocks are indexed, the index is used, otherwise the
+	 * dataset is scanned.
+	 *
+	 * @param pathName
+	 *            dataset path
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @return the grid positions
+	 * @throws N5Exception
+	 *             if the dataset cannot be scanned
+	 */
+	default List<long[]> listBlocks(
+			final String pathName,
+			final DatasetAttributes datasetAttributes) throws N5Exception {
+
+		final String normalPath = N5URI.normalizeGroupPath(pathName);
+		final BlockExistenceIndex blockIndex = getBlockIndex();
+		if (blockIndex != null) {
+			final List<long[]> gridPositions = blockIndex.list(
+					normalPath,
+					datasetAttributes,
+					blocks -> KeyValueBlocks.scanBlocks(this, normalPath, datasetAttributes, blocks));
+			if (gridPositions != null)
+				return gridPositions;
 		}
+
+		final List<long[]> gridPositions = new ArrayList<>();
+		KeyValueBlocks.scanBlocks(this, normalPath, datasetAttributes, gridPositions::add);
+		return gridPositions;
 	}
 
 	@Override
@@ -25,11 +25,17 @@
  */
 package org.janelia.saalfeldlab.n5;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.gson.JsonSyntaxException;
 import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
@@ -216,13 +222,108 @@ public interface GsonKeyValueN5Writer extends GsonN5Writer, GsonKeyValueN5Reader
 			final DatasetAttributes datasetAttributes,
 			final DataBlock<T> dataBlock) throws N5Exception {
 
-		final String blockPath = absoluteDataBlockPath(N5URI.normalizeGroupPath(path), dataBlock.getGridPosition());
-		try (final LockedChannel lock = getKeyValueAccess().lockForWriting(blockPath)) {
-			DefaultBlockWriter.writeBlock(lock.newOutputStream(), datasetAttributes, dataBlock);
+		if (datasetAttributes.isSharded()) {
+			writeBlocks(path, datasetAttributes, Collections.singletonList(dataBlock));
+			return;
+		}
+
+		final String normalPath = N5URI.normalizeGroupPath(path);
+		final String blockPath = absoluteDataBlockPath(normalPath, dataBlock.getGridPosition());
+		final boolean filled = FillValues.isFilled(datasetAttributes, dataBlock);
+		boolean written = false;
+		try {
+			if (filled) {
+				/* blocks filled with the fill value are not stored */
+				if (getKeyValueAccess().isFile(blockPath))
+					getKeyValueAccess().delete(blockPath);
+				if (getBlockIndex() != null)
+					getBlockIndex().remove(normalPath, dataBlock.getGridPosition());
+			} else {
+				try (final LockedChannel lock = getKeyValueAccess().lockForWriting(blockPath)) {
+					DefaultBlockWriter.writeBlock(lock.newOutputStream(), datasetAttributes, dataBlock);
+				}
+				if (getBlockIndex() != null)
+					getBlockIndex().add(normalPath, dataBlock.getGridPosition());
+			}
+			written = true;
 		} catch (final IOException | UncheckedIOException e) {
 			throw new N5IOException(
 					"Failed to write block " + Arrays.toString(dataBlock.getGridPosition()) + " into dataset " + path,
 					e);
+		} finally {
+			if (getBlockCache() != null)
+				getBlockCache().invalidate(normalPath, dataBlock.getGridPosition());
+			/* a failed write may have left the block in any state */
+			if (!written && getBlockIndex() != null)
+				getBlockIndex().invalidate(normalPath);
+		}
+	}
+
+	/**
+	 * Writes a list of {@link DataBlock}s. Blocks of sharded datasets are
+	 * grouped by shard and each shard is rewritten once.
+	 */
+	@Override
+	default <T> void writeBlocks(
+			final String path,
+			final DatasetAttributes datasetAttributes,
+			final List<? extends DataBlock<T>> dataBlocks) throws N5Exception {
+
+		if (!datasetAttributes.isSharded()) {
+			for (final DataBlock<T> dataBlock : dataBlocks)
+				writeBlock(path, datasetAttributes, dataBlock);
+			return;
+		}
+
+		final String normalPath = N5URI.normalizeGroupPath(path);
+		final int[] blocksPerShard = datasetAttributes.getBlocksPerShard();
+		final Map<String, Map<Integer, byte[]>> shards = new HashMap<>();
+		final Map<String, List<DataBlock<T>>> shardBlocks = new HashMap<>();
+		final Set<DataBlock<T>> filled = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (final DataBlock<T> dataBlock : dataBlocks) {
+			final long[] gridPosition = dataBlock.getGridPosition();
+			final byte[] bytes;
+			if (FillValues.isFilled(datasetAttributes, dataBlock)) {
+				/* blocks filled with the fill value are removed from the shard */
+				filled.add(dataBlock);
+				bytes = null;
+			} else {
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				try {
+					DefaultBlockWriter.writeBlock(out, datasetAttributes, dataBlock);
+				} catch (final IOException | UncheckedIOException e) {
+					throw new N5IOException(
+							"Failed to write block " + Arrays.toString(gridPosition) + " into dataset " + path,
+							e);
+				}
+				bytes = out.toByteArray();
+			}
+			final String shardPath = absoluteDataBlockPath(normalPath, Shards.shardPosition(gridPosition, blocksPerShard));
+			shards.computeIfAbsent(shardPath, k -> new HashMap<>()).put(Shards.blockIndex(gridPosition, blocksPerShard), bytes);
+			shardBlocks.computeIfAbsent(shardPath, k -> new ArrayList<>()).add(dataBlock);
+		}
+
+		boolean written = false;
+		try {
+			for (final Map.Entry<String, Map<Integer, byte[]>> shard : shards.entrySet()) {
+				KeyValueBlocks.updateShard(getKeyValueAccess(), shard.getKey(), Shards.numBlocks(blocksPerShard), shard.getValue());
+				/* the index is updated only for shards that were written */
+				if (getBlockIndex() != null)
+					for (final DataBlock<T> dataBlock : shardBlocks.get(shard.getKey())) {
+						if (filled.contains(dataBlock))
+							getBlockIndex().remove(normalPath, dataBlock.getGridPosition());
+						else
+							getBlockIndex().add(normalPath, dataBlock.getGridPosition());
+					}
+			}
+			written = true;
+		} finally {
+			if (getBlockCache() != null)
+				for (final DataBlock<T> dataBlock : dataBlocks)
+					getBlockCache().invalidate(normalPath, dataBlock.getGridPosition());
+			/* a failed write may have left the shard in any state */
+			if (!written && getBlockIndex() != null)
+				getBlockIndex().invalidate(normalPath);
 		}
 	}
 
@@ -236,6 +337,11 @@ public interface GsonKeyValueN5Writer extends GsonN5Writer, GsonKeyValueN5Reader
 				getKeyValueAccess().delete(groupPath);
 		} catch (final IOException | UncheckedIOException e) {
 			throw new N5IOException("Failed to remove " + path, e);
+		} finally {
+			if (getBlockCache() != null)
+				getBlockCache().invalidateAll(normalPath);
+			if (getBlockIndex() != null)
+				getBlockIndex().invalidateAll(normalPath);
 		}
 
 		/* an IOException should have occurred if anything had failed midway */
@@ -247,14 +353,41 @@ public interface GsonKeyValueN5Writer extends GsonN5Writer, GsonKeyValueN5Reader
 			final String path,
 			final long... gridPosition) throws N5Exception {
 
-		final String blockPath = absoluteDataBlockPath(N5URI.normalizeGroupPath(path), gridPosition);
+		final String normalPath = N5URI.normalizeGroupPath(path);
+		return deleteBlock(normalPath, getDatasetAttributes(normalPath), gridPosition);
+	}
+
+	@Override
+	default boolean deleteBlock(
+			final String path,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final String normalPath = N5URI.normalizeGroupPath(path);
 		try {
-			if (getKeyValueAccess().isFile(blockPath))
-				getKeyValueAccess().delete(blockPath);
+			if (datasetAttributes != null && datasetAttributes.isSharded()) {
+				final int[] blocksPerShard = datasetAttributes.getBlocksPerShard();
+				final String shardPath = absoluteDataBlockPath(normalPath, Shards.shardPosition(gridPosition, blocksPerShard));
+				if (getKeyValueAccess().isFile(shardPath))
+					KeyValueBlocks.updateShard(
+							getKeyValueAccess(),
+							shardPath,
+							Shards.numBlocks(blocksPerShard),
+							Collections.singletonMap(Shards.blockIndex(gridPosition, blocksPerShard), null));
+			} else {
+				final String blockPath = absoluteDataBlockPath(normalPath, gridPosition);
+				if (getKeyValueAccess().isFile(blockPath))
+					getKeyValueAccess().delete(blockPath);
+			}
+			if (getBlockIndex() != null)
+				getBlockIndex().remove(normalPath, gridPosition);
 		} catch (final IOException | UncheckedIOException e) {
 			throw new N5IOException(
 					"Failed to delete block " + Arrays.toString(gridPosition) + " from dataset " + path,
 					e);
+		} finally {
+			if (getBlockCache() != null)
+				getBlockCache().invalidate(normalPath, gridPosition);
 		}
 
 		/* an IOException should have occurred if anything had failed midway */
@@ -54,6 +54,25 @@ public interface GsonN5Reader extends N5Reader {
 		return createDatasetAttributes(attributes);
 	}
 
+	/**
+	 * Tests whether attributes describe a dataset. Attributes with dimensions
+	 * and a data type describe a dataset even if other dataset attributes are
+	 * invalid, such that the error is reported when they are read.
+	 *
+	 * @param attributes
+	 *            the attributes
+	 * @return true if the attributes describe a dataset
+	 */
+	default boolean isDataset(final JsonElement attributes) {
+
+		try {
+			return createDatasetAttributes(attributes) != null;
+		} catch (final N5Exception e) {
+			/* a dataset with invalid attributes, reported when they are read */
+			return true;
+		}
+	}
+
 	default DatasetAttributes createDatasetAttributes(final JsonElement attributes) {
 
 		try {
@@ -69,13 +88,20 @@ public interface GsonN5Reader extends N5Reader {
 
 			final int[] blockSize = GsonUtils.readAttribute(attributes, DatasetAttributes.BLOCK_SIZE_KEY, int[].class, getGson());
 			final Compression compression = GsonUtils.readAttribute(attributes, DatasetAttributes.COMPRESSION_KEY, Compression.class, getGson());
+			final int[] shardSize = GsonUtils.readAttribute(attributes, DatasetAttributes.SHARD_SIZE_KEY, int[].class, getGson());
+			final Number fillValue = GsonUtils.readAttribute(attributes, DatasetAttributes.FILL_VALUE_KEY, Number.class, getGson());
 
 			/* version 0 */
 			final String compressionVersion0Name = compression == null
 					? GsonUtils.readAttribute(attributes, DatasetAttributes.compressionTypeKey, String.class, getGson())
 					: null;
 
-			return DatasetAttributes.from(dimensions, dataType, blockSize, compression, compressionVersion0Name);
+			try {
+				return DatasetAttributes.from(dimensions, dataType, blockSize, compression, compressionVersion0Name, shardSize, fillValue);
+			} catch (final IllegalArgumentException e) {
+				/* e.g. a shard size that is not a multiple of the block size or a fill value that is not a number */
+				throw new N5Exception("Invalid dataset attributes", e);
+			}
 		} catch (JsonSyntaxException | NumberFormatException | ClassCastException e) {
 			/* We cannot create a dataset, so return null. */
 			return null;
@@ -27,17 +27,17 @@ package org.janelia.saalfeldlab.n5;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipParameters;
 import org.janelia.saalfeldlab.n5.Compression.CompressionType;
 
+/**
+ * Gzip or zlib compression. The streams reuse pooled
+ * {@link java.util.zip.Inflater Inflaters} and
+ * {@link java.util.zip.Deflater Deflaters} instead of allocating new native
+ * zlib state for every block.
+ */
 @CompressionType("gzip")
 public class GzipCompression implements DefaultBlockReader, DefaultBlockWriter, Compression {
 
@@ -49,8 +49,6 @@ public class GzipCompression implements DefaultBlockReader, DefaultBlockWriter,
 	@CompressionParameter
 	private final boolean useZlib;
 
-	private final transient GzipParameters parameters = new GzipParameters();
-
 	public GzipCompression() {
 
 		this(Deflater.DEFAULT_COMPRESSION);
@@ -70,22 +68,13 @@ public class GzipCompression implements DefaultBlockReader, DefaultBlockWriter,
 	@Override
 	public InputStream getInputStream(final InputStream in) throws IOException {
 
-		if (useZlib) {
-			return new InflaterInputStream(in);
-		} else {
-			return new GzipCompressorInputStream(in, true);
-		}
+		return PooledZlib.inflate(in, !useZlib);
 	}
 
 	@Override
 	public OutputStream getOutputStream(final OutputStream out) throws IOException {
 
-		if (useZlib) {
-			return new DeflaterOutputStream(out, new Deflater(level));
-		} else {
-			parameters.setCompressionLevel(level);
-			return new GzipCompressorOutputStream(out, parameters);
-		}
+		return PooledZlib.deflate(out, level, !useZlib);
 	}
 
 	@Override
@@ -100,12 +89,6 @@ public class GzipCompression implements DefaultBlockReader, DefaultBlockWriter,
 		return this;
 	}
 
-	private void readObject(final ObjectInputStream in) throws Exception {
-
-		in.defaultReadObject();
-		ReflectionUtils.setFieldValue(this, "parameters", new GzipParameters());
-	}
-
 	@Override
 	public boolean equals(final Object other) {
 
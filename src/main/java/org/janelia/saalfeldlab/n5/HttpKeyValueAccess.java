@@ -0,0 +1,482 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * A read-only {@link KeyValueAccess} for containers served over HTTP(S).
+ *
+ * {@link #lockForReading(String)} maps to ranged GET requests,
+ * {@link #isFile(String)} to HEAD requests. Reading starts with a request
+ * for the first {@code chunkSize} bytes, which typically returns small files
+ * like attributes in a single round trip and detects missing keys.
+ * Subsequent sequential reads request doubling chunks, while skipping
+ * forward only requests the bytes that are read after the skip. Reading a
+ * block from a shard therefore fetches the shard index and the block, but
+ * not the entire shard. Servers that ignore {@code Range} headers are
+ * supported but will transfer entire files.
+ *
+ * Connections are pooled and kept alive by {@link HttpURLConnection}, the
+ * number of idle connections per host is configured by the system property
+ * {@code http.maxConnections}. All methods can be called concurrently,
+ * every channel uses its own requests.
+ *
+ * HTTP has no directories. A path is considered a directory if it is served
+ * with a trailing '/', or if it contains an attributes file. Listing is not
+ * supported, {@link #list(String)} and {@link #listDirectories(String)}
+ * throw an {@link N5Exception.N5IOException} as do all modifying
+ * operations.
+ *
+ * Keys are absolute paths on the server of the base {@link URI}.
+ */
+public class HttpKeyValueAccess implements PosixKeyValueAccess {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+	private static final int MAX_CHUNK_SIZE = 1 << 24;
+
+	/**
+	 * The bytes of a file starting at {@code offset}.
+	 */
+	private static final class Range {
+
+		private final long offset;
+		private final byte[] bytes;
+
+		/* size of the file, -1 if unknown */
+		private final long size;
+
+		private Range(final long offset, final byte[] bytes, final long size) {
+
+			this.offset = offset;
+			this.bytes = bytes;
+			this.size = size;
+		}
+
+		private long end() {
+
+			return offset + bytes.length;
+		}
+	}
+
+	/**
+	 * A {@link LockedChannel} on a file on the server. No lock is held.
+	 */
+	protected class HttpChannel implements LockedChannel {
+
+		protected final String path;
+
+		/* the first chunk of the file, fetched when the channel is opened */
+		private final Range first;
+
+		protected HttpChannel(final String path, final Range first) {
+
+			this.path = path;
+			this.first = first;
+		}
+
+		@Override
+		public Reader newReader() throws IOException {
+
+			return new InputStreamReader(newInputStream(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public InputStream newInputStream() throws IOException {
+
+			return new InputStream() {
+
+				private Range range = first;
+
+				private long position = 0;
+
+				private int nextChunkSize = chunkSize;
+
+				private long size = first.size;
+
+				/**
+				 * @return true if the byte at position is available
+				 */
+				private boolean fill() throws IOException {
+
+					if (position >= range.offset && position < range.end())
+						return true;
+					if (size >= 0 && position >= size)
+						return false;
+
+					nextChunkSize = position == range.end() ? Math.min(2 * nextChunkSize, MAX_CHUNK_SIZE) : chunkSize;
+					range = get(path, position, nextChunkSize);
+					if (range.size >= 0)
+						size = range.size;
+					if (range.bytes.length == 0 && size < 0)
+						size = position;
+					return position >= range.offset && position < range.end();
+				}
+
+				@Override
+				public int read() throws IOException {
+
+					if (!fill())
+						return -1;
+					return range.bytes[(int)(position++ - range.offset)] & 0xff;
+				}
+
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException {
+
+					if (len == 0)
+						return 0;
+					if (!fill())
+						return -1;
+
+					final int n = (int)Math.min(len, range.end() - position);
+					System.arraycopy(range.bytes, (int)(position - range.offset), b, off, n);
+					position += n;
+					return n;
+				}
+
+				@Override
+				public long skip(final long n) {
+
+					final long k = Math.max(0, size < 0 ? n : Math.min(n, size - position));
+					position += k;
+					return k;
+				}
+
+				@Override
+				public int available() {
+
+					return position >= range.offset && position < range.end() ? (int)(range.end() - position) : 0;
+				}
+			};
+		}
+
+		@Override
+		public Writer newWriter() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public OutputStream newOutputStream() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		/**
+		 * Returns the file if it was entirely fetched with the first
+		 * request, null otherwise.
+		 */
+		@Override
+		public ByteBuffer newByteBuffer() {
+
+			if (first.offset == 0 && first.size == first.bytes.length)
+				return ByteBuffer.wrap(first.bytes).asReadOnlyBuffer();
+			else
+				return null;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	protected final URI base;
+
+	protected final int chunkSize;
+
+	protected final int connectTimeout;
+
+	protected final int readTimeout;
+
+	/**
+	 * Creates an {@link HttpKeyValueAccess} for the server of {@code base}.
+	 *
+	 * @param base the URI of the server, e.g. of a container on the server
+	 */
+	public HttpKeyValueAccess(final URI base) {
+
+		this(base, DEFAULT_CHUNK_SIZE, 10000, 60000);
+	}
+
+	/**
+	 * Creates an {@link HttpKeyValueAccess} for the server of {@code base}.
+	 *
+	 * @param base the URI of the server, e.g. of a container on the server
+	 * @param chunkSize the number of bytes requested when a file is opened
+	 *            or after a skip
+	 * @param connectTimeout connect timeout in milliseconds
+	 * @param readTimeout read timeout in milliseconds
+	 */
+	public HttpKeyValueAccess(final URI base, final int chunkSize, final int connectTimeout, final int readTimeout) {
+
+		if (!"http".equalsIgnoreCase(base.getScheme()) && !"https".equalsIgnoreCase(base.getScheme()))
+			throw new IllegalArgumentException("Not an HTTP URI: " + base);
+
+		this.base = base;
+		this.chunkSize = chunkSize;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	protected URL url(final String normalPath) throws IOException {
+
+		/* keep a trailing '/' to request directories */
+		final String path = absolute(normalPath);
+		try {
+			return new URI(
+					base.getScheme(),
+					base.getAuthority(),
+					normalPath.endsWith("/") && !path.endsWith("/") ? path + "/" : path,
+					null,
+					null).toURL();
+		} catch (final URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	protected HttpURLConnection open(final String normalPath, final String method) throws IOException {
+
+		final HttpURLConnection connection = (HttpURLConnection)url(normalPath).openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setUseCaches(false);
+		return connection;
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+
+		if (in == null)
+			return new byte[0];
+
+		try (final InputStream is = in) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			for (int n = is.read(buffer); n != -1; n = is.read(buffer))
+				bytes.write(buffer, 0, n);
+			return bytes.toByteArray();
+		}
+	}
+
+	/* reading the error response returns the connection to the pool */
+	private static void discard(final HttpURLConnection connection) {
+
+		try {
+			readFully(connection.getErrorStream());
+		} catch (final IOException e) {}
+	}
+
+	/**
+	 * Parses the total size from a Content-Range header.
+	 *
+	 * @return the size, or -1 if unknown
+	 */
+	private static long size(final String contentRange) {
+
+		if (contentRange == null)
+			return -1;
+		final String size = contentRange.substring(contentRange.lastIndexOf('/') + 1).trim();
+		return size.equals("*") ? -1 : Long.parseLong(size);
+	}
+
+	private static long start(final String contentRange) throws IOException {
+
+		try {
+			final String range = contentRange.substring(contentRange.indexOf(' ') + 1, contentRange.indexOf('-'));
+			return Long.parseLong(range.trim());
+		} catch (final RuntimeException e) {
+			throw new IOException("Invalid Content-Range " + contentRange, e);
+		}
+	}
+
+	private Range get(final String normalPath, final long offset, final int length) throws IOException {
+
+		final HttpURLConnection connection = open(normalPath, "GET");
+		connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+		final int code = connection.getResponseCode();
+		switch (code) {
+		case HttpURLConnection.HTTP_PARTIAL:
+			final String contentRange = connection.getHeaderField("Content-Range");
+			final byte[] bytes = readFully(connection.getInputStream());
+			return new Range(start(contentRange), bytes, size(contentRange));
+		case HttpURLConnection.HTTP_OK:
+			/* the server ignored the range */
+			final byte[] all = readFully(connection.getInputStream());
+			return new Range(0, all, all.length);
+		case 416:
+			discard(connection);
+			final long size = size(connection.getHeaderField("Content-Range"));
+			return new Range(offset, new byte[0], size < 0 ? offset : size);
+		case HttpURLConnection.HTTP_NOT_FOUND:
+		case HttpURLConnection.HTTP_GONE:
+			discard(connection);
+			throw new NoSuchFileException(connection.getURL().toString());
+		default:
+			discard(connection);
+			throw new IOException("GET " + connection.getURL() + " failed with " + code + " " + connection.getResponseMessage());
+		}
+	}
+
+	private boolean head(final String normalPath) {
+
+		try {
+			final HttpURLConnection connection = open(normalPath, "HEAD");
+			connection.setInstanceFollowRedirects(false);
+			final int code = connection.getResponseCode();
+			if (code / 100 == 2) {
+				readFully(connection.getInputStream());
+				return true;
+			}
+			discard(connection);
+			if (code / 100 == 3 || code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE || code == HttpURLConnection.HTTP_FORBIDDEN)
+				return false;
+			throw new N5Exception.N5IOException("HEAD " + connection.getURL() + " failed with " + code + " " + connection.getResponseMessage());
+		} catch (final IOException e) {
+			throw new N5Exception.N5IOException("HEAD " + normalPath + " failed", e);
+		}
+	}
+
+	@Override
+	public HttpChannel lockForReading(final String normalPath) throws IOException {
+
+		return new HttpChannel(normalPath, get(normalPath, 0, chunkSize));
+	}
+
+	@Override
+	public HttpChannel tryLockForReading(final String normalPath) throws IOException {
+
+		try {
+			return lockForReading(normalPath);
+		} catch (final NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public LockedChannel lockForWriting(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	@Override
+	public boolean exists(final String normalPath) {
+
+		return isFile(normalPath) || isDirectory(normalPath);
+	}
+
+	@Override
+	public boolean isDirectory(final String normalPath) {
+
+		final String path = absolute(normalPath);
+		return head(path.equals("/") ? path : path + "/") || head(compose(path, N5KeyValueReader.ATTRIBUTES_JSON));
+	}
+
+	@Override
+	public boolean isFile(final String normalPath) {
+
+		final String path = absolute(normalPath);
+		return !path.equals("/") && head(path);
+	}
+
+	@Override
+	public String[] listDirectories(final String normalPath) throws IOException {
+
+		throw new N5Exception.N5IOException("Cannot list " + normalPath + ", HTTP does not support listing");
+	}
+
+	@Override
+	public String[] list(final String normalPath) throws IOException {
+
+		throw new N5Exception.N5IOException("Cannot list " + normalPath + ", HTTP does not support listing");
+	}
+
+	@Override
+	public void createDirectories(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	@Override
+	public void delete(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	private N5Exception.N5IOException readOnly(final String path) {
+
+		return new N5Exception.N5IOException("Cannot modify " + path + " on " + base.getAuthority() + " through HTTP");
+	}
+
+	private String absolute(final String path) {
+
+		return PosixPaths.absolute(normalize(path));
+	}
+
+	private static boolean isHttp(final String path) {
+
+		return path.startsWith("http:") || path.startsWith("https:");
+	}
+
+	/**
+	 * Removes "." and ".." components and redundant separators, and the
+	 * scheme and authority of HTTP URIs.
+	 *
+	 * @param path the path
+	 * @return the normalized path
+	 */
+	@Override
+	public String normalize(String path) {
+
+		if (isHttp(path))
+			path = URI.create(path).getPath();
+
+		return PosixPaths.normalize(path);
+	}
+
+	@Override
+	public URI uri(final String normalPath) throws URISyntaxException {
+
+		if (isHttp(normalPath))
+			return new URI(normalPath).normalize();
+
+		return new URI(base.getScheme(), base.getAuthority(), absolute(normalPath), null, null);
+	}
+}
@@ -0,0 +1,429 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link KeyValueAccess} that keeps all values in memory. This is most
+ * interesting as a fast scratch store for temporary datasets and to measure
+ * codecs without file system noise.
+ *
+ * Paths are separated by '/' and absolute, {@link #uri(String)} returns
+ * URIs with the scheme "memory" for paths without a scheme. Directories
+ * exist explicitly, they are created by {@link #createDirectories(String)}
+ * and for the parents of written values.
+ *
+ * Every key has a {@link ReentrantReadWriteLock} that is held by a
+ * {@link LockedChannel} until the channel or any of the readers, writers or
+ * streams created by it is closed. These locks are owned by threads, a
+ * channel must be closed by the thread that created it. Written values
+ * become visible atomically when the channel is closed.
+ *
+ * Optionally, the number of bytes kept in memory can be bounded. Values
+ * that exceed the budget are spilled to files in a spill directory and read
+ * from there. Spill files are deleted when their value is replaced or
+ * deleted.
+ */
+public class InMemoryKeyValueAccess implements PosixKeyValueAccess {
+
+	public static final String SCHEME = "memory";
+
+	private static final class Value {
+
+		/* null if spilled */
+		private final byte[] data;
+		private final Path file;
+		private final long size;
+
+		private Value(final byte[] data, final Path file, final long size) {
+
+			this.data = data;
+			this.file = file;
+			this.size = size;
+		}
+
+		private InputStream newInputStream() throws IOException {
+
+			return data == null ? Files.newInputStream(file) : new ByteArrayInputStream(data);
+		}
+	}
+
+	/**
+	 * A {@link LockedChannel} that holds a read or write lock on a key.
+	 * Written data is stored when the channel is closed.
+	 */
+	protected class LockedMemoryChannel implements LockedChannel {
+
+		protected final String path;
+
+		protected final boolean readOnly;
+
+		private final Lock lock;
+
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		private ByteArrayOutputStream written = null;
+
+		protected LockedMemoryChannel(final String path, final boolean readOnly) throws IOException {
+
+			this.path = path;
+			this.readOnly = readOnly;
+			final ReentrantReadWriteLock readWriteLock = locks.computeIfAbsent(path, k -> new ReentrantReadWriteLock());
+			lock = readOnly ? readWriteLock.readLock() : readWriteLock.writeLock();
+			try {
+				lock.lockInterruptibly();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw (InterruptedIOException)new InterruptedIOException("Interrupted while waiting for lock on " + path).initCause(e);
+			}
+
+			if (readOnly && !values.containsKey(path)) {
+				lock.unlock();
+				throw new NoSuchFileException(path);
+			}
+		}
+
+		@Override
+		public Reader newReader() throws IOException {
+
+			return new InputStreamReader(newInputStream(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public InputStream newInputStream() throws IOException {
+
+			final Value value = values.get(path);
+			return new FilterInputStream(value == null ? new ByteArrayInputStream(new byte[0]) : value.newInputStream()) {
+
+				@Override
+				public void close() throws IOException {
+
+					try {
+						super.close();
+					} finally {
+						LockedMemoryChannel.this.close();
+					}
+				}
+			};
+		}
+
+		@Override
+		public Writer newWriter() throws IOException {
+
+			return new OutputStreamWriter(newOutputStream(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public OutputStream newOutputStream() throws IOException {
+
+			if (readOnly)
+				throw new NonWritableChannelException();
+
+			written = new ByteArrayOutputStream() {
+
+				@Override
+				public void close() throws IOException {
+
+					LockedMemoryChannel.this.close();
+				}
+			};
+			return written;
+		}
+
+		/**
+		 * Returns a read-only view of the value if it is kept in memory,
+		 * null if it was spilled.
+		 */
+		@Override
+		public ByteBuffer newByteBuffer() throws IOException {
+
+			final Value value = values.get(path);
+			if (value == null || value.data == null)
+				return null;
+			else
+				return ByteBuffer.wrap(value.data).asReadOnlyBuffer();
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (!closed.getAndSet(true)) {
+				try {
+					if (written != null)
+						put(path, written.toByteArray());
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	private final ConcurrentHashMap<String, Value> values = new ConcurrentHashMap<>();
+
+	/* children by directory */
+	private final ConcurrentHashMap<String, Set<String>> directories = new ConcurrentHashMap<>();
+
+	/* locks are kept for the lifetime of this instance, such that waiting threads never hold a stale lock */
+	private final ConcurrentHashMap<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+
+	private final long maxBytes;
+
+	private Path spillDirectory;
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * Creates an unbounded {@link InMemoryKeyValueAccess}.
+	 */
+	public InMemoryKeyValueAccess() {
+
+		this(Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * Creates an {@link InMemoryKeyValueAccess} that keeps at most
+	 * {@code maxBytes} in memory and spills values that exceed this budget
+	 * to files.
+	 *
+	 * @param maxBytes the maximum number of bytes kept in memory
+	 * @param spillDirectory directory for spill files, if null, a temporary
+	 *            directory is created when needed
+	 */
+	public InMemoryKeyValueAccess(final long maxBytes, final Path spillDirectory) {
+
+		this.maxBytes = maxBytes;
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @return the number of bytes currently kept in memory
+	 */
+	public long getBytes() {
+
+		return bytes.get();
+	}
+
+	@Override
+	public LockedMemoryChannel lockForReading(final String normalPath) throws IOException {
+
+		return new LockedMemoryChannel(absolute(normalPath), true);
+	}
+
+	/**
+	 * Looks up and locks the value in one step, a missing value is not an
+	 * error but returns null.
+	 */
+	@Override
+	public LockedMemoryChannel tryLockForReading(final String normalPath) throws IOException {
+
+		try {
+			return lockForReading(normalPath);
+		} catch (final NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public LockedMemoryChannel lockForWriting(final String normalPath) throws IOException {
+
+		return new LockedMemoryChannel(absolute(normalPath), false);
+	}
+
+	@Override
+	public boolean exists(final String normalPath) {
+
+		final String path = absolute(normalPath);
+		return values.containsKey(path) || directories.containsKey(path);
+	}
+
+	@Override
+	public boolean isDirectory(final String normalPath) {
+
+		return directories.containsKey(absolute(normalPath));
+	}
+
+	@Override
+	public boolean isFile(final String normalPath) {
+
+		return values.containsKey(absolute(normalPath));
+	}
+
+	@Override
+	public String[] listDirectories(final String normalPath) throws IOException {
+
+		final String path = absolute(normalPath);
+		return children(path).stream()
+				.filter(a -> directories.containsKey(compose(path, a)))
+				.toArray(n -> new String[n]);
+	}
+
+	@Override
+	public String[] list(final String normalPath) throws IOException {
+
+		return children(absolute(normalPath)).toArray(new String[0]);
+	}
+
+	private Set<String> children(final String path) throws NoSuchFileException {
+
+		final Set<String> children = directories.get(path);
+		if (children == null)
+			throw new NoSuchFileException(path);
+		return children;
+	}
+
+	@Override
+	public void createDirectories(final String normalPath) throws IOException {
+
+		for (String path = absolute(normalPath); path != null; path = parent(path)) {
+			if (values.containsKey(path))
+				throw new FileAlreadyExistsException(path);
+			directories.computeIfAbsent(path, k -> ConcurrentHashMap.newKeySet());
+			final String parent = parent(path);
+			if (parent != null)
+				directories.computeIfAbsent(parent, k -> ConcurrentHashMap.newKeySet()).add(PosixPaths.name(path));
+		}
+	}
+
+	@Override
+	public void delete(final String normalPath) throws IOException {
+
+		final String path = absolute(normalPath);
+		if (values.containsKey(path)) {
+			try (final LockedMemoryChannel lock = lockForWriting(path)) {
+				release(values.remove(path));
+			}
+		} else if (directories.containsKey(path)) {
+			for (final String child : directories.get(path))
+				delete(compose(path, child));
+			directories.remove(path);
+		} else
+			throw new NoSuchFileException(path);
+
+		final String parent = parent(path);
+		if (parent != null) {
+			final Set<String> siblings = directories.get(parent);
+			if (siblings != null)
+				siblings.remove(PosixPaths.name(path));
+		}
+	}
+
+	protected void put(final String path, final byte[] data) throws IOException {
+
+		final String parent = parent(path);
+		if (parent != null) {
+			createDirectories(parent);
+			directories.get(parent).add(PosixPaths.name(path));
+		}
+		release(values.put(path, store(data)));
+	}
+
+	private Value store(final byte[] data) throws IOException {
+
+		if (bytes.addAndGet(data.length) <= maxBytes)
+			return new Value(data, null, data.length);
+
+		bytes.addAndGet(-data.length);
+		final Path file = Files.createTempFile(getSpillDirectory(), "n5-", ".bin");
+		Files.write(file, data);
+		return new Value(null, file, data.length);
+	}
+
+	private void release(final Value value) throws IOException {
+
+		if (value == null)
+			return;
+		if (value.data == null)
+			Files.deleteIfExists(value.file);
+		else
+			bytes.addAndGet(-value.size);
+	}
+
+	private synchronized Path getSpillDirectory() throws IOException {
+
+		if (spillDirectory == null)
+			spillDirectory = Files.createTempDirectory("n5-spill-");
+		return spillDirectory;
+	}
+
+	private String absolute(final String path) {
+
+		return normalize(path.startsWith("/") ? path : "/" + path);
+	}
+
+	/**
+	 * Removes "." and ".." components and redundant separators, and the
+	 * scheme of "memory" URIs.
+	 *
+	 * @param path the path
+	 * @return the normalized path
+	 */
+	@Override
+	public String normalize(String path) {
+
+		if (path.startsWith(SCHEME + ":"))
+			path = URI.create(path).getPath();
+
+		return PosixPaths.normalize(path);
+	}
+
+	@Override
+	public URI uri(final String normalPath) throws URISyntaxException {
+
+		try {
+			final URI uri = new URI(normalPath);
+			if (uri.isAbsolute())
+				return uri.normalize();
+		} catch (final URISyntaxException e) {}
+
+		return new URI(SCHEME, null, absolute(normalPath), null);
+	}
+}
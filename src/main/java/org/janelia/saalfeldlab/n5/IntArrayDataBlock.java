@@ -42,6 +42,26 @@ public class IntArrayDataBlock extends AbstractDataBlock<int[]> {
 		return buffer;
 	}
 
+	@Override
+	public ByteBuffer toByteBuffer(final ByteBufferPool pool) {
+
+		final ByteBuffer buffer = acquireByteBuffer(pool);
+		buffer.asIntBuffer().put(data);
+		return buffer;
+	}
+
+	@Override
+	public ByteBuffer acquireByteBuffer(final ByteBufferPool pool) {
+
+		return pool.acquire(data.length * 4);
+	}
+
+	@Override
+	public void releaseByteBuffer(final ByteBuffer buffer, final ByteBufferPool pool) {
+
+		pool.release(buffer);
+	}
+
 	@Override
 	public void readData(final ByteBuffer buffer) {
 
@@ -155,6 +155,30 @@ public interface KeyValueAccess {
 	 */
 	public LockedChannel lockForReading(final String normalPath) throws IOException;
 
+	/**
+	 * Create a lock on a path for reading if a file exists at that path.
+	 * This is equivalent to testing {@link #isFile(String)} before
+	 * {@link #lockForReading(String)} but implementations should override it
+	 * such that both happen in a single operation, e.g. by attempting to
+	 * open the file and treating a missing file as the result. This saves a
+	 * round trip per file for high latency backends and avoids the race
+	 * between testing and opening.
+	 *
+	 * @param normalPath
+	 *            is expected to be in normalized form, no further
+	 *            efforts are made to normalize it.
+	 * @return the locked channel or null if no file exists at that path
+	 * @throws IOException
+	 *             if a locked channel could not be created
+	 */
+	public default LockedChannel tryLockForReading(final String normalPath) throws IOException {
+
+		if (!isFile(normalPath))
+			return null;
+
+		return lockForReading(normalPath);
+	}
+
 	/**
 	 * Create an exclusive lock on a path for writing. If the file doesn't
 	 * exist yet, it will be created, including all directories leading up to
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.cache.BlockExistenceIndex;
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
+
+/**
+ * Reads, lists and updates the {@link DataBlock DataBlocks} of a
+ * {@link GsonKeyValueN5Reader} on behalf of its default methods.
+ */
+final class KeyValueBlocks {
+
+	private KeyValueBlocks() {}
+
+	/**
+	 * Collects the results of parallel block reads in order and cancels all
+	 * pending reads if one of them fails.
+	 *
+	 * @param futures
+	 *            the block futures
+	 * @return the data blocks
+	 * @throws ExecutionException
+	 *             if reading any of the blocks failed
+	 * @throws InterruptedException
+	 *             this exception is thrown if execution is interrupted
+	 */
+	static List<DataBlock<?>> collect(final List<Future<DataBlock<?>>> futures)
+			throws InterruptedException, ExecutionException {
+
+		final ArrayList<DataBlock<?>> blocks = new ArrayList<>(futures.size());
+		try {
+			for (final Future<DataBlock<?>> future : futures)
+				blocks.add(future.get());
+		} catch (InterruptedException | ExecutionException e) {
+			for (final Future<DataBlock<?>> future : futures)
+				future.cancel(true);
+			throw e;
+		}
+
+		return blocks;
+	}
+
+	/**
+	 * Reads a {@link DataBlock} from a normalized dataset path through the
+	 * block index and block cache of the reader.
+	 *
+	 * @param n5
+	 *            the reader
+	 * @param normalPath
+	 *            normalized dataset path
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @param gridPosition
+	 *            the grid position
+	 * @return the data block or null if it does not exist
+	 * @throws N5Exception
+	 *             the exception
+	 */
+	static DataBlock<?> readBlock(
+			final GsonKeyValueN5Reader n5,
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final BlockExistenceIndex blockIndex = n5.getBlockIndex();
+		if (blockIndex != null && !blockIndex.exists(
+				normalPath,
+				datasetAttributes,
+				gridPosition,
+				blocks -> scanBlocks(n5, normalPath, datasetAttributes, blocks)))
+			return null;
+
+		final DataBlockCache blockCache = n5.getBlockCache();
+		if (blockCache == null)
+			return readBlockFromContainer(n5, normalPath, datasetAttributes, gridPosition);
+		else
+			return blockCache.get(normalPath, gridPosition, () -> readBlockFromContainer(n5, normalPath, datasetAttributes, gridPosition));
+	}
+
+	private static DataBlock<?> readBlockFromContainer(
+			final GsonKeyValueN5Reader n5,
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		if (datasetAttributes.isSharded())
+			return readShardedBlock(n5, normalPath, datasetAttributes, gridPosition);
+
+		final String path = n5.absoluteDataBlockPath(normalPath, gridPosition);
+		try (final LockedChannel lockedChannel = n5.getKeyValueAccess().tryLockForReading(path)) {
+			if (lockedChannel == null)
+				return null;
+
+			final ByteBuffer buffer = lockedChannel.newByteBuffer();
+			if (buffer != null)
+				return DefaultBlockReader.readBlock(buffer, datasetAttributes, gridPosition);
+			else
+				return DefaultBlockReader.readBlock(lockedChannel.newInputStream(), datasetAttributes, gridPosition);
+		} catch (final IOException | UncheckedIOException e) {
+			throw new N5IOException(
+					"Failed to read block " + Arrays.toString(gridPosition) + " from dataset " + path,
+					e);
+		}
+	}
+
+	private static DataBlock<?> readShardedBlock(
+			final GsonKeyValueN5Reader n5,
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final long[] shardPosition = Shards.shardPosition(gridPosition, datasetAttributes.getBlocksPerShard());
+		final String path = n5.absoluteDataBlockPath(normalPath, shardPosition);
+		try (final LockedChannel lockedChannel = n5.getKeyValueAccess().tryLockForReading(path)) {
+			if (lockedChannel == null)
+				return null;
+
+			return Shards.readBlock(lockedChannel, datasetAttributes, gridPosition);
+		} catch (final IOException | UncheckedIOException e) {
+			throw new N5IOException(
+					"Failed to read block " + Arrays.toString(gridPosition) + " from shard " + path,
+					e);
+		}
+	}
+
+	/**
+	 * Finds all {@link DataBlock DataBlocks} that exist in a dataset by
+	 * listing its directory tree and reading the index of all shards.
+	 *
+	 * @param n5
+	 *            the reader
+	 * @param normalPath
+	 *            normalized dataset path
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @param blocks
+	 *            receives the grid positions of all existing blocks
+	 * @throws N5Exception
+	 *             if the dataset cannot be scanned
+	 */
+	static void scanBlocks(
+			final GsonKeyValueN5Reader n5,
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final Consumer<long[]> blocks) throws N5Exception {
+
+		final List<long[]> positions = new ArrayList<>();
+		try {
+			if (datasetAttributes.getNumDimensions() > 0)
+				scanGridPositions(
+						n5.getKeyValueAccess(),
+						n5.absoluteGroupPath(normalPath),
+						new long[datasetAttributes.getNumDimensions()],
+						0,
+						positions);
+		} catch (final IOException | UncheckedIOException e) {
+			throw new N5IOException("Failed to list blocks of dataset " + normalPath, e);
+		}
+
+		if (!datasetAttributes.isSharded()) {
+			positions.forEach(blocks);
+			return;
+		}
+
+		final int[] blocksPerShard = datasetAttributes.getBlocksPerShard();
+		final int numBlocks = Shards.numBlocks(blocksPerShard);
+		for (final long[] shardPosition : positions) {
+			final String path = n5.absoluteDataBlockPath(normalPath, shardPosition);
+			try (final LockedChannel lockedChannel = n5.getKeyValueAccess().tryLockForReading(path)) {
+				if (lockedChannel == null)
+					continue;
+
+				final boolean[] exists = Shards.readExistingBlocks(lockedChannel.newInputStream(), numBlocks);
+				for (int i = 0; i < numBlocks; ++i)
+					if (exists[i])
+						blocks.accept(Shards.gridPosition(shardPosition, i, blocksPerShard));
+			} catch (final IOException | UncheckedIOException e) {
+				throw new N5IOException("Failed to read index of shard " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * Collects the grid positions of all block or shard files below a
+	 * directory.
+	 *
+	 * @param keyValueAccess
+	 *            the key value access
+	 * @param path
+	 *            absolute path of the directory
+	 * @param gridPosition
+	 *            the grid position of the directory in the first d dimensions
+	 * @param d
+	 *            the dimension of the directory's children
+	 * @param gridPositions
+	 *            receives the grid positions
+	 * @throws IOException
+	 *             if a directory cannot be listed
+	 */
+	private static void scanGridPositions(
+			final KeyValueAccess keyValueAccess,
+			final String path,
+			final long[] gridPosition,
+			final int d,
+			final List<long[]> gridPositions) throws IOException {
+
+		final boolean last = d == gridPosition.length - 1;
+		final String[] children = last ? keyValueAccess.list(path) : keyValueAccess.listDirectories(path);
+		for (final String child : children) {
+			try {
+				gridPosition[d] = Long.parseLong(child);
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+			if (last)
+				gridPositions.add(gridPosition.clone());
+			else
+				scanGridPositions(keyValueAccess, keyValueAccess.compose(path, child), gridPosition, d + 1, gridPositions);
+		}
+	}
+
+	/**
+	 * Replaces encoded blocks in a shard.
+	 *
+	 * @param keyValueAccess
+	 *            the key value access
+	 * @param shardPath
+	 *            absolute shard path
+	 * @param numBlocks
+	 *            the number of blocks per shard
+	 * @param updates
+	 *            encoded blocks by index in the shard, null values remove
+	 *            blocks
+	 * @throws N5Exception
+	 *             the exception
+	 */
+	static void updateShard(
+			final KeyValueAccess keyValueAccess,
+			final String shardPath,
+			final int numBlocks,
+			final Map<Integer, byte[]> updates) throws N5Exception {
+
+		try (final LockedChannel lock = keyValueAccess.lockForWriting(shardPath)) {
+			Shards.updateShard(lock, numBlocks, updates);
+		} catch (final IOException | UncheckedIOException e) {
+			throw new N5IOException("Failed to write shard " + shardPath, e);
+		}
+	}
+}
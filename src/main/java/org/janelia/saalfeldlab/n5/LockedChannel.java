@@ -31,6 +31,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 
 /**
  * A lock on a path that can create a {@link Reader}, {@link Writer},
@@ -75,4 +76,20 @@ public interface LockedChannel extends Closeable {
 	 *             if an output stream could not be created
 	 */
 	public OutputStream newOutputStream() throws IOException;
+
+	/**
+	 * Create a read-only {@link ByteBuffer} view of the entire content, if
+	 * supported by this channel. This can be used to parse data without
+	 * copying it into intermediate arrays first, e.g. from a memory mapped
+	 * file. Implementations that do not support this return {@code null},
+	 * and callers have to fall back to {@link #newInputStream()}.
+	 *
+	 * @return the byte buffer or null
+	 * @throws IOException
+	 *             if the byte buffer could not be created
+	 */
+	public default ByteBuffer newByteBuffer() throws IOException {
+
+		return null;
+	}
 }
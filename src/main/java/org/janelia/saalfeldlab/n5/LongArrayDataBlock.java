@@ -42,6 +42,26 @@ public class LongArrayDataBlock extends AbstractDataBlock<long[]> {
 		return buffer;
 	}
 
+	@Override
+	public ByteBuffer toByteBuffer(final ByteBufferPool pool) {
+
+		final ByteBuffer buffer = acquireByteBuffer(pool);
+		buffer.asLongBuffer().put(data);
+		return buffer;
+	}
+
+	@Override
+	public ByteBuffer acquireByteBuffer(final ByteBufferPool pool) {
+
+		return pool.acquire(data.length * 8);
+	}
+
+	@Override
+	public void releaseByteBuffer(final ByteBuffer buffer, final ByteBufferPool pool) {
+
+		pool.release(buffer);
+	}
+
 	@Override
 	public void readData(final ByteBuffer buffer) {
 
@@ -25,20 +25,46 @@
  */
 package org.janelia.saalfeldlab.n5;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import org.janelia.saalfeldlab.n5.Compression.CompressionType;
 
 import net.jpountz.lz4.LZ4BlockInputStream;
 import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
 
+/**
+ * LZ4 compression in the block stream format of {@link LZ4BlockOutputStream}.
+ *
+ * Besides the streams, the format is also encoded and decoded on
+ * {@link ByteBuffer ByteBuffers} as a {@link BytesCodec}, which compresses
+ * straight from the buffer of a block and decompresses straight from, e.g.,
+ * a memory mapped file into the buffer of a block.
+ */
 @CompressionType("lz4")
-public class Lz4Compression implements DefaultBlockReader, DefaultBlockWriter, Compression {
+public class Lz4Compression implements DefaultBlockReader, DefaultBlockWriter, BytesCodec, Compression {
 
 	private static final long serialVersionUID = -9071316415067427256L;
 
+	/* frame layout of LZ4BlockOutputStream */
+	private static final byte[] MAGIC = {'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k'};
+	private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 4 + 4;
+	private static final int COMPRESSION_LEVEL_BASE = 10;
+	private static final int COMPRESSION_METHOD_RAW = 0x10;
+	private static final int COMPRESSION_METHOD_LZ4 = 0x20;
+	private static final int SEED = 0x9747b28c;
+	private static final int CHECKSUM_MASK = 0xFFFFFFF;
+
 	@CompressionParameter
 	private final int blockSize;
 
@@ -64,6 +90,175 @@ public class Lz4Compression implements DefaultBlockReader, DefaultBlockWriter, C
 		return new LZ4BlockOutputStream(out, blockSize);
 	}
 
+	private int compressionLevel() {
+
+		return Math.max(0, 32 - Integer.numberOfLeadingZeros(blockSize - 1) - COMPRESSION_LEVEL_BASE);
+	}
+
+	/**
+	 * @param header a little endian view of the output
+	 */
+	private static void putHeader(final ByteBuffer header, final int offset, final int token, final int compressedLength, final int length, final int checksum) {
+
+		for (int i = 0; i < MAGIC.length; ++i)
+			header.put(offset + i, MAGIC[i]);
+		header.put(offset + MAGIC.length, (byte)token);
+		header.putInt(offset + MAGIC.length + 1, compressedLength);
+		header.putInt(offset + MAGIC.length + 5, length);
+		header.putInt(offset + MAGIC.length + 9, checksum);
+	}
+
+	@Override
+	public ByteBuffer encode(final ByteBuffer bytes, final int elementSize) {
+
+		final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+		final XXHash32 hash = XXHashFactory.fastestInstance().hash32();
+		final int level = compressionLevel();
+
+		final int numFrames = (bytes.remaining() + blockSize - 1) / blockSize;
+		final ByteBuffer out = ByteBuffer.allocate((numFrames + 1) * HEADER_LENGTH + numFrames * compressor.maxCompressedLength(blockSize));
+		final ByteBuffer header = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int o = 0;
+		for (int offset = bytes.position(); offset < bytes.limit(); offset += blockSize) {
+			final int length = Math.min(blockSize, bytes.limit() - offset);
+			final int checksum = hash.hash(bytes, offset, length, SEED) & CHECKSUM_MASK;
+			final int data = o + HEADER_LENGTH;
+			int compressedLength = compressor.compress(bytes, offset, length, out, data, out.capacity() - data);
+			final int method;
+			if (compressedLength >= length) {
+				method = COMPRESSION_METHOD_RAW;
+				compressedLength = length;
+				final ByteBuffer src = bytes.duplicate();
+				src.limit(offset + length).position(offset);
+				out.position(data);
+				out.put(src);
+			} else
+				method = COMPRESSION_METHOD_LZ4;
+			putHeader(header, o, method | level, compressedLength, length, checksum);
+			o = data + compressedLength;
+		}
+		putHeader(header, o, COMPRESSION_METHOD_RAW | level, 0, 0, 0);
+		out.limit(o + HEADER_LENGTH);
+		out.position(0);
+		return out;
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer bytes, final int elementSize) throws IOException {
+
+		/* sum the decompressed sizes of all frames */
+		final ByteBuffer header = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		long length = 0;
+		for (int i = header.position();;) {
+			if (header.limit() - i < HEADER_LENGTH)
+				throw new EOFException("Unexpected end of LZ4 data");
+			final int compressedLength = header.getInt(i + MAGIC.length + 1);
+			final int frameLength = header.getInt(i + MAGIC.length + 5);
+			if (frameLength <= 0 || compressedLength <= 0 || compressedLength > header.limit() - i - HEADER_LENGTH)
+				break;
+			length += frameLength;
+			i += HEADER_LENGTH + compressedLength;
+		}
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("LZ4 data too large for a buffer");
+
+		final ByteBuffer decoded = ByteBuffer.allocate((int)length);
+		decode(bytes, decoded, elementSize);
+		decoded.flip();
+		return decoded;
+	}
+
+	@Override
+	public void decode(final ByteBuffer src, final ByteBuffer dst, final int elementSize) throws IOException {
+
+		final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+		final XXHash32 hash = XXHashFactory.fastestInstance().hash32();
+
+		final ByteBuffer header = src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int i = header.position();
+		while (true) {
+			if (header.limit() - i < HEADER_LENGTH)
+				throw new EOFException("Unexpected end of LZ4 data");
+			for (int j = 0; j < MAGIC.length; ++j)
+				if (header.get(i + j) != MAGIC[j])
+					throw new IOException("LZ4 data is corrupted");
+			final int token = header.get(i + MAGIC.length) & 0xff;
+			final int method = token & 0xf0;
+			final int level = COMPRESSION_LEVEL_BASE + (token & 0x0f);
+			final int compressedLength = header.getInt(i + MAGIC.length + 1);
+			final int length = header.getInt(i + MAGIC.length + 5);
+			final int checksum = header.getInt(i + MAGIC.length + 9);
+			if ((method != COMPRESSION_METHOD_RAW && method != COMPRESSION_METHOD_LZ4)
+					|| length > 1 << level || length < 0 || compressedLength < 0
+					|| (length == 0) != (compressedLength == 0)
+					|| (method == COMPRESSION_METHOD_RAW && length != compressedLength))
+				throw new IOException("LZ4 data is corrupted");
+
+			/* end of stream */
+			if (length == 0) {
+				if (checksum != 0)
+					throw new IOException("LZ4 data is corrupted");
+				return;
+			}
+
+			final int data = i + HEADER_LENGTH;
+			if (header.limit() - data < compressedLength)
+				throw new EOFException("Unexpected end of LZ4 data");
+			if (dst.remaining() < length)
+				throw new IOException("Decoded data exceeds the buffer by " + (length - dst.remaining()) + " bytes.");
+
+			final int o = dst.position();
+			if (method == COMPRESSION_METHOD_RAW) {
+				final ByteBuffer frame = src.duplicate();
+				frame.limit(data + length).position(data);
+				dst.put(frame);
+			} else {
+				try {
+					if (decompressor.decompress(src, data, compressedLength, dst, o, length) != length)
+						throw new IOException("LZ4 data is corrupted");
+				} catch (final LZ4Exception e) {
+					throw new IOException("LZ4 data is corrupted", e);
+				}
+				dst.position(o + length);
+			}
+			if ((hash.hash(dst, o, length, SEED) & CHECKSUM_MASK) != checksum)
+				throw new IOException("LZ4 data is corrupted");
+
+			i = data + compressedLength;
+		}
+	}
+
+	/**
+	 * Compresses the buffer of the block without copying it into the
+	 * buffer of an {@link LZ4BlockOutputStream} first.
+	 */
+	@Override
+	public <T> void write(final DataBlock<T> dataBlock, final OutputStream out) throws IOException {
+
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.toByteBuffer(pool);
+		final ByteBuffer encoded;
+		try {
+			encoded = encode(buffer, CodecChain.elementSize(dataBlock));
+		} finally {
+			dataBlock.releaseByteBuffer(buffer, pool);
+		}
+		try (final OutputStream o = out) {
+			o.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+			o.flush();
+		}
+	}
+
+	/**
+	 * Decompresses from the buffer, e.g. a memory mapped file, directly into
+	 * the buffer of the block.
+	 */
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final ByteBuffer buffer) throws IOException {
+
+		CodecChain.readData(dataBlock, this, buffer);
+	}
+
 	@Override
 	public Lz4Compression getReader() {
 
@@ -65,8 +65,46 @@ public class N5FSReader extends N5KeyValueReader {
 	public N5FSReader(final String basePath, final GsonBuilder gsonBuilder, final boolean cacheMeta)
 			throws N5Exception {
 
+		this(basePath, gsonBuilder, cacheMeta, false);
+	}
+
+	/**
+	 * Opens an {@link N5FSReader} at a given base path with a custom
+	 * {@link GsonBuilder} to support custom attributes.
+	 *
+	 * @param basePath
+	 *            N5 base path
+	 * @param gsonBuilder
+	 *            the gson builder
+	 * @param cacheMeta
+	 *            cache attributes and meta data
+	 *            Setting this to true avoids frequent reading and parsing of
+	 *            JSON encoded attributes and other meta data that requires
+	 *            accessing the store. This is most interesting for high latency
+	 *            backends. Changes of cached attributes and meta data by an
+	 *            independent writer on the same container will not be tracked.
+	 * @param immutable
+	 *            read without locking
+	 *            Setting this to true avoids acquiring a file lock for every
+	 *            read, which is most interesting for network file systems.
+	 *            The container must not be modified while it is open, see
+	 *            {@link ReadOnlyFileSystemKeyValueAccess}.
+	 *
+	 * @throws N5Exception
+	 *             if the base path cannot be read or does not exist, if the N5
+	 *             version of the container is not compatible with this
+	 *             implementation.
+	 */
+	public N5FSReader(
+			final String basePath,
+			final GsonBuilder gsonBuilder,
+			final boolean cacheMeta,
+			final boolean immutable) throws N5Exception {
+
 		super(
-				new FileSystemKeyValueAccess(FileSystems.getDefault()),
+				immutable
+						? new ReadOnlyFileSystemKeyValueAccess(FileSystems.getDefault())
+						: new FileSystemKeyValueAccess(FileSystems.getDefault()),
 				basePath,
 				gsonBuilder,
 				cacheMeta);
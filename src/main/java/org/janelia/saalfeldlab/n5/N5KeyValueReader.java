@@ -28,6 +28,8 @@ package org.janelia.saalfeldlab.n5;
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import org.janelia.saalfeldlab.n5.cache.BlockExistenceIndex;
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
 import org.janelia.saalfeldlab.n5.cache.N5JsonCache;
 
 import com.google.gson.Gson;
@@ -53,6 +55,10 @@ public class N5KeyValueReader implements CachedGsonKeyValueN5Reader {
 
 	private final N5JsonCache cache;
 
+	protected final DataBlockCache blockCache;
+
+	protected final BlockExistenceIndex blockIndex;
+
 	/**
 	 * Opens an {@link N5KeyValueReader} at a given base path with a custom
 	 * {@link GsonBuilder} to support custom attributes.
@@ -86,6 +92,82 @@ public class N5KeyValueReader implements CachedGsonKeyValueN5Reader {
 		this(true, keyValueAccess, basePath, gsonBuilder, cacheMeta);
 	}
 
+	/**
+	 * Opens an {@link N5KeyValueReader} at a given base path with a custom
+	 * {@link GsonBuilder} to support custom attributes and a cache of
+	 * decoded {@link DataBlock DataBlocks}.
+	 *
+	 * @param keyValueAccess
+	 * 			  the KeyValueAccess backend used
+	 * @param basePath
+	 *            N5 base path
+	 * @param gsonBuilder
+	 * 			  the GsonBuilder
+	 * @param cacheMeta
+	 *            cache attributes and meta data
+	 * @param blockCache
+	 *            cache for decoded blocks, can be shared by multiple readers
+	 *            of the same container, null to not cache blocks. Changes of
+	 *            blocks by other writers will not be tracked. Blocks are read
+	 *            as copies of the cached blocks, blocks with other than
+	 *            primitive array data must not be modified.
+	 *
+	 * @throws N5Exception
+	 *             if the base path cannot be read or does not exist, if the N5
+	 *             version of the container is not compatible with this
+	 *             implementation.
+	 */
+	public N5KeyValueReader(
+			final KeyValueAccess keyValueAccess,
+			final String basePath,
+			final GsonBuilder gsonBuilder,
+			final boolean cacheMeta,
+			final DataBlockCache blockCache)
+			throws N5Exception {
+
+		this(true, keyValueAccess, basePath, gsonBuilder, cacheMeta, blockCache, null);
+	}
+
+	/**
+	 * Opens an {@link N5KeyValueReader} at a given base path with a custom
+	 * {@link GsonBuilder} to support custom attributes, a cache of decoded
+	 * {@link DataBlock DataBlocks}, and an index of existing blocks.
+	 *
+	 * @param keyValueAccess
+	 * 			  the KeyValueAccess backend used
+	 * @param basePath
+	 *            N5 base path
+	 * @param gsonBuilder
+	 * 			  the GsonBuilder
+	 * @param cacheMeta
+	 *            cache attributes and meta data
+	 * @param blockCache
+	 *            cache for decoded blocks, null to not cache blocks. Blocks
+	 *            are read as copies of the cached blocks, blocks with other
+	 *            than primitive array data must not be modified.
+	 * @param blockIndex
+	 *            index of existing blocks, can be shared by multiple readers
+	 *            of the same container, null to not index blocks. Reading a
+	 *            block that is missing in the index does not access the
+	 *            store. Blocks written by other writers will not be tracked.
+	 *
+	 * @throws N5Exception
+	 *             if the base path cannot be read or does not exist, if the N5
+	 *             version of the container is not compatible with this
+	 *             implementation.
+	 */
+	public N5KeyValueReader(
+			final KeyValueAccess keyValueAccess,
+			final String basePath,
+			final GsonBuilder gsonBuilder,
+			final boolean cacheMeta,
+			final DataBlockCache blockCache,
+			final BlockExistenceIndex blockIndex)
+			throws N5Exception {
+
+		this(true, keyValueAccess, basePath, gsonBuilder, cacheMeta, blockCache, blockIndex);
+	}
+
 	/**
 	 * Opens an {@link N5KeyValueReader} at a given base path with a custom
 	 * {@link GsonBuilder} to support custom attributes.
@@ -119,7 +201,34 @@ public class N5KeyValueReader implements CachedGsonKeyValueN5Reader {
 			final boolean cacheMeta)
 			throws N5Exception {
 
+		this(checkVersion, keyValueAccess, basePath, gsonBuilder, cacheMeta, null);
+	}
+
+	protected N5KeyValueReader(
+			final boolean checkVersion,
+			final KeyValueAccess keyValueAccess,
+			final String basePath,
+			final GsonBuilder gsonBuilder,
+			final boolean cacheMeta,
+			final DataBlockCache blockCache)
+			throws N5Exception {
+
+		this(checkVersion, keyValueAccess, basePath, gsonBuilder, cacheMeta, blockCache, null);
+	}
+
+	protected N5KeyValueReader(
+			final boolean checkVersion,
+			final KeyValueAccess keyValueAccess,
+			final String basePath,
+			final GsonBuilder gsonBuilder,
+			final boolean cacheMeta,
+			final DataBlockCache blockCache,
+			final BlockExistenceIndex blockIndex)
+			throws N5Exception {
+
 		this.keyValueAccess = keyValueAccess;
+		this.blockCache = blockCache;
+		this.blockIndex = blockIndex;
 		this.gson = GsonUtils.registerGson(gsonBuilder);
 		this.cacheMeta = cacheMeta;
 		this.cache = newCache();
@@ -170,4 +279,16 @@ public class N5KeyValueReader implements CachedGsonKeyValueN5Reader {
 		return this.cache;
 	}
 
+	@Override
+	public DataBlockCache getBlockCache() {
+
+		return blockCache;
+	}
+
+	@Override
+	public BlockExistenceIndex getBlockIndex() {
+
+		return blockIndex;
+	}
+
 }
@@ -25,6 +25,9 @@
  */
 package org.janelia.saalfeldlab.n5;
 
+import org.janelia.saalfeldlab.n5.cache.BlockExistenceIndex;
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
+
 import com.google.gson.GsonBuilder;
 
 /**
@@ -68,7 +71,79 @@ public class N5KeyValueWriter extends N5KeyValueReader implements CachedGsonKeyV
 			final boolean cacheAttributes)
 			throws N5Exception {
 
-		super(false, keyValueAccess, basePath, gsonBuilder, cacheAttributes);
+		this(keyValueAccess, basePath, gsonBuilder, cacheAttributes, null);
+	}
+
+	/**
+	 * Opens an {@link N5KeyValueWriter} at a given base path with a custom
+	 * {@link GsonBuilder} to support custom attributes and a cache of
+	 * decoded {@link DataBlock DataBlocks}. Blocks written or deleted through
+	 * this writer are removed from the cache.
+	 *
+	 * @param keyValueAccess
+	 * 			  the backend key value access to use
+	 * @param basePath
+	 *            n5 base path
+	 * @param gsonBuilder
+	 *            the gson builder
+	 * @param cacheAttributes
+	 *            cache attributes and meta data
+	 * @param blockCache
+	 *            cache for decoded blocks, null to not cache blocks. Blocks
+	 *            are read as copies of the cached blocks, blocks with other
+	 *            than primitive array data must not be modified.
+	 * @throws N5Exception
+	 *             if the base path cannot be written to or cannot be created,
+	 *             if the N5 version of the container is not compatible with
+	 *             this implementation.
+	 */
+	public N5KeyValueWriter(
+			final KeyValueAccess keyValueAccess,
+			final String basePath,
+			final GsonBuilder gsonBuilder,
+			final boolean cacheAttributes,
+			final DataBlockCache blockCache)
+			throws N5Exception {
+
+		this(keyValueAccess, basePath, gsonBuilder, cacheAttributes, blockCache, null);
+	}
+
+	/**
+	 * Opens an {@link N5KeyValueWriter} at a given base path with a custom
+	 * {@link GsonBuilder} to support custom attributes, a cache of decoded
+	 * {@link DataBlock DataBlocks}, and an index of existing blocks. Blocks
+	 * written or deleted through this writer are removed from the cache and
+	 * updated in the index.
+	 *
+	 * @param keyValueAccess
+	 * 			  the backend key value access to use
+	 * @param basePath
+	 *            n5 base path
+	 * @param gsonBuilder
+	 *            the gson builder
+	 * @param cacheAttributes
+	 *            cache attributes and meta data
+	 * @param blockCache
+	 *            cache for decoded blocks, null to not cache blocks. Blocks
+	 *            are read as copies of the cached blocks, blocks with other
+	 *            than primitive array data must not be modified.
+	 * @param blockIndex
+	 *            index of existing blocks, null to not index blocks
+	 * @throws N5Exception
+	 *             if the base path cannot be written to or cannot be created,
+	 *             if the N5 version of the container is not compatible with
+	 *             this implementation.
+	 */
+	public N5KeyValueWriter(
+			final KeyValueAccess keyValueAccess,
+			final String basePath,
+			final GsonBuilder gsonBuilder,
+			final boolean cacheAttributes,
+			final DataBlockCache blockCache,
+			final BlockExistenceIndex blockIndex)
+			throws N5Exception {
+
+		super(false, keyValueAccess, basePath, gsonBuilder, cacheAttributes, blockCache, blockIndex);
 
 		Version version = null;
 		try {
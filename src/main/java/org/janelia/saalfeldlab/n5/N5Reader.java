@@ -276,7 +276,9 @@ public interface N5Reader extends AutoCloseable {
 	DatasetAttributes getDatasetAttributes(final String pathName) throws N5Exception;
 
 	/**
-	 * Reads a {@link DataBlock}.
+	 * Reads a {@link DataBlock}. Implementations that cache blocks return
+	 * copies of cached blocks with primitive array data. Blocks with other
+	 * data may be shared with the cache and must not be modified.
 	 *
 	 * @param pathName
 	 *            dataset path
@@ -293,6 +295,95 @@ public interface N5Reader extends AutoCloseable {
 			final DatasetAttributes datasetAttributes,
 			final long... gridPosition) throws N5Exception;
 
+	/**
+	 * Reads a {@link DataBlock}. If the block does not exist and the dataset
+	 * has a fill value, a new block filled with the fill value is returned.
+	 *
+	 * @param pathName
+	 *            dataset path
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @param gridPosition
+	 *            the grid position
+	 * @return the data block or null if it does not exist and the dataset has
+	 *         no fill value
+	 * @throws N5Exception
+	 *             the exception
+	 */
+	default DataBlock<?> readBlockOrFill(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final DataBlock<?> block = readBlock(pathName, datasetAttributes, gridPosition);
+		if (block == null)
+			return FillValues.createFilledBlock(datasetAttributes, gridPosition);
+		else
+			return block;
+	}
+
+	/**
+	 * Reads multiple {@link DataBlock DataBlocks} of the same dataset. The
+	 * returned list contains the blocks in the order of the requested grid
+	 * positions, with {@code null} entries for blocks that do not exist.
+	 *
+	 * @param pathName
+	 *            dataset path
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @param gridPositions
+	 *            the grid positions
+	 * @return the data blocks
+	 * @throws N5Exception
+	 *             the exception
+	 */
+	default List<DataBlock<?>> readBlocks(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final List<long[]> gridPositions) throws N5Exception {
+
+		final ArrayList<DataBlock<?>> blocks = new ArrayList<>(gridPositions.size());
+		for (final long[] gridPosition : gridPositions)
+			blocks.add(readBlock(pathName, datasetAttributes, gridPosition));
+
+		return blocks;
+	}
+
+	/**
+	 * Reads multiple {@link DataBlock DataBlocks} of the same dataset in
+	 * parallel, using the given {@link ExecutorService}. The returned list
+	 * contains the blocks in the order of the requested grid positions, with
+	 * {@code null} entries for blocks that do not exist.
+	 *
+	 * @param pathName
+	 *            dataset path
+	 * @param datasetAttributes
+	 *            the dataset attributes
+	 * @param gridPositions
+	 *            the grid positions
+	 * @param executor
+	 *            executor service
+	 * @return the data blocks
+	 * @throws N5Exception
+	 *             the exception
+	 * @throws ExecutionException
+	 *             if reading any of the blocks failed
+	 * @throws InterruptedException
+	 *             this exception is thrown if execution is interrupted
+	 */
+	default List<DataBlock<?>> readBlocks(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final List<long[]> gridPositions,
+			final ExecutorService executor) throws N5Exception, InterruptedException, ExecutionException {
+
+		final ArrayList<Future<DataBlock<?>>> futures = new ArrayList<>(gridPositions.size());
+		for (final long[] gridPosition : gridPositions)
+			futures.add(executor.submit(() -> readBlock(pathName, datasetAttributes, gridPosition)));
+
+		return KeyValueBlocks.collect(futures);
+	}
+
 	/**
 	 * Load a {@link DataBlock} as a {@link Serializable}. The offset is given
 	 * in
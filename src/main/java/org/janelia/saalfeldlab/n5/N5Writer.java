@@ -242,12 +242,32 @@ public interface N5Writer extends N5Reader {
 			final DatasetAttributes datasetAttributes,
 			final DataBlock<T> dataBlock) throws N5Exception;
 
+	/**
+	 * Writes a list of {@link DataBlock}s. Implementations can override this
+	 * to batch blocks that are stored together, e.g. in the same shard.
+	 *
+	 * @param datasetPath dataset path
+	 * @param datasetAttributes the dataset attributes
+	 * @param dataBlocks the data blocks
+	 * @param <T> the data block data type
+	 * @throws N5Exception the exception
+	 */
+	default <T> void writeBlocks(
+			final String datasetPath,
+			final DatasetAttributes datasetAttributes,
+			final List<? extends DataBlock<T>> dataBlocks) throws N5Exception {
+
+		for (final DataBlock<T> dataBlock : dataBlocks)
+			writeBlock(datasetPath, datasetAttributes, dataBlock);
+	}
+
 	/**
 	 * Deletes the block at {@code gridPosition}
 	 *
 	 * @param datasetPath dataset path
 	 * @param gridPosition position of block to be deleted
-	 * @throws N5Exception the exception
+	 * @throws N5Exception the exception, also if the dataset attributes
+	 *         are invalid because the block layout depends on them
 	 *
 	 * @return {@code true} if the block at {@code gridPosition} is "empty"
 	 *         after
@@ -261,6 +281,27 @@ public interface N5Writer extends N5Reader {
 			final String datasetPath,
 			final long... gridPosition) throws N5Exception;
 
+	/**
+	 * Deletes the block at {@code gridPosition} of a dataset whose
+	 * attributes are known, such that they do not have to be read from the
+	 * container.
+	 *
+	 * @param datasetPath dataset path
+	 * @param datasetAttributes the dataset attributes
+	 * @param gridPosition position of block to be deleted
+	 * @throws N5Exception the exception
+	 *
+	 * @return {@code true} if the block at {@code gridPosition} is "empty"
+	 *         after deletion, see {@link #deleteBlock(String, long...)}
+	 */
+	default boolean deleteBlock(
+			final String datasetPath,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		return deleteBlock(datasetPath, gridPosition);
+	}
+
 	/**
 	 * Save a {@link Serializable} as an N5 {@link DataBlock} at a given offset.
 	 * The
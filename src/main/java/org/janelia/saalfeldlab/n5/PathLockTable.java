@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A JVM-wide table of shared and exclusive locks on files, keyed by
+ * normalized absolute path.
+ *
+ * {@link FileChannel#lock(long, long, boolean) File locks} are held on
+ * behalf of the entire JVM and cannot be used to coordinate threads of the
+ * same process, overlapping lock attempts throw an
+ * {@link OverlappingFileLockException} instead of waiting. This table
+ * coordinates threads in-process: shared holders wait only for an exclusive
+ * holder, exclusive holders wait for all other holders, and waiting threads
+ * are woken up as soon as the lock is released. All concurrent holders of a
+ * path share a single {@link FileChannel}, the first holder opens it and
+ * acquires the file lock on it to coordinate with other processes, the last
+ * holder closes it which releases the file lock. Sharing the channel is
+ * important because on some systems, closing any channel on a file releases
+ * all locks that the process holds on that file.
+ *
+ * Waiting exclusive holders take precedence over new shared holders, so
+ * writers do not starve under heavy read load. Locks are not reentrant, a
+ * thread must not request a lock on a path that it already holds.
+ */
+class PathLockTable {
+
+	/**
+	 * Opens the channel for a path, may return null if there is no file to
+	 * lock, then only threads of this JVM are coordinated.
+	 */
+	@FunctionalInterface
+	interface ChannelOpener {
+
+		FileChannel open() throws IOException;
+	}
+
+	private static class Entry {
+
+		/* number of threads holding or waiting for this entry, guarded by the map */
+		private int references = 0;
+
+		/* guarded by this */
+		private int shared = 0;
+		private boolean exclusive = false;
+		private int waitingExclusive = 0;
+		private FileChannel channel = null;
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Acquires a shared or exclusive lock on a path, waiting if necessary.
+	 *
+	 * @param key
+	 *            normalized absolute path
+	 * @param shared
+	 *            acquire a shared lock if true, an exclusive lock otherwise
+	 * @param opener
+	 *            opens the channel for this path if no other thread currently
+	 *            holds it, the channel must be readable for shared locks and
+	 *            writable for exclusive locks
+	 * @return the channel shared by all current holders of the lock
+	 * @throws IOException
+	 *             if the channel could not be opened or the thread was
+	 *             interrupted while waiting
+	 */
+	FileChannel acquire(final String key, final boolean shared, final ChannelOpener opener) throws IOException {
+
+		final Entry entry = entries.compute(key, (k, e) -> {
+			final Entry f = e == null ? new Entry() : e;
+			++f.references;
+			return f;
+		});
+
+		synchronized (entry) {
+			try {
+				if (shared) {
+					while (entry.exclusive || entry.waitingExclusive > 0)
+						entry.wait();
+					++entry.shared;
+				} else {
+					++entry.waitingExclusive;
+					try {
+						while (entry.exclusive || entry.shared > 0)
+							entry.wait();
+					} finally {
+						--entry.waitingExclusive;
+					}
+					entry.exclusive = true;
+				}
+			} catch (final InterruptedException e) {
+				entry.notifyAll();
+				dereference(key);
+				Thread.currentThread().interrupt();
+				throw (InterruptedIOException)new InterruptedIOException("Interrupted while waiting for lock on " + key).initCause(e);
+			}
+
+			if (entry.channel == null) {
+				try {
+					entry.channel = opener.open();
+					if (entry.channel != null)
+						lockChannel(entry.channel, shared);
+				} catch (final IOException | RuntimeException e) {
+					if (entry.channel != null)
+						entry.channel.close();
+					entry.channel = null;
+					if (shared)
+						--entry.shared;
+					else
+						entry.exclusive = false;
+					entry.notifyAll();
+					dereference(key);
+					throw e;
+				}
+			}
+			return entry.channel;
+		}
+	}
+
+	/**
+	 * Releases a lock acquired with
+	 * {@link #acquire(String, boolean, ChannelOpener)}. The last holder
+	 * closes the shared channel.
+	 *
+	 * @param key
+	 *            normalized absolute path
+	 * @param shared
+	 *            whether the lock was shared
+	 * @throws IOException
+	 *             if the channel could not be closed
+	 */
+	void release(final String key, final boolean shared) throws IOException {
+
+		final Entry entry = entries.get(key);
+		try {
+			synchronized (entry) {
+				if (shared)
+					--entry.shared;
+				else
+					entry.exclusive = false;
+
+				try {
+					if (entry.shared == 0 && !entry.exclusive && entry.channel != null) {
+						final FileChannel channel = entry.channel;
+						entry.channel = null;
+						channel.close();
+					}
+				} finally {
+					entry.notifyAll();
+				}
+			}
+		} finally {
+			dereference(key);
+		}
+	}
+
+	private void dereference(final String key) {
+
+		entries.computeIfPresent(key, (k, e) -> --e.references == 0 ? null : e);
+	}
+
+	private static void lockChannel(final FileChannel channel, final boolean shared) throws InterruptedIOException {
+
+		for (boolean waiting = true; waiting;) {
+			waiting = false;
+			try {
+				channel.lock(0L, Long.MAX_VALUE, shared);
+			} catch (final OverlappingFileLockException e) {
+				/*
+				 * Only happens if the same file is locked through a different
+				 * path, e.g. a symbolic link, wait and reattempt.
+				 */
+				waiting = true;
+				try {
+					Thread.sleep(100);
+				} catch (final InterruptedException f) {
+					Thread.currentThread().interrupt();
+					throw (InterruptedIOException)new InterruptedIOException().initCause(f);
+				}
+			} catch (final IOException e) {
+				/* the file system does not support locking */
+			}
+		}
+	}
+}
@@ -0,0 +1,443 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Zlib and gzip streams that reuse their {@link Inflater Inflaters},
+ * {@link Deflater Deflaters}, and I/O buffers.
+ *
+ * Each new {@link java.util.zip.InflaterInputStream} or
+ * {@link java.util.zip.GZIPOutputStream} allocates native zlib state that is
+ * only freed by the garbage collector, which causes native memory churn at
+ * high block rates. The streams here take their state from small bounded
+ * pools and return it, reset, when they are closed. State beyond the pool
+ * capacity is ended right away.
+ *
+ * The gzip streams write the same header as commons-compress' gzip
+ * streams and read concatenated members, so they are interchangeable with
+ * the streams previously used by {@link GzipCompression}.
+ */
+final class PooledZlib {
+
+	static final int BUFFER_SIZE = 1 << 15;
+
+	private static final int POOL_CAPACITY = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private PooledZlib() {}
+
+	/**
+	 * A bounded pool of reusable objects.
+	 */
+	static final class Pool<T> {
+
+		private final ArrayBlockingQueue<T> queue = new ArrayBlockingQueue<>(POOL_CAPACITY);
+
+		private final Supplier<T> factory;
+
+		private final Consumer<T> disposer;
+
+		Pool(final Supplier<T> factory, final Consumer<T> disposer) {
+
+			this.factory = factory;
+			this.disposer = disposer;
+		}
+
+		T acquire() {
+
+			final T t = queue.poll();
+			return t == null ? factory.get() : t;
+		}
+
+		void release(final T t) {
+
+			if (!queue.offer(t))
+				disposer.accept(t);
+		}
+
+		int size() {
+
+			return queue.size();
+		}
+	}
+
+	private static final class Inflation {
+
+		final Inflater inflater;
+
+		final byte[] buffer = new byte[BUFFER_SIZE];
+
+		Inflation(final boolean nowrap) {
+
+			inflater = new Inflater(nowrap);
+		}
+	}
+
+	private static final class Deflation {
+
+		final Deflater deflater;
+
+		final byte[] buffer = new byte[BUFFER_SIZE];
+
+		Deflation(final int level, final boolean nowrap) {
+
+			deflater = new Deflater(level, nowrap);
+		}
+	}
+
+	private static final Pool<Inflation> zlibInflations = new Pool<>(() -> new Inflation(false), i -> i.inflater.end());
+
+	private static final Pool<Inflation> gzipInflations = new Pool<>(() -> new Inflation(true), i -> i.inflater.end());
+
+	/* keyed by level and nowrap, deflaters cannot change nowrap, and changing the level of a reset deflater may change its output */
+	private static final ConcurrentHashMap<Integer, Pool<Deflation>> deflations = new ConcurrentHashMap<>();
+
+	private static Pool<Inflation> inflations(final boolean gzip) {
+
+		return gzip ? gzipInflations : zlibInflations;
+	}
+
+	private static Pool<Deflation> deflations(final int level, final boolean gzip) {
+
+		return deflations.computeIfAbsent(
+				2 * level + (gzip ? 1 : 0),
+				k -> new Pool<>(() -> new Deflation(level, gzip), d -> d.deflater.end()));
+	}
+
+	/**
+	 * @param in
+	 *            the compressed stream, closed with the returned stream
+	 * @param gzip
+	 *            whether the stream is in gzip or in zlib format
+	 * @return the decompressed stream
+	 */
+	static InputStream inflate(final InputStream in, final boolean gzip) throws IOException {
+
+		return new PooledInflaterInputStream(in, gzip);
+	}
+
+	/**
+	 * @param out
+	 *            the output stream, closed with the returned stream
+	 * @param level
+	 *            the compression level
+	 * @param gzip
+	 *            whether to write gzip or zlib format
+	 * @return the compressing stream
+	 */
+	static OutputStream deflate(final OutputStream out, final int level, final boolean gzip) throws IOException {
+
+		return new PooledDeflaterOutputStream(out, level, gzip);
+	}
+
+	private static final class PooledInflaterInputStream extends InputStream {
+
+		private final InputStream in;
+
+		private final boolean gzip;
+
+		private final Pool<Inflation> pool;
+
+		private Inflation inflation;
+
+		private final CRC32 crc = new CRC32();
+
+		/* the bytes of the buffer that have been handed to the inflater */
+		private int position = 0;
+
+		private int limit = 0;
+
+		private boolean eof = false;
+
+		private final byte[] single = new byte[1];
+
+		private PooledInflaterInputStream(final InputStream in, final boolean gzip) throws IOException {
+
+			this.in = in;
+			this.gzip = gzip;
+			pool = inflations(gzip);
+			inflation = pool.acquire();
+			if (gzip) {
+				try {
+					readHeader(true);
+				} catch (final IOException e) {
+					close();
+					throw e;
+				}
+			}
+		}
+
+		private int readByte() throws IOException {
+
+			if (position == limit) {
+				final int n = in.read(inflation.buffer);
+				if (n == -1)
+					return -1;
+				position = 0;
+				limit = n;
+			}
+			return inflation.buffer[position++] & 0xff;
+		}
+
+		private int readRequiredByte() throws IOException {
+
+			final int b = readByte();
+			if (b == -1)
+				throw new EOFException("Unexpected end of gzip stream");
+			return b;
+		}
+
+		private int readShort() throws IOException {
+
+			return readRequiredByte() | (readRequiredByte() << 8);
+		}
+
+		private long readInt() throws IOException {
+
+			return readShort() | ((long)readShort() << 16);
+		}
+
+		/**
+		 * Reads the header of a gzip member. Like
+		 * {@link java.util.zip.GZIPInputStream}, bytes after a member that
+		 * do not start another member are ignored.
+		 *
+		 * @param first
+		 *            whether this is the first member, which is required
+		 * @return false if there is no further gzip member
+		 */
+		private boolean readHeader(final boolean first) throws IOException {
+
+			final int b0 = first ? readRequiredByte() : readByte();
+			final int b1 = b0 == -1 ? -1 : readByte();
+			if (b0 == -1 || b1 == -1 || (b0 | (b1 << 8)) != GZIP_MAGIC) {
+				if (first)
+					throw new ZipException("Not in gzip format");
+				return false;
+			}
+			if (readRequiredByte() != Deflater.DEFLATED)
+				throw new ZipException("Unsupported gzip compression method");
+			final int flags = readRequiredByte();
+			/* mtime, xfl, os */
+			for (int i = 0; i < 6; ++i)
+				readRequiredByte();
+			if ((flags & FEXTRA) != 0)
+				for (int i = readShort(); i > 0; --i)
+					readRequiredByte();
+			if ((flags & FNAME) != 0)
+				while (readRequiredByte() != 0);
+			if ((flags & FCOMMENT) != 0)
+				while (readRequiredByte() != 0);
+			if ((flags & FHCRC) != 0)
+				readShort();
+
+			inflation.inflater.reset();
+			inflation.inflater.setInput(inflation.buffer, position, limit - position);
+			position = limit;
+			crc.reset();
+			return true;
+		}
+
+		private void readTrailer() throws IOException {
+
+			final Inflater inflater = inflation.inflater;
+			position = limit - inflater.getRemaining();
+			final long checksum = readInt();
+			final long size = readInt();
+			if (checksum != crc.getValue() || size != (inflater.getBytesWritten() & 0xffffffffL))
+				throw new ZipException("Corrupt gzip trailer");
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+
+			if (inflation == null)
+				throw new IOException("Stream closed");
+			if (len == 0)
+				return 0;
+
+			final Inflater inflater = inflation.inflater;
+			while (!eof) {
+				final int n;
+				try {
+					n = inflater.inflate(b, off, len);
+				} catch (final DataFormatException e) {
+					throw new ZipException(e.getMessage());
+				}
+				if (n > 0) {
+					if (gzip)
+						crc.update(b, off, n);
+					return n;
+				}
+				if (inflater.finished()) {
+					if (gzip) {
+						readTrailer();
+						eof = !readHeader(false);
+					} else
+						eof = true;
+				} else if (inflater.needsDictionary())
+					throw new ZipException("Zlib dictionaries are not supported");
+				else if (inflater.needsInput()) {
+					limit = in.read(inflation.buffer);
+					if (limit == -1)
+						throw new EOFException("Unexpected end of " + (gzip ? "gzip" : "zlib") + " stream");
+					position = limit;
+					inflater.setInput(inflation.buffer, 0, limit);
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (inflation != null) {
+				inflation.inflater.reset();
+				pool.release(inflation);
+				inflation = null;
+				in.close();
+			}
+		}
+	}
+
+	private static final class PooledDeflaterOutputStream extends FilterOutputStream {
+
+		private final boolean gzip;
+
+		private final Pool<Deflation> pool;
+
+		private Deflation deflation;
+
+		private final CRC32 crc = new CRC32();
+
+		private PooledDeflaterOutputStream(final OutputStream out, final int level, final boolean gzip) throws IOException {
+
+			super(out);
+			this.gzip = gzip;
+			pool = deflations(level, gzip);
+			deflation = pool.acquire();
+			if (gzip) {
+				out.write(new byte[]{
+						(byte)GZIP_MAGIC,
+						(byte)(GZIP_MAGIC >> 8),
+						Deflater.DEFLATED,
+						0, // flags
+						0, 0, 0, 0, // mtime
+						(byte)(level == Deflater.BEST_COMPRESSION ? 2 : level == Deflater.BEST_SPEED ? 4 : 0),
+						(byte)255 // unknown OS
+				});
+			}
+		}
+
+		private void deflate() throws IOException {
+
+			final int n = deflation.deflater.deflate(deflation.buffer, 0, deflation.buffer.length);
+			if (n > 0)
+				out.write(deflation.buffer, 0, n);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+
+			write(new byte[]{(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+
+			if (deflation == null)
+				throw new IOException("Stream closed");
+			if (len == 0)
+				return;
+
+			if (gzip)
+				crc.update(b, off, len);
+			final Deflater deflater = deflation.deflater;
+			deflater.setInput(b, off, len);
+			while (!deflater.needsInput())
+				deflate();
+		}
+
+		private void writeInt(final long i) throws IOException {
+
+			out.write((int)i);
+			out.write((int)(i >> 8));
+			out.write((int)(i >> 16));
+			out.write((int)(i >> 24));
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (deflation == null)
+				return;
+
+			try {
+				final Deflater deflater = deflation.deflater;
+				deflater.finish();
+				while (!deflater.finished())
+					deflate();
+				if (gzip) {
+					writeInt(crc.getValue());
+					writeInt(deflater.getBytesRead());
+				}
+				out.flush();
+			} finally {
+				deflation.deflater.reset();
+				pool.release(deflation);
+				deflation = null;
+				out.close();
+			}
+		}
+	}
+}
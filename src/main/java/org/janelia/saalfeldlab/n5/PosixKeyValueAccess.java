@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+/**
+ * {@link KeyValueAccess} with '/' separated keys independent of a file
+ * system. Implementations override {@link #normalize(String)} to strip
+ * their URI scheme, all other path operations are derived from it through
+ * {@link PosixPaths}.
+ */
+interface PosixKeyValueAccess extends KeyValueAccess {
+
+	@Override
+	default String[] components(final String path) {
+
+		return PosixPaths.components(normalize(path));
+	}
+
+	@Override
+	default String compose(final String... components) {
+
+		if (components == null || components.length == 0)
+			return null;
+
+		return normalize(String.join("/", components));
+	}
+
+	@Override
+	default String parent(final String path) {
+
+		return PosixPaths.parent(normalize(path));
+	}
+
+	@Override
+	default String relativize(final String path, final String base) {
+
+		return PosixPaths.relativize(normalize(path), normalize(base));
+	}
+
+	/**
+	 * Removes "." and ".." components and redundant separators.
+	 *
+	 * @param path the path
+	 * @return the normalized path
+	 */
+	@Override
+	default String normalize(final String path) {
+
+		return PosixPaths.normalize(path);
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.util.ArrayList;
+
+/**
+ * Path operations for {@link KeyValueAccess} implementations that use '/'
+ * separated keys independent of a file system.
+ */
+final class PosixPaths {
+
+	private PosixPaths() {}
+
+	/**
+	 * Removes "." and ".." components and redundant separators.
+	 *
+	 * @param path the path
+	 * @return the normalized path
+	 */
+	static String normalize(final String path) {
+
+		final boolean absolute = path.startsWith("/");
+		final ArrayList<String> components = new ArrayList<>();
+		for (final String component : path.split("/")) {
+			if (component.isEmpty() || component.equals("."))
+				continue;
+			if (component.equals("..") && !components.isEmpty() && !components.get(components.size() - 1).equals(".."))
+				components.remove(components.size() - 1);
+			else if (!(component.equals("..") && absolute))
+				components.add(component);
+		}
+		return (absolute ? "/" : "") + String.join("/", components);
+	}
+
+	/**
+	 * @param path the path
+	 * @return the normalized absolute path
+	 */
+	static String absolute(final String path) {
+
+		return normalize(path.startsWith("/") ? path : "/" + path);
+	}
+
+	/**
+	 * @param normalPath a normalized path
+	 * @return the last component of the path
+	 */
+	static String name(final String normalPath) {
+
+		return normalPath.substring(normalPath.lastIndexOf('/') + 1);
+	}
+
+	static String[] components(final String path) {
+
+		final String normalPath = normalize(path);
+		final ArrayList<String> components = new ArrayList<>();
+		if (normalPath.startsWith("/"))
+			components.add("/");
+		for (final String component : normalPath.split("/"))
+			if (!component.isEmpty())
+				components.add(component);
+		if (components.isEmpty())
+			components.add("");
+		return components.toArray(new String[0]);
+	}
+
+	static String compose(final String... components) {
+
+		if (components == null || components.length == 0)
+			return null;
+
+		return normalize(String.join("/", components));
+	}
+
+	static String parent(final String path) {
+
+		final String normalPath = normalize(path);
+		final int i = normalPath.lastIndexOf('/');
+		if (i < 0 || normalPath.equals("/"))
+			return null;
+		else if (i == 0)
+			return "/";
+		else
+			return normalPath.substring(0, i);
+	}
+
+	static String relativize(final String path, final String base) {
+
+		final String[] pathComponents = components(path);
+		final String[] baseComponents = components(base);
+		int common = 0;
+		while (common < pathComponents.length && common < baseComponents.length && pathComponents[common].equals(baseComponents[common]))
+			++common;
+
+		final ArrayList<String> relative = new ArrayList<>();
+		for (int i = common; i < baseComponents.length; ++i)
+			if (!baseComponents[i].isEmpty())
+				relative.add("..");
+		for (int i = common; i < pathComponents.length; ++i)
+			relative.add(pathComponents[i]);
+		return String.join("/", relative);
+	}
+}
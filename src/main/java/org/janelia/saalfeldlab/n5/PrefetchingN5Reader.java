@@ -0,0 +1,439 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link N5Reader} that prefetches the blocks that will likely be read
+ * next.
+ *
+ * {@link #readBlock(String, DatasetAttributes, long...)} tracks the grid
+ * positions read from each dataset. When the same step between consecutive
+ * positions repeats, the next {@code depth} positions along this stride are
+ * loaded asynchronously on the executor. Unit strides sweep: a step back
+ * along the stride axis combined with a step forward along the next axis is
+ * recognized as the start of a new row, and the extent of the row is used
+ * to predict the following rows. This covers slice by slice and tile by
+ * tile scans in raster order.
+ *
+ * Prefetched blocks are kept until they are read or until they expire.
+ * The number of prefetches that are running or waiting to be read is
+ * capped, predictions that exceed the cap are dropped.
+ * {@link #getUsefulCount()} counts prefetched blocks that were read,
+ * {@link #getWastedCount()} counts those that expired or were dropped on
+ * {@link #close()}.
+ *
+ * Prefetched blocks are not updated when the container changes, this reader
+ * is meant for reading containers that do not change while they are read.
+ */
+public class PrefetchingN5Reader implements N5Reader {
+
+	private static final class Prefetch {
+
+		private final Future<DataBlock<?>> future;
+		private final long time;
+
+		private Prefetch(final Future<DataBlock<?>> future, final long time) {
+
+			this.future = future;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * The access pattern of a dataset.
+	 */
+	private static final class AccessPattern {
+
+		private long[] last = null;
+
+		private long[] stride = null;
+
+		/* axis and extent of rows of a sweep, -1 if not known */
+		private int sweepAxis = -1;
+		private long sweepMin;
+		private long sweepMax;
+
+		private static int unitAxis(final long[] stride) {
+
+			int axis = -1;
+			for (int d = 0; d < stride.length; ++d) {
+				if (stride[d] == 0)
+					continue;
+				if (axis >= 0 || Math.abs(stride[d]) != 1)
+					return -1;
+				axis = d;
+			}
+			return axis;
+		}
+
+		/**
+		 * @return true if the step from last to position starts a new row
+		 *         of a sweep with the current stride
+		 */
+		private boolean isNewRow(final long[] delta) {
+
+			final int d = unitAxis(stride);
+			if (d < 0 || d + 1 >= delta.length || delta[d + 1] != 1 || Long.signum(delta[d]) != -stride[d])
+				return false;
+			for (int i = 0; i < delta.length; ++i)
+				if (i != d && i != d + 1 && delta[i] != 0)
+					return false;
+			return true;
+		}
+
+		/**
+		 * @return the position after p, or null if there is none
+		 */
+		private long[] next(final long[] p, final long[] gridSize) {
+
+			final long[] next = p.clone();
+			for (int d = 0; d < next.length; ++d)
+				next[d] += stride[d];
+
+			int d = unitAxis(stride);
+			if (d >= 0) {
+				final long min = d == sweepAxis ? sweepMin : 0;
+				final long max = d == sweepAxis ? sweepMax : gridSize[d] - 1;
+				if (next[d] < min || next[d] > max) {
+					/* start a new row and carry into higher axes */
+					next[d] = stride[d] > 0 ? min : max;
+					for (++d; d < next.length; ++d) {
+						if (++next[d] < gridSize[d])
+							break;
+						next[d] = 0;
+					}
+					if (d == next.length)
+						return null;
+				}
+			}
+
+			for (d = 0; d < next.length; ++d)
+				if (next[d] < 0 || next[d] >= gridSize[d])
+					return null;
+			return next;
+		}
+
+		/**
+		 * Records an access and predicts the next positions.
+		 *
+		 * @return the predicted positions, empty if there is no pattern
+		 */
+		private synchronized List<long[]> access(final long[] position, final long[] gridSize, final int depth) {
+
+			final List<long[]> predictions = new ArrayList<>(depth);
+			if (last == null || last.length != position.length) {
+				last = position;
+				return predictions;
+			}
+
+			final long[] delta = new long[position.length];
+			boolean zero = true;
+			for (int d = 0; d < delta.length; ++d) {
+				delta[d] = position[d] - last[d];
+				zero &= delta[d] == 0;
+			}
+			if (zero)
+				return predictions;
+
+			final boolean confirmed;
+			if (Arrays.equals(delta, stride))
+				confirmed = true;
+			else if (stride != null && isNewRow(delta)) {
+				sweepAxis = unitAxis(stride);
+				sweepMin = Math.min(position[sweepAxis], last[sweepAxis]);
+				sweepMax = Math.max(position[sweepAxis], last[sweepAxis]);
+				confirmed = true;
+			} else {
+				stride = delta;
+				sweepAxis = -1;
+				confirmed = false;
+			}
+			last = position;
+
+			if (confirmed) {
+				long[] p = position;
+				for (int i = 0; i < depth && (p = next(p, gridSize)) != null; ++i)
+					predictions.add(p);
+			}
+			return predictions;
+		}
+	}
+
+	protected final N5Reader n5;
+
+	protected final ExecutorService executor;
+
+	protected final int depth;
+
+	protected final long ttlMillis;
+
+	private final Semaphore permits;
+
+	private final ConcurrentHashMap<String, AccessPattern> patterns = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<BlockKey, Prefetch> prefetches = new ConcurrentHashMap<>();
+
+	private final LongAdder issued = new LongAdder();
+
+	private final LongAdder useful = new LongAdder();
+
+	private final LongAdder wasted = new LongAdder();
+
+	/**
+	 * Creates a {@link PrefetchingN5Reader} that prefetches up to 4 blocks
+	 * ahead, holds at most 16 prefetches, and keeps prefetched blocks for
+	 * 10 seconds.
+	 *
+	 * @param n5 the reader
+	 * @param executor the executor that loads blocks
+	 */
+	public PrefetchingN5Reader(final N5Reader n5, final ExecutorService executor) {
+
+		this(n5, executor, 4, 16, 10000);
+	}
+
+	/**
+	 * Creates a {@link PrefetchingN5Reader}.
+	 *
+	 * @param n5 the reader
+	 * @param executor the executor that loads blocks
+	 * @param depth the number of blocks to prefetch ahead
+	 * @param maxPrefetches the maximum number of prefetches that are
+	 *            running or waiting to be read
+	 * @param ttlMillis time after which unread prefetched blocks are dropped
+	 */
+	public PrefetchingN5Reader(
+			final N5Reader n5,
+			final ExecutorService executor,
+			final int depth,
+			final int maxPrefetches,
+			final long ttlMillis) {
+
+		this.n5 = n5;
+		this.executor = executor;
+		this.depth = depth;
+		this.ttlMillis = ttlMillis;
+		permits = new Semaphore(maxPrefetches);
+	}
+
+	@Override
+	public DataBlock<?> readBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final String normalPath = N5URI.normalizeGroupPath(pathName);
+		expire();
+
+		final Prefetch prefetch = prefetches.remove(new BlockKey(normalPath, gridPosition));
+		prefetch(pathName, normalPath, datasetAttributes, gridPosition);
+
+		if (prefetch != null) {
+			permits.release();
+			try {
+				final DataBlock<?> block = prefetch.future.get();
+				useful.increment();
+				return block;
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new N5Exception("Interrupted while waiting for block " + Arrays.toString(gridPosition), e);
+			} catch (final ExecutionException | CancellationException e) {
+				/* read again, such that the failure is reported by the reader */
+				wasted.increment();
+			}
+		}
+		return n5.readBlock(pathName, datasetAttributes, gridPosition);
+	}
+
+	private void prefetch(
+			final String pathName,
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final long[] gridPosition) {
+
+		final long[] dimensions = datasetAttributes.getDimensions();
+		final int[] blockSize = datasetAttributes.getBlockSize();
+		final long[] gridSize = new long[dimensions.length];
+		for (int d = 0; d < gridSize.length; ++d)
+			gridSize[d] = (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+
+		final AccessPattern pattern = patterns.computeIfAbsent(normalPath, k -> new AccessPattern());
+		for (final long[] position : pattern.access(gridPosition.clone(), gridSize, depth)) {
+			final BlockKey key = new BlockKey(normalPath, position);
+			if (prefetches.containsKey(key) || !permits.tryAcquire())
+				continue;
+
+			try {
+				final Future<DataBlock<?>> future = executor.submit(() -> n5.readBlock(pathName, datasetAttributes, position));
+				if (prefetches.putIfAbsent(key, new Prefetch(future, System.currentTimeMillis())) == null)
+					issued.increment();
+				else {
+					future.cancel(true);
+					permits.release();
+				}
+			} catch (final RejectedExecutionException e) {
+				permits.release();
+			}
+		}
+	}
+
+	private void expire() {
+
+		final long time = System.currentTimeMillis() - ttlMillis;
+		for (final Map.Entry<BlockKey, Prefetch> entry : prefetches.entrySet())
+			if (entry.getValue().time < time)
+				drop(entry.getKey(), entry.getValue());
+	}
+
+	private void drop(final BlockKey key, final Prefetch prefetch) {
+
+		if (prefetches.remove(key, prefetch)) {
+			prefetch.future.cancel(true);
+			wasted.increment();
+			permits.release();
+		}
+	}
+
+	/**
+	 * @return the number of prefetches that were started
+	 */
+	public long getIssuedCount() {
+
+		return issued.sum();
+	}
+
+	/**
+	 * @return the number of prefetched blocks that were read
+	 */
+	public long getUsefulCount() {
+
+		return useful.sum();
+	}
+
+	/**
+	 * @return the number of prefetched blocks that were dropped unread or
+	 *         failed to load
+	 */
+	public long getWastedCount() {
+
+		return wasted.sum();
+	}
+
+	/**
+	 * @return the reader
+	 */
+	public N5Reader getReader() {
+
+		return n5;
+	}
+
+	@Override
+	public Version getVersion() throws N5Exception {
+
+		return n5.getVersion();
+	}
+
+	@Override
+	public URI getURI() {
+
+		return n5.getURI();
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Class<T> clazz) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, clazz);
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Type type) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, type);
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes(final String pathName) throws N5Exception {
+
+		return n5.getDatasetAttributes(pathName);
+	}
+
+	@Override
+	public boolean exists(final String pathName) {
+
+		return n5.exists(pathName);
+	}
+
+	@Override
+	public boolean datasetExists(final String pathName) throws N5Exception {
+
+		return n5.datasetExists(pathName);
+	}
+
+	@Override
+	public String[] list(final String pathName) throws N5Exception {
+
+		return n5.list(pathName);
+	}
+
+	@Override
+	public Map<String, Class<?>> listAttributes(final String pathName) throws N5Exception {
+
+		return n5.listAttributes(pathName);
+	}
+
+	@Override
+	public String getGroupSeparator() {
+
+		return n5.getGroupSeparator();
+	}
+
+	/**
+	 * Drops all prefetches and closes the reader. The executor is not shut
+	 * down.
+	 */
+	@Override
+	public void close() {
+
+		for (final Map.Entry<BlockKey, Prefetch> entry : prefetches.entrySet())
+			drop(entry.getKey(), entry.getValue());
+		n5.close();
+	}
+}
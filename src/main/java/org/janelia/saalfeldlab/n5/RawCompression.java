@@ -28,11 +28,12 @@ package org.janelia.saalfeldlab.n5;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.janelia.saalfeldlab.n5.Compression.CompressionType;
 
 @CompressionType("raw")
-public class RawCompression implements DefaultBlockReader, DefaultBlockWriter, Compression {
+public class RawCompression implements DefaultBlockReader, DefaultBlockWriter, BytesCodec, Compression {
 
 	private static final long serialVersionUID = 7526445806847086477L;
 
@@ -48,6 +49,36 @@ public class RawCompression implements DefaultBlockReader, DefaultBlockWriter, C
 		return out;
 	}
 
+	/**
+	 * Uncompressed data can be read from the buffer directly without an
+	 * intermediate copy.
+	 */
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final ByteBuffer buffer) throws IOException {
+
+		dataBlock.readData(buffer.slice());
+	}
+
+	@Override
+	public ByteBuffer encode(final ByteBuffer bytes, final int elementSize) {
+
+		return bytes;
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer bytes, final int elementSize) {
+
+		return bytes;
+	}
+
+	@Override
+	public void decode(final ByteBuffer src, final ByteBuffer dst, final int elementSize) throws IOException {
+
+		if (src.remaining() > dst.remaining())
+			throw new IOException("Decoded data exceeds the buffer by " + (src.remaining() - dst.remaining()) + " bytes.");
+		dst.put(src.duplicate());
+	}
+
 	@Override
 	public RawCompression getReader() {
 
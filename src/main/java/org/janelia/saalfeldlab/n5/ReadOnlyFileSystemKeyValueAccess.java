@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only {@link FileSystemKeyValueAccess} for immutable containers
+ * that does not lock.
+ *
+ * {@link #lockForReading(String)} opens a plain {@link FileChannel} and
+ * neither takes a file lock nor coordinates with other threads of this JVM.
+ * This saves a round trip to the server per file on network file systems
+ * (e.g. NFS or Lustre) where locks are expensive.
+ *
+ * Consistency contract: the container must not be modified while it is
+ * read through this {@link KeyValueAccess}, neither by this process nor by
+ * any other. Concurrent writes are not detected, readers may observe
+ * partially written or truncated blocks and attributes, which may fail to
+ * parse or silently return wrong data. Use this mode only for published
+ * containers that are treated as immutable.
+ *
+ * All modifying operations throw an {@link N5Exception.N5IOException}.
+ */
+public class ReadOnlyFileSystemKeyValueAccess extends FileSystemKeyValueAccess {
+
+	/**
+	 * Opens a {@link ReadOnlyFileSystemKeyValueAccess} with a
+	 * {@link FileSystem}.
+	 *
+	 * @param fileSystem the file system
+	 */
+	public ReadOnlyFileSystemKeyValueAccess(final FileSystem fileSystem) {
+
+		this(fileSystem, false);
+	}
+
+	/**
+	 * Opens a {@link ReadOnlyFileSystemKeyValueAccess} with a
+	 * {@link FileSystem}.
+	 *
+	 * @param fileSystem the file system
+	 * @param memoryMapped map files into memory for reading
+	 * @see FileSystemKeyValueAccess#FileSystemKeyValueAccess(FileSystem, boolean)
+	 */
+	public ReadOnlyFileSystemKeyValueAccess(final FileSystem fileSystem, final boolean memoryMapped) {
+
+		super(fileSystem, memoryMapped);
+	}
+
+	@Override
+	public LockedFileChannel lockForReading(final String normalPath) throws IOException {
+
+		return lockForReading(fileSystem.getPath(normalPath));
+	}
+
+	@Override
+	public LockedFileChannel lockForReading(final Path path) throws IOException {
+
+		return new LockedFileChannel(FileChannel.open(path, StandardOpenOption.READ));
+	}
+
+	@Override
+	public LockedFileChannel lockForWriting(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	@Override
+	public LockedFileChannel lockForWriting(final Path path) throws IOException {
+
+		throw readOnly(path.toString());
+	}
+
+	@Override
+	public void createDirectories(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	@Override
+	public void delete(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	private static N5Exception.N5IOException readOnly(final String path) {
+
+		return new N5Exception.N5IOException("Cannot modify " + path + " through a read-only key value access");
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Reads and writes shards, files that hold a grid of data blocks.
+ *
+ * A shard starts with an index of one entry per block, blocks are
+ * enumerated in the shard grid with the first dimension varying fastest.
+ * Each entry is a pair of big endian longs, the offset of the block from
+ * the start of the shard and its length in bytes. Missing blocks have
+ * length 0. The index is followed by the blocks, each in the format written
+ * by {@link DefaultBlockWriter}. An empty file is an empty shard.
+ *
+ * Shards are stored where a block at the shard's position in the grid of
+ * shards would be stored without sharding.
+ */
+final class Shards {
+
+	private static final int INDEX_ENTRY_SIZE = 2 * Long.BYTES;
+
+	private Shards() {}
+
+	static long[] shardPosition(final long[] gridPosition, final int[] blocksPerShard) {
+
+		final long[] shardPosition = new long[gridPosition.length];
+		for (int d = 0; d < gridPosition.length; ++d)
+			shardPosition[d] = gridPosition[d] / blocksPerShard[d];
+		return shardPosition;
+	}
+
+	static int blockIndex(final long[] gridPosition, final int[] blocksPerShard) {
+
+		int i = 0;
+		for (int d = gridPosition.length - 1; d >= 0; --d)
+			i = i * blocksPerShard[d] + (int)(gridPosition[d] % blocksPerShard[d]);
+		return i;
+	}
+
+	static long[] gridPosition(final long[] shardPosition, final int blockIndex, final int[] blocksPerShard) {
+
+		final long[] gridPosition = new long[shardPosition.length];
+		int i = blockIndex;
+		for (int d = 0; d < shardPosition.length; ++d) {
+			gridPosition[d] = shardPosition[d] * blocksPerShard[d] + i % blocksPerShard[d];
+			i /= blocksPerShard[d];
+		}
+		return gridPosition;
+	}
+
+	static int numBlocks(final int[] blocksPerShard) {
+
+		int n = 1;
+		for (final int b : blocksPerShard)
+			n *= b;
+		return n;
+	}
+
+	/**
+	 * Reads a single block from a shard, only the index entry of that block
+	 * and the block itself are read.
+	 *
+	 * @return the block or null if it does not exist in the shard
+	 */
+	static DataBlock<?> readBlock(
+			final LockedChannel lockedChannel,
+			final DatasetAttributes datasetAttributes,
+			final long[] gridPosition) throws IOException {
+
+		final int i = blockIndex(gridPosition, datasetAttributes.getBlocksPerShard());
+		final long indexSize = (long)numBlocks(datasetAttributes.getBlocksPerShard()) * INDEX_ENTRY_SIZE;
+
+		final ByteBuffer buffer = lockedChannel.newByteBuffer();
+		if (buffer != null) {
+			if (!buffer.hasRemaining())
+				return null;
+			if (buffer.remaining() < indexSize)
+				throw new EOFException("Shard index is truncated.");
+
+			final long offset = buffer.getLong(buffer.position() + i * INDEX_ENTRY_SIZE);
+			final long length = buffer.getLong(buffer.position() + i * INDEX_ENTRY_SIZE + Long.BYTES);
+			if (length == 0)
+				return null;
+			checkIndexEntry(i, offset, length, indexSize, buffer.remaining());
+
+			final ByteBuffer blockBuffer = buffer.duplicate();
+			blockBuffer.position(buffer.position() + (int)offset);
+			blockBuffer.limit(blockBuffer.position() + (int)length);
+			return DefaultBlockReader.readBlock(blockBuffer.slice(), datasetAttributes, gridPosition);
+		}
+
+		/* the stream is not closed, closing it may release the lock */
+		final PushbackInputStream in = new PushbackInputStream(lockedChannel.newInputStream());
+		final int first = in.read();
+		if (first == -1)
+			return null;
+		in.unread(first);
+
+		final DataInputStream dis = new DataInputStream(in);
+		skipFully(dis, (long)i * INDEX_ENTRY_SIZE);
+		final long offset = dis.readLong();
+		final long length = dis.readLong();
+		if (length == 0)
+			return null;
+		checkIndexEntry(i, offset, length, indexSize, Long.MAX_VALUE);
+
+		skipFully(dis, offset - (long)(i + 1) * INDEX_ENTRY_SIZE);
+		final byte[] bytes = new byte[(int)length];
+		dis.readFully(bytes);
+		return DefaultBlockReader.readBlock(new ByteArrayInputStream(bytes), datasetAttributes, gridPosition);
+	}
+
+	/**
+	 * Reads the index of a shard.
+	 *
+	 * @return whether each block exists in the shard
+	 */
+	static boolean[] readExistingBlocks(final InputStream in, final int numBlocks) throws IOException {
+
+		final boolean[] exists = new boolean[numBlocks];
+
+		final PushbackInputStream pin = new PushbackInputStream(in);
+		final int first = pin.read();
+		if (first == -1)
+			return exists;
+		pin.unread(first);
+
+		final DataInputStream dis = new DataInputStream(pin);
+		for (int i = 0; i < numBlocks; ++i) {
+			dis.readLong();
+			exists[i] = dis.readLong() != 0;
+		}
+		return exists;
+	}
+
+	/**
+	 * Reads all encoded blocks of a shard.
+	 *
+	 * @return the encoded blocks, missing blocks are null
+	 */
+	static byte[][] readShard(final InputStream in, final int numBlocks) throws IOException {
+
+		final byte[][] blocks = new byte[numBlocks][];
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+			bytes.write(buffer, 0, n);
+
+		if (bytes.size() == 0)
+			return blocks;
+
+		final ByteBuffer shard = ByteBuffer.wrap(bytes.toByteArray());
+		if (shard.remaining() < numBlocks * INDEX_ENTRY_SIZE)
+			throw new EOFException("Shard index is truncated.");
+
+		for (int i = 0; i < numBlocks; ++i) {
+			final long offset = shard.getLong(i * INDEX_ENTRY_SIZE);
+			final long length = shard.getLong(i * INDEX_ENTRY_SIZE + Long.BYTES);
+			if (length != 0) {
+				checkIndexEntry(i, offset, length, (long)numBlocks * INDEX_ENTRY_SIZE, shard.limit());
+				blocks[i] = new byte[(int)length];
+				System.arraycopy(shard.array(), (int)offset, blocks[i], 0, (int)length);
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * Writes encoded blocks as a shard.
+	 *
+	 * @param blocks the encoded blocks, missing blocks are null
+	 */
+	static void writeShard(final OutputStream out, final byte[][] blocks) throws IOException {
+
+		final DataOutputStream dos = new DataOutputStream(out);
+		long offset = (long)blocks.length * INDEX_ENTRY_SIZE;
+		for (final byte[] block : blocks) {
+			if (block == null) {
+				dos.writeLong(0);
+				dos.writeLong(0);
+			} else {
+				dos.writeLong(offset);
+				dos.writeLong(block.length);
+				offset += block.length;
+			}
+		}
+		for (final byte[] block : blocks)
+			if (block != null)
+				dos.write(block);
+		dos.flush();
+	}
+
+	/**
+	 * Replaces blocks in the shard held by a locked channel and rewrites the
+	 * shard. A shard whose blocks were all removed is kept with an empty
+	 * index, deleting it would race with writers waiting for the lock.
+	 *
+	 * @param lock the write lock on the shard
+	 * @param numBlocks the number of blocks per shard
+	 * @param updates encoded blocks by index in the shard, null values
+	 *            remove blocks
+	 */
+	static void updateShard(
+			final LockedChannel lock,
+			final int numBlocks,
+			final Map<Integer, byte[]> updates) throws IOException {
+
+		/* the stream is not closed, closing it may release the lock */
+		final byte[][] blocks = readShard(lock.newInputStream(), numBlocks);
+
+		for (final Entry<Integer, byte[]> update : updates.entrySet())
+			blocks[update.getKey()] = update.getValue();
+
+		writeShard(lock.newOutputStream(), blocks);
+	}
+
+	/**
+	 * Checks that the index entry of a block points behind the index and
+	 * into a shard of the given size, such that a corrupt index fails with
+	 * an {@link IOException} instead of reading the wrong bytes.
+	 */
+	private static void checkIndexEntry(
+			final int i,
+			final long offset,
+			final long length,
+			final long indexSize,
+			final long shardSize) throws IOException {
+
+		if (offset < indexSize || length < 0 || length > Integer.MAX_VALUE - 8)
+			throw new IOException("Invalid index entry of block " + i + " in shard (offset " + offset + ", length " + length + ").");
+		if (offset > shardSize - length)
+			throw new EOFException("Block " + i + " of shard is truncated.");
+	}
+
+	private static void skipFully(final InputStream in, long n) throws IOException {
+
+		while (n > 0) {
+			final long skipped = in.skip(n);
+			if (skipped > 0)
+				n -= skipped;
+			else if (in.read() == -1)
+				throw new EOFException();
+			else
+				--n;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+/**
+ * Byte and bit shuffles of arrays of fixed size elements.
+ *
+ * The byte shuffle groups the i-th bytes of all elements, such that
+ * slowly varying high bytes form long runs. The bit shuffle additionally
+ * groups the j-th bits of each group of eight bytes. Trailing bytes of a
+ * byte plane that do not fill a group of eight are copied.
+ */
+final class Shuffle {
+
+	private Shuffle() {}
+
+	static void byteShuffle(final byte[] src, final byte[] dst, final int elementSize) {
+
+		byteShuffle(src, 0, dst, 0, src.length, elementSize);
+	}
+
+	static void byteShuffle(
+			final byte[] src,
+			final int srcOffset,
+			final byte[] dst,
+			final int dstOffset,
+			final int length,
+			final int elementSize) {
+
+		final int n = length / elementSize;
+		for (int b = 0; b < elementSize; ++b) {
+			final int offset = dstOffset + b * n;
+			for (int i = 0, j = srcOffset + b; i < n; ++i, j += elementSize)
+				dst[offset + i] = src[j];
+		}
+		/* bytes of an incomplete element */
+		System.arraycopy(src, srcOffset + n * elementSize, dst, dstOffset + n * elementSize, length - n * elementSize);
+	}
+
+	static void byteUnshuffle(final byte[] src, final byte[] dst, final int elementSize) {
+
+		byteUnshuffle(src, 0, dst, 0, src.length, elementSize);
+	}
+
+	static void byteUnshuffle(
+			final byte[] src,
+			final int srcOffset,
+			final byte[] dst,
+			final int dstOffset,
+			final int length,
+			final int elementSize) {
+
+		final int n = length / elementSize;
+		for (int b = 0; b < elementSize; ++b) {
+			final int offset = srcOffset + b * n;
+			for (int i = 0, j = dstOffset + b; i < n; ++i, j += elementSize)
+				dst[j] = src[offset + i];
+		}
+		System.arraycopy(src, srcOffset + n * elementSize, dst, dstOffset + n * elementSize, length - n * elementSize);
+	}
+
+	static void bitShuffle(final byte[] src, final byte[] dst, final int elementSize) {
+
+		bitShuffle(src, 0, dst, 0, src.length, elementSize);
+	}
+
+	static void bitShuffle(
+			final byte[] src,
+			final int srcOffset,
+			final byte[] dst,
+			final int dstOffset,
+			final int length,
+			final int elementSize) {
+
+		final byte[] planes = new byte[length];
+		byteShuffle(src, srcOffset, planes, 0, length, elementSize);
+		System.arraycopy(planes, 0, dst, dstOffset, length);
+
+		final int n = length / elementSize;
+		final int groups = n / 8;
+		for (int b = 0; b < elementSize; ++b) {
+			final int offset = b * n;
+			for (int g = 0; g < groups; ++g) {
+				final long x = transpose(gather(planes, offset + 8 * g));
+				for (int j = 0; j < 8; ++j)
+					dst[dstOffset + offset + j * groups + g] = (byte)(x >>> (8 * j));
+			}
+		}
+	}
+
+	static void bitUnshuffle(final byte[] src, final byte[] dst, final int elementSize) {
+
+		bitUnshuffle(src, 0, dst, 0, src.length, elementSize);
+	}
+
+	static void bitUnshuffle(
+			final byte[] src,
+			final int srcOffset,
+			final byte[] dst,
+			final int dstOffset,
+			final int length,
+			final int elementSize) {
+
+		final byte[] planes = new byte[length];
+		System.arraycopy(src, srcOffset, planes, 0, length);
+
+		final int n = length / elementSize;
+		final int groups = n / 8;
+		for (int b = 0; b < elementSize; ++b) {
+			final int offset = b * n;
+			for (int g = 0; g < groups; ++g) {
+				long x = 0;
+				for (int j = 0; j < 8; ++j)
+					x |= (src[srcOffset + offset + j * groups + g] & 0xffL) << (8 * j);
+				x = transpose(x);
+				for (int i = 0; i < 8; ++i)
+					planes[offset + 8 * g + i] = (byte)(x >>> (8 * i));
+			}
+		}
+		byteUnshuffle(planes, 0, dst, dstOffset, length, elementSize);
+	}
+
+	private static long gather(final byte[] bytes, final int offset) {
+
+		long x = 0;
+		for (int i = 0; i < 8; ++i)
+			x |= (bytes[offset + i] & 0xffL) << (8 * i);
+		return x;
+	}
+
+	/**
+	 * Transposes an 8x8 bit matrix with rows stored in the bytes of a long,
+	 * bit j of byte i becomes bit i of byte j.
+	 */
+	static long transpose(long x) {
+
+		long t;
+		t = (x ^ (x >>> 7)) & 0x00aa00aa00aa00aaL;
+		x = x ^ t ^ (t << 7);
+		t = (x ^ (x >>> 14)) & 0x0000cccc0000ccccL;
+		x = x ^ t ^ (t << 14);
+		t = (x ^ (x >>> 28)) & 0x00000000f0f0f0f0L;
+		x = x ^ t ^ (t << 28);
+		return x;
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.janelia.saalfeldlab.n5.Compression.CompressionType;
+
+/**
+ * Shuffles the bytes or bits of the elements of a block before compressing
+ * it with another {@link Compression}, and unshuffles them after
+ * decompression.
+ *
+ * The byte shuffle stores the first bytes of all elements, then the second
+ * bytes, and so on. The bit shuffle stores the bits of the elements in the
+ * same way. Both turn slowly varying multi-byte values, e.g. 16 bit
+ * microscopy intensities, into long runs that general purpose compressors
+ * encode well. The element size is the size of the block's data type.
+ *
+ * As a {@link BytesCodec} in a {@link CodecChain}, the shuffle is usually
+ * followed by the compressor in the chain and wraps a
+ * {@link RawCompression}.
+ */
+@CompressionType("shuffle")
+public class ShuffleCompression implements BlockReader, BlockWriter, BytesCodec, Compression {
+
+	private static final long serialVersionUID = -2571806592834018163L;
+
+	@CompressionParameter
+	private final boolean bitShuffle;
+
+	@CompressionParameter
+	private final Compression compression;
+
+	/**
+	 * @param compression the compression of the shuffled bytes
+	 * @param bitShuffle shuffle bits instead of bytes
+	 */
+	public ShuffleCompression(final Compression compression, final boolean bitShuffle) {
+
+		this.compression = compression;
+		this.bitShuffle = bitShuffle;
+	}
+
+	/**
+	 * Byte shuffle followed by a {@link Compression}.
+	 *
+	 * @param compression the compression of the shuffled bytes
+	 */
+	public ShuffleCompression(final Compression compression) {
+
+		this(compression, false);
+	}
+
+	public ShuffleCompression() {
+
+		this(new RawCompression());
+	}
+
+	public Compression getCompression() {
+
+		return compression;
+	}
+
+	public boolean isBitShuffle() {
+
+		return bitShuffle;
+	}
+
+	private void shuffle(final byte[] src, final byte[] dst, final int elementSize) {
+
+		if (bitShuffle)
+			Shuffle.bitShuffle(src, dst, elementSize);
+		else
+			Shuffle.byteShuffle(src, dst, elementSize);
+	}
+
+	private void unshuffle(final byte[] src, final byte[] dst, final int elementSize) {
+
+		if (bitShuffle)
+			Shuffle.bitUnshuffle(src, dst, elementSize);
+		else
+			Shuffle.byteUnshuffle(src, dst, elementSize);
+	}
+
+	/**
+	 * Shuffles the bytes between position and limit of src into dst without
+	 * changing the positions of the buffers.
+	 */
+	private void shuffle(final ByteBuffer src, final ByteBuffer dst, final int elementSize) {
+
+		if (!src.hasArray() || !dst.hasArray()) {
+			final byte[] shuffled = new byte[src.remaining()];
+			shuffle(CodecChain.toArray(src), shuffled, elementSize);
+			dst.duplicate().put(shuffled);
+		} else if (bitShuffle)
+			Shuffle.bitShuffle(src.array(), src.arrayOffset() + src.position(), dst.array(), dst.arrayOffset() + dst.position(), src.remaining(), elementSize);
+		else
+			Shuffle.byteShuffle(src.array(), src.arrayOffset() + src.position(), dst.array(), dst.arrayOffset() + dst.position(), src.remaining(), elementSize);
+	}
+
+	/**
+	 * Unshuffles the bytes between position and limit of src into dst
+	 * without changing the positions of the buffers.
+	 */
+	private void unshuffle(final ByteBuffer src, final ByteBuffer dst, final int elementSize) {
+
+		if (!src.hasArray() || !dst.hasArray()) {
+			final byte[] unshuffled = new byte[src.remaining()];
+			unshuffle(CodecChain.toArray(src), unshuffled, elementSize);
+			dst.duplicate().put(unshuffled);
+		} else if (bitShuffle)
+			Shuffle.bitUnshuffle(src.array(), src.arrayOffset() + src.position(), dst.array(), dst.arrayOffset() + dst.position(), src.remaining(), elementSize);
+		else
+			Shuffle.byteUnshuffle(src.array(), src.arrayOffset() + src.position(), dst.array(), dst.arrayOffset() + dst.position(), src.remaining(), elementSize);
+	}
+
+	@Override
+	public ByteBuffer encode(final ByteBuffer bytes, final int elementSize) throws IOException {
+
+		final byte[] shuffled = new byte[bytes.remaining()];
+		shuffle(CodecChain.toArray(bytes), shuffled, elementSize);
+		return CodecChain.encode(compression, ByteBuffer.wrap(shuffled), elementSize);
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer bytes, final int elementSize) throws IOException {
+
+		final byte[] shuffled = CodecChain.toArray(CodecChain.decode(compression, bytes, elementSize));
+		final byte[] unshuffled = new byte[shuffled.length];
+		unshuffle(shuffled, unshuffled, elementSize);
+		return ByteBuffer.wrap(unshuffled);
+	}
+
+	/**
+	 * Shuffles the buffer of the block into a pooled buffer and compresses
+	 * it as bytes.
+	 */
+	@Override
+	public <T> void write(final DataBlock<T> dataBlock, final OutputStream out) throws IOException {
+
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.toByteBuffer(pool);
+		final ByteBuffer shuffled = pool.acquire(buffer.remaining());
+		try {
+			shuffled.limit(buffer.remaining());
+			shuffle(buffer, shuffled, CodecChain.elementSize(dataBlock));
+			if (CodecChain.isBytesCodec(compression))
+				CodecChain.write(compression, shuffled, 1, out);
+			else
+				compression.getWriter().write(new ByteArrayDataBlock(null, dataBlock.getGridPosition(), CodecChain.toArray(shuffled)), out);
+		} finally {
+			pool.release(shuffled);
+			dataBlock.releaseByteBuffer(buffer, pool);
+		}
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final InputStream in) throws IOException {
+
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.acquireByteBuffer(pool);
+		final ByteBuffer shuffled = pool.acquire(buffer.remaining());
+		try {
+			shuffled.limit(buffer.remaining());
+			if (compression.getReader() instanceof DefaultBlockReader) {
+				try (final InputStream decoder = ((DefaultBlockReader)compression.getReader()).getInputStream(in)) {
+					CodecChain.readFully(decoder, shuffled);
+				}
+			} else {
+				final ByteArrayDataBlock bytes = new ByteArrayDataBlock(null, dataBlock.getGridPosition(), new byte[shuffled.remaining()]);
+				compression.getReader().read(bytes, in);
+				shuffled.duplicate().put(bytes.getData());
+			}
+			unshuffle(dataBlock, buffer, shuffled);
+		} finally {
+			pool.release(shuffled);
+			dataBlock.releaseByteBuffer(buffer, pool);
+		}
+	}
+
+	@Override
+	public <T, B extends DataBlock<T>> void read(final B dataBlock, final ByteBuffer in) throws IOException {
+
+		final ByteBufferPool pool = ByteBufferPool.getDefault();
+		final ByteBuffer buffer = dataBlock.acquireByteBuffer(pool);
+		final ByteBuffer shuffled = pool.acquire(buffer.remaining());
+		try {
+			shuffled.limit(buffer.remaining());
+			if (compression instanceof BytesCodec) {
+				final ByteBuffer decoded = shuffled.duplicate();
+				((BytesCodec)compression).decode(in.duplicate(), decoded, 1);
+				if (decoded.hasRemaining())
+					throw new EOFException("Unexpected end of block data");
+			} else {
+				final ByteArrayDataBlock bytes = new ByteArrayDataBlock(null, dataBlock.getGridPosition(), new byte[shuffled.remaining()]);
+				compression.getReader().read(bytes, in);
+				shuffled.duplicate().put(bytes.getData());
+			}
+			unshuffle(dataBlock, buffer, shuffled);
+		} finally {
+			pool.release(shuffled);
+			dataBlock.releaseByteBuffer(buffer, pool);
+		}
+	}
+
+	private <T> void unshuffle(final DataBlock<T> dataBlock, final ByteBuffer buffer, final ByteBuffer shuffled) {
+
+		unshuffle(shuffled, buffer, CodecChain.elementSize(dataBlock));
+		dataBlock.readData(buffer);
+	}
+
+	@Override
+	public ShuffleCompression getReader() {
+
+		return this;
+	}
+
+	@Override
+	public ShuffleCompression getWriter() {
+
+		return this;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+
+		if (other == null || other.getClass() != ShuffleCompression.class)
+			return false;
+		else {
+			final ShuffleCompression shuffle = (ShuffleCompression)other;
+			return bitShuffle == shuffle.bitShuffle && compression.equals(shuffle.compression);
+		}
+	}
+}
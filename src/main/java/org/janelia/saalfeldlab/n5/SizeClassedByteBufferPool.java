@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ByteBufferPool} of heap or direct buffers in power of two size
+ * classes. Released buffers are kept up to a total number of bytes, excess
+ * buffers and buffers larger than the largest class are left to the
+ * garbage collector.
+ */
+public class SizeClassedByteBufferPool implements ByteBufferPool {
+
+	/**
+	 * The capacity of the smallest size class.
+	 */
+	public static final int MIN_CAPACITY = 1 << 12;
+
+	private final boolean direct;
+
+	private final int maxCapacity;
+
+	private final long maxPooledBytes;
+
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	private final ConcurrentLinkedQueue<ByteBuffer>[] classes;
+
+	/**
+	 * @param direct
+	 *            pool direct instead of heap buffers
+	 * @param maxPooledBytes
+	 *            the maximum number of bytes held by pooled buffers
+	 * @param maxCapacity
+	 *            the capacity of the largest size class, rounded up to a
+	 *            power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public SizeClassedByteBufferPool(final boolean direct, final long maxPooledBytes, final int maxCapacity) {
+
+		if (maxCapacity < 1 || maxCapacity > 1 << 30)
+			throw new IllegalArgumentException("Invalid maxCapacity " + maxCapacity);
+
+		this.direct = direct;
+		this.maxPooledBytes = maxPooledBytes;
+		final int numClasses = sizeClass(maxCapacity) + 1;
+		this.maxCapacity = MIN_CAPACITY << (numClasses - 1);
+		classes = new ConcurrentLinkedQueue[numClasses];
+		for (int i = 0; i < numClasses; ++i)
+			classes[i] = new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * Pools buffers of up to 64 MiB that hold up to a sixteenth of the
+	 * maximum heap size but not more than 256 MiB in total.
+	 *
+	 * @param direct
+	 *            pool direct instead of heap buffers
+	 */
+	public SizeClassedByteBufferPool(final boolean direct) {
+
+		this(direct, Math.min(Runtime.getRuntime().maxMemory() / 16, 1L << 28), 1 << 26);
+	}
+
+	public boolean isDirect() {
+
+		return direct;
+	}
+
+	/**
+	 * @return the number of bytes held by pooled buffers
+	 */
+	public long getPooledBytes() {
+
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Drops all pooled buffers.
+	 */
+	public void clear() {
+
+		for (final ConcurrentLinkedQueue<ByteBuffer> c : classes)
+			for (ByteBuffer buffer = c.poll(); buffer != null; buffer = c.poll())
+				pooledBytes.addAndGet(-buffer.capacity());
+	}
+
+	private static int sizeClass(final int capacity) {
+
+		if (capacity <= MIN_CAPACITY)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+	}
+
+	private ByteBuffer allocate(final int capacity) {
+
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	@Override
+	public ByteBuffer acquire(final int capacity) {
+
+		if (capacity > maxCapacity)
+			return allocate(capacity);
+
+		final int c = sizeClass(capacity);
+		ByteBuffer buffer = classes[c].poll();
+		if (buffer == null)
+			buffer = allocate(MIN_CAPACITY << c);
+		else
+			pooledBytes.addAndGet(-buffer.capacity());
+		buffer.clear();
+		buffer.limit(capacity);
+		return buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	@Override
+	public void release(final ByteBuffer buffer) {
+
+		final int capacity = buffer.capacity();
+		if (buffer.isDirect() != direct
+				|| capacity < MIN_CAPACITY
+				|| capacity > maxCapacity
+				|| Integer.bitCount(capacity) != 1
+				|| buffer.isReadOnly()
+				|| (!direct && buffer.arrayOffset() != 0))
+			return;
+
+		if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+			pooledBytes.addAndGet(-capacity);
+			return;
+		}
+		classes[sizeClass(capacity)].offer(buffer);
+	}
+}
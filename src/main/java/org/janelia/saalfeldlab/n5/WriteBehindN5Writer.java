@@ -0,0 +1,426 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
+
+/**
+ * An {@link N5Writer} that keeps written blocks in memory and writes them to
+ * another {@link N5Writer} later.
+ *
+ * Successive writes and deletes of the same block replace each other, such
+ * that only the last one is written. A background thread writes dirty
+ * blocks when they have been dirty for longer than a maximum age, and when
+ * the estimated size of all dirty blocks exceeds a threshold. If dirty
+ * blocks grow to twice the threshold, the writing thread writes them
+ * itself. {@link #flush()} and {@link #close()} write all dirty blocks.
+ *
+ * Blocks are copied when they are written and when dirty blocks are read,
+ * such that callers can reuse their buffers. Reading through this writer
+ * returns dirty blocks, all other operations are forwarded immediately.
+ * Removing a group drops its dirty blocks.
+ *
+ * Failures of the background thread are reported by the next call of
+ * {@link #flush()} or {@link #close()}, the failed blocks stay dirty.
+ */
+public class WriteBehindN5Writer implements N5Writer {
+
+	/**
+	 * A block that was written or deleted but not yet forwarded.
+	 */
+	private static final class Dirty {
+
+		private final DatasetAttributes datasetAttributes;
+
+		/* null if deleted */
+		private final DataBlock<?> block;
+
+		private final long size;
+
+		/* when the block became dirty */
+		private final long time;
+
+		private Dirty(final DatasetAttributes datasetAttributes, final DataBlock<?> block, final long time) {
+
+			this.datasetAttributes = datasetAttributes;
+			this.block = block;
+			this.time = time;
+			size = block == null ? 0 : DataBlockCache.sizeOf(block);
+		}
+	}
+
+	protected final N5Writer n5;
+
+	protected final long maxDirtyBytes;
+
+	protected final long maxAgeMillis;
+
+	private final ScheduledExecutorService flusher;
+
+	private final ConcurrentHashMap<BlockKey, Dirty> dirty = new ConcurrentHashMap<>();
+
+	private final AtomicLong dirtyBytes = new AtomicLong();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final LongAdder flushed = new LongAdder();
+
+	private volatile RuntimeException failure = null;
+
+	/**
+	 * Creates a {@link WriteBehindN5Writer}.
+	 *
+	 * @param n5 the writer
+	 * @param maxDirtyBytes estimated size of dirty blocks that triggers
+	 *            writing them
+	 * @param maxAgeMillis time after which dirty blocks are written
+	 */
+	public WriteBehindN5Writer(final N5Writer n5, final long maxDirtyBytes, final long maxAgeMillis) {
+
+		this.n5 = n5;
+		this.maxDirtyBytes = maxDirtyBytes;
+		this.maxAgeMillis = maxAgeMillis;
+
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "n5-write-behind");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long period = Math.max(1, maxAgeMillis / 2);
+		flusher.scheduleWithFixedDelay(() -> flushInBackground(System.currentTimeMillis() - maxAgeMillis), period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private void put(final BlockKey key, final DatasetAttributes datasetAttributes, final DataBlock<?> block) {
+
+		final Dirty[] previous = new Dirty[1];
+		final Dirty current = dirty.compute(key, (k, v) -> {
+			previous[0] = v;
+			return new Dirty(datasetAttributes, block, v == null ? System.currentTimeMillis() : v.time);
+		});
+		if (previous[0] != null)
+			coalesced.increment();
+
+		final long bytes = dirtyBytes.addAndGet(current.size - (previous[0] == null ? 0 : previous[0].size));
+		if (bytes > 2 * maxDirtyBytes)
+			flush(Long.MAX_VALUE);
+		else if (bytes > maxDirtyBytes) {
+			try {
+				flusher.execute(() -> flushInBackground(Long.MAX_VALUE));
+			} catch (final RejectedExecutionException e) {}
+		}
+	}
+
+	private void flushInBackground(final long time) {
+
+		try {
+			flush(time);
+		} catch (final RuntimeException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Writes all blocks that became dirty before a time. Blocks are grouped
+	 * by dataset, such that sharded datasets rewrite each shard once.
+	 */
+	private synchronized void flush(final long time) {
+
+		final Map<String, List<Map.Entry<BlockKey, Dirty>>> datasets = new LinkedHashMap<>();
+		for (final Map.Entry<BlockKey, Dirty> entry : dirty.entrySet())
+			if (entry.getValue().time <= time)
+				datasets.computeIfAbsent(entry.getKey().normalPath, k -> new ArrayList<>()).add(entry);
+
+		RuntimeException exception = null;
+		for (final Map.Entry<String, List<Map.Entry<BlockKey, Dirty>>> dataset : datasets.entrySet()) {
+			final String normalPath = dataset.getKey();
+			final List<Map.Entry<BlockKey, Dirty>> entries = dataset.getValue();
+			try {
+				final List<DataBlock<Object>> blocks = new ArrayList<>();
+				DatasetAttributes datasetAttributes = null;
+				for (final Map.Entry<BlockKey, Dirty> entry : entries) {
+					final Dirty d = entry.getValue();
+					if (d.block == null && d.datasetAttributes == null)
+						n5.deleteBlock(normalPath, entry.getKey().gridPosition);
+					else if (d.block == null)
+						n5.deleteBlock(normalPath, d.datasetAttributes, entry.getKey().gridPosition);
+					else {
+						@SuppressWarnings("unchecked")
+						final DataBlock<Object> block = (DataBlock<Object>)d.block;
+						blocks.add(block);
+						datasetAttributes = d.datasetAttributes;
+					}
+				}
+				if (!blocks.isEmpty())
+					n5.writeBlocks(normalPath, datasetAttributes, blocks);
+
+				/* blocks that were replaced while writing stay dirty */
+				for (final Map.Entry<BlockKey, Dirty> entry : entries) {
+					if (dirty.remove(entry.getKey(), entry.getValue())) {
+						dirtyBytes.addAndGet(-entry.getValue().size);
+						flushed.increment();
+					}
+				}
+			} catch (final RuntimeException e) {
+				if (exception == null)
+					exception = e;
+			}
+		}
+		if (exception != null)
+			throw exception;
+	}
+
+	/**
+	 * Writes all dirty blocks.
+	 *
+	 * @throws N5Exception if writing any block failed, now or in the
+	 *             background
+	 */
+	public void flush() throws N5Exception {
+
+		final RuntimeException backgroundFailure = failure;
+		failure = null;
+		flush(Long.MAX_VALUE);
+		if (backgroundFailure != null)
+			throw new N5IOException("Failed to write blocks in the background", backgroundFailure);
+	}
+
+	/**
+	 * @return the number of dirty blocks
+	 */
+	public int getDirtyCount() {
+
+		return dirty.size();
+	}
+
+	/**
+	 * @return the estimated size of dirty blocks in bytes
+	 */
+	public long getDirtyBytes() {
+
+		return dirtyBytes.get();
+	}
+
+	/**
+	 * @return the number of writes and deletes that replaced a dirty block
+	 */
+	public long getCoalescedCount() {
+
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return the number of blocks written or deleted in the writer
+	 */
+	public long getFlushedCount() {
+
+		return flushed.sum();
+	}
+
+	/**
+	 * @return the writer
+	 */
+	public N5Writer getWriter() {
+
+		return n5;
+	}
+
+	@Override
+	public <T> void writeBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final DataBlock<T> dataBlock) throws N5Exception {
+
+		put(
+				new BlockKey(N5URI.normalizeGroupPath(pathName), dataBlock.getGridPosition()),
+				datasetAttributes,
+				DataBlockCache.copy(dataBlock));
+	}
+
+	@Override
+	public boolean deleteBlock(final String pathName, final long... gridPosition) throws N5Exception {
+
+		put(new BlockKey(N5URI.normalizeGroupPath(pathName), gridPosition), null, null);
+		return true;
+	}
+
+	@Override
+	public boolean deleteBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		put(new BlockKey(N5URI.normalizeGroupPath(pathName), gridPosition), datasetAttributes, null);
+		return true;
+	}
+
+	@Override
+	public DataBlock<?> readBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition) throws N5Exception {
+
+		final Dirty d = dirty.get(new BlockKey(N5URI.normalizeGroupPath(pathName), gridPosition));
+		if (d == null)
+			return n5.readBlock(pathName, datasetAttributes, gridPosition);
+		else if (d.block == null)
+			return null;
+		else
+			return DataBlockCache.copy(d.block);
+	}
+
+	@Override
+	public boolean remove(final String groupPath) throws N5Exception {
+
+		final String normalPath = N5URI.normalizeGroupPath(groupPath);
+		synchronized (this) {
+			for (final Map.Entry<BlockKey, Dirty> entry : dirty.entrySet())
+				if (entry.getKey().isIn(normalPath) && dirty.remove(entry.getKey(), entry.getValue()))
+					dirtyBytes.addAndGet(-entry.getValue().size);
+		}
+		return n5.remove(groupPath);
+	}
+
+	@Override
+	public void setAttributes(final String groupPath, final Map<String, ?> attributes) throws N5Exception {
+
+		n5.setAttributes(groupPath, attributes);
+	}
+
+	@Override
+	public boolean removeAttribute(final String groupPath, final String attributePath) throws N5Exception {
+
+		return n5.removeAttribute(groupPath, attributePath);
+	}
+
+	@Override
+	public <T> T removeAttribute(final String groupPath, final String attributePath, final Class<T> clazz) throws N5Exception {
+
+		return n5.removeAttribute(groupPath, attributePath, clazz);
+	}
+
+	@Override
+	public void createGroup(final String groupPath) throws N5Exception {
+
+		n5.createGroup(groupPath);
+	}
+
+	@Override
+	public Version getVersion() throws N5Exception {
+
+		return n5.getVersion();
+	}
+
+	@Override
+	public URI getURI() {
+
+		return n5.getURI();
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Class<T> clazz) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, clazz);
+	}
+
+	@Override
+	public <T> T getAttribute(final String pathName, final String key, final Type type) throws N5Exception {
+
+		return n5.getAttribute(pathName, key, type);
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes(final String pathName) throws N5Exception {
+
+		return n5.getDatasetAttributes(pathName);
+	}
+
+	@Override
+	public boolean exists(final String pathName) {
+
+		return n5.exists(pathName);
+	}
+
+	@Override
+	public boolean datasetExists(final String pathName) throws N5Exception {
+
+		return n5.datasetExists(pathName);
+	}
+
+	@Override
+	public String[] list(final String pathName) throws N5Exception {
+
+		return n5.list(pathName);
+	}
+
+	@Override
+	public Map<String, Class<?>> listAttributes(final String pathName) throws N5Exception {
+
+		return n5.listAttributes(pathName);
+	}
+
+	@Override
+	public String getGroupSeparator() {
+
+		return n5.getGroupSeparator();
+	}
+
+	/**
+	 * Writes all dirty blocks, stops the background thread, and closes the
+	 * writer.
+	 *
+	 * @throws N5Exception if writing any block failed
+	 */
+	@Override
+	public void close() throws N5Exception {
+
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			flush();
+		} finally {
+			n5.close();
+		}
+	}
+}
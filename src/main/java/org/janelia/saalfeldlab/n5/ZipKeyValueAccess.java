@@ -0,0 +1,525 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only {@link KeyValueAccess} that serves the entries of a ZIP
+ * archive without unpacking it.
+ *
+ * The central directory of the archive is parsed once on construction into
+ * an index of all paths, such that {@link #exists(String)},
+ * {@link #list(String)} and {@link #isDirectory(String)} never touch the
+ * archive. Entries are read with positioned reads from a single shared
+ * {@link FileChannel}. Stored (uncompressed) entries can optionally be
+ * served as slices of a memory mapped archive, deflated entries are
+ * inflated on the fly. ZIP64 archives are supported.
+ *
+ * Paths are separated by '/' and absolute with the root of the archive as
+ * "/", {@link #uri(String)} returns URIs with the scheme "zip" for paths
+ * without a scheme. Archives are treated as immutable, reading requires no
+ * locks. All modifying operations throw an {@link N5Exception.N5IOException}.
+ */
+public class ZipKeyValueAccess implements PosixKeyValueAccess, Closeable {
+
+	public static final String SCHEME = "zip";
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+	private static final int ZIP64_EXTRA = 0x0001;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private static final long UINT32_MAX = 0xffffffffL;
+
+	private static final class Entry {
+
+		private final int method;
+		private final long headerOffset;
+		private final long compressedSize;
+
+		/* offset of the data, read lazily from the local header */
+		private volatile long dataOffset = -1;
+
+		private Entry(final int method, final long headerOffset, final long compressedSize) {
+
+			this.method = method;
+			this.headerOffset = headerOffset;
+			this.compressedSize = compressedSize;
+		}
+	}
+
+	/**
+	 * A {@link LockedChannel} on an entry of the archive. No lock is held.
+	 */
+	protected class ZipEntryChannel implements LockedChannel {
+
+		protected final String path;
+
+		private final Entry entry;
+
+		private final long dataOffset;
+
+		protected ZipEntryChannel(final String path, final Entry entry) throws IOException {
+
+			this.path = path;
+			this.entry = entry;
+			dataOffset = dataOffset(entry);
+		}
+
+		@Override
+		public Reader newReader() throws IOException {
+
+			return new InputStreamReader(newInputStream(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public InputStream newInputStream() throws IOException {
+
+			final InputStream in = new InputStream() {
+
+				private long position = dataOffset;
+
+				private final long end = dataOffset + entry.compressedSize;
+
+				@Override
+				public int read() throws IOException {
+
+					final byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException {
+
+					if (len == 0)
+						return 0;
+					if (position >= end)
+						return -1;
+
+					final int n = channel.read(ByteBuffer.wrap(b, off, (int)Math.min(len, end - position)), position);
+					if (n > 0)
+						position += n;
+					return n;
+				}
+
+				@Override
+				public long skip(final long n) {
+
+					final long k = Math.max(0, Math.min(n, end - position));
+					position += k;
+					return k;
+				}
+
+				@Override
+				public int available() {
+
+					return (int)Math.min(Integer.MAX_VALUE, end - position);
+				}
+			};
+
+			switch (entry.method) {
+			case STORED:
+				return in;
+			case DEFLATED:
+				return new InflaterInputStream(in, new Inflater(true)) {
+
+					@Override
+					public void close() throws IOException {
+
+						super.close();
+						inf.end();
+					}
+				};
+			default:
+				throw new ZipException("Unsupported compression method " + entry.method + " of " + path);
+			}
+		}
+
+		@Override
+		public Writer newWriter() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public OutputStream newOutputStream() throws IOException {
+
+			throw new NonWritableChannelException();
+		}
+
+		/**
+		 * Returns a slice of the memory mapped archive for stored entries if
+		 * this {@link ZipKeyValueAccess} was opened in memory mapped mode,
+		 * null otherwise.
+		 */
+		@Override
+		public ByteBuffer newByteBuffer() throws IOException {
+
+			if (!memoryMapped || entry.method != STORED)
+				return null;
+
+			if (mapped == null)
+				return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, entry.compressedSize);
+
+			final ByteBuffer slice = mapped.duplicate();
+			slice.limit((int)(dataOffset + entry.compressedSize));
+			slice.position((int)dataOffset);
+			return slice.slice();
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	protected final Path archive;
+
+	protected final boolean memoryMapped;
+
+	private final FileChannel channel;
+
+	/* the entire archive if memory mapped and small enough to be mapped at once */
+	private final ByteBuffer mapped;
+
+	private final HashMap<String, Entry> files = new HashMap<>();
+
+	/* children by directory */
+	private final HashMap<String, Set<String>> directories = new HashMap<>();
+
+	/**
+	 * Opens a ZIP archive and reads its central directory.
+	 *
+	 * @param archive the archive
+	 * @throws IOException if the archive cannot be opened or is corrupt
+	 */
+	public ZipKeyValueAccess(final Path archive) throws IOException {
+
+		this(archive, false);
+	}
+
+	/**
+	 * Opens a ZIP archive and reads its central directory.
+	 *
+	 * In memory mapped mode, {@link LockedChannel#newByteBuffer()} returns
+	 * slices of the memory mapped archive for stored entries such that data
+	 * blocks can be parsed and decoded without intermediate copies.
+	 *
+	 * @param archive the archive
+	 * @param memoryMapped map the archive into memory for reading
+	 * @throws IOException if the archive cannot be opened or is corrupt
+	 */
+	public ZipKeyValueAccess(final Path archive, final boolean memoryMapped) throws IOException {
+
+		this.archive = archive;
+		this.memoryMapped = memoryMapped;
+		channel = FileChannel.open(archive, StandardOpenOption.READ);
+		try {
+			directories.put("/", new LinkedHashSet<>());
+			readCentralDirectory();
+			final long size = channel.size();
+			mapped = memoryMapped && size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private ByteBuffer read(final long position, final int length) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException("Unexpected end of " + archive);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static int uint16(final ByteBuffer buffer, final int index) {
+
+		return buffer.getShort(index) & 0xffff;
+	}
+
+	private static long uint32(final ByteBuffer buffer, final int index) {
+
+		return buffer.getInt(index) & UINT32_MAX;
+	}
+
+	private void readCentralDirectory() throws IOException {
+
+		/* the end of central directory record is followed by a comment of up to 64KiB */
+		final long size = channel.size();
+		final int tailLength = (int)Math.min(size, 22 + 0xffff);
+		final ByteBuffer tail = read(size - tailLength, tailLength);
+		int end = tailLength - 22;
+		while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY)
+			--end;
+		if (end < 0)
+			throw new ZipException("No ZIP archive: " + archive);
+
+		long numEntries = uint16(tail, end + 10);
+		long centralDirectorySize = uint32(tail, end + 12);
+		long centralDirectoryOffset = uint32(tail, end + 16);
+		if (end >= 20 && tail.getInt(end - 20) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+			final ByteBuffer zip64End = read(tail.getLong(end - 20 + 8), 56);
+			if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY)
+				throw new ZipException("Corrupt ZIP64 end of central directory in " + archive);
+			numEntries = zip64End.getLong(32);
+			centralDirectorySize = zip64End.getLong(40);
+			centralDirectoryOffset = zip64End.getLong(48);
+		}
+		if (centralDirectorySize > Integer.MAX_VALUE)
+			throw new ZipException("Central directory of " + archive + " too large");
+
+		final ByteBuffer centralDirectory = channel
+				.map(FileChannel.MapMode.READ_ONLY, centralDirectoryOffset, centralDirectorySize)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		int p = 0;
+		for (long i = 0; i < numEntries; ++i) {
+			if (centralDirectory.getInt(p) != CENTRAL_HEADER)
+				throw new ZipException("Corrupt central directory in " + archive);
+
+			final int method = uint16(centralDirectory, p + 10);
+			long compressedSize = uint32(centralDirectory, p + 20);
+			long size32 = uint32(centralDirectory, p + 24);
+			final int nameLength = uint16(centralDirectory, p + 28);
+			final int extraLength = uint16(centralDirectory, p + 30);
+			final int commentLength = uint16(centralDirectory, p + 32);
+			long headerOffset = uint32(centralDirectory, p + 42);
+
+			final byte[] name = new byte[nameLength];
+			centralDirectory.position(p + 46);
+			centralDirectory.get(name);
+
+			/* ZIP64 extra field with the 32 bit fields that overflowed, in this order */
+			for (int q = p + 46 + nameLength, extraEnd = q + extraLength; q + 4 <= extraEnd;) {
+				final int id = uint16(centralDirectory, q);
+				final int length = uint16(centralDirectory, q + 2);
+				if (id == ZIP64_EXTRA) {
+					int r = q + 4;
+					if (size32 == UINT32_MAX) {
+						size32 = centralDirectory.getLong(r);
+						r += 8;
+					}
+					if (compressedSize == UINT32_MAX) {
+						compressedSize = centralDirectory.getLong(r);
+						r += 8;
+					}
+					if (headerOffset == UINT32_MAX)
+						headerOffset = centralDirectory.getLong(r);
+				}
+				q += 4 + length;
+			}
+
+			add(new String(name, StandardCharsets.UTF_8), new Entry(method, headerOffset, compressedSize));
+			p += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private void add(final String name, final Entry entry) {
+
+		final String path = PosixPaths.absolute(name);
+		if (path.equals("/"))
+			return;
+		if (name.endsWith("/"))
+			directories.computeIfAbsent(path, k -> new LinkedHashSet<>());
+		else
+			files.put(path, entry);
+
+		for (String child = path, parent = PosixPaths.parent(path); parent != null; child = parent, parent = PosixPaths.parent(parent))
+			directories.computeIfAbsent(parent, k -> new LinkedHashSet<>()).add(PosixPaths.name(child));
+	}
+
+	private long dataOffset(final Entry entry) throws IOException {
+
+		long dataOffset = entry.dataOffset;
+		if (dataOffset < 0) {
+			final ByteBuffer header = read(entry.headerOffset, 30);
+			if (header.getInt(0) != LOCAL_HEADER)
+				throw new ZipException("Corrupt local header at " + entry.headerOffset + " in " + archive);
+			dataOffset = entry.headerOffset + 30 + uint16(header, 26) + uint16(header, 28);
+			entry.dataOffset = dataOffset;
+		}
+		return dataOffset;
+	}
+
+	/**
+	 * @return the archive
+	 */
+	public Path getArchive() {
+
+		return archive;
+	}
+
+	@Override
+	public ZipEntryChannel lockForReading(final String normalPath) throws IOException {
+
+		final String path = absolute(normalPath);
+		final Entry entry = files.get(path);
+		if (entry == null)
+			throw new NoSuchFileException(path);
+		return new ZipEntryChannel(path, entry);
+	}
+
+	@Override
+	public ZipEntryChannel tryLockForReading(final String normalPath) throws IOException {
+
+		final String path = absolute(normalPath);
+		final Entry entry = files.get(path);
+		return entry == null ? null : new ZipEntryChannel(path, entry);
+	}
+
+	@Override
+	public LockedChannel lockForWriting(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	@Override
+	public boolean exists(final String normalPath) {
+
+		final String path = absolute(normalPath);
+		return files.containsKey(path) || directories.containsKey(path);
+	}
+
+	@Override
+	public boolean isDirectory(final String normalPath) {
+
+		return directories.containsKey(absolute(normalPath));
+	}
+
+	@Override
+	public boolean isFile(final String normalPath) {
+
+		return files.containsKey(absolute(normalPath));
+	}
+
+	@Override
+	public String[] listDirectories(final String normalPath) throws IOException {
+
+		final String path = absolute(normalPath);
+		return children(path).stream()
+				.filter(a -> directories.containsKey(compose(path, a)))
+				.toArray(n -> new String[n]);
+	}
+
+	@Override
+	public String[] list(final String normalPath) throws IOException {
+
+		return children(absolute(normalPath)).toArray(new String[0]);
+	}
+
+	private Set<String> children(final String path) throws NoSuchFileException {
+
+		final Set<String> children = directories.get(path);
+		if (children == null)
+			throw new NoSuchFileException(path);
+		return children;
+	}
+
+	@Override
+	public void createDirectories(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	@Override
+	public void delete(final String normalPath) throws IOException {
+
+		throw readOnly(normalPath);
+	}
+
+	private N5Exception.N5IOException readOnly(final String path) {
+
+		return new N5Exception.N5IOException("Cannot modify " + path + " in ZIP archive " + archive);
+	}
+
+	private String absolute(final String path) {
+
+		return normalize(path.startsWith("/") ? path : "/" + path);
+	}
+
+	/**
+	 * Removes "." and ".." components and redundant separators, and the
+	 * scheme of "zip" URIs.
+	 *
+	 * @param path the path
+	 * @return the normalized path
+	 */
+	@Override
+	public String normalize(String path) {
+
+		if (path.startsWith(SCHEME + ":"))
+			path = URI.create(path).getPath();
+
+		return PosixPaths.normalize(path);
+	}
+
+	@Override
+	public URI uri(final String normalPath) throws URISyntaxException {
+
+		try {
+			final URI uri = new URI(normalPath);
+			if (uri.isAbsolute())
+				return uri.normalize();
+		} catch (final URISyntaxException e) {}
+
+		return new URI(SCHEME, null, absolute(normalPath), null);
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		channel.close();
+	}
+}
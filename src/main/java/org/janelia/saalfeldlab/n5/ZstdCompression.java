@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.janelia.saalfeldlab.n5.Compression.CompressionType;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Zstandard compression, compresses close to gzip at a much higher
+ * decompression speed.
+ *
+ * The compression level ranges from 1 (fastest) to 22 (smallest), negative
+ * levels trade ratio for even faster compression. With one or more worker
+ * threads, large blocks are compressed in parallel, decompression is always
+ * single threaded.
+ */
+@CompressionType("zstd")
+public class ZstdCompression implements DefaultBlockReader, DefaultBlockWriter, Compression {
+
+	private static final long serialVersionUID = 6480839291357264916L;
+
+	public static final int DEFAULT_LEVEL = 3;
+
+	@CompressionParameter
+	private final int level;
+
+	@CompressionParameter
+	private final int nbWorkers;
+
+	public ZstdCompression(final int level, final int nbWorkers) {
+
+		this.level = level;
+		this.nbWorkers = nbWorkers;
+	}
+
+	public ZstdCompression(final int level) {
+
+		this(level, 0);
+	}
+
+	public ZstdCompression() {
+
+		this(DEFAULT_LEVEL);
+	}
+
+	public int getLevel() {
+
+		return level;
+	}
+
+	public int getNbWorkers() {
+
+		return nbWorkers;
+	}
+
+	@Override
+	public InputStream getInputStream(final InputStream in) throws IOException {
+
+		return new ZstdInputStream(in);
+	}
+
+	@Override
+	public OutputStream getOutputStream(final OutputStream out) throws IOException {
+
+		final ZstdOutputStream zstd = new ZstdOutputStream(out, level);
+		if (nbWorkers > 0)
+			zstd.setWorkers(nbWorkers);
+		return zstd;
+	}
+
+	@Override
+	public ZstdCompression getReader() {
+
+		return this;
+	}
+
+	@Override
+	public ZstdCompression getWriter() {
+
+		return this;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+
+		if (other == null || other.getClass() != ZstdCompression.class)
+			return false;
+		else {
+			final ZstdCompression zstd = (ZstdCompression)other;
+			return level == zstd.level && nbWorkers == zstd.nbWorkers;
+		}
+	}
+}
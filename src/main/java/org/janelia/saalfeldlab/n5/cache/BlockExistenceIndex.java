@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+
+/**
+ * An in-memory index of the blocks that exist in datasets.
+ *
+ * The index of a dataset is a {@link SparseBitSet} of linear grid positions
+ * with the first dimension varying fastest. It is built by scanning the
+ * dataset when it is first queried and kept up to date by writers that
+ * report written and deleted blocks. Changes by other writers are not
+ * tracked, {@link #invalidate(String)} forces a new scan.
+ *
+ * The index never reports a block as missing that was written by a writer
+ * using it. Writers record blocks only after they were written or deleted,
+ * and drop the index of a dataset when writing one of its blocks failed,
+ * because the failed write may have left the block in any state. The next
+ * query then scans the dataset again. Datasets that cannot be scanned, or
+ * that have blocks outside their grid, are not indexed and all their blocks
+ * are reported as existing.
+ */
+public class BlockExistenceIndex {
+
+	/**
+	 * Finds all blocks that exist in a dataset.
+	 */
+	@FunctionalInterface
+	public interface Scanner {
+
+		/**
+		 * @param blocks receives the grid positions of all existing blocks
+		 * @throws N5Exception if the dataset cannot be scanned
+		 */
+		void scan(Consumer<long[]> blocks) throws N5Exception;
+	}
+
+	private static final class Entry {
+
+		private long[] gridSize = null;
+
+		private long[] strides = null;
+
+		/* null if not scanned or not indexable */
+		private SparseBitSet blocks = null;
+
+		/**
+		 * @return the linear index, -1 if outside of the grid
+		 */
+		private long index(final long[] gridPosition) {
+
+			if (gridPosition.length != gridSize.length)
+				return -1;
+			long i = 0;
+			for (int d = 0; d < gridPosition.length; ++d) {
+				if (gridPosition[d] < 0 || gridPosition[d] >= gridSize[d])
+					return -1;
+				i += gridPosition[d] * strides[d];
+			}
+			return i;
+		}
+
+		private long[] gridPosition(long i) {
+
+			final long[] gridPosition = new long[gridSize.length];
+			for (int d = gridSize.length - 1; d >= 0; --d) {
+				gridPosition[d] = i / strides[d];
+				i %= strides[d];
+			}
+			return gridPosition;
+		}
+
+		private void scan(final long[] gridSize, final Scanner scanner) {
+
+			this.gridSize = gridSize;
+			blocks = null;
+			strides = new long[gridSize.length];
+			try {
+				long n = 1;
+				for (int d = 0; d < gridSize.length; ++d) {
+					strides[d] = n;
+					n = Math.multiplyExact(n, gridSize[d]);
+				}
+
+				final SparseBitSet scanned = new SparseBitSet();
+				final boolean[] inGrid = {true};
+				scanner.scan(gridPosition -> {
+					final long i = index(gridPosition);
+					if (i < 0)
+						inGrid[0] = false;
+					else
+						scanned.add(i);
+				});
+				if (inGrid[0])
+					blocks = scanned;
+			} catch (final ArithmeticException | N5Exception e) {}
+		}
+
+		/**
+		 * Scans the dataset unless it was scanned with the same grid.
+		 */
+		private void update(final DatasetAttributes datasetAttributes, final Scanner scanner) {
+
+			final long[] gridSize = gridSize(datasetAttributes);
+			if (!Arrays.equals(gridSize, this.gridSize))
+				scan(gridSize, scanner);
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private static long[] gridSize(final DatasetAttributes datasetAttributes) {
+
+		final long[] dimensions = datasetAttributes.getDimensions();
+		final int[] blockSize = datasetAttributes.getBlockSize();
+		final long[] gridSize = new long[dimensions.length];
+		for (int d = 0; d < dimensions.length; ++d)
+			gridSize[d] = (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+		return gridSize;
+	}
+
+	/**
+	 * Checks whether a block exists, scans the dataset if it is not indexed
+	 * yet or if its grid changed.
+	 *
+	 * @param normalPath normalized dataset path
+	 * @param datasetAttributes the dataset attributes
+	 * @param gridPosition the grid position
+	 * @param scanner scans the dataset
+	 * @return false if the block does not exist, true if it exists or if
+	 *         the dataset is not indexed
+	 */
+	public boolean exists(
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final long[] gridPosition,
+			final Scanner scanner) {
+
+		final Entry entry = entries.computeIfAbsent(normalPath, k -> new Entry());
+		synchronized (entry) {
+			entry.update(datasetAttributes, scanner);
+			if (entry.blocks == null)
+				return true;
+			final long i = entry.index(gridPosition);
+			return i < 0 || entry.blocks.contains(i);
+		}
+	}
+
+	/**
+	 * Lists the grid positions of all blocks of a dataset, scans the dataset
+	 * if it is not indexed yet or if its grid changed.
+	 *
+	 * @param normalPath normalized dataset path
+	 * @param datasetAttributes the dataset attributes
+	 * @param scanner scans the dataset
+	 * @return the grid positions with the first dimension varying fastest,
+	 *         or null if the dataset is not indexed
+	 */
+	public List<long[]> list(
+			final String normalPath,
+			final DatasetAttributes datasetAttributes,
+			final Scanner scanner) {
+
+		final Entry entry = entries.computeIfAbsent(normalPath, k -> new Entry());
+		synchronized (entry) {
+			entry.update(datasetAttributes, scanner);
+			if (entry.blocks == null)
+				return null;
+			final List<long[]> gridPositions = new ArrayList<>((int)Math.min(Integer.MAX_VALUE, entry.blocks.cardinality()));
+			entry.blocks.forEach(i -> gridPositions.add(entry.gridPosition(i)));
+			return gridPositions;
+		}
+	}
+
+	/**
+	 * Records a written block. Call this after the block was written. If
+	 * writing failed, call {@link #invalidate(String)} instead.
+	 *
+	 * @param normalPath normalized dataset path
+	 * @param gridPosition the grid position
+	 */
+	public void add(final String normalPath, final long[] gridPosition) {
+
+		final Entry entry = entries.get(normalPath);
+		if (entry == null)
+			return;
+		synchronized (entry) {
+			if (entry.blocks != null) {
+				final long i = entry.index(gridPosition);
+				if (i < 0)
+					entry.blocks = null;
+				else
+					entry.blocks.add(i);
+			}
+		}
+	}
+
+	/**
+	 * Records a deleted block. Call this after the block was deleted.
+	 *
+	 * @param normalPath normalized dataset path
+	 * @param gridPosition the grid position
+	 */
+	public void remove(final String normalPath, final long[] gridPosition) {
+
+		final Entry entry = entries.get(normalPath);
+		if (entry == null)
+			return;
+		synchronized (entry) {
+			if (entry.blocks != null) {
+				final long i = entry.index(gridPosition);
+				if (i >= 0)
+					entry.blocks.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Drops the index of a dataset.
+	 *
+	 * @param normalPath normalized dataset path
+	 */
+	public void invalidate(final String normalPath) {
+
+		entries.remove(normalPath);
+	}
+
+	/**
+	 * Drops the index of all datasets in or below a group.
+	 *
+	 * @param normalGroupPath normalized group path
+	 */
+	public void invalidateAll(final String normalGroupPath) {
+
+		final String prefix = normalGroupPath.isEmpty() || normalGroupPath.endsWith("/") ? normalGroupPath : normalGroupPath + "/";
+		entries.keySet().removeIf(normalPath -> normalPath.equals(normalGroupPath) || normalPath.startsWith(prefix));
+	}
+
+	public void clear() {
+
+		entries.clear();
+	}
+
+	/**
+	 * @param normalPath normalized dataset path
+	 * @return true if the blocks of the dataset are indexed
+	 */
+	public boolean isIndexed(final String normalPath) {
+
+		final Entry entry = entries.get(normalPath);
+		if (entry == null)
+			return false;
+		synchronized (entry) {
+			return entry.blocks != null;
+		}
+	}
+
+	/**
+	 * @return the estimated memory occupied by the index in bytes
+	 */
+	public long getBytes() {
+
+		long bytes = 0;
+		for (final Entry entry : entries.values())
+			synchronized (entry) {
+				bytes += 128 + (entry.blocks == null ? 0 : entry.blocks.getBytes());
+			}
+		return bytes;
+	}
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.cache;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DoubleArrayDataBlock;
+import org.janelia.saalfeldlab.n5.FloatArrayDataBlock;
+import org.janelia.saalfeldlab.n5.IntArrayDataBlock;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+
+/**
+ * A cache of decoded {@link DataBlock DataBlocks} by dataset and grid
+ * position that is bounded by the total size of the cached blocks.
+ *
+ * The cache is an {@link LruCache} of lock-striped segments that each evict
+ * their least recently used blocks when they exceed their share of the byte
+ * budget. Blocks larger than the share of a segment are not cached. Missing
+ * blocks are not cached.
+ *
+ * Cached blocks are shared between all readers. {@link #get} returns copies
+ * of blocks with primitive array data, such that modifying a returned block
+ * does not change the cache. Blocks with other data are returned as cached
+ * and must not be modified.
+ *
+ * Loads that overlap with an invalidation of their segment are not cached,
+ * such that a block that was read before it was overwritten cannot replace
+ * the invalidation.
+ */
+public class DataBlockCache {
+
+	/* estimated size of a DataBlock and its key without the data */
+	private static final long OVERHEAD = 128;
+
+	private static final class Key {
+
+		private final String normalPath;
+		private final long[] gridPosition;
+		private final int hash;
+
+		private Key(final String normalPath, final long[] gridPosition) {
+
+			this.normalPath = normalPath;
+			this.gridPosition = gridPosition.clone();
+			hash = 31 * normalPath.hashCode() + Arrays.hashCode(gridPosition);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+
+			if (!(other instanceof Key))
+				return false;
+			final Key key = (Key)other;
+			return hash == key.hash && normalPath.equals(key.normalPath) && Arrays.equals(gridPosition, key.gridPosition);
+		}
+	}
+
+	private final LruCache<Key, DataBlock<?>> cache;
+
+	/**
+	 * Creates a {@link DataBlockCache} with 16 segments.
+	 *
+	 * @param maxBytes the maximum total size of cached blocks
+	 */
+	public DataBlockCache(final long maxBytes) {
+
+		this(maxBytes, 16);
+	}
+
+	/**
+	 * Creates a {@link DataBlockCache}.
+	 *
+	 * @param maxBytes the maximum total size of cached blocks
+	 * @param numSegments the number of lock-striped segments, more segments
+	 *            reduce contention but also the maximum size of cached blocks
+	 */
+	public DataBlockCache(final long maxBytes, final int numSegments) {
+
+		cache = new LruCache<>(maxBytes, numSegments, DataBlockCache::sizeOf);
+	}
+
+	/**
+	 * Estimates the memory occupied by a {@link DataBlock}.
+	 *
+	 * @param block the block
+	 * @return the estimated size in bytes
+	 */
+	public static long sizeOf(final DataBlock<?> block) {
+
+		final Object data = block.getData();
+		final long dataBytes;
+		if (data instanceof byte[])
+			dataBytes = ((byte[])data).length;
+		else if (data instanceof short[])
+			dataBytes = 2L * ((short[])data).length;
+		else if (data instanceof int[])
+			dataBytes = 4L * ((int[])data).length;
+		else if (data instanceof float[])
+			dataBytes = 4L * ((float[])data).length;
+		else if (data instanceof long[])
+			dataBytes = 8L * ((long[])data).length;
+		else if (data instanceof double[])
+			dataBytes = 8L * ((double[])data).length;
+		else
+			dataBytes = 8L * block.getNumElements();
+
+		return dataBytes + OVERHEAD;
+	}
+
+	/**
+	 * Copies a {@link DataBlock} with primitive array data. Blocks with other
+	 * data are returned as is.
+	 *
+	 * @param block the block
+	 * @return the copy
+	 */
+	public static DataBlock<?> copy(final DataBlock<?> block) {
+
+		final int[] size = block.getSize() == null ? null : block.getSize().clone();
+		final long[] gridPosition = block.getGridPosition().clone();
+		final Object data = block.getData();
+		if (data instanceof byte[])
+			return new ByteArrayDataBlock(size, gridPosition, ((byte[])data).clone());
+		else if (data instanceof short[])
+			return new ShortArrayDataBlock(size, gridPosition, ((short[])data).clone());
+		else if (data instanceof int[])
+			return new IntArrayDataBlock(size, gridPosition, ((int[])data).clone());
+		else if (data instanceof long[])
+			return new LongArrayDataBlock(size, gridPosition, ((long[])data).clone());
+		else if (data instanceof float[])
+			return new FloatArrayDataBlock(size, gridPosition, ((float[])data).clone());
+		else if (data instanceof double[])
+			return new DoubleArrayDataBlock(size, gridPosition, ((double[])data).clone());
+		else
+			return block;
+	}
+
+	/**
+	 * Returns a copy of the cached block or loads, caches, and returns a copy
+	 * of it if it is not cached.
+	 *
+	 * @param normalPath normalized dataset path
+	 * @param gridPosition the grid position
+	 * @param loader loads the block, returns null if it does not exist
+	 * @return the block or null if it does not exist
+	 */
+	public DataBlock<?> get(final String normalPath, final long[] gridPosition, final Supplier<DataBlock<?>> loader) {
+
+		final DataBlock<?> block = cache.get(new Key(normalPath, gridPosition), loader::get);
+		return block == null ? null : copy(block);
+	}
+
+	/**
+	 * Removes a block.
+	 *
+	 * @param normalPath normalized dataset path
+	 * @param gridPosition the grid position
+	 */
+	public void invalidate(final String normalPath, final long[] gridPosition) {
+
+		cache.invalidate(new Key(normalPath, gridPosition));
+	}
+
+	/**
+	 * Removes all blocks of a dataset or of all datasets in a group.
+	 *
+	 * @param normalPath normalized dataset or group path
+	 */
+	public void invalidateAll(final String normalPath) {
+
+		final String prefix = normalPath.isEmpty() || normalPath.endsWith("/") ? normalPath : normalPath + "/";
+		cache.invalidateIf(key -> key.normalPath.equals(normalPath) || key.normalPath.startsWith(prefix));
+	}
+
+	/**
+	 * Removes all blocks.
+	 */
+	public void clear() {
+
+		cache.clear();
+	}
+
+	/**
+	 * @return the number of cached blocks
+	 */
+	public int size() {
+
+		return cache.size();
+	}
+
+	/**
+	 * @return the estimated total size of cached blocks in bytes
+	 */
+	public long getBytes() {
+
+		return cache.getWeight();
+	}
+
+	public long getHitCount() {
+
+		return cache.getHitCount();
+	}
+
+	public long getMissCount() {
+
+		return cache.getMissCount();
+	}
+
+	public long getEvictionCount() {
+
+		return cache.getEvictionCount();
+	}
+
+	/**
+	 * @return the ratio of hits to requests, or 0 if there were no requests
+	 */
+	public double getHitRatio() {
+
+		return cache.getHitRatio();
+	}
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A concurrent cache that is bounded by the total weight of its values.
+ *
+ * The cache is split into lock-striped segments that each evict their least
+ * recently used entries when they exceed their share of the maximum weight.
+ * Values heavier than the share of a segment are not cached. Null values
+ * are not cached.
+ *
+ * Loads that overlap with an invalidation of their segment are not cached,
+ * such that a value that was loaded before it was overwritten in the
+ * backing store cannot replace the invalidation.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LruCache<K, V> {
+
+	/**
+	 * Loads a value that is not cached.
+	 *
+	 * @param <V> the value type
+	 * @param <E> the exception type
+	 */
+	@FunctionalInterface
+	public interface Loader<V, E extends Exception> {
+
+		/**
+		 * @return the value or null if it does not exist
+		 * @throws E the exception
+		 */
+		V load() throws E;
+	}
+
+	private static final class Entry<V> {
+
+		private final V value;
+		private final long weight;
+
+		private Entry(final V value, final long weight) {
+
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private final class Segment {
+
+		private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+		private long weight = 0;
+
+		private long invalidations = 0;
+
+		private void put(final K key, final Entry<V> entry) {
+
+			final Entry<V> previous = entries.put(key, entry);
+			if (previous != null)
+				weight -= previous.weight;
+			weight += entry.weight;
+
+			final Iterator<Entry<V>> lru = entries.values().iterator();
+			while (weight > maxSegmentWeight && lru.hasNext()) {
+				weight -= lru.next().weight;
+				lru.remove();
+				evictions.increment();
+			}
+		}
+
+		private synchronized void remove(final K key) {
+
+			++invalidations;
+			final Entry<V> entry = entries.remove(key);
+			if (entry != null)
+				weight -= entry.weight;
+		}
+
+		private synchronized void removeIf(final Predicate<? super K> predicate) {
+
+			++invalidations;
+			final Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				final Map.Entry<K, Entry<V>> entry = it.next();
+				if (predicate.test(entry.getKey())) {
+					weight -= entry.getValue().weight;
+					it.remove();
+				}
+			}
+		}
+	}
+
+	private final Segment[] segments;
+
+	private final long maxSegmentWeight;
+
+	private final ToLongFunction<? super V> weigher;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates an {@link LruCache}.
+	 *
+	 * @param maxWeight the maximum total weight of cached values
+	 * @param numSegments the number of lock-striped segments, more segments
+	 *            reduce contention but also the maximum weight of cached
+	 *            values
+	 * @param weigher the weight of a value, e.g. its size in bytes
+	 */
+	@SuppressWarnings("unchecked")
+	public LruCache(final long maxWeight, final int numSegments, final ToLongFunction<? super V> weigher) {
+
+		if (numSegments < 1)
+			throw new IllegalArgumentException("Number of segments must be positive.");
+
+		segments = new LruCache.Segment[numSegments];
+		for (int i = 0; i < numSegments; ++i)
+			segments[i] = new Segment();
+		maxSegmentWeight = maxWeight / numSegments;
+		this.weigher = weigher;
+	}
+
+	private Segment segment(final K key) {
+
+		final int h = key.hashCode();
+		return segments[((h ^ (h >>> 16)) & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * Returns the cached value or loads, caches, and returns it if it is not
+	 * cached.
+	 *
+	 * @param <E> the exception type of the loader
+	 * @param key the key
+	 * @param loader loads the value, returns null if it does not exist
+	 * @return the value or null if it does not exist
+	 * @throws E if loading failed
+	 */
+	public <E extends Exception> V get(final K key, final Loader<? extends V, E> loader) throws E {
+
+		final Segment segment = segment(key);
+		final long invalidations;
+		synchronized (segment) {
+			final Entry<V> entry = segment.entries.get(key);
+			if (entry != null) {
+				hits.increment();
+				return entry.value;
+			}
+			invalidations = segment.invalidations;
+		}
+
+		misses.increment();
+		final V value = loader.load();
+		if (value != null) {
+			final long weight = weigher.applyAsLong(value);
+			if (weight <= maxSegmentWeight) {
+				synchronized (segment) {
+					if (segment.invalidations == invalidations)
+						segment.put(key, new Entry<>(value, weight));
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the cached value or null if it is not cached.
+	 *
+	 * @param key the key
+	 * @return the value or null
+	 */
+	public V getIfPresent(final K key) {
+
+		final Segment segment = segment(key);
+		synchronized (segment) {
+			final Entry<V> entry = segment.entries.get(key);
+			if (entry != null) {
+				hits.increment();
+				return entry.value;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Returns a stamp of the invalidations that affect a key. Pass it to
+	 * {@link #put(Object, Object, long)} to cache a value that was loaded
+	 * after the stamp was taken.
+	 *
+	 * @param key the key
+	 * @return the stamp
+	 */
+	public long stamp(final K key) {
+
+		final Segment segment = segment(key);
+		synchronized (segment) {
+			return segment.invalidations;
+		}
+	}
+
+	/**
+	 * Caches a value unless it is heavier than {@link #getMaxValueWeight()}
+	 * or the key's segment was invalidated since the stamp was taken.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @param stamp the stamp taken with {@link #stamp(Object)} before the
+	 *            value was loaded
+	 * @return whether the value was cached
+	 */
+	public boolean put(final K key, final V value, final long stamp) {
+
+		final long weight = weigher.applyAsLong(value);
+		if (weight > maxSegmentWeight)
+			return false;
+
+		final Segment segment = segment(key);
+		synchronized (segment) {
+			if (segment.invalidations != stamp)
+				return false;
+			segment.put(key, new Entry<>(value, weight));
+			return true;
+		}
+	}
+
+	/**
+	 * @return the maximum weight of a value that can be cached
+	 */
+	public long getMaxValueWeight() {
+
+		return maxSegmentWeight;
+	}
+
+	/**
+	 * Removes a value.
+	 *
+	 * @param key the key
+	 */
+	public void invalidate(final K key) {
+
+		segment(key).remove(key);
+	}
+
+	/**
+	 * Removes all values whose keys match a predicate.
+	 *
+	 * @param predicate the predicate
+	 */
+	public void invalidateIf(final Predicate<? super K> predicate) {
+
+		for (final Segment segment : segments)
+			segment.removeIf(predicate);
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void clear() {
+
+		invalidateIf(k -> true);
+	}
+
+	/**
+	 * @return the number of cached values
+	 */
+	public int size() {
+
+		int size = 0;
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.entries.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the total weight of cached values
+	 */
+	public long getWeight() {
+
+		long weight = 0;
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				weight += segment.weight;
+			}
+		}
+		return weight;
+	}
+
+	public long getHitCount() {
+
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the ratio of hits to requests, or 0 if there were no requests
+	 */
+	public double getHitRatio() {
+
+		final long h = hits.sum();
+		final long requests = h + misses.sum();
+		return requests == 0 ? 0 : (double)h / requests;
+	}
+}
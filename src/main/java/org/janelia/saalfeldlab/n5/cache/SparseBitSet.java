@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2017, Stephan Saalfeld
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.cache;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * A compressed set of non-negative longs.
+ *
+ * Like a roaring bitmap, the set is split into containers of 2<sup>16</sup>
+ * consecutive values. Containers with few values store them as a sorted
+ * array, dense containers as a bitmap, and empty containers are dropped.
+ * Sparse and clustered sets therefore take little memory regardless of
+ * their range.
+ *
+ * This class is not thread safe.
+ */
+public final class SparseBitSet {
+
+	private static final int CONTAINER_BITS = 16;
+
+	private static final int CONTAINER_MASK = (1 << CONTAINER_BITS) - 1;
+
+	/* arrays larger than this take more memory than a bitmap */
+	private static final int MAX_ARRAY_SIZE = 4096;
+
+	private static final class Container {
+
+		/* sorted values if bitmap is null */
+		private char[] array = new char[4];
+
+		private long[] bitmap = null;
+
+		private int size = 0;
+
+		private boolean contains(final char value) {
+
+			if (bitmap != null)
+				return (bitmap[value >>> 6] & (1L << value)) != 0;
+			else
+				return Arrays.binarySearch(array, 0, size, value) >= 0;
+		}
+
+		private boolean add(final char value) {
+
+			if (bitmap != null) {
+				final long mask = 1L << value;
+				if ((bitmap[value >>> 6] & mask) != 0)
+					return false;
+				bitmap[value >>> 6] |= mask;
+				++size;
+				return true;
+			}
+
+			final int i = Arrays.binarySearch(array, 0, size, value);
+			if (i >= 0)
+				return false;
+			if (size == MAX_ARRAY_SIZE) {
+				toBitmap();
+				return add(value);
+			}
+			final int j = -i - 1;
+			if (size == array.length)
+				array = Arrays.copyOf(array, Math.min(2 * size, MAX_ARRAY_SIZE));
+			System.arraycopy(array, j, array, j + 1, size - j);
+			array[j] = value;
+			++size;
+			return true;
+		}
+
+		private boolean remove(final char value) {
+
+			if (bitmap != null) {
+				final long mask = 1L << value;
+				if ((bitmap[value >>> 6] & mask) == 0)
+					return false;
+				bitmap[value >>> 6] &= ~mask;
+				/* convert back late to not convert back and forth */
+				if (--size <= MAX_ARRAY_SIZE / 2)
+					toArray();
+				return true;
+			}
+
+			final int i = Arrays.binarySearch(array, 0, size, value);
+			if (i < 0)
+				return false;
+			System.arraycopy(array, i + 1, array, i, size - i - 1);
+			--size;
+			return true;
+		}
+
+		private void toBitmap() {
+
+			bitmap = new long[1 << (CONTAINER_BITS - 6)];
+			for (int i = 0; i < size; ++i)
+				bitmap[array[i] >>> 6] |= 1L << array[i];
+			array = null;
+		}
+
+		private void toArray() {
+
+			array = new char[size];
+			int i = 0;
+			for (int w = 0; w < bitmap.length; ++w)
+				for (long word = bitmap[w]; word != 0; word &= word - 1)
+					array[i++] = (char)((w << 6) + Long.numberOfTrailingZeros(word));
+			bitmap = null;
+		}
+
+		private void forEach(final long high, final LongConsumer action) {
+
+			if (bitmap != null) {
+				for (int w = 0; w < bitmap.length; ++w)
+					for (long word = bitmap[w]; word != 0; word &= word - 1)
+						action.accept(high | ((w << 6) + Long.numberOfTrailingZeros(word)));
+			} else {
+				for (int i = 0; i < size; ++i)
+					action.accept(high | array[i]);
+			}
+		}
+
+		private long getBytes() {
+
+			return 32 + (bitmap != null ? 8L * bitmap.length : 2L * array.length);
+		}
+	}
+
+	private final TreeMap<Long, Container> containers = new TreeMap<>();
+
+	private long cardinality = 0;
+
+	private static void check(final long value) {
+
+		if (value < 0)
+			throw new IllegalArgumentException("Negative value " + value);
+	}
+
+	/**
+	 * @param value the value
+	 * @return true if the set contains the value
+	 */
+	public boolean contains(final long value) {
+
+		check(value);
+		final Container container = containers.get(value >>> CONTAINER_BITS);
+		return container != null && container.contains((char)(value & CONTAINER_MASK));
+	}
+
+	/**
+	 * @param value the value
+	 * @return true if the value was added, false if it was in the set
+	 */
+	public boolean add(final long value) {
+
+		check(value);
+		final boolean added = containers
+				.computeIfAbsent(value >>> CONTAINER_BITS, k -> new Container())
+				.add((char)(value & CONTAINER_MASK));
+		if (added)
+			++cardinality;
+		return added;
+	}
+
+	/**
+	 * @param value the value
+	 * @return true if the value was removed, false if it was not in the set
+	 */
+	public boolean remove(final long value) {
+
+		check(value);
+		final Long high = value >>> CONTAINER_BITS;
+		final Container container = containers.get(high);
+		if (container == null || !container.remove((char)(value & CONTAINER_MASK)))
+			return false;
+		if (container.size == 0)
+			containers.remove(high);
+		--cardinality;
+		return true;
+	}
+
+	/**
+	 * Calls an action for all values in ascending order.
+	 *
+	 * @param action the action
+	 */
+	public void forEach(final LongConsumer action) {
+
+		for (final Map.Entry<Long, Container> entry : containers.entrySet())
+			entry.getValue().forEach(entry.getKey() << CONTAINER_BITS, action);
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public long cardinality() {
+
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+
+		return cardinality == 0;
+	}
+
+	public void clear() {
+
+		containers.clear();
+		cardinality = 0;
+	}
+
+	/**
+	 * @return the estimated memory occupied by the set in bytes
+	 */
+	public long getBytes() {
+
+		long bytes = 64;
+		for (final Container container : containers.values())
+			bytes += 48 + container.getBytes();
+		return bytes;
+	}
+}
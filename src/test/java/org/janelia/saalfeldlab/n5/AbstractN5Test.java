@@ -48,6 +48,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Predicate;
 
@@ -115,7 +116,14 @@ public abstract class AbstractN5Test {
 				new GzipCompression(),
 				new GzipCompression(5, true),
 				new Lz4Compression(),
-				new XzCompression()
+				new XzCompression(),
+				new ZstdCompression(),
+				new ZstdCompression(10, 2),
+				new ShuffleCompression(new GzipCompression()),
+				new ShuffleCompression(new Lz4Compression(), true),
+				new CodecChain(new ShuffleCompression(), new GzipCompression()),
+				new CodecChain(new DeltaFilter(), new GzipCompression()),
+				new ChunkedCompression(new GzipCompression(), 1000)
 		};
 	}
 
@@ -402,6 +410,47 @@ public abstract class AbstractN5Test {
 		}
 	}
 
+	@Test
+	public void testReadBlocks() throws IOException, URISyntaxException, InterruptedException, ExecutionException {
+
+		try (final N5Writer n5 = createN5Writer()) {
+			n5.createDataset(datasetName, dimensions, blockSize, DataType.UINT16, new RawCompression());
+			final DatasetAttributes attributes = n5.getDatasetAttributes(datasetName);
+
+			final List<long[]> gridPositions = new ArrayList<>();
+			for (int i = 0; i < 3; ++i)
+				for (int j = 0; j < 3; ++j)
+					gridPositions.add(new long[]{i, j, 0});
+
+			/* write every other block, leave the rest missing */
+			for (int k = 0; k < gridPositions.size(); k += 2) {
+				final short[] data = new short[blockNumElements];
+				Arrays.fill(data, (short)k);
+				n5.writeBlock(datasetName, attributes, new ShortArrayDataBlock(blockSize, gridPositions.get(k), data));
+			}
+
+			final List<DataBlock<?>> blocks = n5.readBlocks(datasetName, attributes, gridPositions);
+			final ExecutorService exec = Executors.newFixedThreadPool(4);
+			final List<DataBlock<?>> parallelBlocks = n5.readBlocks(datasetName, attributes, gridPositions, exec);
+			exec.shutdown();
+
+			assertEquals(gridPositions.size(), blocks.size());
+			assertEquals(gridPositions.size(), parallelBlocks.size());
+			for (int k = 0; k < gridPositions.size(); ++k) {
+				if (k % 2 == 0) {
+					final short[] data = new short[blockNumElements];
+					Arrays.fill(data, (short)k);
+					assertArrayEquals(gridPositions.get(k), blocks.get(k).getGridPosition());
+					assertArrayEquals(data, (short[])blocks.get(k).getData());
+					assertArrayEquals(data, (short[])parallelBlocks.get(k).getData());
+				} else {
+					assertNull(blocks.get(k));
+					assertNull(parallelBlocks.get(k));
+				}
+			}
+		}
+	}
+
 	@Test
 	public void testOverwriteBlock() throws URISyntaxException {
 
@@ -0,0 +1,185 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+	@Test
+	public void testSizeClasses() {
+
+		final SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(false, 1 << 20, 1 << 16);
+
+		final ByteBuffer buffer = pool.acquire(5000);
+		assertEquals(8192, buffer.capacity());
+		assertEquals(0, buffer.position());
+		assertEquals(5000, buffer.limit());
+
+		buffer.position(100).limit(200);
+		pool.release(buffer);
+		assertEquals(8192, pool.getPooledBytes());
+
+		final ByteBuffer reused = pool.acquire(6000);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(6000, reused.limit());
+		assertEquals(0, pool.getPooledBytes());
+
+		assertEquals(SizeClassedByteBufferPool.MIN_CAPACITY, pool.acquire(100).capacity());
+		assertEquals(8192, pool.acquire(8192).capacity());
+
+		/* too large to pool */
+		final ByteBuffer large = pool.acquire(100000);
+		assertEquals(100000, large.capacity());
+		pool.release(large);
+		assertEquals(0, pool.getPooledBytes());
+
+		/* foreign buffers */
+		pool.release(ByteBuffer.allocate(5000));
+		pool.release(ByteBuffer.allocateDirect(8192));
+		assertEquals(0, pool.getPooledBytes());
+
+		/* total limit */
+		for (int i = 0; i < 20; ++i)
+			pool.release(ByteBuffer.allocate(1 << 16));
+		assertEquals(1 << 20, pool.getPooledBytes());
+		pool.clear();
+		assertEquals(0, pool.getPooledBytes());
+	}
+
+	@Test
+	public void testDirect() {
+
+		final SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(true);
+		final ByteBuffer buffer = pool.acquire(10000);
+		assertTrue(buffer.isDirect());
+		pool.release(buffer);
+		assertSame(buffer, pool.acquire(10000));
+		assertNotSame(buffer, pool.acquire(10000));
+	}
+
+	/**
+	 * Counts buffers that are acquired and not released.
+	 */
+	private static class CountingPool implements ByteBufferPool {
+
+		final ByteBufferPool pool = new SizeClassedByteBufferPool(true);
+
+		final AtomicInteger acquired = new AtomicInteger();
+
+		final AtomicInteger outstanding = new AtomicInteger();
+
+		@Override
+		public ByteBuffer acquire(final int capacity) {
+
+			acquired.incrementAndGet();
+			outstanding.incrementAndGet();
+			return pool.acquire(capacity);
+		}
+
+		@Override
+		public void release(final ByteBuffer buffer) {
+
+			outstanding.decrementAndGet();
+			pool.release(buffer);
+		}
+	}
+
+	@Test
+	public void testReleaseByteBuffer() {
+
+		final CountingPool pool = new CountingPool();
+
+		/* buffers that wrap the data are not released into the pool */
+		final ByteArrayDataBlock bytes = new ByteArrayDataBlock(new int[]{4}, new long[]{0}, new byte[4]);
+		bytes.releaseByteBuffer(bytes.toByteBuffer(pool), pool);
+		bytes.releaseByteBuffer(ByteBuffer.allocate(4), pool);
+		assertEquals(0, pool.acquired.get());
+		assertEquals(0, pool.outstanding.get());
+
+		final ShortArrayDataBlock shorts = new ShortArrayDataBlock(new int[]{4}, new long[]{0}, new short[4]);
+		shorts.releaseByteBuffer(shorts.toByteBuffer(pool), pool);
+		shorts.releaseByteBuffer(shorts.acquireByteBuffer(pool), pool);
+		assertEquals(2, pool.acquired.get());
+		assertEquals(0, pool.outstanding.get());
+	}
+
+	private static byte[] write(final Compression compression, final DataBlock<?> block) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compression.getWriter().write(block, out);
+		return out.toByteArray();
+	}
+
+	private static void read(final Compression compression, final DataBlock<?> block, final byte[] bytes, final boolean buffer) throws IOException {
+
+		if (buffer)
+			compression.getReader().read(block, ByteBuffer.wrap(bytes));
+		else
+			compression.getReader().read(block, new ByteArrayInputStream(bytes));
+	}
+
+	@Test
+	public void testCustomPool() throws IOException {
+
+		final Random random = new Random(42);
+		final short[] shorts = new short[32 * 32];
+		final double[] doubles = new double[32 * 32];
+		final byte[] bytes = new byte[32 * 32];
+		for (int i = 0; i < shorts.length; ++i) {
+			shorts[i] = (short)random.nextInt();
+			doubles[i] = random.nextDouble();
+		}
+		random.nextBytes(bytes);
+
+		final Compression[] compressions = {
+				new RawCompression(),
+				new GzipCompression(),
+				new Lz4Compression(),
+				new ShuffleCompression(new GzipCompression()),
+				new ShuffleCompression(new Lz4Compression(), true),
+				new CodecChain(new ShuffleCompression(), new GzipCompression()),
+				new CodecChain(new DeltaFilter(), new Lz4Compression())
+		};
+
+		final ByteBufferPool defaultPool = ByteBufferPool.getDefault();
+		final CountingPool pool = new CountingPool();
+		ByteBufferPool.setDefault(pool);
+		try {
+			for (final Compression compression : compressions) {
+				final byte[] shortBytes = write(compression, new ShortArrayDataBlock(new int[]{32, 32}, new long[]{0, 0}, shorts));
+				final byte[] doubleBytes = write(compression, new DoubleArrayDataBlock(new int[]{32, 32}, new long[]{0, 0}, doubles));
+				final byte[] byteBytes = write(compression, new ByteArrayDataBlock(new int[]{32, 32}, new long[]{0, 0}, bytes));
+
+				for (final boolean buffer : new boolean[]{false, true}) {
+					final ShortArrayDataBlock shortBlock = new ShortArrayDataBlock(new int[]{32, 32}, new long[]{0, 0}, new short[shorts.length]);
+					final DoubleArrayDataBlock doubleBlock = new DoubleArrayDataBlock(new int[]{32, 32}, new long[]{0, 0}, new double[doubles.length]);
+					final ByteArrayDataBlock byteBlock = new ByteArrayDataBlock(new int[]{32, 32}, new long[]{0, 0}, new byte[bytes.length]);
+					read(compression, shortBlock, shortBytes, buffer);
+					read(compression, doubleBlock, doubleBytes, buffer);
+					read(compression, byteBlock, byteBytes, buffer);
+					assertArrayEquals(shorts, shortBlock.getData());
+					assertArrayEquals(doubles, doubleBlock.getData(), 0);
+					assertArrayEquals(bytes, byteBlock.getData());
+				}
+			}
+		} finally {
+			ByteBufferPool.setDefault(defaultPool);
+		}
+
+		assertTrue(pool.acquired.get() > 0);
+		assertEquals(0, pool.outstanding.get());
+	}
+}
@@ -0,0 +1,114 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class ChunkedCompressionTest {
+
+	private static byte[] write(final Compression compression, final DataBlock<?> block) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compression.getWriter().write(block, out);
+		return out.toByteArray();
+	}
+
+	private static short[] data(final int n) {
+
+		final Random random = new Random(n);
+		final short[] data = new short[n];
+		for (int i = 0; i < n; ++i)
+			data[i] = (short)(i / 50 + random.nextInt(8));
+		return data;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+
+		final Compression[] compressions = {
+				new RawCompression(),
+				new GzipCompression(),
+				new Lz4Compression(),
+				new ShuffleCompression()
+		};
+		for (final Compression compression : compressions)
+			for (final int n : new int[]{0, 1, 1000, 4096, 10001}) {
+				final ChunkedCompression chunked = new ChunkedCompression(compression, 1001);
+				final short[] data = data(n);
+				final byte[] bytes = write(chunked, new ShortArrayDataBlock(new int[]{n}, new long[]{0}, data));
+
+				/* chunks of 1000 bytes, a multiple of the element size */
+				final int numChunks = ByteBuffer.wrap(bytes).getInt();
+				assertEquals((2 * n + 999) / 1000, numChunks);
+
+				final ShortArrayDataBlock stream = new ShortArrayDataBlock(new int[]{n}, new long[]{0}, new short[n]);
+				chunked.getReader().read(stream, new ByteArrayInputStream(bytes));
+				assertArrayEquals(data, stream.getData());
+
+				final ShortArrayDataBlock buffer = new ShortArrayDataBlock(new int[]{n}, new long[]{0}, new short[n]);
+				chunked.getReader().read(buffer, ByteBuffer.wrap(bytes));
+				assertArrayEquals(data, buffer.getData());
+			}
+	}
+
+	@Test
+	public void testHeader() throws IOException {
+
+		final byte[] data = new byte[2500];
+		Arrays.fill(data, (byte)1);
+		final ChunkedCompression chunked = new ChunkedCompression(new RawCompression(), 1000);
+		final ByteBuffer encoded = chunked.encode(ByteBuffer.wrap(data), 1);
+
+		assertEquals(3, encoded.getInt());
+		for (final int length : new int[]{1000, 1000, 500}) {
+			assertEquals(length, encoded.getInt());
+			assertEquals(length, encoded.getInt());
+		}
+		assertEquals(2500, encoded.remaining());
+	}
+
+	@Test
+	public void testCorrupt() throws IOException {
+
+		final ChunkedCompression chunked = new ChunkedCompression(new GzipCompression(), 1000);
+		final byte[] bytes = CodecChain.toArray(chunked.encode(ByteBuffer.wrap(new byte[5000]), 1));
+
+		final byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+		final byte[] tooLong = bytes.clone();
+		tooLong[7] = 2;
+		final byte[] numChunks = bytes.clone();
+		numChunks[0] = 1;
+		for (final byte[] corrupt : new byte[][]{truncated, tooLong, numChunks, new byte[2]}) {
+			try {
+				chunked.decode(ByteBuffer.wrap(corrupt), ByteBuffer.allocate(5000), 1);
+				fail("Corrupt chunked data should fail.");
+			} catch (final IOException e) {}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidChunkSize() {
+
+		new ChunkedCompression(new GzipCompression(), 0);
+	}
+
+	@Test
+	public void testAttributes() {
+
+		final Compression compression = new ChunkedCompression(new ShuffleCompression(new GzipCompression()), 1 << 12);
+		final Gson gson = GsonUtils.registerGson(new GsonBuilder());
+		assertEquals(compression, gson.fromJson(gson.toJson(compression, Compression.class), Compression.class));
+	}
+}
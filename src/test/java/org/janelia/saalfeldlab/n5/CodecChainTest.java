@@ -0,0 +1,166 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class CodecChainTest {
+
+	private static final Random random = new Random(42);
+
+	private static IntArrayDataBlock block() {
+
+		final int[] data = new int[16 * 16];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = i / 7 + random.nextInt(3);
+		return new IntArrayDataBlock(new int[]{16, 16}, new long[]{1, 2}, data);
+	}
+
+	private static byte[] write(final Compression compression, final DataBlock<?> block) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compression.getWriter().write(block, out);
+		return out.toByteArray();
+	}
+
+	private static int[] read(final Compression compression, final byte[] bytes, final boolean buffer) throws IOException {
+
+		final IntArrayDataBlock block = new IntArrayDataBlock(new int[]{16, 16}, new long[]{1, 2}, new int[16 * 16]);
+		if (buffer)
+			compression.getReader().read(block, ByteBuffer.wrap(bytes));
+		else
+			compression.getReader().read(block, new ByteArrayInputStream(bytes));
+		return block.getData();
+	}
+
+	@Test
+	public void testSingleCodec() throws IOException {
+
+		/* a chain of one codec writes like the codec alone */
+		final IntArrayDataBlock block = block();
+		assertArrayEquals(write(new GzipCompression(), block), write(new CodecChain(new GzipCompression()), block));
+		assertArrayEquals(write(new RawCompression(), block), write(new CodecChain(), block));
+	}
+
+	@Test
+	public void testChain() throws IOException {
+
+		final IntArrayDataBlock block = block();
+		for (final boolean bitShuffle : new boolean[]{false, true}) {
+			final CodecChain chain = new CodecChain(
+					new ShuffleCompression(new RawCompression(), bitShuffle),
+					new RawCompression(),
+					new GzipCompression());
+
+			/* same bytes as the nested form */
+			final byte[] bytes = write(chain, block);
+			assertArrayEquals(write(new ShuffleCompression(new GzipCompression(), bitShuffle), block), bytes);
+
+			assertArrayEquals(block.getData(), read(chain, bytes, false));
+			assertArrayEquals(block.getData(), read(chain, bytes, true));
+		}
+	}
+
+	@Test
+	public void testAttributes() {
+
+		final Compression compression = new CodecChain(new ShuffleCompression(), new GzipCompression(5));
+		final Gson gson = GsonUtils.registerGson(new GsonBuilder());
+		assertEquals(compression, gson.fromJson(gson.toJson(compression, Compression.class), Compression.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidOrder() {
+
+		new CodecChain(new GzipCompression(), new DeltaFilter());
+	}
+
+	private static byte[] streamWrite(final DefaultBlockWriter writer, final byte[] data) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final OutputStream o = writer.getOutputStream(out)) {
+			o.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testByteBufferCodecs() throws IOException {
+
+		/* runs and noise across several lz4 frames */
+		final byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = i < 300 ? 7 : (byte)random.nextInt();
+
+		for (final Compression compression : new Compression[]{new RawCompression(), new Lz4Compression(128), new Lz4Compression()}) {
+			final BytesCodec codec = (BytesCodec)compression;
+			final byte[] stream = streamWrite((DefaultBlockWriter)compression, data);
+
+			/* the same format as the streams */
+			final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+			direct.put(data).flip();
+			final ByteBuffer encoded = codec.encode(direct, 1);
+			final byte[] encodedBytes = new byte[encoded.remaining()];
+			encoded.duplicate().get(encodedBytes);
+			assertArrayEquals(stream, encodedBytes);
+			assertEquals(0, direct.position());
+
+			/* decode a direct buffer into a direct buffer */
+			final ByteBuffer src = ByteBuffer.allocateDirect(stream.length);
+			src.put(stream).flip();
+			final ByteBuffer dst = ByteBuffer.allocateDirect(data.length);
+			codec.decode(src, dst, 1);
+			assertEquals(0, dst.remaining());
+			final byte[] decoded = new byte[data.length];
+			((ByteBuffer)dst.flip()).get(decoded);
+			assertArrayEquals(data, decoded);
+
+			assertArrayEquals(data, CodecChain.toArray(codec.decode(ByteBuffer.wrap(stream), 1)));
+
+			/* into a block, from a buffer with trailing bytes */
+			final ByteArrayDataBlock block = new ByteArrayDataBlock(new int[]{data.length}, new long[]{0}, new byte[data.length]);
+			compression.getReader().read(block, ByteBuffer.wrap(Arrays.copyOf(stream, stream.length + 16)));
+			assertArrayEquals(data, block.getData());
+
+			/* too small */
+			try {
+				codec.decode(ByteBuffer.wrap(stream), ByteBuffer.allocate(data.length - 1), 1);
+				fail("Decoding into a too small buffer should fail.");
+			} catch (final IOException e) {}
+		}
+	}
+
+	@Test
+	public void testCorruptLz4() {
+
+		final byte[] data = new byte[500];
+		Arrays.fill(data, 0, 200, (byte)3);
+		final Lz4Compression lz4 = new Lz4Compression(128);
+		final byte[] encoded = CodecChain.toArray(lz4.encode(ByteBuffer.wrap(data), 1));
+
+		try {
+			lz4.decode(ByteBuffer.wrap(encoded, 0, encoded.length - 1), ByteBuffer.allocate(data.length), 1);
+			fail("Truncated data should fail.");
+		} catch (final IOException e) {}
+
+		final byte[] corrupt = encoded.clone();
+		corrupt[corrupt.length - 40] ^= 1;
+		try {
+			lz4.decode(ByteBuffer.wrap(corrupt), ByteBuffer.allocate(data.length), 1);
+			fail("Corrupt data should fail.");
+		} catch (final IOException e) {}
+	}
+}
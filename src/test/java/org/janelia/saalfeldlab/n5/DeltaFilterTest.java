@@ -0,0 +1,153 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class DeltaFilterTest {
+
+	@Test
+	public void testDelta() {
+
+		final int[] encoded = new int[6];
+		Delta.encode(new int[]{1, 2, 4, 10, 20, 40}, encoded, 1, 6);
+		assertArrayEquals(new int[]{1, 1, 2, 6, 10, 20}, encoded);
+
+		/* along the second axis of a 3x2 block */
+		Delta.encode(new int[]{1, 2, 4, 10, 20, 40}, encoded, 3, 6);
+		assertArrayEquals(new int[]{1, 2, 4, 9, 18, 36}, encoded);
+
+		/* along the first axis of a 3x2 block */
+		Delta.encode(new int[]{1, 2, 4, 10, 20, 40}, encoded, 1, 3);
+		assertArrayEquals(new int[]{1, 1, 2, 10, 10, 20}, encoded);
+	}
+
+	@Test
+	public void testRoundTrip() {
+
+		final Random random = new Random(42);
+		final int[] size = {5, 4, 3};
+		final int n = 5 * 4 * 3;
+		for (int axis = -1; axis < 3; ++axis) {
+			final DeltaFilter filter = new DeltaFilter(axis);
+
+			final byte[] bytes = new byte[n];
+			random.nextBytes(bytes);
+			assertRoundTrip(filter, new ByteArrayDataBlock(size, new long[3], bytes), new ByteArrayDataBlock(size, new long[3], new byte[n]));
+
+			final short[] shorts = new short[n];
+			final int[] ints = new int[n];
+			final long[] longs = new long[n];
+			final float[] floats = new float[n];
+			final double[] doubles = new double[n];
+			for (int i = 0; i < n; ++i) {
+				shorts[i] = (short)random.nextInt();
+				ints[i] = random.nextInt();
+				longs[i] = random.nextLong();
+				floats[i] = Float.intBitsToFloat(random.nextInt());
+				doubles[i] = Double.longBitsToDouble(random.nextLong());
+			}
+			floats[7] = Float.NaN;
+			doubles[7] = Double.NEGATIVE_INFINITY;
+			assertRoundTrip(filter, new ShortArrayDataBlock(size, new long[3], shorts), new ShortArrayDataBlock(size, new long[3], new short[n]));
+			assertRoundTrip(filter, new IntArrayDataBlock(size, new long[3], ints), new IntArrayDataBlock(size, new long[3], new int[n]));
+			assertRoundTrip(filter, new LongArrayDataBlock(size, new long[3], longs), new LongArrayDataBlock(size, new long[3], new long[n]));
+			assertRoundTrip(filter, new FloatArrayDataBlock(size, new long[3], floats), new FloatArrayDataBlock(size, new long[3], new float[n]));
+			assertRoundTrip(filter, new DoubleArrayDataBlock(size, new long[3], doubles), new DoubleArrayDataBlock(size, new long[3], new double[n]));
+		}
+	}
+
+	private static <T> void assertRoundTrip(final DeltaFilter filter, final DataBlock<T> block, final DataBlock<T> decoded) {
+
+		final ByteBuffer expected = block.toByteBuffer();
+		final DataBlock<?> encoded = filter.encode(block);
+		assertEquals(expected, block.toByteBuffer());
+		final DataBlock<?> read = filter.createEncodedBlock(decoded);
+		read.readData(encoded.toByteBuffer());
+		filter.decode(read, decoded);
+		assertEquals(expected, decoded.toByteBuffer());
+	}
+
+	private static byte[] write(final Compression compression, final DataBlock<?> block) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compression.getWriter().write(block, out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testNaNPayloads() throws IOException {
+
+		/* signaling and quiet NaNs with payloads, and neighbours that XOR to NaNs */
+		final int[] floatBits = {0x7f800001, 0xff800001, 0x7fa00000, 0x7fc00001, 0x00000001, 0x7f800000, 0x3f800000, 0x40bf8001};
+		final long[] doubleBits = {0x7ff0000000000001L, 0xfff0000000000001L, 0x7ff4000000000000L, 0x7ff8000000000001L, 0x0000000000000001L, 0x7ff0000000000000L, 0x3ff0000000000000L, 0x400ff00000000001L};
+		final int n = floatBits.length;
+		final float[] floats = new float[n];
+		final double[] doubles = new double[n];
+		for (int i = 0; i < n; ++i) {
+			floats[i] = Float.intBitsToFloat(floatBits[i]);
+			doubles[i] = Double.longBitsToDouble(doubleBits[i]);
+		}
+
+		final int[] size = {n};
+		for (final Compression compression : new Compression[]{new DeltaFilter(), new CodecChain(new DeltaFilter(), new GzipCompression())}) {
+
+			final FloatArrayDataBlock floatBlock = new FloatArrayDataBlock(size, new long[1], new float[n]);
+			compression.getReader().read(floatBlock, new ByteArrayInputStream(write(compression, new FloatArrayDataBlock(size, new long[1], floats))));
+			for (int i = 0; i < n; ++i)
+				assertEquals(floatBits[i], Float.floatToRawIntBits(floatBlock.getData()[i]));
+
+			final DoubleArrayDataBlock doubleBlock = new DoubleArrayDataBlock(size, new long[1], new double[n]);
+			compression.getReader().read(doubleBlock, new ByteArrayInputStream(write(compression, new DoubleArrayDataBlock(size, new long[1], doubles))));
+			for (int i = 0; i < n; ++i)
+				assertEquals(doubleBits[i], Double.doubleToRawLongBits(doubleBlock.getData()[i]));
+		}
+
+		/* the encoded bits are the XOR of the raw bits */
+		final ByteBuffer encoded = ByteBuffer.wrap(write(new DeltaFilter(), new FloatArrayDataBlock(size, new long[1], floats)));
+		assertEquals(floatBits[0], encoded.getInt());
+		for (int i = 1; i < n; ++i)
+			assertEquals(floatBits[i] ^ floatBits[i - 1], encoded.getInt());
+	}
+
+	@Test
+	public void testCompression() throws IOException {
+
+		/* a label volume with few large segments */
+		final long[] labels = new long[64 * 64];
+		for (int y = 0; y < 64; ++y)
+			for (int x = 0; x < 64; ++x)
+				labels[y * 64 + x] = 1000000L + (x + y) / 16 * 7 + (x * y) % 2;
+		final LongArrayDataBlock block = new LongArrayDataBlock(new int[]{64, 64}, new long[]{0, 0}, labels);
+
+		final byte[] gzip = write(new GzipCompression(), block);
+		for (final int axis : new int[]{-1, 1}) {
+			final CodecChain chain = new CodecChain(new DeltaFilter(axis), new GzipCompression());
+			final byte[] bytes = write(chain, block);
+			assertTrue(bytes.length < gzip.length);
+
+			final LongArrayDataBlock read = new LongArrayDataBlock(new int[]{64, 64}, new long[]{0, 0}, new long[64 * 64]);
+			chain.getReader().read(read, new ByteArrayInputStream(bytes));
+			assertArrayEquals(labels, read.getData());
+		}
+	}
+
+	@Test
+	public void testAttributes() {
+
+		final Compression compression = new CodecChain(new DeltaFilter(1), new GzipCompression());
+		final Gson gson = GsonUtils.registerGson(new GsonBuilder());
+		assertEquals(compression, gson.fromJson(gson.toJson(compression, Compression.class), Compression.class));
+	}
+}
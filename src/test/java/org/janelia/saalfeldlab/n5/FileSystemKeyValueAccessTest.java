@@ -4,8 +4,16 @@
 package org.janelia.saalfeldlab.n5;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 
@@ -66,4 +74,31 @@ public class FileSystemKeyValueAccessTest {
 			assertArrayEquals(testPathComponents[i], components);
 		}
 	}
+
+	@Test
+	public void testTryLockForReading() throws IOException {
+
+		final FileSystemKeyValueAccess access = new FileSystemKeyValueAccess(FileSystems.getDefault());
+		final Path dir = Files.createTempDirectory("n5-test-");
+		final String path = dir.resolve("file").toString();
+
+		try {
+			assertNull(access.tryLockForReading(path));
+
+			try (final LockedChannel lock = access.lockForWriting(path);
+					final OutputStream out = lock.newOutputStream()) {
+				out.write(42);
+			}
+
+			try (final LockedChannel lock = access.tryLockForReading(path)) {
+				assertNotNull(lock);
+				try (final InputStream in = lock.newInputStream()) {
+					assertEquals(42, in.read());
+				}
+			}
+		} finally {
+			Files.deleteIfExists(dir.resolve("file"));
+			Files.delete(dir);
+		}
+	}
 }
@@ -0,0 +1,274 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Reads containers through an {@link HttpKeyValueAccess} from an embedded
+ * HTTP server that serves a temporary directory.
+ */
+public class HttpKeyValueAccessTest {
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+	private static Path root;
+
+	private static HttpServer server;
+
+	private static ExecutorService serverExecutor;
+
+	private static URI uri;
+
+	private static final AtomicLong bytesServed = new AtomicLong();
+
+	private static volatile boolean rangesSupported = true;
+
+	private static final DatasetAttributes attributes = new DatasetAttributes(
+			new long[]{64, 64},
+			new int[]{16, 16},
+			DataType.INT32,
+			new GzipCompression());
+
+	private static final DatasetAttributes shardedAttributes = new DatasetAttributes(
+			new long[]{64, 64},
+			new int[]{16, 16},
+			DataType.INT32,
+			new RawCompression(),
+			new int[]{64, 64});
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws IOException {
+
+		root = Files.createTempDirectory("n5-http-test-");
+
+		try (final N5Writer n5 = new N5FSWriter(root.resolve("test.n5").toString())) {
+			n5.createGroup("a/b");
+			n5.setAttribute("a", "name", "http");
+			n5.createDataset("a/data", attributes);
+			n5.createDataset("a/sharded", shardedAttributes);
+			for (long x = 0; x < 4; ++x) {
+				for (long y = 0; y < 4; ++y) {
+					final long[] gridPosition = {x, y};
+					if (x != 3 || y != 3)
+						n5.writeBlock("a/data", attributes, new IntArrayDataBlock(attributes.getBlockSize(), gridPosition, data(gridPosition)));
+					n5.writeBlock("a/sharded", shardedAttributes, new IntArrayDataBlock(shardedAttributes.getBlockSize(), gridPosition, data(gridPosition)));
+				}
+			}
+		}
+
+		serverExecutor = Executors.newFixedThreadPool(8);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", HttpKeyValueAccessTest::handle);
+		server.setExecutor(serverExecutor);
+		server.start();
+
+		uri = URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/test.n5");
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws IOException {
+
+		server.stop(0);
+		serverExecutor.shutdown();
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	@After
+	public void after() {
+
+		rangesSupported = true;
+	}
+
+	private static int[] data(final long[] gridPosition) {
+
+		final int[] data = new int[16 * 16];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = i + (int)(1000 * gridPosition[0] + 100 * gridPosition[1]);
+		return data;
+	}
+
+	/**
+	 * Serves files with support for HEAD and single range requests, and
+	 * directories if requested with a trailing '/'.
+	 */
+	private static void handle(final HttpExchange exchange) throws IOException {
+
+		try {
+			final String requestPath = exchange.getRequestURI().getPath();
+			final Path path = root.resolve(requestPath.substring(1));
+			final boolean head = exchange.getRequestMethod().equals("HEAD");
+
+			if (Files.isDirectory(path)) {
+				if (requestPath.endsWith("/"))
+					exchange.sendResponseHeaders(200, -1);
+				else {
+					exchange.getResponseHeaders().set("Location", requestPath + "/");
+					exchange.sendResponseHeaders(301, -1);
+				}
+				return;
+			}
+			if (!Files.isRegularFile(path)) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			final byte[] bytes = Files.readAllBytes(path);
+			int start = 0;
+			int end = bytes.length;
+			int code = 200;
+			final String range = exchange.getRequestHeaders().getFirst("Range");
+			if (range != null && rangesSupported) {
+				final Matcher matcher = RANGE.matcher(range);
+				if (matcher.matches()) {
+					start = Integer.parseInt(matcher.group(1));
+					if (start >= bytes.length) {
+						exchange.getResponseHeaders().set("Content-Range", "bytes */" + bytes.length);
+						exchange.sendResponseHeaders(416, -1);
+						return;
+					}
+					if (!matcher.group(2).isEmpty())
+						end = Math.min(end, Integer.parseInt(matcher.group(2)) + 1);
+					code = 206;
+					exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + bytes.length);
+				}
+			}
+
+			if (head || end == start)
+				exchange.sendResponseHeaders(code, -1);
+			else {
+				exchange.sendResponseHeaders(code, end - start);
+				try (final OutputStream out = exchange.getResponseBody()) {
+					out.write(bytes, start, end - start);
+				}
+				bytesServed.addAndGet(end - start);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static N5Reader reader(final HttpKeyValueAccess access) {
+
+		return new N5KeyValueReader(access, uri.toString(), new GsonBuilder(), false);
+	}
+
+	private static void testContainer(final N5Reader n5) {
+
+		assertTrue(n5.exists("/"));
+		assertTrue(n5.exists("a/b"));
+		assertFalse(n5.exists("c"));
+		assertTrue(n5.datasetExists("a/data"));
+		assertFalse(n5.datasetExists("a/b"));
+		assertEquals("http", n5.getAttribute("a", "name", String.class));
+
+		final DatasetAttributes readAttributes = n5.getDatasetAttributes("a/data");
+		assertArrayEquals(attributes.getDimensions(), readAttributes.getDimensions());
+		assertArrayEquals(data(new long[]{1, 2}), (int[])n5.readBlock("a/data", readAttributes, 1, 2).getData());
+		assertNull(n5.readBlock("a/data", readAttributes, 3, 3));
+
+		final DatasetAttributes readShardedAttributes = n5.getDatasetAttributes("a/sharded");
+		assertArrayEquals(shardedAttributes.getShardSize(), readShardedAttributes.getShardSize());
+		assertArrayEquals(data(new long[]{3, 3}), (int[])n5.readBlock("a/sharded", readShardedAttributes, 3, 3).getData());
+	}
+
+	@Test
+	public void testReadContainer() {
+
+		testContainer(reader(new HttpKeyValueAccess(uri)));
+	}
+
+	@Test
+	public void testServerIgnoresRange() {
+
+		rangesSupported = false;
+		testContainer(reader(new HttpKeyValueAccess(uri, 64, 10000, 10000)));
+	}
+
+	@Test
+	public void testSmallChunks() {
+
+		testContainer(reader(new HttpKeyValueAccess(uri, 16, 10000, 10000)));
+	}
+
+	@Test
+	public void testPartialShardRead() throws IOException {
+
+		final N5Reader n5 = reader(new HttpKeyValueAccess(uri, 256, 10000, 10000));
+		final DatasetAttributes readAttributes = n5.getDatasetAttributes("a/sharded");
+		final long shardSize = Files.size(root.resolve("test.n5/a/sharded/0/0"));
+
+		bytesServed.set(0);
+		assertArrayEquals(data(new long[]{2, 1}), (int[])n5.readBlock("a/sharded", readAttributes, 2, 1).getData());
+		assertTrue(bytesServed.get() < shardSize / 4);
+	}
+
+	@Test
+	public void testParallelReads() throws InterruptedException, ExecutionException {
+
+		final N5Reader n5 = reader(new HttpKeyValueAccess(uri));
+		final ExecutorService exec = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Boolean>> futures = new ArrayList<>();
+			for (int i = 0; i < 64; ++i) {
+				final long[] gridPosition = {i % 4, (i / 4) % 4};
+				final String dataset = i % 2 == 0 ? "a/data" : "a/sharded";
+				futures.add(exec.submit(() -> {
+					final DatasetAttributes readAttributes = n5.getDatasetAttributes(dataset);
+					final DataBlock<?> block = n5.readBlock(dataset, readAttributes, gridPosition);
+					return block == null ?
+							dataset.equals("a/data") && Arrays.equals(gridPosition, new long[]{3, 3}) :
+							Arrays.equals(data(gridPosition), (int[])block.getData());
+				}));
+			}
+			for (final Future<Boolean> future : futures)
+				assertTrue(future.get());
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testReadOnly() throws IOException {
+
+		final HttpKeyValueAccess access = new HttpKeyValueAccess(uri);
+		assertTrue(access.isFile("/test.n5/attributes.json"));
+		assertFalse(access.isFile("/test.n5/a"));
+		assertTrue(access.isDirectory("/test.n5/a"));
+		assertNull(access.tryLockForReading("/test.n5/missing"));
+		assertThrows(N5Exception.N5IOException.class, () -> access.lockForWriting("/test.n5/c"));
+		assertThrows(N5Exception.N5IOException.class, () -> access.delete("/test.n5"));
+		assertThrows(N5Exception.N5IOException.class, () -> access.list("/test.n5"));
+	}
+}
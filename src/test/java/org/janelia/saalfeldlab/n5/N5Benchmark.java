@@ -27,8 +27,11 @@ package org.janelia.saalfeldlab.n5;
 
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
@@ -36,11 +39,14 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.gson.GsonBuilder;
+
 import ch.systemsx.cisd.base.mdarray.MDShortArray;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
@@ -84,7 +90,8 @@ public class N5Benchmark {
 			new Bzip2Compression(),
 			new GzipCompression(),
 			new Lz4Compression(),
-			new XzCompression()
+			new XzCompression(),
+			new ZstdCompression()
 	};
 
 
@@ -221,6 +228,132 @@ public class N5Benchmark {
 		}
 	}
 
+	/**
+	 * Compares the size and speed of delta and shuffle filters in front of
+	 * the compressions on a single block.
+	 */
+//	@Test
+	public void benchmarkFilters() throws IOException {
+
+		final int nRepetitions = 20;
+
+		final ShortArrayDataBlock dataBlock = new ShortArrayDataBlock(new int[]{64, 64, 64}, new long[]{0, 0, 0}, data);
+		final ShortArrayDataBlock readBlock = new ShortArrayDataBlock(new int[]{64, 64, 64}, new long[]{0, 0, 0}, new short[data.length]);
+		for (final Compression compression : compressions) {
+			final Compression[] chains = {
+					compression,
+					new CodecChain(new DeltaFilter(), compression),
+					new CodecChain(new DeltaFilter(2), compression),
+					new CodecChain(new DeltaFilter(), new ShuffleCompression(), compression),
+					new CodecChain(new ShuffleCompression(), compression)
+			};
+			final String[] names = {"", "delta", "delta z", "delta shuffle", "shuffle"};
+			for (int c = 0; c < chains.length; ++c) {
+				final Compression chain = chains[c];
+				byte[] bytes = null;
+				long t = System.nanoTime();
+				for (int r = 0; r < nRepetitions; ++r) {
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+					chain.getWriter().write(dataBlock, out);
+					bytes = out.toByteArray();
+				}
+				final double writeTime = 1e-9 * (System.nanoTime() - t) / nRepetitions;
+				t = System.nanoTime();
+				for (int r = 0; r < nRepetitions; ++r)
+					chain.getReader().read(readBlock, new ByteArrayInputStream(bytes));
+				final double readTime = 1e-9 * (System.nanoTime() - t) / nRepetitions;
+				System.out.println(String.format("%s %s : %d bytes : write %fs : read %fs", compression.getType(), names[c], bytes.length, writeTime, readTime));
+			}
+		}
+	}
+
+	/**
+	 * Compares heap allocation and time per decoded gzip block of the pooled
+	 * {@link GzipCompression} streams with new commons-compress streams per
+	 * block.  Native zlib memory of the unpooled streams comes on top.
+	 */
+//	@Test
+	public void benchmarkGzipAllocation() throws IOException {
+
+		final int nWarmup = 200;
+		final int nRepetitions = 1000;
+
+		final ShortArrayDataBlock dataBlock = new ShortArrayDataBlock(new int[]{64, 64, 64}, new long[]{0, 0, 0}, data);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new GzipCompression().getWriter().write(dataBlock, out);
+		final byte[] bytes = out.toByteArray();
+
+		final DefaultBlockReader unpooled = in -> new GzipCompressorInputStream(in, true);
+		final BlockReader[] readers = {unpooled, new GzipCompression().getReader()};
+		final String[] names = {"new streams", "pooled"};
+
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		final ShortArrayDataBlock readBlock = new ShortArrayDataBlock(new int[]{64, 64, 64}, new long[]{0, 0, 0}, new short[data.length]);
+		for (int r = 0; r < readers.length; ++r) {
+			for (int i = 0; i < nWarmup; ++i)
+				readers[r].read(readBlock, new ByteArrayInputStream(bytes));
+
+			final long allocated = threads.getThreadAllocatedBytes(threadId);
+			final long t = System.nanoTime();
+			for (int i = 0; i < nRepetitions; ++i)
+				readers[r].read(readBlock, new ByteArrayInputStream(bytes));
+			final double time = 1e-9 * (System.nanoTime() - t) / nRepetitions;
+			final long bytesPerBlock = (threads.getThreadAllocatedBytes(threadId) - allocated) / nRepetitions;
+			System.out.println(String.format("gzip read %s : %d bytes allocated per block : %fs per block", names[r], bytesPerBlock, time));
+		}
+	}
+
+	@Test
+	public void benchmarkLockFreeReadingSpeed() {
+
+		final int nBlocks = 5;
+		final int nRepetitions = 10;
+
+		final String rawDatasetName = datasetName + ".read";
+		try {
+			n5.createDataset(rawDatasetName, new long[]{64 * nBlocks, 64 * nBlocks, 64 * nBlocks}, new int[]{64, 64, 64}, DataType.UINT16, new RawCompression());
+			final DatasetAttributes attributes = n5.getDatasetAttributes(rawDatasetName);
+			for (int z = 0; z < nBlocks; ++z)
+				for (int y = 0; y < nBlocks; ++y)
+					for (int x = 0; x < nBlocks; ++x)
+						n5.writeBlock(rawDatasetName, attributes, new ShortArrayDataBlock(new int[]{64, 64, 64}, new long[]{x, y, z}, data));
+		} catch (final N5Exception e) {
+			fail(e.getMessage());
+		}
+
+		for (int i = 1; i <= 16; i *= 2) {
+
+			System.out.println(i + " threads.");
+
+			final ExecutorService exec = Executors.newFixedThreadPool(i);
+			for (final boolean immutable : new boolean[]{false, true}) {
+				final ArrayList<Future<Boolean>> futures = new ArrayList<>();
+				final long t = System.currentTimeMillis();
+				try (final N5Reader n5Reader = new N5FSReader(testDirPath, new GsonBuilder(), false, immutable)) {
+					final DatasetAttributes attributes = n5Reader.getDatasetAttributes(rawDatasetName);
+					for (int r = 0; r < nRepetitions; ++r)
+						for (int z = 0; z < nBlocks; ++z)
+							for (int y = 0; y < nBlocks; ++y)
+								for (int x = 0; x < nBlocks; ++x) {
+									final long[] gridPosition = new long[]{x, y, z};
+									futures.add(
+											exec.submit(
+													() -> n5Reader.readBlock(rawDatasetName, attributes, gridPosition) != null));
+								}
+					for (final Future<Boolean> f : futures)
+						if (!f.get())
+							fail("Block missing.");
+
+					System.out.println(String.format("%d : %s : %fs", i, immutable ? "lock-free" : "locking", 0.001 * (System.currentTimeMillis() - t)));
+				} catch (final N5Exception | InterruptedException | ExecutionException e) {
+					fail(e.getMessage());
+				}
+			}
+			exec.shutdown();
+		}
+	}
+
 	@Test
 	public void benchmarkParallelWritingSpeed() {
 
@@ -0,0 +1,122 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystems;
+
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs the filesystem tests with a cache of decoded blocks.
+ */
+public class N5BlockCacheFSTest extends N5FSTest {
+
+	private static final FileSystemKeyValueAccess access = new FileSystemKeyValueAccess(FileSystems.getDefault());
+
+	@Override
+	protected N5Writer createN5Writer() throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, tempN5Location(), new GsonBuilder(), false, new DataBlockCache(1 << 24)) {
+
+			@Override
+			public void close() {
+
+				super.close();
+				remove();
+			}
+		};
+	}
+
+	@Override
+	protected N5Writer createN5Writer(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, location, gson, false, new DataBlockCache(1 << 24));
+	}
+
+	@Override
+	protected N5Reader createN5Reader(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		final N5KeyValueReader n5 = new N5KeyValueReader(access, location, gson, false, new DataBlockCache(1 << 24));
+		if (!n5.exists("/"))
+			throw new N5Exception.N5IOException("No container exists at " + location);
+		return n5;
+	}
+
+	@Test
+	public void testBlockCache() throws IOException, URISyntaxException {
+
+		try (final N5KeyValueWriter n5 = (N5KeyValueWriter)createN5Writer()) {
+			final DataBlockCache cache = n5.getBlockCache();
+			for (final DatasetAttributes attributes : new DatasetAttributes[]{
+					new DatasetAttributes(new long[]{8, 8}, new int[]{4, 4}, DataType.INT32, new GzipCompression()),
+					new DatasetAttributes(new long[]{8, 8}, new int[]{4, 4}, DataType.INT32, new GzipCompression(), new int[]{8, 8})}) {
+
+				final String dataset = attributes.isSharded() ? "sharded" : "blocks";
+				n5.createDataset(dataset, attributes);
+				final int[] data = new int[16];
+				data[0] = 1;
+				n5.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+
+				final long misses = cache.getMissCount();
+				final long hits = cache.getHitCount();
+				final DataBlock<?> block = n5.readBlock(dataset, attributes, 1, 1);
+				assertArrayEquals(data, (int[])block.getData());
+				assertArrayEquals(data, (int[])n5.readBlock(dataset, attributes, 1, 1).getData());
+				assertEquals(misses + 1, cache.getMissCount());
+				assertEquals(hits + 1, cache.getHitCount());
+
+				/* writing invalidates */
+				data[0] = 2;
+				n5.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+				assertArrayEquals(data, (int[])n5.readBlock(dataset, attributes, 1, 1).getData());
+
+				/* deleting invalidates */
+				n5.deleteBlock(dataset, 1, 1);
+				assertNull(n5.readBlock(dataset, attributes, 1, 1));
+
+				/* removing invalidates */
+				n5.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+				n5.readBlock(dataset, attributes, 1, 1);
+				n5.remove(dataset);
+				n5.createDataset(dataset, attributes);
+				assertNull(n5.readBlock(dataset, attributes, 1, 1));
+			}
+		}
+	}
+
+	@Test
+	public void testBlockCacheReturnsCopies() throws IOException, URISyntaxException {
+
+		try (final N5KeyValueWriter n5 = (N5KeyValueWriter)createN5Writer()) {
+			final DatasetAttributes attributes = new DatasetAttributes(new long[]{8, 8}, new int[]{4, 4}, DataType.INT32, new GzipCompression());
+			n5.createDataset("blocks", attributes);
+			final int[] data = new int[16];
+			data[0] = 1;
+			n5.writeBlock("blocks", attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+
+			/* modify the block of a miss and of a hit */
+			for (int i = 0; i < 2; ++i) {
+				final DataBlock<?> block = n5.readBlock("blocks", attributes, 1, 1);
+				((int[])block.getData())[0] = 2;
+				block.getGridPosition()[0] = 0;
+				final DataBlock<?> reread = n5.readBlock("blocks", attributes, 1, 1);
+				assertNotSame(block, reread);
+				assertArrayEquals(data, (int[])reread.getData());
+				assertArrayEquals(new long[]{1, 1}, reread.getGridPosition());
+			}
+			assertEquals(1, n5.getBlockCache().getMissCount());
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystems;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.janelia.saalfeldlab.n5.cache.BlockExistenceIndex;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs the filesystem tests with an index of existing blocks.
+ */
+public class N5BlockIndexFSTest extends N5FSTest {
+
+	private static final FileSystemKeyValueAccess access = new FileSystemKeyValueAccess(FileSystems.getDefault());
+
+	@Override
+	protected N5Writer createN5Writer() throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, tempN5Location(), new GsonBuilder(), false, null, new BlockExistenceIndex()) {
+
+			@Override
+			public void close() {
+
+				super.close();
+				remove();
+			}
+		};
+	}
+
+	@Override
+	protected N5Writer createN5Writer(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, location, gson, false, null, new BlockExistenceIndex());
+	}
+
+	@Override
+	protected N5Reader createN5Reader(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		final N5KeyValueReader n5 = new N5KeyValueReader(access, location, gson, false, null, new BlockExistenceIndex());
+		if (!n5.exists("/"))
+			throw new N5Exception.N5IOException("No container exists at " + location);
+		return n5;
+	}
+
+	private static Set<String> positions(final List<long[]> gridPositions) {
+
+		return gridPositions.stream().map(p -> p[0] + "," + p[1] + "," + p[2]).collect(Collectors.toSet());
+	}
+
+	@Test
+	public void testBlockIndex() throws IOException, URISyntaxException {
+
+		try (final N5KeyValueWriter n5 = (N5KeyValueWriter)createN5Writer()) {
+			final BlockExistenceIndex index = n5.getBlockIndex();
+			for (final DatasetAttributes attributes : new DatasetAttributes[]{
+					new DatasetAttributes(new long[]{64, 64, 64}, new int[]{4, 4, 4}, DataType.INT32, new RawCompression()),
+					new DatasetAttributes(new long[]{64, 64, 64}, new int[]{4, 4, 4}, DataType.INT32, new RawCompression(), new int[]{4, 4, 4})}) {
+
+				final String dataset = attributes.isSharded() ? "sharded" : "blocks";
+				n5.createDataset(dataset, attributes);
+				final int[] data = new int[64];
+				final Set<String> expected = new HashSet<>();
+				for (long i = 0; i < 16; i += 3) {
+					n5.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4, 4}, new long[]{i, 15 - i, i / 2}, data));
+					expected.add(i + "," + (15 - i) + "," + i / 2);
+				}
+
+				/* scanned when first read */
+				assertFalse(index.isIndexed(dataset));
+				assertNull(n5.readBlock(dataset, attributes, 1, 1, 1));
+				assertTrue(index.isIndexed(dataset));
+				assertEquals(expected, positions(n5.listBlocks(dataset, attributes)));
+
+				/* updated by writes and deletes */
+				n5.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4, 4}, new long[]{1, 1, 1}, data));
+				n5.deleteBlock(dataset, 0, 15, 0);
+				expected.add("1,1,1");
+				expected.remove("0,15,0");
+				assertNotNull(n5.readBlock(dataset, attributes, 1, 1, 1));
+				assertNull(n5.readBlock(dataset, attributes, 0, 15, 0));
+				assertEquals(expected, positions(n5.listBlocks(dataset, attributes)));
+
+				/* blocks written by other writers are not seen until the index is invalidated */
+				try (final N5Writer other = new N5KeyValueWriter(access, n5.getURI().getPath(), new GsonBuilder(), false)) {
+					other.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4, 4}, new long[]{2, 2, 2}, data));
+				}
+				assertNull(n5.readBlock(dataset, attributes, 2, 2, 2));
+				index.invalidate(dataset);
+				assertArrayEquals(data, (int[])n5.readBlock(dataset, attributes, 2, 2, 2).getData());
+
+				/* removing drops the index */
+				n5.remove(dataset);
+				assertFalse(index.isIndexed(dataset));
+				n5.createDataset(dataset, attributes);
+				assertTrue(n5.listBlocks(dataset, attributes).isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void testFailedWritesInvalidateIndex() throws IOException, URISyntaxException {
+
+		final AtomicBoolean fail = new AtomicBoolean();
+		final FileSystemKeyValueAccess failingAccess = new FileSystemKeyValueAccess(FileSystems.getDefault()) {
+
+			@Override
+			public LockedFileChannel lockForWriting(final String normalPath) throws IOException {
+
+				if (fail.get() && !normalPath.endsWith(".json"))
+					throw new IOException("write failure");
+				return super.lockForWriting(normalPath);
+			}
+		};
+
+		final String location = tempN5Location();
+		try (final N5KeyValueWriter n5 = new N5KeyValueWriter(failingAccess, location, new GsonBuilder(), false, null, new BlockExistenceIndex())) {
+			for (final DatasetAttributes attributes : new DatasetAttributes[]{
+					new DatasetAttributes(new long[]{16, 16}, new int[]{4, 4}, DataType.INT32, new RawCompression(), null, 0),
+					new DatasetAttributes(new long[]{16, 16}, new int[]{4, 4}, DataType.INT32, new RawCompression(), new int[]{8, 8}, 0)}) {
+
+				final String dataset = attributes.isSharded() ? "sharded" : "blocks";
+				n5.createDataset(dataset, attributes);
+				final int[] data = new int[16];
+				data[0] = 1;
+				assertNull(n5.readBlock(dataset, attributes, 0, 0));
+
+				/* failed writes drop the index of the dataset, the next read goes to storage */
+				fail.set(true);
+				try {
+					n5.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{0, 0}, data));
+					fail("Expected N5IOException");
+				} catch (final N5Exception.N5IOException e) {}
+				fail.set(false);
+				try (final N5KeyValueWriter other = new N5KeyValueWriter(failingAccess, location, new GsonBuilder(), false)) {
+					other.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{0, 0}, data));
+				}
+				assertArrayEquals(data, (int[])n5.readBlock(dataset, attributes, 0, 0).getData());
+
+				fail.set(true);
+				try (final BlockWritePipeline pipeline = new BlockWritePipeline(n5)) {
+					final CompletableFuture<Void> future = pipeline.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+					try {
+						future.join();
+						fail("Expected CompletionException");
+					} catch (final CompletionException e) {}
+					pipeline.close();
+				} catch (final N5Exception.N5IOException e) {}
+				fail.set(false);
+				try (final N5KeyValueWriter other = new N5KeyValueWriter(failingAccess, location, new GsonBuilder(), false)) {
+					other.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+				}
+				assertArrayEquals(data, (int[])n5.readBlock(dataset, attributes, 1, 1).getData());
+
+				n5.deleteBlock(dataset, 0, 0);
+				n5.deleteBlock(dataset, 1, 1);
+				assertTrue(n5.listBlocks(dataset, attributes).isEmpty());
+
+				/* filled blocks written by the pipeline are removed from the index */
+				n5.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+				assertEquals(1, n5.listBlocks(dataset, attributes).size());
+				try (final BlockWritePipeline pipeline = new BlockWritePipeline(n5)) {
+					pipeline.writeBlock(dataset, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, new int[16]));
+				}
+				assertTrue(n5.listBlocks(dataset, attributes).isEmpty());
+				assertNull(n5.readBlock(dataset, attributes, 1, 1));
+			}
+			n5.remove();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs the filesystem tests through a {@link CachingKeyValueAccess}.
+ */
+public class N5CachingKeyValueAccessFSTest extends N5FSTest {
+
+	private static final CachingKeyValueAccess access = new CachingKeyValueAccess(
+			new FileSystemKeyValueAccess(FileSystems.getDefault()),
+			1 << 24);
+
+	@Override
+	protected N5Writer createN5Writer() throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, tempN5Location(), new GsonBuilder(), false) {
+
+			@Override
+			public void close() {
+
+				super.close();
+				remove();
+			}
+		};
+	}
+
+	@Override
+	protected N5Writer createN5Writer(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, location, gson, false);
+	}
+
+	@Override
+	protected N5Reader createN5Reader(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		final N5KeyValueReader n5 = new N5KeyValueReader(access, location, gson, false);
+		if (!n5.exists("/"))
+			throw new N5Exception.N5IOException("No container exists at " + location);
+		return n5;
+	}
+
+	@Test
+	public void testCompressedBytesCache() throws IOException, URISyntaxException {
+
+		for (final boolean direct : new boolean[]{false, true}) {
+			final CachingKeyValueAccess cachingAccess = new CachingKeyValueAccess(
+					new FileSystemKeyValueAccess(FileSystems.getDefault()),
+					1 << 20,
+					direct);
+			try (final N5KeyValueWriter n5 = new N5KeyValueWriter(cachingAccess, tempN5Location(), new GsonBuilder(), false)) {
+				final DatasetAttributes attributes = new DatasetAttributes(new long[]{8, 8}, new int[]{4, 4}, DataType.INT32, new GzipCompression());
+				n5.createDataset("data", attributes);
+				final int[] data = new int[16];
+				data[0] = 1;
+				n5.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+
+				assertArrayEquals(data, (int[])n5.readBlock("data", attributes, 1, 1).getData());
+				final long hits = cachingAccess.getHitCount();
+
+				/* a hit does not touch the file system */
+				final String blockPath = n5.absoluteDataBlockPath("data", 1, 1);
+				final byte[] bytes = Files.readAllBytes(Paths.get(blockPath));
+				Files.delete(Paths.get(blockPath));
+				assertArrayEquals(data, (int[])n5.readBlock("data", attributes, 1, 1).getData());
+				assertEquals(hits + 1, cachingAccess.getHitCount());
+				assertTrue(cachingAccess.getHitRatio() > 0);
+
+				/* writing invalidates */
+				data[0] = 2;
+				n5.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+				assertArrayEquals(data, (int[])n5.readBlock("data", attributes, 1, 1).getData());
+
+				/* deleting invalidates */
+				n5.deleteBlock("data", 1, 1);
+				assertNull(n5.readBlock("data", attributes, 1, 1));
+
+				n5.remove();
+				assertEquals(0, cachingAccess.size());
+			}
+		}
+	}
+
+	@Test
+	public void testUncacheableValuesAreStreamed() throws IOException, URISyntaxException {
+
+		/* values of more than 64 bytes do not fit into any of the 16 segments */
+		final CachingKeyValueAccess cachingAccess = new CachingKeyValueAccess(
+				new FileSystemKeyValueAccess(FileSystems.getDefault()),
+				1 << 10);
+		try (final N5KeyValueWriter n5 = new N5KeyValueWriter(cachingAccess, tempN5Location(), new GsonBuilder(), false)) {
+			final DatasetAttributes attributes = new DatasetAttributes(new long[]{8, 8}, new int[]{4, 4}, DataType.INT32, new RawCompression());
+			n5.createDataset("data", attributes);
+			final int[] data = new int[16];
+			data[0] = 1;
+			n5.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{1, 1}, data));
+			final long size = cachingAccess.size();
+
+			for (int i = 0; i < 2; ++i)
+				assertArrayEquals(data, (int[])n5.readBlock("data", attributes, 1, 1).getData());
+			assertEquals(size, cachingAccess.size());
+
+			/* shards are read partially and not cached */
+			final DatasetAttributes sharded = new DatasetAttributes(new long[]{8, 8}, new int[]{1, 1}, DataType.INT8, new RawCompression(), new int[]{8, 8});
+			n5.createDataset("sharded", sharded);
+			n5.writeBlock("sharded", sharded, new ByteArrayDataBlock(new int[]{1, 1}, new long[]{3, 3}, new byte[]{7}));
+			final long shardedSize = cachingAccess.size();
+			assertArrayEquals(new byte[]{7}, (byte[])n5.readBlock("sharded", sharded, 3, 3).getData());
+			assertEquals(shardedSize, cachingAccess.size());
+
+			n5.remove();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs the filesystem tests with a {@link FileSystemKeyValueAccess} that
+ * writes atomically through temporary files.
+ */
+public class N5FSAtomicTest extends N5FSTest {
+
+	private static final FileSystemKeyValueAccess atomicAccess = new FileSystemKeyValueAccess(
+			FileSystems.getDefault(),
+			false,
+			true,
+			FileSystemKeyValueAccess.FsyncPolicy.FILE_AND_DIRECTORY);
+
+	@Override
+	protected N5Writer createN5Writer() throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(atomicAccess, tempN5Location(), new GsonBuilder(), false) {
+
+			@Override
+			public void close() {
+
+				super.close();
+				remove();
+			}
+		};
+	}
+
+	@Override
+	protected N5Writer createN5Writer(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(atomicAccess, location, gson, false);
+	}
+
+	@Test
+	public void testLockFreeReadsDuringAtomicWrites() throws IOException, URISyntaxException, InterruptedException, ExecutionException {
+
+		try (final N5Writer n5Writer = createN5Writer()) {
+
+			final DatasetAttributes attributes = new DatasetAttributes(new long[]{64, 64}, new int[]{64, 64}, DataType.INT32, new GzipCompression());
+			n5Writer.createDataset("data", attributes);
+
+			final int[][] versions = new int[2][64 * 64];
+			Arrays.fill(versions[0], 1);
+			Arrays.fill(versions[1], 2);
+			n5Writer.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{64, 64}, new long[]{0, 0}, versions[0]));
+
+			final N5Reader n5Reader = new N5FSReader(n5Writer.getURI().getPath(), new GsonBuilder(), false, true);
+			final ExecutorService exec = Executors.newSingleThreadExecutor();
+			final Future<Void> writes = exec.submit(() -> {
+				for (int i = 0; i < 200; ++i)
+					n5Writer.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{64, 64}, new long[]{0, 0}, versions[i % 2]));
+				return null;
+			});
+
+			while (!writes.isDone()) {
+				final int[] data = (int[])n5Reader.readBlock("data", attributes, 0, 0).getData();
+				assertTrue(Arrays.equals(versions[0], data) || Arrays.equals(versions[1], data));
+			}
+			writes.get();
+			exec.shutdown();
+
+			assertArrayEquals(versions[1], (int[])n5Reader.readBlock("data", attributes, 0, 0).getData());
+
+			/* no temporary files left behind */
+			final File[] files = new File(n5Writer.getURI().getPath(), "data/0").listFiles();
+			assertArrayEquals(new String[]{"0"}, Arrays.stream(files).map(File::getName).toArray());
+		}
+	}
+
+	@Test
+	public void testTempFilesAreNotListed() throws IOException, URISyntaxException {
+
+		try (final N5Writer n5 = createN5Writer()) {
+			final DatasetAttributes attributes = new DatasetAttributes(new long[]{64, 64}, new int[]{64, 64}, DataType.INT32, new GzipCompression());
+			n5.createDataset("data", attributes);
+			n5.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{64, 64}, new long[]{0, 0}, new int[64 * 64]));
+
+			/* a temporary file left behind by a crashed writer */
+			final File dir = new File(n5.getURI().getPath(), "data/0");
+			assertTrue(new File(dir, ".0." + UUID.randomUUID() + ".tmp").createNewFile());
+
+			assertArrayEquals(new String[]{"0"}, atomicAccess.list(dir.getPath()));
+			assertEquals(1, ((N5KeyValueWriter)n5).listBlocks("data", attributes).size());
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs the filesystem tests with readers that do not lock, see
+ * {@link ReadOnlyFileSystemKeyValueAccess}.
+ */
+public class N5FSImmutableTest extends N5FSTest {
+
+	@Override
+	protected N5Reader createN5Reader(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		return new N5FSReader(location, gson, false, true);
+	}
+
+	@Test
+	public void testImmutableReader() throws IOException, URISyntaxException {
+
+		try (final N5Writer n5Writer = createN5Writer()) {
+
+			final DatasetAttributes attributes = new DatasetAttributes(new long[]{4, 4}, new int[]{2, 2}, DataType.INT32, new RawCompression());
+			n5Writer.createDataset("data", attributes);
+			final int[] data = new int[]{1, 2, 3, 4};
+			n5Writer.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{2, 2}, new long[]{1, 0}, data));
+
+			try (final N5Reader n5Reader = createN5Reader(n5Writer.getURI().toString(), new GsonBuilder())) {
+
+				assertArrayEquals(data, (int[])n5Reader.readBlock("data", n5Reader.getDatasetAttributes("data"), 1, 0).getData());
+
+				final KeyValueAccess access = ((N5KeyValueReader)n5Reader).getKeyValueAccess();
+				final String path = access.compose(n5Writer.getURI(), "data", "1", "0");
+				assertThrows(N5Exception.N5IOException.class, () -> access.lockForWriting(path));
+				assertThrows(N5Exception.N5IOException.class, () -> access.delete(path));
+			}
+		}
+	}
+}
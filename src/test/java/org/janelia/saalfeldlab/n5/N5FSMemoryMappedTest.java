@@ -0,0 +1,49 @@
+package org.janelia.saalfeldlab.n5;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystems;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs the filesystem tests with a {@link FileSystemKeyValueAccess} that
+ * reads blocks from memory mapped files.
+ */
+public class N5FSMemoryMappedTest extends N5FSTest {
+
+	private static final FileSystemKeyValueAccess mappedAccess = new FileSystemKeyValueAccess(FileSystems.getDefault(), true);
+
+	@Override
+	protected N5Writer createN5Writer() throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(mappedAccess, tempN5Location(), new GsonBuilder(), false) {
+
+			@Override
+			public void close() {
+
+				super.close();
+				remove();
+			}
+		};
+	}
+
+	@Override
+	protected N5Writer createN5Writer(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(mappedAccess, location, gson, false);
+	}
+
+	@Override
+	protected N5Reader createN5Reader(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		final N5KeyValueReader n5 = new N5KeyValueReader(mappedAccess, location, gson, false);
+		if (!n5.exists("/"))
+			throw new N5Exception.N5IOException("No container exists at " + location);
+		return n5;
+	}
+}
@@ -25,27 +25,39 @@
  */
 package org.janelia.saalfeldlab.n5;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
 import org.janelia.saalfeldlab.n5.url.UrlAttributeTest;
 import org.junit.AfterClass;
 import org.junit.Test;
@@ -142,7 +154,415 @@ public class N5FSTest extends AbstractN5Test {
 		}
 	}
 
-//	@Test
+	@Test
+	public void testBlockWritePipeline() throws IOException, URISyntaxException {
+
+		try (final N5KeyValueWriter n5 = (N5KeyValueWriter)createN5Writer()) {
+			n5.createDataset(datasetName, dimensions, blockSize, DataType.INT32, new GzipCompression());
+			final DatasetAttributes attributes = n5.getDatasetAttributes(datasetName);
+
+			final ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
+			try (final BlockWritePipeline pipeline = new BlockWritePipeline(n5, 2, 2, 1)) {
+				for (int i = 0; i < 3; ++i)
+					for (int j = 0; j < 3; ++j) {
+						final int[] data = new int[blockNumElements];
+						Arrays.fill(data, 3 * i + j);
+						futures.add(pipeline.writeBlock(datasetName, attributes, new IntArrayDataBlock(blockSize, new long[]{i, j, 0}, data)));
+					}
+			}
+
+			for (final CompletableFuture<Void> future : futures)
+				assertTrue(future.isDone() && !future.isCompletedExceptionally());
+
+			for (int i = 0; i < 3; ++i)
+				for (int j = 0; j < 3; ++j) {
+					final int[] data = new int[blockNumElements];
+					Arrays.fill(data, 3 * i + j);
+					assertArrayEquals(data, (int[])n5.readBlock(datasetName, attributes, i, j, 0).getData());
+				}
+		}
+	}
+
+	/**
+	 * Raw compression whose writer fails with a runtime exception.
+	 */
+	private static class FailingCompression extends RawCompression {
+
+		@Override
+		public OutputStream getOutputStream(final OutputStream out) {
+
+			throw new IllegalStateException("codec failure");
+		}
+	}
+
+	/**
+	 * Raw compression whose writer waits until it is released.
+	 */
+	private static class BlockingCompression extends RawCompression {
+
+		final CountDownLatch started = new CountDownLatch(1);
+
+		final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public OutputStream getOutputStream(final OutputStream out) throws IOException {
+
+			started.countDown();
+			try {
+				released.await();
+			} catch (final InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return out;
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockWritePipelineFailures() throws IOException, URISyntaxException {
+
+		try (final N5KeyValueWriter n5 = (N5KeyValueWriter)createN5Writer()) {
+			n5.createDataset(datasetName, dimensions, blockSize, DataType.INT32, new RawCompression());
+			final DatasetAttributes attributes = n5.getDatasetAttributes(datasetName);
+			final DatasetAttributes failingAttributes = new DatasetAttributes(
+					dimensions,
+					blockSize,
+					DataType.INT32,
+					new FailingCompression());
+
+			final int[] data = new int[blockNumElements];
+			Arrays.fill(data, 1);
+			final BlockWritePipeline pipeline = new BlockWritePipeline(n5, 2, 2, 1);
+			final CompletableFuture<Void> written = pipeline.writeBlock(datasetName, attributes, new IntArrayDataBlock(blockSize, new long[]{0, 0, 0}, data));
+			final CompletableFuture<Void> failed1 = pipeline.writeBlock(datasetName, failingAttributes, new IntArrayDataBlock(blockSize, new long[]{1, 0, 0}, data));
+			final CompletableFuture<Void> failed2 = pipeline.writeBlock(datasetName, failingAttributes, new IntArrayDataBlock(blockSize, new long[]{2, 0, 0}, data));
+
+			try {
+				pipeline.close();
+				fail("Closing a pipeline with failed blocks should fail.");
+			} catch (final N5IOException e) {
+				assertEquals(2, e.getSuppressed().length);
+				for (final Throwable failure : e.getSuppressed())
+					assertTrue(failure.getCause() instanceof IllegalStateException);
+			}
+
+			assertTrue(written.isDone() && !written.isCompletedExceptionally());
+			assertTrue(failed1.isCompletedExceptionally());
+			assertTrue(failed2.isCompletedExceptionally());
+			assertArrayEquals(data, (int[])n5.readBlock(datasetName, attributes, 0, 0, 0).getData());
+			assertNull(n5.readBlock(datasetName, attributes, 1, 0, 0));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockWritePipelineBackpressure() throws IOException, URISyntaxException, InterruptedException {
+
+		try (final N5KeyValueWriter n5 = (N5KeyValueWriter)createN5Writer()) {
+			final BlockingCompression compression = new BlockingCompression();
+			n5.createDataset(datasetName, dimensions, blockSize, DataType.INT32, new RawCompression());
+			final DatasetAttributes attributes = new DatasetAttributes(dimensions, blockSize, DataType.INT32, compression);
+
+			final AtomicInteger queued = new AtomicInteger();
+			final CountDownLatch twoQueued = new CountDownLatch(2);
+			try (final BlockWritePipeline pipeline = new BlockWritePipeline(n5, 1, 1, 1)) {
+				final Thread producer = new Thread(() -> {
+					for (int i = 0; i < 4; ++i) {
+						pipeline.writeBlock(datasetName, attributes, new IntArrayDataBlock(blockSize, new long[]{i, 0, 0}, new int[blockNumElements]));
+						queued.incrementAndGet();
+						twoQueued.countDown();
+					}
+				});
+				producer.start();
+
+				/* one block is being encoded, one waits in the queue, the producer is blocked */
+				compression.started.await();
+				twoQueued.await();
+				assertEquals(2, queued.get());
+				assertTrue(producer.isAlive());
+
+				compression.released.countDown();
+				producer.join();
+				assertEquals(4, queued.get());
+			}
+
+			for (int i = 0; i < 4; ++i)
+				assertArrayEquals(new int[blockNumElements], (int[])n5.readBlock(datasetName, attributes, i, 0, 0).getData());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockWritePipelineOrder() throws IOException, URISyntaxException, InterruptedException {
+
+		try (final N5KeyValueWriter n5 = (N5KeyValueWriter)createN5Writer()) {
+			for (final int[] shardSize : new int[][]{null, {blockSize[0] * 2, blockSize[1], blockSize[2]}}) {
+				final DatasetAttributes attributes = new DatasetAttributes(dimensions, blockSize, DataType.INT32, new RawCompression(), shardSize);
+				n5.createDataset(datasetName, attributes);
+				final BlockingCompression compression = new BlockingCompression();
+				final DatasetAttributes slowAttributes = new DatasetAttributes(dimensions, blockSize, DataType.INT32, compression, shardSize);
+
+				final int[] first = new int[blockNumElements];
+				final int[] second = new int[blockNumElements];
+				Arrays.fill(first, 1);
+				Arrays.fill(second, 2);
+				try (final BlockWritePipeline pipeline = new BlockWritePipeline(n5, 2, 2, 2)) {
+					/* the first block is encoded after the second was written */
+					final CompletableFuture<Void> firstWritten = pipeline.writeBlock(datasetName, slowAttributes, new IntArrayDataBlock(blockSize, new long[]{0, 0, 0}, first));
+					compression.started.await();
+					pipeline.writeBlock(datasetName, attributes, new IntArrayDataBlock(blockSize, new long[]{0, 0, 0}, second)).join();
+					compression.released.countDown();
+					firstWritten.join();
+				}
+				assertArrayEquals(second, (int[])n5.readBlock(datasetName, attributes, 0, 0, 0).getData());
+				n5.remove(datasetName);
+			}
+		}
+	}
+
+	@Test
+	public void testShardedBlocks() throws IOException, URISyntaxException {
+
+		try (final N5Writer n5 = createN5Writer()) {
+			final DatasetAttributes attributes = new DatasetAttributes(
+					new long[]{8, 8},
+					new int[]{2, 2},
+					DataType.INT32,
+					new GzipCompression(),
+					new int[]{4, 4});
+			n5.createDataset(datasetName, attributes);
+			assertArrayEquals(new int[]{4, 4}, n5.getDatasetAttributes(datasetName).getShardSize());
+
+			final ArrayList<IntArrayDataBlock> blocks = new ArrayList<>();
+			for (int y = 0; y < 4; ++y)
+				for (int x = 0; x < 4; ++x)
+					if ((x + y) % 2 == 0)
+						blocks.add(new IntArrayDataBlock(new int[]{2, 2}, new long[]{x, y}, new int[]{x, y, x + y, 4 * y + x}));
+
+			/* one write per shard */
+			n5.writeBlocks(datasetName, attributes, blocks.subList(1, blocks.size()));
+			/* read-modify-write of a single block */
+			n5.writeBlock(datasetName, attributes, blocks.get(0));
+
+			try (final N5Reader n5Reader = createN5Reader(n5.getURI().toString(), new GsonBuilder())) {
+				final DatasetAttributes readAttributes = n5Reader.getDatasetAttributes(datasetName);
+				for (final IntArrayDataBlock block : blocks)
+					assertArrayEquals(block.getData(), (int[])n5Reader.readBlock(datasetName, readAttributes, block.getGridPosition()).getData());
+				assertNull(n5Reader.readBlock(datasetName, readAttributes, 1, 0));
+				assertNull(n5Reader.readBlock(datasetName, readAttributes, 5, 5));
+			}
+
+			/* 2x2 shards in a 4x4 grid of blocks */
+			final File datasetDir = new File(n5.getURI().getPath(), datasetName);
+			assertEquals(2, datasetDir.list((dir, name) -> !name.equals("attributes.json")).length);
+			for (final File dir : datasetDir.listFiles(File::isDirectory))
+				assertEquals(2, dir.list().length);
+
+			n5.deleteBlock(datasetName, 0, 0);
+			assertNull(n5.readBlock(datasetName, attributes, 0, 0));
+			assertArrayEquals(blocks.get(1).getData(), (int[])n5.readBlock(datasetName, attributes, 2, 0).getData());
+
+			n5.deleteBlock(datasetName, 1, 1);
+			n5.deleteBlock(datasetName, 0, 0);
+			n5.deleteBlock(datasetName, 7, 7);
+			assertNull(n5.readBlock(datasetName, attributes, 1, 1));
+			assertArrayEquals(blocks.get(1).getData(), (int[])n5.readBlock(datasetName, attributes, 2, 0).getData());
+
+			/* concurrent writes into the same shards */
+			try (final BlockWritePipeline pipeline = new BlockWritePipeline((GsonKeyValueN5Writer)n5, 2, 2, 1)) {
+				for (int y = 0; y < 4; ++y)
+					for (int x = 0; x < 4; ++x)
+						pipeline.writeBlock(datasetName, attributes, new IntArrayDataBlock(new int[]{2, 2}, new long[]{x, y}, new int[]{x, y, 0, 0}));
+			}
+			for (int y = 0; y < 4; ++y)
+				for (int x = 0; x < 4; ++x)
+					assertArrayEquals(new int[]{x, y, 0, 0}, (int[])n5.readBlock(datasetName, attributes, x, y).getData());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockWritePipelineBatchesShards() throws IOException, URISyntaxException, InterruptedException {
+
+		final CountDownLatch firstWrite = new CountDownLatch(1);
+		final CountDownLatch released = new CountDownLatch(1);
+		final AtomicInteger shardWrites = new AtomicInteger();
+		final FileSystemKeyValueAccess countingAccess = new FileSystemKeyValueAccess(FileSystems.getDefault()) {
+
+			@Override
+			public LockedFileChannel lockForWriting(final String normalPath) throws IOException {
+
+				if (normalPath.endsWith("0/0") && shardWrites.getAndIncrement() == 0) {
+					firstWrite.countDown();
+					try {
+						released.await();
+					} catch (final InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				return super.lockForWriting(normalPath);
+			}
+		};
+
+		final N5KeyValueWriter n5 = new N5KeyValueWriter(countingAccess, tempN5Location(), new GsonBuilder(), false);
+		try {
+			final DatasetAttributes attributes = new DatasetAttributes(
+					new long[]{8, 8},
+					new int[]{2, 2},
+					DataType.INT32,
+					new GzipCompression(),
+					new int[]{8, 8});
+			n5.createDataset(datasetName, attributes);
+
+			try (final BlockWritePipeline pipeline = new BlockWritePipeline(n5, 2, 1, 16)) {
+				for (int y = 0; y < 4; ++y)
+					for (int x = 0; x < 4; ++x)
+						pipeline.writeBlock(datasetName, attributes, new IntArrayDataBlock(new int[]{2, 2}, new long[]{x, y}, new int[]{x, y, 1, 1}));
+
+				/* blocks that arrive while a batch is written are written together in the next batch */
+				firstWrite.await();
+				while (pipeline.encoders.getCompletedTaskCount() < 16)
+					Thread.sleep(10);
+				released.countDown();
+			}
+			assertTrue(shardWrites.get() <= 2);
+
+			for (int y = 0; y < 4; ++y)
+				for (int x = 0; x < 4; ++x)
+					assertArrayEquals(new int[]{x, y, 1, 1}, (int[])n5.readBlock(datasetName, attributes, x, y).getData());
+		} finally {
+			n5.remove();
+			n5.close();
+		}
+	}
+
+	@Test
+	public void testCorruptShardIndex() throws IOException, URISyntaxException {
+
+		try (final N5Writer n5 = createN5Writer()) {
+			final DatasetAttributes attributes = new DatasetAttributes(
+					new long[]{4, 4},
+					new int[]{2, 2},
+					DataType.INT32,
+					new RawCompression(),
+					new int[]{4, 4});
+			n5.createDataset(datasetName, attributes);
+			n5.writeBlock(datasetName, attributes, new IntArrayDataBlock(new int[]{2, 2}, new long[]{0, 0}, new int[]{1, 2, 3, 4}));
+			n5.writeBlock(datasetName, attributes, new IntArrayDataBlock(new int[]{2, 2}, new long[]{1, 0}, new int[]{5, 6, 7, 8}));
+
+			/* the deleted block is removed from the shard without reading the attributes */
+			assertTrue(n5.deleteBlock(datasetName, attributes, 1, 0));
+			assertNull(n5.readBlock(datasetName, attributes, 1, 0));
+
+			final Path shard = Paths.get(n5.getURI().getPath(), datasetName, "0", "0");
+			final byte[] bytes = Files.readAllBytes(shard);
+			for (final long offset : new long[]{Long.MAX_VALUE, -1, 0, bytes.length}) {
+				final ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+				corrupt.putLong(0, offset);
+				Files.write(shard, corrupt.array());
+				try {
+					n5.readBlock(datasetName, attributes, 0, 0);
+					fail("Reading a block from a corrupt shard should fail.");
+				} catch (final N5IOException e) {}
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidDatasetAttributes() throws IOException, URISyntaxException {
+
+		try (final N5Writer n5 = createN5Writer()) {
+			n5.createDataset(datasetName, new DatasetAttributes(new long[]{8, 8}, new int[]{4, 4}, DataType.INT8, new RawCompression()));
+
+			n5.setAttribute(datasetName, DatasetAttributes.SHARD_SIZE_KEY, new int[]{6, 8});
+			try {
+				n5.getDatasetAttributes(datasetName);
+				fail("A shard size that is not a multiple of the block size should fail.");
+			} catch (final N5Exception e) {}
+			assertInvalidDatasetExists(n5);
+
+			n5.setAttribute(datasetName, DatasetAttributes.SHARD_SIZE_KEY, new int[]{8, 8});
+			n5.setAttribute(datasetName, DatasetAttributes.FILL_VALUE_KEY, "zero");
+			try {
+				n5.getDatasetAttributes(datasetName);
+				fail("A fill value that is not a number should fail.");
+			} catch (final N5Exception e) {}
+			assertInvalidDatasetExists(n5);
+		}
+	}
+
+	/**
+	 * A dataset with invalid attributes exists for caching and non-caching
+	 * writers, the error is reported when its attributes are read.
+	 */
+	private void assertInvalidDatasetExists(final N5Writer n5) {
+
+		assertTrue(n5.datasetExists(datasetName));
+		for (final boolean cacheAttributes : new boolean[]{true, false}) {
+			try (final N5Writer writer = new N5FSWriter(n5.getURI().getPath(), new GsonBuilder(), cacheAttributes)) {
+				assertTrue(writer.exists(datasetName));
+				assertTrue(writer.datasetExists(datasetName));
+				try {
+					writer.deleteBlock(datasetName, 0, 0);
+					fail("Deleting a block of a dataset with invalid attributes should fail.");
+				} catch (final N5Exception e) {}
+			}
+		}
+	}
+
+	@Test
+	public void testFillValueElision() throws IOException, URISyntaxException {
+
+		try (final N5Writer n5 = createN5Writer()) {
+			for (final DatasetAttributes attributes : new DatasetAttributes[]{
+					new DatasetAttributes(new long[]{6, 4}, new int[]{4, 4}, DataType.UINT16, new GzipCompression(), null, 65535),
+					new DatasetAttributes(new long[]{6, 4}, new int[]{4, 4}, DataType.FLOAT64, new RawCompression(), new int[]{8, 4}, -1.5)}) {
+
+				n5.createDataset(datasetName, attributes);
+				final DatasetAttributes readAttributes = n5.getDatasetAttributes(datasetName);
+				assertEquals(attributes.getFillValue(), readAttributes.getFillValue());
+
+				final DataBlock<?> filled = readAttributes.getDataType().createDataBlock(new int[]{4, 4}, new long[]{0, 0});
+				final DataBlock<?> data = readAttributes.getDataType().createDataBlock(new int[]{4, 4}, new long[]{0, 0});
+				if (filled.getData() instanceof short[]) {
+					Arrays.fill((short[])filled.getData(), (short)-1);
+					Arrays.fill((short[])data.getData(), (short)-1);
+					((short[])data.getData())[15] = 0;
+				} else {
+					Arrays.fill((double[])filled.getData(), -1.5);
+					Arrays.fill((double[])data.getData(), -1.5);
+					((double[])data.getData())[15] = 0;
+				}
+
+				/* a filled block replaces a stored block by deleting it */
+				n5.writeBlock(datasetName, readAttributes, data);
+				assertArrayEquals(new long[]{0, 0}, n5.readBlock(datasetName, readAttributes, 0, 0).getGridPosition());
+				n5.writeBlock(datasetName, readAttributes, filled);
+				assertNull(n5.readBlock(datasetName, readAttributes, 0, 0));
+				if (!readAttributes.isSharded())
+					assertTrue(!new File(n5.getURI().getPath(), datasetName + "/0/0").exists());
+
+				/* missing blocks can be read as filled blocks, cropped at the border */
+				final DataBlock<?> block = n5.readBlockOrFill(datasetName, readAttributes, 1, 0);
+				assertArrayEquals(new int[]{2, 4}, block.getSize());
+				if (block.getData() instanceof short[]) {
+					final short[] expected = new short[8];
+					Arrays.fill(expected, (short)-1);
+					assertArrayEquals(expected, (short[])block.getData());
+				} else {
+					final double[] expected = new double[8];
+					Arrays.fill(expected, -1.5);
+					assertArrayEquals(expected, (double[])block.getData(), 0);
+				}
+				n5.remove(datasetName);
+			}
+
+			/* without a fill value, all blocks are stored */
+			final DatasetAttributes attributes = new DatasetAttributes(new long[]{4, 4}, new int[]{4, 4}, DataType.INT32, new RawCompression());
+			n5.createDataset(datasetName, attributes);
+			n5.writeBlock(datasetName, attributes, new IntArrayDataBlock(new int[]{4, 4}, new long[]{0, 0}, new int[16]));
+			assertArrayEquals(new int[16], (int[])n5.readBlock(datasetName, attributes, 0, 0).getData());
+			assertNull(n5.readBlockOrFill(datasetName, attributes, 1, 1));
+		}
+	}
+
+	@Test
 	public void testReadLock() throws IOException, InterruptedException {
 
 		final Path path = Paths.get(tempN5PathName(), "lock");
@@ -175,7 +595,7 @@ public class N5FSTest extends AbstractN5Test {
 		exec.shutdownNow();
 	}
 
-//	@Test
+	@Test
 	public void testWriteLock() throws IOException {
 
 		final Path path = Paths.get(tempN5PathName(), "lock");
@@ -0,0 +1,143 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Runs the standard tests against an {@link InMemoryKeyValueAccess}.
+ */
+public class N5InMemoryTest extends AbstractN5Test {
+
+	private static final InMemoryKeyValueAccess access = new InMemoryKeyValueAccess();
+
+	@Override
+	protected String tempN5Location() {
+
+		return InMemoryKeyValueAccess.SCHEME + ":/n5-test-" + UUID.randomUUID() + ".n5";
+	}
+
+	@Override
+	protected N5Writer createN5Writer() throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, tempN5Location(), new GsonBuilder(), false) {
+
+			@Override
+			public void close() {
+
+				super.close();
+				remove();
+			}
+		};
+	}
+
+	@Override
+	protected N5Writer createN5Writer(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		return new N5KeyValueWriter(access, location, gson, false);
+	}
+
+	@Override
+	protected N5Reader createN5Reader(
+			final String location,
+			final GsonBuilder gson) throws IOException, URISyntaxException {
+
+		final N5KeyValueReader n5 = new N5KeyValueReader(access, location, gson, false);
+		if (!n5.exists("/"))
+			throw new N5Exception.N5IOException("No container exists at " + location);
+		return n5;
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+
+		final Path spillDirectory = Files.createTempDirectory("n5-spill-test-");
+		try {
+			final InMemoryKeyValueAccess boundedAccess = new InMemoryKeyValueAccess(1024, spillDirectory);
+			final N5Writer n5 = new N5KeyValueWriter(boundedAccess, "/test.n5", new GsonBuilder(), false);
+			final DatasetAttributes attributes = new DatasetAttributes(
+					new long[]{64, 64},
+					new int[]{32, 32},
+					DataType.UINT8,
+					new RawCompression());
+			n5.createDataset("data", attributes);
+
+			final byte[] data = new byte[32 * 32];
+			for (int i = 0; i < data.length; ++i)
+				data[i] = (byte)i;
+			for (long x = 0; x < 2; ++x)
+				n5.writeBlock("data", attributes, new ByteArrayDataBlock(new int[]{32, 32}, new long[]{x, 0}, data));
+
+			assertTrue(boundedAccess.getBytes() <= 1024);
+			try (final Stream<Path> files = Files.list(spillDirectory)) {
+				assertTrue(files.count() > 0);
+			}
+
+			for (long x = 0; x < 2; ++x)
+				assertArrayEquals(data, (byte[])n5.readBlock("data", attributes, x, 0).getData());
+
+			n5.remove();
+			assertEquals(0, boundedAccess.getBytes());
+			try (final Stream<Path> files = Files.list(spillDirectory)) {
+				assertEquals(0, files.count());
+			}
+		} finally {
+			FileUtils.deleteDirectory(spillDirectory.toFile());
+		}
+	}
+
+	@Test
+	public void testTryLockForReadingWhileDeleting() throws IOException, InterruptedException, ExecutionException {
+
+		final InMemoryKeyValueAccess memoryAccess = new InMemoryKeyValueAccess();
+		final String path = "/race/value";
+		final ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Void> writes = exec.submit(() -> {
+				for (int i = 0; i < 2000; ++i) {
+					try (final LockedChannel lock = memoryAccess.lockForWriting(path);
+							final OutputStream out = lock.newOutputStream()) {
+						out.write(42);
+					}
+					memoryAccess.delete(path);
+				}
+				return null;
+			});
+
+			/* a concurrent delete yields null, never an exception */
+			while (!writes.isDone()) {
+				try (final LockedChannel lock = memoryAccess.tryLockForReading(path)) {
+					if (lock != null)
+						try (final InputStream in = lock.newInputStream()) {
+							assertEquals(42, in.read());
+						}
+				}
+			}
+			writes.get();
+			assertNull(memoryAccess.tryLockForReading(path));
+		} finally {
+			exec.shutdown();
+		}
+	}
+}
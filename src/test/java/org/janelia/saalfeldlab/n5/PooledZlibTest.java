@@ -0,0 +1,161 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.junit.Test;
+
+public class PooledZlibTest {
+
+	private static byte[] data(final int seed) {
+
+		final Random random = new Random(seed);
+		final byte[] data = new byte[100000 + random.nextInt(1000)];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = (byte)(i / 100 + random.nextInt(4));
+		return data;
+	}
+
+	private interface Compressor {
+
+		OutputStream create(OutputStream out) throws IOException;
+	}
+
+	private interface Decompressor {
+
+		InputStream create(InputStream in) throws IOException;
+	}
+
+	private static byte[] compress(final Compressor factory, final byte[] data) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final OutputStream os = factory.create(out)) {
+			os.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] decompress(final Decompressor factory, final byte[] bytes) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final InputStream is = factory.create(new ByteArrayInputStream(bytes))) {
+			final byte[] buffer = new byte[1000];
+			for (int n = is.read(buffer); n != -1; n = is.read(buffer))
+				out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+
+		final byte[] data = data(0);
+		for (final int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION}) {
+			final GzipParameters parameters = new GzipParameters();
+			parameters.setCompressionLevel(level);
+
+			/* same bytes as the commons-compress streams used before */
+			final byte[] gzip = compress(out -> PooledZlib.deflate(out, level, true), data);
+			assertArrayEquals(compress(out -> new GzipCompressorOutputStream(out, parameters), data), gzip);
+
+			assertArrayEquals(data, decompress(in -> new GZIPInputStream(in), gzip));
+			assertArrayEquals(data, decompress(in -> new GzipCompressorInputStream(in, true), gzip));
+			assertArrayEquals(data, decompress(in -> PooledZlib.inflate(in, true), gzip));
+		}
+	}
+
+	@Test
+	public void testGzipMembers() throws IOException {
+
+		final byte[] data = data(1);
+		final int half = data.length / 2;
+
+		/* a member with file name and comment followed by a member without */
+		final GzipParameters parameters = new GzipParameters();
+		parameters.setFilename("block");
+		parameters.setComment("comment");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final OutputStream os = new GzipCompressorOutputStream(out, parameters)) {
+			os.write(data, 0, half);
+		}
+		try (final OutputStream os = new GZIPOutputStream(out)) {
+			os.write(data, half, data.length - half);
+		}
+
+		assertArrayEquals(data, decompress(in -> PooledZlib.inflate(in, true), out.toByteArray()));
+	}
+
+	@Test
+	public void testZlib() throws IOException {
+
+		final byte[] data = data(2);
+		for (final int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION}) {
+			final byte[] zlib = compress(out -> PooledZlib.deflate(out, level, false), data);
+			assertArrayEquals(compress(out -> new DeflaterOutputStream(out, new Deflater(level)), data), zlib);
+
+			assertArrayEquals(data, decompress(in -> new InflaterInputStream(in), zlib));
+			assertArrayEquals(data, decompress(in -> PooledZlib.inflate(in, false), zlib));
+		}
+	}
+
+	@Test
+	public void testCorrupt() throws IOException {
+
+		final byte[] data = data(3);
+		final byte[] gzip = compress(out -> PooledZlib.deflate(out, 6, true), data);
+
+		final byte[] crc = gzip.clone();
+		crc[crc.length - 6] ^= 1;
+		final byte[] truncated = Arrays.copyOf(gzip, gzip.length - 100);
+		final byte[] notGzip = data.clone();
+		for (final byte[] bytes : new byte[][]{crc, truncated, notGzip, new byte[0]}) {
+			try {
+				decompress(in -> PooledZlib.inflate(in, true), bytes);
+				fail("Corrupt gzip data should fail.");
+			} catch (final IOException e) {}
+		}
+
+		/* the pooled state is still usable */
+		assertArrayEquals(data, decompress(in -> PooledZlib.inflate(in, true), gzip));
+	}
+
+	@Test
+	public void testConcurrentReuse() throws Exception {
+
+		final ExecutorService exec = Executors.newFixedThreadPool(8);
+		final ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 64; ++i) {
+			final int seed = i;
+			futures.add(exec.submit(() -> {
+				final byte[] data = data(seed);
+				final boolean gzip = seed % 2 == 0;
+				final byte[] bytes = compress(out -> PooledZlib.deflate(out, seed % 10, gzip), data);
+				assertArrayEquals(data, decompress(in -> PooledZlib.inflate(in, gzip), bytes));
+				return null;
+			}));
+		}
+		for (final Future<?> f : futures)
+			f.get();
+		exec.shutdown();
+	}
+}
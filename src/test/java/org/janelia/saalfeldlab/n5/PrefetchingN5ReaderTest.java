@@ -0,0 +1,168 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+public class PrefetchingN5ReaderTest {
+
+	private static final String location = "/prefetch.n5";
+
+	private static final DatasetAttributes attributes = new DatasetAttributes(
+			new long[]{64, 64},
+			new int[]{8, 8},
+			DataType.INT32,
+			new RawCompression());
+
+	private InMemoryKeyValueAccess access;
+
+	private ExecutorService executor;
+
+	private final AtomicInteger reads = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+
+		access = new InMemoryKeyValueAccess();
+		try (final N5Writer n5 = new N5KeyValueWriter(access, location, new GsonBuilder(), false)) {
+			n5.createDataset("data", attributes);
+			for (long y = 0; y < 8; ++y)
+				for (long x = 0; x < 8; ++x)
+					n5.writeBlock("data", attributes, new IntArrayDataBlock(new int[]{8, 8}, new long[]{x, y}, data(x, y)));
+		}
+		executor = Executors.newFixedThreadPool(2);
+		reads.set(0);
+	}
+
+	@After
+	public void tearDown() {
+
+		executor.shutdown();
+	}
+
+	private static int[] data(final long x, final long y) {
+
+		final int[] data = new int[64];
+		data[0] = (int)(100 * y + x);
+		return data;
+	}
+
+	private PrefetchingN5Reader reader(final long ttlMillis) {
+
+		final N5Reader n5 = new N5KeyValueReader(access, location, new GsonBuilder(), false) {
+
+			@Override
+			public DataBlock<?> readBlock(final String pathName, final DatasetAttributes datasetAttributes, final long... gridPosition) {
+
+				reads.incrementAndGet();
+				return super.readBlock(pathName, datasetAttributes, gridPosition);
+			}
+		};
+		return new PrefetchingN5Reader(n5, executor, 4, 16, ttlMillis);
+	}
+
+	private static void read(final N5Reader n5, final long x, final long y) {
+
+		assertArrayEquals(data(x, y), (int[])n5.readBlock("data", attributes, x, y).getData());
+	}
+
+	@Test
+	public void testRasterScan() {
+
+		try (final PrefetchingN5Reader n5 = reader(60000)) {
+			for (long y = 0; y < 8; ++y)
+				for (long x = 0; x < 8; ++x)
+					read(n5, x, y);
+
+			/* the first three blocks establish the stride, every block is loaded once */
+			assertEquals(61, n5.getUsefulCount());
+			assertEquals(61, n5.getIssuedCount());
+			assertEquals(64, reads.get());
+			n5.close();
+			assertEquals(0, n5.getWastedCount());
+		}
+	}
+
+	@Test
+	public void testTileScan() {
+
+		try (final PrefetchingN5Reader n5 = reader(60000)) {
+			for (long y = 2; y < 6; ++y)
+				for (long x = 2; x < 6; ++x)
+					read(n5, x, y);
+
+			/* the extent of rows is known after the first row */
+			assertTrue(n5.getUsefulCount() >= 11);
+			n5.close();
+			/* dropped prefetches may or may not have been loaded */
+			assertTrue(reads.get() <= 16 + n5.getWastedCount());
+			assertEquals(n5.getIssuedCount(), n5.getUsefulCount() + n5.getWastedCount());
+		}
+	}
+
+	@Test
+	public void testSliceScan() {
+
+		try (final PrefetchingN5Reader n5 = reader(60000)) {
+			for (long x = 0; x < 8; ++x)
+				for (long y = 0; y < 8; ++y)
+					read(n5, x, y);
+
+			/* columns are not swept, but a constant stride is prefetched */
+			assertTrue(n5.getUsefulCount() >= 40);
+		}
+	}
+
+	@Test
+	public void testExpiry() throws InterruptedException {
+
+		try (final PrefetchingN5Reader n5 = reader(10)) {
+			read(n5, 0, 0);
+			read(n5, 1, 0);
+			read(n5, 2, 0);
+			assertEquals(4, n5.getIssuedCount());
+
+			Thread.sleep(50);
+			read(n5, 5, 5);
+			assertEquals(4, n5.getWastedCount());
+			assertEquals(0, n5.getUsefulCount());
+		}
+	}
+
+	@Test
+	public void testFailedPrefetches() {
+
+		/* prefetches fail, reads on the calling thread do not */
+		final Thread caller = Thread.currentThread();
+		final N5Reader failing = new N5KeyValueReader(access, location, new GsonBuilder(), false) {
+
+			@Override
+			public DataBlock<?> readBlock(final String pathName, final DatasetAttributes datasetAttributes, final long... gridPosition) {
+
+				if (Thread.currentThread() != caller)
+					throw new N5Exception("prefetch failed");
+				return super.readBlock(pathName, datasetAttributes, gridPosition);
+			}
+		};
+		try (final PrefetchingN5Reader n5 = new PrefetchingN5Reader(failing, executor, 4, 16, 60000)) {
+			for (long x = 0; x < 8; ++x)
+				read(n5, x, 0);
+
+			/* failed prefetches are read again and not counted as useful */
+			assertTrue(n5.getIssuedCount() > 0);
+			assertEquals(0, n5.getUsefulCount());
+			n5.close();
+			assertEquals(n5.getIssuedCount(), n5.getWastedCount());
+		}
+	}
+}
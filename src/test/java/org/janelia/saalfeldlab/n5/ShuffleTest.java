@@ -0,0 +1,99 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class ShuffleTest {
+
+	@Test
+	public void testTranspose() {
+
+		final Random random = new Random(42);
+		for (int k = 0; k < 1000; ++k) {
+			final long x = random.nextLong();
+			long expected = 0;
+			for (int i = 0; i < 8; ++i)
+				for (int j = 0; j < 8; ++j)
+					if ((x & (1L << (8 * i + j))) != 0)
+						expected |= 1L << (8 * j + i);
+			assertEquals(expected, Shuffle.transpose(x));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() {
+
+		final Random random = new Random(42);
+		for (final int elementSize : new int[]{1, 2, 4, 8})
+			for (final int length : new int[]{0, 1, 7, 8, 63, 64, 100, 4099}) {
+				final byte[] src = new byte[length];
+				random.nextBytes(src);
+				final byte[] shuffled = new byte[length];
+				final byte[] unshuffled = new byte[length];
+
+				Shuffle.byteShuffle(src, shuffled, elementSize);
+				Shuffle.byteUnshuffle(shuffled, unshuffled, elementSize);
+				assertArrayEquals(src, unshuffled);
+
+				Shuffle.bitShuffle(src, shuffled, elementSize);
+				Shuffle.bitUnshuffle(shuffled, unshuffled, elementSize);
+				assertArrayEquals(src, unshuffled);
+			}
+	}
+
+	@Test
+	public void testByteShuffle() {
+
+		final byte[] shuffled = new byte[6];
+		Shuffle.byteShuffle(new byte[]{1, 2, 3, 4, 5, 6}, shuffled, 2);
+		assertArrayEquals(new byte[]{1, 3, 5, 2, 4, 6}, shuffled);
+	}
+
+	private static byte[] write(final Compression compression, final DataBlock<?> block) throws IOException {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compression.getWriter().write(block, out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testCompression() throws IOException {
+
+		/* smooth 16 bit intensities with noise in the low bits */
+		final Random random = new Random(42);
+		final short[] data = new short[64 * 64];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = (short)(1000 + 20 * Math.sin(i / 200.0) + random.nextInt(4));
+		final ShortArrayDataBlock block = new ShortArrayDataBlock(new int[]{64, 64}, new long[]{0, 0}, data);
+
+		final byte[] gzip = write(new GzipCompression(), block);
+		for (final boolean bitShuffle : new boolean[]{false, true}) {
+			final ShuffleCompression compression = new ShuffleCompression(new GzipCompression(), bitShuffle);
+			final byte[] shuffled = write(compression, block);
+			assertTrue(shuffled.length < gzip.length);
+
+			final ShortArrayDataBlock read = new ShortArrayDataBlock(new int[]{64, 64}, new long[]{0, 0}, new short[data.length]);
+			compression.getReader().read(read, new ByteArrayInputStream(shuffled));
+			assertArrayEquals(data, read.getData());
+		}
+	}
+
+	@Test
+	public void testAttributes() {
+
+		final Compression compression = new ShuffleCompression(new GzipCompression(5), true);
+		final Gson gson = GsonUtils.registerGson(new GsonBuilder());
+		assertEquals(compression, gson.fromJson(gson.toJson(compression, Compression.class), Compression.class));
+	}
+}
@@ -0,0 +1,161 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.cache.DataBlockCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+public class WriteBehindN5WriterTest {
+
+	private static final String location = "/write-behind.n5";
+
+	private static final DatasetAttributes attributes = new DatasetAttributes(
+			new long[]{64, 64},
+			new int[]{8, 8},
+			DataType.INT32,
+			new RawCompression());
+
+	private InMemoryKeyValueAccess access;
+
+	private final AtomicInteger writes = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+
+		access = new InMemoryKeyValueAccess();
+		writes.set(0);
+	}
+
+	private WriteBehindN5Writer writer(final long maxDirtyBytes, final long maxAgeMillis) {
+
+		final N5Writer n5 = new N5KeyValueWriter(access, location, new GsonBuilder(), false) {
+
+			@Override
+			public <T> void writeBlock(final String path, final DatasetAttributes datasetAttributes, final DataBlock<T> dataBlock) {
+
+				writes.incrementAndGet();
+				super.writeBlock(path, datasetAttributes, dataBlock);
+			}
+		};
+		n5.createDataset("data", attributes);
+		return new WriteBehindN5Writer(n5, maxDirtyBytes, maxAgeMillis);
+	}
+
+	private static DataBlock<int[]> block(final long x, final long y, final int value) {
+
+		final int[] data = new int[64];
+		data[0] = value;
+		return new IntArrayDataBlock(new int[]{8, 8}, new long[]{x, y}, data);
+	}
+
+	private static int value(final N5Reader n5, final long x, final long y) {
+
+		return ((int[])n5.readBlock("data", attributes, x, y).getData())[0];
+	}
+
+	@Test
+	public void testCoalescing() {
+
+		try (final WriteBehindN5Writer n5 = writer(1 << 20, 60000)) {
+			final DataBlock<int[]> block = block(1, 2, 0);
+			for (int i = 0; i < 10; ++i) {
+				block.getData()[0] = i;
+				n5.writeBlock("data", attributes, block);
+			}
+			assertEquals(1, n5.getDirtyCount());
+			assertEquals(9, n5.getCoalescedCount());
+			assertEquals(0, writes.get());
+
+			/* dirty blocks are read through the writer */
+			assertEquals(9, value(n5, 1, 2));
+			assertNull(n5.readBlock("data", attributes, 2, 2));
+
+			n5.flush();
+			assertEquals(1, writes.get());
+			assertEquals(0, n5.getDirtyCount());
+			assertEquals(0, n5.getDirtyBytes());
+			assertEquals(9, value(n5.getWriter(), 1, 2));
+		}
+	}
+
+	@Test
+	public void testDelete() {
+
+		try (final WriteBehindN5Writer n5 = writer(1 << 20, 60000)) {
+			n5.writeBlock("data", attributes, block(0, 0, 1));
+			n5.flush();
+			n5.writeBlock("data", attributes, block(0, 0, 2));
+			assertTrue(n5.deleteBlock("data", 0, 0));
+			assertNull(n5.readBlock("data", attributes, 0, 0));
+			assertEquals(1, value(n5.getWriter(), 0, 0));
+
+			n5.flush();
+			assertNull(n5.getWriter().readBlock("data", attributes, 0, 0));
+			assertEquals(1, writes.get());
+		}
+	}
+
+	@Test
+	public void testRemove() {
+
+		try (final WriteBehindN5Writer n5 = writer(1 << 20, 60000)) {
+			n5.writeBlock("data", attributes, block(0, 0, 1));
+			n5.writeBlock("data", attributes, block(1, 0, 1));
+			assertTrue(n5.remove("data"));
+			assertEquals(0, n5.getDirtyCount());
+			n5.flush();
+			assertEquals(0, writes.get());
+			assertFalse(n5.exists("data"));
+		}
+	}
+
+	@Test
+	public void testClose() {
+
+		final WriteBehindN5Writer n5 = writer(1 << 20, 60000);
+		for (long x = 0; x < 8; ++x)
+			n5.writeBlock("data", attributes, block(x, 0, (int)x));
+		n5.close();
+		assertEquals(8, writes.get());
+		assertEquals(8, n5.getFlushedCount());
+		try (final N5Reader reader = new N5KeyValueReader(access, location, new GsonBuilder(), false)) {
+			for (long x = 0; x < 8; ++x)
+				assertEquals(x, value(reader, x, 0));
+		}
+	}
+
+	@Test
+	public void testMaxAge() throws InterruptedException {
+
+		try (final WriteBehindN5Writer n5 = writer(1 << 20, 20)) {
+			n5.writeBlock("data", attributes, block(0, 0, 1));
+			for (int i = 0; i < 100 && n5.getDirtyCount() > 0; ++i)
+				Thread.sleep(10);
+			assertEquals(0, n5.getDirtyCount());
+			assertEquals(1, writes.get());
+		}
+	}
+
+	@Test
+	public void testMaxDirtyBytes() {
+
+		final long blockBytes = DataBlockCache.sizeOf(block(0, 0, 0));
+		try (final WriteBehindN5Writer n5 = writer(4 * blockBytes, 60000)) {
+			for (long y = 0; y < 8; ++y)
+				for (long x = 0; x < 8; ++x) {
+					n5.writeBlock("data", attributes, block(x, y, (int)(x + y)));
+					/* writing threads write dirty blocks themselves at twice the threshold */
+					assertTrue(n5.getDirtyBytes() <= 8 * blockBytes);
+				}
+			assertTrue(writes.get() > 0);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package org.janelia.saalfeldlab.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+public class ZipKeyValueAccessTest {
+
+	private static Path tmpDir;
+
+	private static Path container;
+
+	private static final DatasetAttributes attributes = new DatasetAttributes(
+			new long[]{64, 32},
+			new int[]{32, 32},
+			DataType.INT32,
+			new GzipCompression());
+
+	private static final int[] data = new int[32 * 32];
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws IOException {
+
+		tmpDir = Files.createTempDirectory("n5-zip-test-");
+		container = tmpDir.resolve("test.n5");
+
+		for (int i = 0; i < data.length; ++i)
+			data[i] = i * 7;
+
+		try (final N5Writer n5 = new N5FSWriter(container.toString())) {
+			n5.createGroup("a/b");
+			n5.createDataset("a/data", attributes);
+			n5.setAttribute("a", "name", "zip");
+			n5.writeBlock("a/data", attributes, new IntArrayDataBlock(new int[]{32, 32}, new long[]{1, 0}, data));
+		}
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws IOException {
+
+		FileUtils.deleteDirectory(tmpDir.toFile());
+	}
+
+	private static Path zip(final String name, final int method) throws IOException {
+
+		final Path archive = tmpDir.resolve(name);
+		final List<Path> paths;
+		try (final Stream<Path> walk = Files.walk(container)) {
+			paths = walk.sorted().collect(Collectors.toList());
+		}
+		try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+			zip.setMethod(method);
+			for (final Path path : paths) {
+				final String entryName = tmpDir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+				if (Files.isDirectory(path)) {
+					/* leave directory entries implicit for the dataset */
+					if (!entryName.endsWith("data"))
+						putEntry(zip, entryName + "/", new byte[0], method);
+				} else
+					putEntry(zip, entryName, Files.readAllBytes(path), method);
+			}
+		}
+		return archive;
+	}
+
+	private static void putEntry(final ZipOutputStream zip, final String name, final byte[] bytes, final int method) throws IOException {
+
+		final ZipEntry entry = new ZipEntry(name);
+		if (method == ZipEntry.STORED) {
+			final CRC32 crc = new CRC32();
+			crc.update(bytes);
+			entry.setSize(bytes.length);
+			entry.setCompressedSize(bytes.length);
+			entry.setCrc(crc.getValue());
+		}
+		zip.putNextEntry(entry);
+		zip.write(bytes);
+		zip.closeEntry();
+	}
+
+	private static void testReader(final ZipKeyValueAccess access) throws IOException {
+
+		try (final N5Reader n5 = new N5KeyValueReader(access, "/test.n5", new GsonBuilder(), false)) {
+			assertTrue(n5.exists("a/b"));
+			assertTrue(n5.datasetExists("a/data"));
+			assertFalse(n5.exists("c"));
+			assertEquals(new HashSet<>(Arrays.asList("b", "data")), new HashSet<>(Arrays.asList(n5.list("a"))));
+			assertEquals("zip", n5.getAttribute("a", "name", String.class));
+
+			final DatasetAttributes readAttributes = n5.getDatasetAttributes("a/data");
+			assertArrayEquals(attributes.getDimensions(), readAttributes.getDimensions());
+			assertArrayEquals(data, (int[])n5.readBlock("a/data", readAttributes, 1, 0).getData());
+			assertNull(n5.readBlock("a/data", readAttributes, 0, 0));
+		}
+
+		assertThrows(N5Exception.N5IOException.class, () -> access.lockForWriting("/test.n5/c"));
+		assertThrows(N5Exception.N5IOException.class, () -> access.createDirectories("/test.n5/c"));
+		assertThrows(N5Exception.N5IOException.class, () -> access.delete("/test.n5"));
+		assertNull(access.tryLockForReading("/test.n5/c"));
+	}
+
+	@Test
+	public void testStored() throws IOException {
+
+		try (final ZipKeyValueAccess access = new ZipKeyValueAccess(zip("stored.zip", ZipEntry.STORED))) {
+			testReader(access);
+			try (final LockedChannel lock = access.lockForReading("/test.n5/a/data/1/0")) {
+				assertNull(lock.newByteBuffer());
+			}
+		}
+	}
+
+	@Test
+	public void testStoredMemoryMapped() throws IOException {
+
+		try (final ZipKeyValueAccess access = new ZipKeyValueAccess(zip("mapped.zip", ZipEntry.STORED), true)) {
+			testReader(access);
+			final byte[] expected = Files.readAllBytes(container.resolve("a/data/1/0"));
+			try (final LockedChannel lock = access.lockForReading("/test.n5/a/data/1/0")) {
+				final ByteBuffer buffer = lock.newByteBuffer();
+				assertNotNull(buffer);
+				final byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				assertArrayEquals(expected, bytes);
+			}
+		}
+	}
+
+	@Test
+	public void testDeflated() throws IOException {
+
+		try (final ZipKeyValueAccess access = new ZipKeyValueAccess(zip("deflated.zip", ZipEntry.DEFLATED), true)) {
+			testReader(access);
+			try (final LockedChannel lock = access.lockForReading("/test.n5/a/data/1/0")) {
+				assertNull(lock.newByteBuffer());
+			}
+		}
+	}
+
+	@Test
+	public void testZip64() throws IOException {
+
+		final Path archive = tmpDir.resolve("zip64.zip");
+		final int n = 0x10000 + 10;
+		try (final ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+			zip.setMethod(ZipEntry.STORED);
+			for (int i = 0; i < n; ++i)
+				putEntry(zip, "many/" + i, new byte[]{(byte)i}, ZipEntry.STORED);
+		}
+
+		try (final ZipKeyValueAccess access = new ZipKeyValueAccess(archive)) {
+			assertEquals(n, access.list("/many").length);
+			assertArrayEquals(new String[]{"many"}, access.listDirectories("/"));
+			try (final LockedChannel lock = access.lockForReading("many/" + (n - 1));
+					final InputStream in = lock.newInputStream()) {
+				assertEquals((n - 1) & 0xff, in.read());
+				assertEquals(-1, in.read());
+			}
+		}
+	}
+
+	@Test
+	public void testNoArchive() throws IOException {
+
+		final Path file = tmpDir.resolve("no.zip");
+		try (final OutputStream out = Files.newOutputStream(file)) {
+			out.write(new byte[100]);
+		}
+		assertThrows(IOException.class, () -> new ZipKeyValueAccess(file));
+	}
+}
@@ -0,0 +1,118 @@
+package org.janelia.saalfeldlab.n5.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.junit.Test;
+
+public class DataBlockCacheTest {
+
+	private static DataBlock<?> block(final long x) {
+
+		return block(x, (byte)0);
+	}
+
+	private static DataBlock<?> block(final long x, final byte value) {
+
+		final byte[] data = new byte[1000];
+		Arrays.fill(data, value);
+		return new ByteArrayDataBlock(new int[]{1000}, new long[]{x}, data);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+
+		final long blockBytes = DataBlockCache.sizeOf(block(0));
+		final DataBlockCache cache = new DataBlockCache(3 * blockBytes, 1);
+		final AtomicInteger loads = new AtomicInteger();
+
+		for (long x = 0; x < 3; ++x) {
+			final long[] gridPosition = {x};
+			cache.get("a", gridPosition, () -> {
+				loads.incrementAndGet();
+				return block(gridPosition[0]);
+			});
+		}
+		assertEquals(3, cache.size());
+		assertEquals(3 * blockBytes, cache.getBytes());
+
+		/* touch 0, then load 3, which evicts 1 */
+		cache.get("a", new long[]{0}, () -> null);
+		cache.get("a", new long[]{3}, () -> block(3));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(4, cache.getMissCount());
+
+		assertNull(cache.get("a", new long[]{1}, () -> null));
+		assertEquals(2, cache.get("a", new long[]{2}, () -> null).getGridPosition()[0]);
+	}
+
+	@Test
+	public void testOversizedBlocks() {
+
+		final DataBlockCache cache = new DataBlockCache(100, 1);
+		cache.get("a", new long[]{0}, () -> block(0));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testInvalidation() {
+
+		final DataBlockCache cache = new DataBlockCache(1 << 20);
+		final DataBlock<?> a = block(0, (byte)1);
+		final DataBlock<?> b = block(0, (byte)2);
+		final DataBlock<?> c = block(0, (byte)3);
+		cache.get("group/a", new long[]{0}, () -> a);
+		cache.get("group/b", new long[]{0}, () -> b);
+		cache.get("groupc", new long[]{0}, () -> c);
+		assertEquals(3, cache.size());
+
+		cache.invalidate("group/a", new long[]{0});
+		assertArrayEquals((byte[])b.getData(), (byte[])cache.get("group/b", new long[]{0}, () -> null).getData());
+		assertNull(cache.get("group/a", new long[]{0}, () -> null));
+
+		cache.invalidateAll("group");
+		assertEquals(1, cache.size());
+		assertArrayEquals((byte[])c.getData(), (byte[])cache.get("groupc", new long[]{0}, () -> null).getData());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testInvalidationDuringLoad() {
+
+		final DataBlockCache cache = new DataBlockCache(1 << 20, 1);
+		final DataBlock<?> stale = block(0, (byte)1);
+		assertArrayEquals((byte[])stale.getData(), (byte[])cache.get("a", new long[]{0}, () -> {
+			/* a writer replaces the block while it is being loaded */
+			cache.invalidate("a", new long[]{0});
+			return stale;
+		}).getData());
+		final DataBlock<?> fresh = block(0, (byte)2);
+		assertArrayEquals((byte[])fresh.getData(), (byte[])cache.get("a", new long[]{0}, () -> fresh).getData());
+	}
+
+	@Test
+	public void testCopies() {
+
+		final DataBlockCache cache = new DataBlockCache(1 << 20, 1);
+		final DataBlock<?> a = block(0, (byte)1);
+		final DataBlock<?> loaded = cache.get("a", new long[]{0}, () -> a);
+		assertNotSame(a, loaded);
+		((byte[])loaded.getData())[0] = 2;
+		final DataBlock<?> hit = cache.get("a", new long[]{0}, () -> null);
+		assertNotSame(loaded, hit);
+		assertArrayEquals((byte[])a.getData(), (byte[])hit.getData());
+	}
+}
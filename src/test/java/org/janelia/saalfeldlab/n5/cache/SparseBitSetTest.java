@@ -0,0 +1,70 @@
+package org.janelia.saalfeldlab.n5.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class SparseBitSetTest {
+
+	@Test
+	public void testRandom() {
+
+		final Random random = new Random(42);
+		final SparseBitSet set = new SparseBitSet();
+		final TreeSet<Long> expected = new TreeSet<>();
+
+		/* dense and sparse regions to exercise both container types */
+		for (int i = 0; i < 100000; ++i) {
+			final long value = random.nextBoolean()
+					? random.nextInt(1 << 14)
+					: (Math.abs(random.nextLong()) >>> 8);
+			if (random.nextInt(4) == 0)
+				assertEquals(expected.remove(value), set.remove(value));
+			else
+				assertEquals(expected.add(value), set.add(value));
+		}
+		assertEquals(expected.size(), set.cardinality());
+		for (int i = 0; i < 10000; ++i) {
+			final long value = random.nextInt(1 << 15);
+			assertEquals(expected.contains(value), set.contains(value));
+		}
+
+		final List<Long> values = new ArrayList<>();
+		set.forEach(values::add);
+		assertEquals(new ArrayList<>(expected), values);
+
+		/* remove everything, dense containers convert back to arrays */
+		for (final long value : expected)
+			assertTrue(set.remove(value));
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(0));
+	}
+
+	@Test
+	public void testMemory() {
+
+		final SparseBitSet sparse = new SparseBitSet();
+		for (long i = 0; i < 1000; ++i)
+			sparse.add(i * 1000003L);
+		assertTrue(sparse.getBytes() < 1000 * 100);
+
+		final SparseBitSet dense = new SparseBitSet();
+		for (long i = 0; i < 1 << 20; ++i)
+			dense.add(i);
+		/* a bit per value */
+		assertTrue(dense.getBytes() < (1 << 20) / 8 + 4096);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegative() {
+
+		new SparseBitSet().add(-1);
+	}
+}